@@ -192,6 +192,11 @@ public final class BookCoverProvider implements BookCoverProviderType
     if (snap_opt.isSome()) {
       final BookDatabaseEntrySnapshot snap =
         ((Some<BookDatabaseEntrySnapshot>) snap_opt).get();
+      final OptionType<File> thumb_opt = snap.getThumbnail();
+      if (thumb_opt.isSome()) {
+        final Some<File> some = (Some<File>) thumb_opt;
+        return Option.some(NullCheck.notNull(some.get().toURI()));
+      }
       final OptionType<File> cover_opt = snap.getCover();
       if (cover_opt.isSome()) {
         final Some<File> some = (Some<File>) cover_opt;
@@ -0,0 +1,125 @@
+package org.nypl.simplified.app;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.books.core.LogUtilities;
+import org.nypl.simplified.downloader.core.DownloadNetworkCondition;
+import org.nypl.simplified.downloader.core.DownloadNetworkConditionProviderType;
+import org.nypl.simplified.downloader.core.DownloadSchedulerType;
+import org.slf4j.Logger;
+
+/**
+ * A provider of the network condition based on the Android connectivity
+ * service.
+ */
+
+public final class NetworkConditionProvider
+  implements DownloadNetworkConditionProviderType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LogUtilities.getLog(NetworkConditionProvider.class);
+  }
+
+  private final ConnectivityManager connectivity;
+
+  private NetworkConditionProvider(final ConnectivityManager in_connectivity)
+  {
+    this.connectivity = NullCheck.notNull(in_connectivity);
+  }
+
+  /**
+   * @param in_context An application context
+   *
+   * @return A new provider
+   */
+
+  public static NetworkConditionProvider newProvider(final Context in_context)
+  {
+    return new NetworkConditionProvider(
+      (ConnectivityManager) in_context.getSystemService(
+        Context.CONNECTIVITY_SERVICE));
+  }
+
+  @Override public DownloadNetworkCondition networkGetCondition()
+  {
+    final NetworkInfo info = this.connectivity.getActiveNetworkInfo();
+    if (info == null || info.isConnected() == false) {
+      return new DownloadNetworkCondition(false, false, -1L);
+    }
+
+    final boolean metered = this.connectivity.isActiveNetworkMetered();
+    return new DownloadNetworkCondition(
+      true, metered, this.estimateBandwidth(info.getType()));
+  }
+
+  /**
+   * The active network cannot be retrieved directly on all supported API
+   * levels, so the bandwidth is taken from the first connected network of the
+   * same type as the active network.
+   */
+
+  private long estimateBandwidth(final int type)
+  {
+    for (final Network n : this.connectivity.getAllNetworks()) {
+      final NetworkInfo ni = this.connectivity.getNetworkInfo(n);
+      if (ni == null || ni.isConnected() == false || ni.getType() != type) {
+        continue;
+      }
+
+      final NetworkCapabilities caps =
+        this.connectivity.getNetworkCapabilities(n);
+      if (caps == null) {
+        continue;
+      }
+
+      final int kbps = caps.getLinkDownstreamBandwidthKbps();
+      if (kbps > 0) {
+        return ((long) kbps * 1000L) / 8L;
+      }
+    }
+    return -1L;
+  }
+
+  /**
+   * Tell the given scheduler whenever a network becomes available, is lost,
+   * or changes its capabilities.
+   *
+   * @param scheduler The download scheduler
+   */
+
+  public void notifyScheduler(final DownloadSchedulerType scheduler)
+  {
+    NullCheck.notNull(scheduler);
+
+    this.connectivity.registerNetworkCallback(
+      new NetworkRequest.Builder().build(),
+      new ConnectivityManager.NetworkCallback()
+      {
+        @Override public void onAvailable(final Network network)
+        {
+          NetworkConditionProvider.LOG.debug("network available");
+          scheduler.schedulerNetworkChanged();
+        }
+
+        @Override public void onLost(final Network network)
+        {
+          NetworkConditionProvider.LOG.debug("network lost");
+          scheduler.schedulerNetworkChanged();
+        }
+
+        @Override public void onCapabilitiesChanged(
+          final Network network,
+          final NetworkCapabilities capabilities)
+        {
+          scheduler.schedulerNetworkChanged();
+        }
+      });
+  }
+}
@@ -2,6 +2,7 @@ package org.nypl.simplified.app;
 
 import android.app.Application;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.res.AssetManager;
 import android.content.res.Resources;
 import android.net.ConnectivityManager;
@@ -9,6 +10,7 @@ import android.net.NetworkInfo;
 import android.os.Environment;
 import android.util.DisplayMetrics;
 import com.io7m.jfunctional.FunctionType;
+import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
 import com.io7m.jfunctional.Some;
 import com.io7m.jfunctional.Unit;
@@ -32,11 +34,17 @@ import org.nypl.simplified.books.core.AccountSyncListenerType;
 import org.nypl.simplified.books.core.AccountsDatabase;
 import org.nypl.simplified.books.core.AccountsDatabaseType;
 import org.nypl.simplified.books.core.AuthenticationDocumentValuesType;
+import org.nypl.simplified.books.core.BookBlobStore;
+import org.nypl.simplified.books.core.BookBlobStoreType;
 import org.nypl.simplified.books.core.BookDatabase;
 import org.nypl.simplified.books.core.BookDatabaseEntrySnapshot;
 import org.nypl.simplified.books.core.BookDatabaseReadableType;
 import org.nypl.simplified.books.core.BookDatabaseType;
 import org.nypl.simplified.books.core.BookID;
+import org.nypl.simplified.books.core.BookStorageManager;
+import org.nypl.simplified.books.core.BookStorageManagerType;
+import org.nypl.simplified.books.core.BookDownloadJournal;
+import org.nypl.simplified.books.core.BookDownloadJournalType;
 import org.nypl.simplified.books.core.BooksController;
 import org.nypl.simplified.books.core.BooksControllerConfigurationType;
 import org.nypl.simplified.books.core.BooksType;
@@ -50,12 +58,34 @@ import org.nypl.simplified.books.core.FeedLoader;
 import org.nypl.simplified.books.core.FeedLoaderType;
 import org.nypl.simplified.books.core.LogUtilities;
 import org.nypl.simplified.bugsnag.IfBugsnag;
+import org.nypl.simplified.downloader.core.DownloadNetworkPolicy;
+import org.nypl.simplified.downloader.core.DownloadPacing;
+import org.nypl.simplified.downloader.core.DownloadPacingProfile;
+import org.nypl.simplified.downloader.core.DownloadPacingType;
+import org.nypl.simplified.downloader.core.DownloadScheduler;
+import org.nypl.simplified.downloader.core.DownloadSchedulerConfiguration;
+import org.nypl.simplified.downloader.core.DownloadSchedulerStatistics;
+import org.nypl.simplified.downloader.core.DownloadSchedulerType;
+import org.nypl.simplified.downloader.core.DownloaderConfiguration;
 import org.nypl.simplified.downloader.core.DownloaderHTTP;
 import org.nypl.simplified.downloader.core.DownloaderType;
 import org.nypl.simplified.files.DirectoryUtilities;
 import org.nypl.simplified.http.core.HTTP;
 import org.nypl.simplified.http.core.HTTPAuthType;
+import org.nypl.simplified.http.core.HTTPConnectionWarmer;
+import org.nypl.simplified.http.core.HTTPConnectionWarmerType;
+import org.nypl.simplified.http.core.HTTPMetricsAggregator;
+import org.nypl.simplified.http.core.HTTPMetricsAggregatorType;
+import org.nypl.simplified.http.core.HTTPRequestClass;
+import org.nypl.simplified.http.core.HTTPRequestListenerType;
+import org.nypl.simplified.http.core.HTTPRequestMetrics;
+import org.nypl.simplified.http.core.HTTPRetryConfiguration;
+import org.nypl.simplified.http.core.HTTPRetrying;
+import org.nypl.simplified.http.core.HTTPScheduler;
+import org.nypl.simplified.http.core.HTTPSchedulerConfiguration;
+import org.nypl.simplified.http.core.HTTPSchedulerType;
 import org.nypl.simplified.http.core.HTTPType;
+import org.nypl.simplified.http.core.HTTPURITemplate;
 import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntryParser;
 import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntryParserType;
 import org.nypl.simplified.opds.core.OPDSAuthenticationDocumentParser;
@@ -81,6 +111,7 @@ import java.net.URI;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -96,6 +127,16 @@ public final class Simplified extends Application
     LOG = LogUtilities.getLog(Simplified.class);
   }
 
+  /**
+   * While a book is being read, downloads are limited to 256KiB/s from the
+   * network and 128KiB/s to disk, so that they do not hold up the reader's
+   * own requests for book resources on slow storage.
+   */
+
+  private static final DownloadPacingProfile DOWNLOAD_PACING_READING =
+    new DownloadPacingProfile(256L * 1024L, 128L * 1024L);
+
+  private final     DownloadPacingType download_pacing;
   private @Nullable CatalogAppServices app_services;
   private @Nullable ReaderAppServices  reader_services;
 
@@ -105,7 +146,9 @@ public final class Simplified extends Application
 
   public Simplified()
   {
-
+    this.download_pacing = DownloadPacing.newPacing(
+      DownloadPacingProfile.getUnlimited(),
+      Simplified.DOWNLOAD_PACING_READING);
   }
 
   private static Simplified checkInitialized()
@@ -175,11 +218,12 @@ public final class Simplified extends Application
     final ExecutorService exec,
     final BookDatabaseReadableType db,
     final HTTPType http,
+    final HTTPRequestListenerType http_listener,
     final OPDSSearchParserType s,
     final OPDSFeedParserType p)
   {
     final OPDSFeedTransportType<OptionType<HTTPAuthType>> t =
-      FeedHTTPTransport.newTransport(http);
+      FeedHTTPTransport.newTransportWithListener(http, http_listener);
     return FeedLoader.newFeedLoader(exec, db, p, t, s);
   }
 
@@ -230,7 +274,10 @@ public final class Simplified extends Application
       return as;
     }
     as = new CatalogAppServices(
-      this, this, NullCheck.notNull(this.getResources()));
+      this,
+      this,
+      NullCheck.notNull(this.getResources()),
+      this.download_pacing);
     this.app_services = as;
     return as;
   }
@@ -241,7 +288,8 @@ public final class Simplified extends Application
     if (as != null) {
       return as;
     }
-    as = new ReaderAppServices(this, NullCheck.notNull(this.getResources()));
+    as = new ReaderAppServices(
+      this, NullCheck.notNull(this.getResources()), this.download_pacing);
     this.reader_services = as;
     return as;
   }
@@ -274,6 +322,33 @@ public final class Simplified extends Application
   {
     private static final Logger LOG_CA;
 
+    /**
+     * Record one in every four requests in the HTTP metrics.
+     */
+
+    private static final int HTTP_METRICS_SAMPLE_INTERVAL = 4;
+
+    /**
+     * The name of the preferences that may override debug resources at
+     * runtime, and the key of the connection pre-warming override.
+     */
+
+    private static final String DEBUG_PREFERENCES = "debug";
+    private static final String DEBUG_HTTP_PREWARM = "http_prewarm";
+
+    /**
+     * The number of books that may be downloaded at once. Each download may
+     * use one extra connection for a second segment.
+     */
+
+    private static final int DOWNLOAD_CONCURRENCY = 2;
+
+    /**
+     * The number of books from a single host that may be downloaded at once.
+     */
+
+    private static final int DOWNLOAD_CONCURRENCY_PER_HOST = 2;
+
     static {
       LOG_CA = LogUtilities.getLog(CatalogAppServices.class);
     }
@@ -285,13 +360,18 @@ public final class Simplified extends Application
     private final ExecutorService                    exec_books;
     private final ExecutorService                    exec_catalog_feeds;
     private final ExecutorService                    exec_covers;
+    private final ExecutorService                    exec_cover_prefetch;
     private final ExecutorService                    exec_downloader;
+    private final ExecutorService                    exec_download_segments;
+    private final ExecutorService                    exec_network;
     private final URI                                feed_initial_uri;
     private final FeedLoaderType                     feed_loader;
     private final HTTPType                           http;
+    private final HTTPMetricsAggregatorType          http_metrics;
     private final ScreenSizeControllerType           screen;
     private final AtomicBoolean                      synced;
     private final DownloaderType                     downloader;
+    private final DownloadSchedulerType              download_scheduler;
     private final OptionType<AdobeAdeptExecutorType> adobe_drm;
     private final DocumentStoreType                  documents;
     private final OptionType<HelpstackType>          helpstack;
@@ -301,7 +381,8 @@ public final class Simplified extends Application
     private CatalogAppServices(
       final Application in_app,
       final Context in_context,
-      final Resources rr)
+      final Resources rr,
+      final DownloadPacingType in_download_pacing)
     {
       NullCheck.notNull(rr);
 
@@ -310,7 +391,13 @@ public final class Simplified extends Application
       this.exec_catalog_feeds =
         Simplified.namedThreadPool(1, "catalog-feed", 19);
       this.exec_covers = Simplified.namedThreadPool(2, "cover", 19);
-      this.exec_downloader = Simplified.namedThreadPool(4, "downloader", 19);
+      this.exec_cover_prefetch =
+        Simplified.namedThreadPool(2, "cover-prefetch", 19);
+      this.exec_downloader = Simplified.namedThreadPool(
+        CatalogAppServices.DOWNLOAD_CONCURRENCY, "downloader", 19);
+      this.exec_download_segments = Simplified.namedThreadPool(
+        CatalogAppServices.DOWNLOAD_CONCURRENCY, "download-segment", 19);
+      this.exec_network = Simplified.namedThreadPool(2, "network", 19);
       this.exec_books = Simplified.namedThreadPool(1, "books", 19);
 
       /**
@@ -345,6 +432,35 @@ public final class Simplified extends Application
       CatalogAppServices.LOG_CA.debug("downloads: {}", downloads_dir);
       CatalogAppServices.LOG_CA.debug("books:     {}", books_dir);
 
+      /**
+       * The journal of book downloads, used to resume downloads that were
+       * interrupted by the application being stopped.
+       */
+
+      final BookDownloadJournalType download_journal;
+      try {
+        download_journal =
+          BookDownloadJournal.openJournal(new File(downloads_dir, "journal"));
+      } catch (final IOException e) {
+        Simplified.LOG.error(
+          "could not open download journal: {}", e.getMessage(), e);
+        throw new IllegalStateException(e);
+      }
+
+      /**
+       * The store of returned books, kept so that borrowing a book again
+       * does not require downloading it again.
+       */
+
+      final BookBlobStoreType books_blobs;
+      try {
+        books_blobs = BookBlobStore.openStore(new File(books_dir, "blobs"));
+      } catch (final IOException e) {
+        Simplified.LOG.error(
+          "could not open book store: {}", e.getMessage(), e);
+        throw new IllegalStateException(e);
+      }
+
       /**
        * Catalog URIs.
        */
@@ -360,7 +476,71 @@ public final class Simplified extends Application
        * Feed loaders and parsers.
        */
 
-      this.http = HTTP.newHTTP();
+      /**
+       * All requests share a single scheduler so that book downloads and
+       * background document refreshes cannot starve the catalog.
+       */
+
+      this.http_metrics = HTTPMetricsAggregator.newAggregator(
+        CatalogAppServices.HTTP_METRICS_SAMPLE_INTERVAL);
+
+      /**
+       * Open connections to the catalog and loans origins while the rest of
+       * the services are initialized. The time taken to receive the root
+       * feed is logged along with the setting, so that startup can be
+       * compared with warming enabled and disabled. The resource gives the
+       * default, and the debug preferences may override it without a
+       * rebuild.
+       */
+
+      final SharedPreferences debug_prefs = NullCheck.notNull(
+        in_context.getSharedPreferences(
+          CatalogAppServices.DEBUG_PREFERENCES, 0));
+      final boolean http_prewarm = debug_prefs.getBoolean(
+        CatalogAppServices.DEBUG_HTTP_PREWARM,
+        rr.getBoolean(R.bool.debug_http_prewarm));
+
+      final HTTPType http_measured = HTTP.newHTTPWithListener(
+        new FirstFeedTimer(
+          this.http_metrics, this.feed_initial_uri, http_prewarm));
+      final HTTPSchedulerType http_scheduler = HTTPScheduler.newScheduler(
+        http_measured, HTTPSchedulerConfiguration.getDefault());
+
+      /**
+       * Warm connections to the catalog and loans origins. The warm-up
+       * requests bypass the scheduler: they are few, and they must not wait
+       * behind other requests to be of any use.
+       */
+
+      final URI loans_url_component = books_config.getCurrentRootFeedURI().resolve(rr.getString(R.string.feature_catalog_loans_uri_component));
+
+      if (http_prewarm) {
+        final HTTPConnectionWarmerType warmer =
+          HTTPConnectionWarmer.newWarmer(this.exec_network, http_measured);
+        warmer.warmerWarm(this.feed_initial_uri);
+        warmer.warmerWarm(loans_url_component);
+      }
+
+      /**
+       * Idempotent requests are retried outside of the scheduler, so that a
+       * request waiting to be retried does not hold a connection slot.
+       */
+
+      final HTTPRetryConfiguration http_retry =
+        HTTPRetryConfiguration.getDefault();
+      this.http = HTTPRetrying.newRetrying(
+        http_scheduler.schedulerHTTPForClass(
+          HTTPRequestClass.HTTP_REQUEST_INTERACTIVE), http_retry);
+      final HTTPType http_bulk = HTTPRetrying.newRetrying(
+        http_scheduler.schedulerHTTPForClass(
+          HTTPRequestClass.HTTP_REQUEST_BULK), http_retry);
+      final HTTPType http_background = HTTPRetrying.newRetrying(
+        http_scheduler.schedulerHTTPForClass(
+          HTTPRequestClass.HTTP_REQUEST_BACKGROUND), http_retry);
+      final HTTPType http_prefetch = HTTPRetrying.newRetrying(
+        http_scheduler.schedulerHTTPForClass(
+          HTTPRequestClass.HTTP_REQUEST_PREFETCH), http_retry);
+
       final OPDSAcquisitionFeedEntryParserType in_entry_parser =
         OPDSAcquisitionFeedEntryParser.newParser();
       final OPDSJSONSerializerType in_json_serializer =
@@ -369,12 +549,20 @@ public final class Simplified extends Application
       final OPDSFeedParserType p = OPDSFeedParser.newParser(in_entry_parser);
       final OPDSSearchParserType s = OPDSSearchParser.newParser();
 
-      this.books_database = BookDatabase.newDatabase(
-        in_json_serializer, in_json_parser, books_database_directory);
+      this.books_database = BookDatabase.newDatabaseWithBlobStore(
+        in_json_serializer,
+        in_json_parser,
+        books_database_directory,
+        books_blobs);
       this.accounts_database = AccountsDatabase.openDatabase(accounts_dir);
 
       this.feed_loader = Simplified.makeFeedLoader(
-        this.exec_catalog_feeds, this.books_database, this.http, s, p);
+        this.exec_catalog_feeds,
+        this.books_database,
+        this.http,
+        this.http_metrics,
+        s,
+        p);
 
       /**
        * DRM.
@@ -383,8 +571,32 @@ public final class Simplified extends Application
       this.adobe_drm = AdobeDRMServices.newAdobeDRMOptional(
         this.context, AdobeDRMServices.getPackageOverride(rr));
 
-      this.downloader = DownloaderHTTP.newDownloader(
-        this.exec_books, downloads_dir, this.http);
+      /**
+       * Downloads run on their own scheduler, so that a long download cannot
+       * hold up borrowing, syncing or any other book operation. Large books
+       * are fetched over two connections, which is also the number of bulk
+       * requests that the HTTP scheduler allows at once. Large automatic
+       * downloads wait for an unmetered network of reasonable speed.
+       */
+
+      final NetworkConditionProvider network_conditions =
+        NetworkConditionProvider.newProvider(this.context);
+      this.download_scheduler = DownloadScheduler.newSchedulerWithNetworkPolicy(
+        this.exec_downloader,
+        new DownloadSchedulerConfiguration(
+          CatalogAppServices.DOWNLOAD_CONCURRENCY,
+          CatalogAppServices.DOWNLOAD_CONCURRENCY_PER_HOST),
+        network_conditions,
+        DownloadNetworkPolicy.getDefault());
+      network_conditions.notifyScheduler(this.download_scheduler);
+      this.downloader = DownloaderHTTP.newDownloaderWithConfiguration(
+        this.download_scheduler,
+        this.exec_download_segments,
+        downloads_dir,
+        http_bulk,
+        this.http_metrics,
+        new DownloaderConfiguration(2, 4L * 1024L * 1024L),
+        in_download_pacing);
 
 
       /**
@@ -420,7 +632,7 @@ public final class Simplified extends Application
       final DocumentStoreBuilderType documents_builder =
         DocumentStore.newBuilder(
           clock,
-          this.http,
+          http_background,
           this.exec_books,
           books_dir,
           auth_doc_values,
@@ -512,7 +724,7 @@ public final class Simplified extends Application
        * starts, ignoring any failures.
        */
 
-      this.exec_downloader.submit(
+      this.exec_network.submit(
         new Runnable()
         {
           @Override public void run()
@@ -520,7 +732,7 @@ public final class Simplified extends Application
             try {
               DocumentStore.fetchLoginForm(
                 CatalogAppServices.this.documents,
-                CatalogAppServices.this.http,
+                http_background,
                 CatalogAppServices.this.feed_initial_uri);
             } catch (final Throwable x) {
               Simplified.LOG.error("could not fetch login form: ", x);
@@ -529,15 +741,29 @@ public final class Simplified extends Application
         });
 
       /**
-       * The main book controller.
+       * The storage manager, which deletes the least recently read books
+       * when downloaded books exceed the configured quota.
        */
 
-      final URI loans_url_component = books_config.getCurrentRootFeedURI().resolve(rr.getString(R.string.feature_catalog_loans_uri_component));
+      final long storage_quota =
+        (long) rr.getInteger(R.integer.books_storage_quota_megabytes)
+          * 1024L * 1024L;
+      final BookStorageManagerType storage =
+        BookStorageManager.newStorageManager(
+          this.books_database,
+          Option.<BookBlobStoreType>some(books_blobs),
+          storage_quota);
+
+      /**
+       * The main book controller.
+       */
 
       this.books = BooksController.newBooks(
         this.exec_books,
+        this.exec_cover_prefetch,
         this.feed_loader,
         this.http,
+        http_prefetch,
         this.downloader,
         in_json_serializer,
         in_json_parser,
@@ -546,7 +772,9 @@ public final class Simplified extends Application
         this.books_database,
         this.accounts_database,
         books_config,
-        loans_url_component);
+        loans_url_component,
+        download_journal,
+        storage);
 
       /**
        * Configure cover provider.
@@ -603,6 +831,16 @@ public final class Simplified extends Application
       return this.helpstack;
     }
 
+    @Override public HTTPMetricsAggregatorType getHTTPMetrics()
+    {
+      return this.http_metrics;
+    }
+
+    @Override public DownloadSchedulerStatistics getDownloadStatistics()
+    {
+      return this.download_scheduler.schedulerGetStatistics();
+    }
+
     @Override public boolean isNetworkAvailable()
     {
       final NetworkInfo info =
@@ -723,6 +961,7 @@ public final class Simplified extends Application
     implements SimplifiedReaderAppServicesType
   {
     private final ReaderBookmarksType         bookmarks;
+    private final DownloadPacingType          download_pacing;
     private final ExecutorService             epub_exec;
     private final ReaderReadiumEPUBLoaderType epub_loader;
     private final ReaderHTTPServerType        httpd;
@@ -732,8 +971,10 @@ public final class Simplified extends Application
 
     private ReaderAppServices(
       final Context context,
-      final Resources rr)
+      final Resources rr,
+      final DownloadPacingType in_download_pacing)
     {
+      this.download_pacing = NullCheck.notNull(in_download_pacing);
       this.screen = new ScreenSizeController(rr);
 
       this.mime = ReaderHTTPMimeMap.newMap("application/octet-stream");
@@ -764,6 +1005,11 @@ public final class Simplified extends Application
       return this.bookmarks;
     }
 
+    @Override public DownloadPacingType getDownloadPacing()
+    {
+      return this.download_pacing;
+    }
+
     @Override public ReaderReadiumEPUBLoaderType getEPUBLoader()
     {
       return this.epub_loader;
@@ -852,6 +1098,60 @@ public final class Simplified extends Application
 
   }
 
+  /**
+   * A request listener that logs the time from application startup until the
+   * root feed has been received, and passes every request on to a delegate.
+   */
+
+  private static final class FirstFeedTimer implements HTTPRequestListenerType
+  {
+    private final HTTPRequestListenerType delegate;
+    private final String                  root_host;
+    private final String                  root_template;
+    private final boolean                 prewarm;
+    private final long                    time_start;
+    private final AtomicBoolean           done;
+
+    FirstFeedTimer(
+      final HTTPRequestListenerType in_delegate,
+      final URI in_root,
+      final boolean in_prewarm)
+    {
+      this.delegate = NullCheck.notNull(in_delegate);
+      this.root_host = NullCheck.notNull(in_root.getHost());
+      this.root_template = HTTPURITemplate.normalize(in_root);
+      this.prewarm = in_prewarm;
+      this.time_start = System.nanoTime();
+      this.done = new AtomicBoolean(false);
+    }
+
+    @Override public void onHTTPRequestCompleted(final HTTPRequestMetrics m)
+    {
+      if ("GET".equals(m.getMethod())
+        && this.root_host.equals(m.getHost())
+        && this.root_template.equals(m.getURITemplate())
+        && this.done.compareAndSet(false, true)) {
+        Simplified.LOG.debug(
+          "time to first feed: {}ms (status {}, pre-warming {})",
+          Long.valueOf(
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.time_start)),
+          Integer.valueOf(m.getStatus()),
+          Boolean.valueOf(this.prewarm));
+      }
+      this.delegate.onHTTPRequestCompleted(m);
+    }
+
+    @Override public void onHTTPRedirectsFollowed(
+      final String method,
+      final URI uri,
+      final int redirects,
+      final int auth_retries)
+    {
+      this.delegate.onHTTPRedirectsFollowed(
+        method, uri, redirects, auth_retries);
+    }
+  }
+
   private final static class BooksControllerConfiguration
     implements BooksControllerConfigurationType
   {
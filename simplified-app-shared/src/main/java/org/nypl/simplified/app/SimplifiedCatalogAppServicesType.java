@@ -5,6 +5,8 @@ import org.nypl.drm.core.AdobeAdeptExecutorType;
 import org.nypl.simplified.books.core.BooksType;
 import org.nypl.simplified.books.core.DocumentStoreType;
 import org.nypl.simplified.books.core.FeedLoaderType;
+import org.nypl.simplified.downloader.core.DownloadSchedulerStatistics;
+import org.nypl.simplified.http.core.HTTPMetricsAggregatorType;
 
 /**
  * Services provided to the main Simplified app.
@@ -51,4 +53,16 @@ public interface SimplifiedCatalogAppServicesType extends
    */
 
   OptionType<HelpstackType> getHelpStack();
+
+  /**
+   * @return Sampled per-host HTTP request metrics
+   */
+
+  HTTPMetricsAggregatorType getHTTPMetrics();
+
+  /**
+   * @return The current queue depth and waiting times of book downloads
+   */
+
+  DownloadSchedulerStatistics getDownloadStatistics();
 }
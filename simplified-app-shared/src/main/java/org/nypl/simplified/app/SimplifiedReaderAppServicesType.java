@@ -4,6 +4,7 @@ import org.nypl.simplified.app.reader.ReaderBookmarksType;
 import org.nypl.simplified.app.reader.ReaderHTTPServerType;
 import org.nypl.simplified.app.reader.ReaderReadiumEPUBLoaderType;
 import org.nypl.simplified.app.reader.ReaderSettingsType;
+import org.nypl.simplified.downloader.core.DownloadPacingType;
 
 /**
  * Services provided to the reader.
@@ -18,6 +19,13 @@ public interface SimplifiedReaderAppServicesType
 
   ReaderBookmarksType getBookmarks();
 
+  /**
+   * @return The pacer applied to book downloads, which should be told when
+   * a book is being read
+   */
+
+  DownloadPacingType getDownloadPacing();
+
   /**
    * @return The EPUB loader
    */
@@ -70,6 +70,7 @@ public final class CatalogBookRead implements OnClickListener
       if (book_opt.isSome()) {
         final Some<File> some_book = (Some<File>) book_opt;
         final File book = some_book.get();
+        books.bookNoteRead(this.id);
         ReaderActivity.startActivity(a, this.id, book);
       } else {
         ErrorDialogUtilities.showError(
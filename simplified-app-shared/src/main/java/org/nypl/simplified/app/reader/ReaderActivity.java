@@ -424,6 +424,29 @@ public final class ReaderActivity extends Activity implements
     bm.setBookmark(in_book_id, l);
   }
 
+  /**
+   * Downloads are paced more gently whilst the reader is visible, so that
+   * they do not compete with the reader for storage and bandwidth.
+   */
+
+  @Override protected void onResume()
+  {
+    super.onResume();
+
+    final SimplifiedReaderAppServicesType rs =
+      Simplified.getReaderAppServices();
+    rs.getDownloadPacing().pacingForegroundStart();
+  }
+
+  @Override protected void onPause()
+  {
+    super.onPause();
+
+    final SimplifiedReaderAppServicesType rs =
+      Simplified.getReaderAppServices();
+    rs.getDownloadPacing().pacingForegroundFinish();
+  }
+
   @Override protected void onDestroy()
   {
     super.onDestroy();
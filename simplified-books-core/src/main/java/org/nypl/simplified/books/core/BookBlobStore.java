@@ -0,0 +1,184 @@
+package org.nypl.simplified.books.core;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import org.nypl.simplified.files.DirectoryUtilities;
+import org.nypl.simplified.files.FileUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The default implementation of the {@link BookBlobStoreType} interface. Each
+ * file is held in a single directory, named after its digest.
+ */
+
+public final class BookBlobStore implements BookBlobStoreType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(BookBlobStore.class));
+  }
+
+  private final File directory;
+
+  private BookBlobStore(final File in_directory)
+  {
+    this.directory = NullCheck.notNull(in_directory);
+  }
+
+  /**
+   * Open the store in the given directory, creating the directory if
+   * necessary.
+   *
+   * @param in_directory The directory
+   *
+   * @return A store
+   *
+   * @throws IOException If the directory cannot be created
+   */
+
+  public static BookBlobStoreType openStore(final File in_directory)
+    throws IOException
+  {
+    DirectoryUtilities.directoryCreate(in_directory);
+    return new BookBlobStore(in_directory);
+  }
+
+  private static void checkDigest(final String digest)
+  {
+    for (int index = 0; index < digest.length(); ++index) {
+      final char c = digest.charAt(index);
+      final boolean hex = (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+      if (hex == false) {
+        throw new IllegalArgumentException(
+          String.format("Malformed digest: %s", digest));
+      }
+    }
+  }
+
+  private File fileFor(final String digest)
+  {
+    BookBlobStore.checkDigest(NullCheck.notNull(digest));
+    return new File(this.directory, digest + ".epub");
+  }
+
+  @Override public synchronized void blobStorePut(
+    final File file,
+    final String digest)
+    throws IOException
+  {
+    NullCheck.notNull(file);
+
+    final File blob = this.fileFor(digest);
+    if (blob.isFile()) {
+      BookBlobStore.LOG.debug("already holding {}, deleting {}", digest, file);
+      FileUtilities.fileDelete(file);
+      return;
+    }
+
+    BookBlobStore.LOG.debug("storing {} as {}", file, digest);
+    FileUtilities.fileRename(file, blob);
+
+    /**
+     * Renaming keeps the modification time of the download, but the store
+     * is trimmed in the order in which files were put into it.
+     */
+
+    if (blob.setLastModified(System.currentTimeMillis()) == false) {
+      BookBlobStore.LOG.debug("could not set modification time of {}", blob);
+    }
+  }
+
+  @Override public synchronized boolean blobStoreTake(
+    final String digest,
+    final File target)
+    throws IOException
+  {
+    NullCheck.notNull(target);
+
+    final File blob = this.fileFor(digest);
+    if (blob.isFile()) {
+      BookBlobStore.LOG.debug("taking {} into {}", digest, target);
+      FileUtilities.fileRename(blob, target);
+      return true;
+    }
+    return false;
+  }
+
+  private File[] listBlobs()
+  {
+    final File[] files = this.directory.listFiles(
+      new FileFilter()
+      {
+        @Override public boolean accept(final @Nullable File f)
+        {
+          final File nf = NullCheck.notNull(f);
+          return nf.isFile() && nf.getName().endsWith(".epub");
+        }
+      });
+    return files == null ? new File[0] : files;
+  }
+
+  @Override public synchronized long blobStoreGetSize()
+  {
+    long size = 0L;
+    for (final File f : this.listBlobs()) {
+      size += f.length();
+    }
+    return size;
+  }
+
+  @Override public synchronized long blobStoreTrim(final long maximum)
+    throws IOException
+  {
+    final File[] files = this.listBlobs();
+    Arrays.sort(
+      files, new Comparator<File>()
+      {
+        @Override public int compare(
+          final File a,
+          final File b)
+        {
+          final long ta = a.lastModified();
+          final long tb = b.lastModified();
+          return ta < tb ? -1 : (ta == tb ? 0 : 1);
+        }
+      });
+
+    long size = 0L;
+    for (final File f : files) {
+      size += f.length();
+    }
+
+    long deleted = 0L;
+    for (final File f : files) {
+      if (size <= maximum) {
+        break;
+      }
+
+      final long length = f.length();
+      BookBlobStore.LOG.debug("trimming {}", f.getName());
+      FileUtilities.fileDelete(f);
+      size -= length;
+      deleted += length;
+    }
+    return deleted;
+  }
+
+  @Override public synchronized void blobStoreDelete(final String digest)
+    throws IOException
+  {
+    final File blob = this.fileFor(digest);
+    if (blob.isFile()) {
+      BookBlobStore.LOG.debug("deleting {}", digest);
+      FileUtilities.fileDelete(blob);
+    }
+  }
+}
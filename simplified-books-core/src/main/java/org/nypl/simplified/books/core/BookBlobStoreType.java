@@ -0,0 +1,82 @@
+package org.nypl.simplified.books.core;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * <p>A content-addressed store of book files, keyed by the digest of their
+ * data.</p>
+ *
+ * <p>The store holds the files of books whose data has been deleted from
+ * the book database, so that borrowing the same book again does not require
+ * downloading it again. Identical files released by several book entries are
+ * stored once.</p>
+ *
+ * <p>The store must be on the same filesystem as the book database, as files
+ * are moved into and out of it by renaming.</p>
+ */
+
+public interface BookBlobStoreType
+{
+  /**
+   * Move the given file into the store under the given digest. If the store
+   * already holds a file with the same digest, the given file is deleted.
+   *
+   * @param file   The file
+   * @param digest The digest of the file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void blobStorePut(
+    File file,
+    String digest)
+    throws IOException;
+
+  /**
+   * Move the file with the given digest out of the store.
+   *
+   * @param digest The digest of the file
+   * @param target The file that will hold the data
+   *
+   * @return {@code true} if the store held a file with the given digest
+   *
+   * @throws IOException On I/O errors
+   */
+
+  boolean blobStoreTake(
+    String digest,
+    File target)
+    throws IOException;
+
+  /**
+   * Delete the file with the given digest, if any.
+   *
+   * @param digest The digest of the file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void blobStoreDelete(String digest)
+    throws IOException;
+
+  /**
+   * @return The total size in bytes of the files in the store
+   */
+
+  long blobStoreGetSize();
+
+  /**
+   * Delete the files that were least recently put into the store until the
+   * total size of the store is at most {@code maximum} bytes.
+   *
+   * @param maximum The maximum size in bytes
+   *
+   * @return The number of bytes deleted
+   *
+   * @throws IOException On I/O errors
+   */
+
+  long blobStoreTrim(long maximum)
+    throws IOException;
+}
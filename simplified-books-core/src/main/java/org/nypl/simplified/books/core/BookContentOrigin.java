@@ -0,0 +1,60 @@
+package org.nypl.simplified.books.core;
+
+import com.io7m.jnull.NullCheck;
+
+import java.net.URI;
+
+/**
+ * The origin of the data of a downloaded book: the URI from which it was
+ * downloaded and the digest of the data, as computed by the downloader.
+ */
+
+public final class BookContentOrigin
+{
+  private final URI    uri;
+  private final String digest;
+
+  /**
+   * Construct an origin.
+   *
+   * @param in_uri    The URI from which the book was downloaded
+   * @param in_digest The digest of the book data
+   */
+
+  public BookContentOrigin(
+    final URI in_uri,
+    final String in_digest)
+  {
+    this.uri = NullCheck.notNull(in_uri);
+    this.digest = NullCheck.notNull(in_digest);
+  }
+
+  /**
+   * @return The URI from which the book was downloaded
+   */
+
+  public URI getURI()
+  {
+    return this.uri;
+  }
+
+  /**
+   * @return The digest of the book data
+   */
+
+  public String getDigest()
+  {
+    return this.digest;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder(128);
+    b.append("[BookContentOrigin ");
+    b.append(this.uri);
+    b.append(" ");
+    b.append(this.digest);
+    b.append("]");
+    return NullCheck.notNull(b.toString());
+  }
+}
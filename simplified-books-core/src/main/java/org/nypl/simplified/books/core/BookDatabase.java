@@ -2,6 +2,7 @@ package org.nypl.simplified.books.core;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
@@ -12,15 +13,19 @@ import com.io7m.jfunctional.Some;
 import com.io7m.jfunctional.Unit;
 import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
 import org.nypl.drm.core.AdobeAdeptLoan;
 import org.nypl.drm.core.AdobeLoanID;
+import org.nypl.simplified.assertions.Assertions;
 import org.nypl.simplified.files.DirectoryUtilities;
-import org.nypl.simplified.files.FileLocking;
+import org.nypl.simplified.files.FileDurability;
+import org.nypl.simplified.files.FileTrash;
 import org.nypl.simplified.files.FileUtilities;
 import org.nypl.simplified.http.core.HTTPAuthType;
 import org.nypl.simplified.http.core.HTTPResultOKType;
 import org.nypl.simplified.http.core.HTTPResultToException;
 import org.nypl.simplified.http.core.HTTPType;
+import org.nypl.simplified.json.core.JSONParseException;
 import org.nypl.simplified.json.core.JSONParserUtilities;
 import org.nypl.simplified.json.core.JSONSerializerUtilities;
 import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry;
@@ -31,74 +36,116 @@ import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
- * A file-based book database.
+ * <p>A file-based book database.</p>
+ *
+ * <p>Transactions are committed by first writing all of their changes to a
+ * single file, {@code transaction.json}, which is synced to the disk and
+ * then atomically renamed into place. The changes are then applied to the
+ * entries, and the file is deleted. If the file exists when the database is
+ * opened, the changes it contains are applied again. Applying the changes
+ * is idempotent, so the entries do not need to be written atomically.</p>
+ *
+ * <p>The last snapshot of each entry is cached, along with the generation of
+ * the entry at the time that the snapshot was taken. The generation of an
+ * entry is incremented whenever its write lock is taken, and so a cached
+ * snapshot can be returned without reading anything from disk for as long
+ * as its generation is current. Any change to the files of an entry that
+ * does not go through the entry is not seen until the entry is next
+ * written.</p>
+ *
+ * <p>Destroyed entries, and the database directory itself when the database
+ * is destroyed, are renamed into a {@code trash} directory beside the
+ * database directory and deleted later in the background (see {@link
+ * FileTrash}).</p>
+ *
+ * <p>Entries are locked by {@link BookDatabaseLocks}. A thread that is
+ * reading any entry may not write to the database: the write fails
+ * immediately with an {@link IOException}, whichever books are involved.</p>
  */
 
 public final class BookDatabase implements BookDatabaseType
 {
   private static final int LOCK_WAIT_MAXIMUM_MILLISECONDS;
+  private static final int LOCK_STRIPES;
+  private static final int LOAD_THREADS_MAXIMUM;
+  private static final int LOAD_PUBLISH_BATCH;
 
   private static final Logger LOG;
 
   static {
     LOCK_WAIT_MAXIMUM_MILLISECONDS = 1000;
+    LOCK_STRIPES = 32;
+    LOAD_THREADS_MAXIMUM = 4;
+    LOAD_PUBLISH_BATCH = 32;
     LOG = NullCheck.notNull(LoggerFactory.getLogger(BookDatabase.class));
   }
 
   private final File                                   directory;
+  private final File                                   file_transaction;
+  private final File                                   file_transaction_tmp;
+  private final File                                   trash;
   private final OPDSJSONParserType                     parser;
   private final OPDSJSONSerializerType                 serializer;
-  private final Map<BookID, BookDatabaseEntrySnapshot> snapshots;
+  private final Map<BookID, CachedSnapshot>            snapshots;
+  private final Map<BookID, Long>                      generations;
+  private final OptionType<BookBlobStoreType>          blob_store;
+  private final Object                                 index_lock;
+  private final BookDatabaseLocks                      locks;
+  private @Nullable BookDatabaseIndex                  index;
 
   private BookDatabase(
     final OPDSJSONSerializerType in_json_serializer,
     final OPDSJSONParserType in_json_parser,
-    final File in_directory)
+    final File in_directory,
+    final OptionType<BookBlobStoreType> in_blob_store)
   {
     this.directory = NullCheck.notNull(in_directory);
+    this.file_transaction = new File(in_directory, "transaction.json");
+    this.file_transaction_tmp = new File(in_directory, "transaction.json.tmp");
+    this.trash = new File(
+      NullCheck.notNull(
+        in_directory.getAbsoluteFile().getParentFile(),
+        "Database directory must have a parent"), "trash");
+    this.blob_store = NullCheck.notNull(in_blob_store);
     this.parser = NullCheck.notNull(in_json_parser);
     this.serializer = NullCheck.notNull(in_json_serializer);
-    this.snapshots = new HashMap<BookID, BookDatabaseEntrySnapshot>(64);
+    this.snapshots = new HashMap<BookID, CachedSnapshot>(64);
+    this.generations = new HashMap<BookID, Long>(64);
+    this.index_lock = new Object();
+    this.locks = BookDatabaseLocks.newLocks(
+      BookDatabase.LOCK_STRIPES,
+      (long) BookDatabase.LOCK_WAIT_MAXIMUM_MILLISECONDS);
 
     BookDatabase.LOG.debug("opened database {}", this.directory);
   }
 
-  private static OptionType<File> makeCover(
-    final HTTPType http,
-    final BookID id,
-    final OptionType<URI> cover_opt)
-    throws IOException
-  {
-    if (cover_opt.isSome()) {
-      final Some<URI> some = (Some<URI>) cover_opt;
-      final URI cover_uri = some.get();
-
-      final File cover_file_tmp = File.createTempFile("cover", ".jpg");
-      cover_file_tmp.deleteOnExit();
-      BookDatabase.makeCoverDownload(http, id, cover_file_tmp, cover_uri);
-      return Option.some(cover_file_tmp);
-    }
-
-    return Option.none();
-  }
-
   private static void makeCoverDownload(
     final HTTPType http,
     final BookID id,
@@ -157,7 +204,39 @@ public final class BookDatabase implements BookDatabaseType
     final OPDSJSONParserType in_json_parser,
     final File in_directory)
   {
-    return new BookDatabase(in_json_serializer, in_json_parser, in_directory);
+    final OptionType<BookBlobStoreType> none = Option.none();
+    final BookDatabase db = new BookDatabase(
+      in_json_serializer, in_json_parser, in_directory, none);
+    db.replayTransaction();
+    return db;
+  }
+
+  /**
+   * Open a database at the given directory. When the data of a downloaded
+   * book is deleted, it is moved into the given blob store, from which it
+   * can be taken back if the same book file is downloaded again.
+   *
+   * @param in_json_serializer A JSON serializer
+   * @param in_json_parser     A JSON parser
+   * @param in_directory       The directory
+   * @param in_blob_store      A blob store on the same filesystem
+   *
+   * @return A reference to the database
+   */
+
+  public static BookDatabaseType newDatabaseWithBlobStore(
+    final OPDSJSONSerializerType in_json_serializer,
+    final OPDSJSONParserType in_json_parser,
+    final File in_directory,
+    final BookBlobStoreType in_blob_store)
+  {
+    final BookDatabase db = new BookDatabase(
+      in_json_serializer,
+      in_json_parser,
+      in_directory,
+      Option.some(NullCheck.notNull(in_blob_store)));
+    db.replayTransaction();
+    return db;
   }
 
   /**
@@ -195,32 +274,51 @@ public final class BookDatabase implements BookDatabaseType
       for (final BookDatabaseEntryType e : es) {
         e.entryDestroy();
       }
-      FileUtilities.fileDelete(this.directory);
+
+      synchronized (this.index_lock) {
+        final BookDatabaseIndex i = this.index;
+        if (i != null) {
+          i.indexDelete();
+          this.index = null;
+        }
+      }
+
+      FileTrash.trashMove(this.trash, this.directory);
+    }
+  }
+
+  /**
+   * The index is opened, and reconciled with the entry directories, the
+   * first time that it is needed after the database directory exists.
+   */
+
+  private OptionType<BookDatabaseIndex> getIndex()
+  {
+    synchronized (this.index_lock) {
+      final BookDatabaseIndex i = this.index;
+      if (i != null) {
+        return Option.some(i);
+      }
+      if (this.directory.isDirectory() == false) {
+        return Option.none();
+      }
+
+      final BookDatabaseIndex ni =
+        BookDatabaseIndex.openIndex(this.directory, this.parser);
+      this.index = ni;
+      return Option.some(ni);
     }
   }
 
   private List<BookDatabaseEntryType> getBookDatabaseEntries()
   {
+    final Set<BookID> ids = this.databaseGetBooks();
     final List<BookDatabaseEntryType> xs =
-      new ArrayList<BookDatabaseEntryType>(32);
-
-    if (this.directory.isDirectory()) {
-      final File[] book_list = this.directory.listFiles(
-        new FileFilter()
-        {
-          @Override public boolean accept(
-            final @Nullable File path)
-          {
-            return NullCheck.notNull(path).isDirectory();
-          }
-        });
+      new ArrayList<BookDatabaseEntryType>(ids.size());
 
-      for (final File f : book_list) {
-        final BookID id = BookID.exactString(NullCheck.notNull(f.getName()));
-        xs.add(
-          new BookDatabaseEntry(
-            this.serializer, this.parser, this.directory, id));
-      }
+    for (final BookID id : ids) {
+      xs.add(
+        new BookDatabaseEntry(this.serializer, this.parser, this.directory, id));
     }
 
     return xs;
@@ -254,35 +352,95 @@ public final class BookDatabase implements BookDatabaseType
     final ProcedureType<Pair<BookID, BookDatabaseEntrySnapshot>> on_load,
     final ProcedureType<Pair<BookID, Throwable>> on_failure)
   {
-    if (this.directory.isDirectory()) {
-      final File[] book_list = this.directory.listFiles(
-        new FileFilter()
-        {
-          @Override public boolean accept(
-            final @Nullable File path)
-          {
-            return NullCheck.notNull(path).isDirectory();
-          }
-        });
+    NullCheck.notNull(cache);
+    NullCheck.notNull(on_load);
+    NullCheck.notNull(on_failure);
+
+    final List<BookID> ids = new ArrayList<BookID>(this.databaseGetBooks());
+    if (ids.isEmpty()) {
+      return;
+    }
 
-      for (final File f : book_list) {
-        final BookID id = BookID.exactString(NullCheck.notNull(f.getName()));
+    /**
+     * Snapshots are loaded on a small pool of threads created for the
+     * duration of the load, and are published from this thread as they
+     * complete. Broadcasts are held and released in batches so that
+     * observers are not woken once per book.
+     */
+
+    final int threads = Math.min(
+      ids.size(),
+      Math.min(
+        BookDatabase.LOAD_THREADS_MAXIMUM,
+        Runtime.getRuntime().availableProcessors()));
+
+    final ExecutorService pool =
+      Executors.newFixedThreadPool(Math.max(1, threads), new LoadThreads());
+    final CompletionService<LoadResult> completion =
+      new ExecutorCompletionService<LoadResult>(pool);
+
+    /**
+     * Holds are counted, and so each book is released exactly once: either
+     * with its batch, or at the end if it was never published.
+     */
+
+    final Set<BookID> held = new HashSet<BookID>(ids);
+    cache.booksStatusBroadcastHold(ids);
+    try {
+      for (final BookID id : ids) {
         final BookDatabaseEntry e = new BookDatabaseEntry(
           this.serializer, this.parser, this.directory, id);
+        completion.submit(new LoadTask(e));
+      }
 
-        try {
-          final BookDatabaseEntrySnapshot s = e.entryGetSnapshot();
-          final BookStatusType status = BookStatus.fromSnapshot(id, s);
-          cache.booksStatusUpdate(status);
-          final Pair<BookID, BookDatabaseEntrySnapshot> p = Pair.pair(id, s);
-          on_load.call(p);
-        } catch (final IOException x) {
+      final List<BookID> batch =
+        new ArrayList<BookID>(BookDatabase.LOAD_PUBLISH_BATCH);
+      for (int index = 0; index < ids.size(); ++index) {
+
+        /**
+         * Publish the current batch if it is full, or if no further
+         * snapshot is ready yet.
+         */
+
+        Future<LoadResult> f = completion.poll();
+        final boolean full = batch.size() >= BookDatabase.LOAD_PUBLISH_BATCH;
+        if ((f == null || full) && batch.isEmpty() == false) {
+          cache.booksStatusBroadcastRelease(batch);
+          held.removeAll(batch);
+          batch.clear();
+        }
+        if (f == null) {
+          f = completion.take();
+        }
+
+        final LoadResult r = BookDatabase.getLoadResult(f);
+        if (r.error == null) {
+          final BookDatabaseEntrySnapshot s = NullCheck.notNull(r.snapshot);
+          cache.booksStatusUpdate(BookStatus.fromSnapshot(r.id, s));
+          on_load.call(Pair.pair(r.id, s));
+        } else {
           BookDatabase.LOG.error(
-            "[{}]: error creating snapshot: ", id.getShortID(), x);
-          final Pair<BookID, Throwable> p = Pair.pair(id, (Throwable) x);
-          on_failure.call(p);
+            "[{}]: error creating snapshot: ", r.id.getShortID(), r.error);
+          on_failure.call(Pair.pair(r.id, r.error));
         }
+        batch.add(r.id);
       }
+    } catch (final InterruptedException x) {
+      BookDatabase.LOG.error("interrupted loading snapshots: ", x);
+      Thread.currentThread().interrupt();
+    } finally {
+      pool.shutdownNow();
+      cache.booksStatusBroadcastRelease(held);
+    }
+  }
+
+  private static LoadResult getLoadResult(final Future<LoadResult> f)
+    throws InterruptedException
+  {
+    try {
+      return NullCheck.notNull(f.get());
+    } catch (final ExecutionException x) {
+      throw new UnreachableCodeException(x);
     }
   }
 
@@ -292,8 +450,9 @@ public final class BookDatabase implements BookDatabaseType
   {
     NullCheck.notNull(book);
     synchronized (this.snapshots) {
-      if (this.snapshots.containsKey(book)) {
-        return Option.some(this.snapshots.get(book));
+      final CachedSnapshot c = this.snapshots.get(book);
+      if (c != null) {
+        return Option.some(c.snapshot);
       }
       return Option.none();
     }
@@ -301,25 +460,461 @@ public final class BookDatabase implements BookDatabaseType
 
   @Override public Set<BookID> databaseGetBooks()
   {
-    final Set<BookID> hs = new HashSet<BookID>(32);
-    if (this.directory.isDirectory()) {
-      final File[] book_list = this.directory.listFiles(
-        new FileFilter()
-        {
-          @Override public boolean accept(
-            final @Nullable File path)
-          {
-            return NullCheck.notNull(path).isDirectory();
-          }
-        });
+    final OptionType<BookDatabaseIndex> i = this.getIndex();
+    if (i.isSome()) {
+      return ((Some<BookDatabaseIndex>) i).get().indexGetBooks();
+    }
+    return new HashSet<BookID>(0);
+  }
+
+  @Override public BookDatabaseTransactionType databaseBeginTransaction()
+  {
+    return new Transaction();
+  }
+
+  /**
+   * Apply the changes of a transaction that was interrupted before it could
+   * complete. A transaction file that cannot be parsed was never completely
+   * written, because it is renamed into place only after being synced, and so
+   * it cannot occur other than through damage to the disk; it is discarded.
+   */
+
+  private void replayTransaction()
+  {
+    if (this.file_transaction.isFile() == false) {
+      return;
+    }
+
+    final List<TransactionOperation> ops;
+    try {
+      ops = this.readTransaction();
+    } catch (final IOException e) {
+      BookDatabase.LOG.error(
+        "discarding unreadable transaction {}: ", this.file_transaction, e);
+      this.deleteTransaction();
+      return;
+    }
+
+    try {
+      BookDatabase.LOG.debug(
+        "replaying {} operations of interrupted transaction",
+        Integer.valueOf(ops.size()));
+      this.applyTransaction(ops);
+      FileUtilities.fileDelete(this.file_transaction);
+    } catch (final IOException e) {
+      BookDatabase.LOG.error(
+        "could not replay transaction {}: ", this.file_transaction, e);
+    }
+  }
+
+  private void deleteTransaction()
+  {
+    try {
+      FileUtilities.fileDelete(this.file_transaction);
+    } catch (final IOException e) {
+      BookDatabase.LOG.error(
+        "could not delete transaction {}: ", this.file_transaction, e);
+    }
+  }
+
+  private List<TransactionOperation> readTransaction()
+    throws IOException
+  {
+    final ObjectMapper jom = new ObjectMapper();
+    final JsonNode jn = jom.readTree(this.file_transaction);
+    final ObjectNode o = JSONParserUtilities.checkObject(null, jn);
+    final ArrayNode a = JSONParserUtilities.getArray(o, "operations");
+
+    final List<TransactionOperation> ops =
+      new ArrayList<TransactionOperation>(a.size());
+    for (final JsonNode n : a) {
+      final ObjectNode no = JSONParserUtilities.checkObject(null, n);
+      final BookID id =
+        BookID.exactString(JSONParserUtilities.getString(no, "book"));
+      final String op = JSONParserUtilities.getString(no, "op");
+      if ("put".equals(op)) {
+        final String data = JSONParserUtilities.getString(no, "data");
+        ops.add(new TransactionOperation(id, data.getBytes("UTF-8")));
+      } else if ("delete".equals(op)) {
+        ops.add(new TransactionOperation(id, null));
+      } else {
+        throw new JSONParseException("Unrecognized operation: " + op);
+      }
+    }
+    return ops;
+  }
+
+  /**
+   * Write the transaction file. The data is synced to the disk before the
+   * file is renamed into place, so that the file is either absent or
+   * complete after a crash.
+   */
+
+  private void writeTransaction(final List<TransactionOperation> ops)
+    throws IOException
+  {
+    final ObjectMapper jom = new ObjectMapper();
+    final ArrayNode a = jom.createArrayNode();
+    for (final TransactionOperation op : ops) {
+      final ObjectNode o = jom.createObjectNode();
+      final byte[] data = op.data;
+      o.put("op", data == null ? "delete" : "put");
+      o.put("book", op.id.toString());
+      if (data != null) {
+        o.put("data", new String(data, "UTF-8"));
+      }
+      a.add(o);
+    }
+
+    final ObjectNode o = jom.createObjectNode();
+    o.set("operations", a);
+
+    FileUtilities.fileWriteUTF8Atomically(
+      this.file_transaction,
+      this.file_transaction_tmp,
+      JSONSerializerUtilities.serializeToString(o),
+      FileDurability.FILE_DURABILITY_SYNC);
+  }
+
+  /**
+   * Apply the given operations, recording the changes in the index as a
+   * single batch. The operations are applied one lock stripe at a time,
+   * holding only the write lock of that stripe, so that a large transaction
+   * does not lock the whole database for as long as it takes to apply:
+   * readers of other stripes proceed, and readers of the same stripe wait
+   * only for its share of the operations. Readers may therefore see some of
+   * the changes of a transaction before others. If the process stops part
+   * way through, the transaction file is still present and the operations
+   * are all applied again when the database is next opened.
+   */
+
+  private Map<BookID, BookDatabaseEntrySnapshot> applyTransaction(
+    final List<TransactionOperation> ops)
+    throws IOException
+  {
+    final Map<Integer, List<TransactionOperation>> chunks =
+      new TreeMap<Integer, List<TransactionOperation>>();
+    for (final TransactionOperation op : ops) {
+      final Integer stripe = Integer.valueOf(this.locks.stripeIndexFor(op.id));
+      List<TransactionOperation> chunk = chunks.get(stripe);
+      if (chunk == null) {
+        chunk = new ArrayList<TransactionOperation>(8);
+        chunks.put(stripe, chunk);
+      }
+      chunk.add(op);
+    }
+
+    final Map<BookID, BookDatabaseEntrySnapshot> results =
+      new HashMap<BookID, BookDatabaseEntrySnapshot>(ops.size());
+
+    final OptionType<BookDatabaseIndex> index_opt = this.getIndex();
+    final BookDatabaseIndex index = index_opt.isSome()
+      ? ((Some<BookDatabaseIndex>) index_opt).get()
+      : null;
+
+    if (index != null) {
+      index.indexBatchBegin();
+    }
+
+    try {
+      for (final List<TransactionOperation> chunk : chunks.values()) {
+        final Set<BookID> ids = new HashSet<BookID>(chunk.size());
+        for (final TransactionOperation op : chunk) {
+          ids.add(op.id);
+        }
+
+        results.putAll(
+          this.locks.withWriteLocks(
+            ids,
+            new PartialFunctionType<Unit, Map<BookID,
+              BookDatabaseEntrySnapshot>, IOException>()
+            {
+              @Override public Map<BookID, BookDatabaseEntrySnapshot> call(
+                final Unit x)
+                throws IOException
+              {
+                return BookDatabase.this.applyTransactionLocked(chunk);
+              }
+            }));
+      }
+    } finally {
+      if (index != null) {
+        index.indexBatchEnd();
+      }
+    }
+
+    return results;
+  }
 
-      for (final File f : book_list) {
-        final BookID id = BookID.exactString(NullCheck.notNull(f.getName()));
-        hs.add(id);
+  private Map<BookID, BookDatabaseEntrySnapshot> applyTransactionLocked(
+    final List<TransactionOperation> ops)
+    throws IOException
+  {
+    final Map<BookID, BookDatabaseEntrySnapshot> results =
+      new HashMap<BookID, BookDatabaseEntrySnapshot>(ops.size());
+
+    for (final TransactionOperation op : ops) {
+      final BookDatabaseEntry e = new BookDatabaseEntry(
+        this.serializer, this.parser, this.directory, op.id);
+
+      e.bumpGenerationLocked();
+      final byte[] data = op.data;
+      if (data != null) {
+        DirectoryUtilities.directoryCreate(e.directory);
+        e.setDataInTransactionLocked(data);
+        results.put(
+          op.id,
+          e.updateSnapshotLocked(
+            Option.some(BookDatabaseIndex.fingerprint(data))));
+      } else {
+        e.destroyLocked();
+        e.deleteSnapshot();
       }
     }
 
-    return hs;
+    return results;
+  }
+
+  @Override public BookDatabaseLockMetrics databaseGetLockMetrics()
+  {
+    return this.locks.getMetrics();
+  }
+
+  @Override public OptionType<BookDatabaseIndexEntry> databaseGetIndexEntry(
+    final BookID book)
+  {
+    NullCheck.notNull(book);
+    final OptionType<BookDatabaseIndex> i = this.getIndex();
+    if (i.isSome()) {
+      return ((Some<BookDatabaseIndex>) i).get().indexGet(book);
+    }
+    return Option.none();
+  }
+
+  /**
+   * The result of loading the snapshot of a single entry. Exactly one of
+   * {@code snapshot} and {@code error} is non-null.
+   */
+
+  private static final class LoadResult
+  {
+    private final           BookID                    id;
+    private final @Nullable BookDatabaseEntrySnapshot snapshot;
+    private final @Nullable Throwable                 error;
+
+    LoadResult(
+      final BookID in_id,
+      final @Nullable BookDatabaseEntrySnapshot in_snapshot,
+      final @Nullable Throwable in_error)
+    {
+      this.id = NullCheck.notNull(in_id);
+      this.snapshot = in_snapshot;
+      this.error = in_error;
+    }
+  }
+
+  private static final class LoadTask implements Callable<LoadResult>
+  {
+    private final BookDatabaseEntryReadableType entry;
+
+    LoadTask(final BookDatabaseEntryReadableType in_entry)
+    {
+      this.entry = NullCheck.notNull(in_entry);
+    }
+
+    @Override public LoadResult call()
+    {
+      final BookID id = this.entry.entryGetBookID();
+      try {
+        return new LoadResult(id, this.entry.entryGetSnapshot(), null);
+      } catch (final Throwable x) {
+        return new LoadResult(id, null, x);
+      }
+    }
+  }
+
+  private static final class LoadThreads implements ThreadFactory
+  {
+    private final ThreadFactory base;
+    private       int           id;
+
+    LoadThreads()
+    {
+      this.base = NullCheck.notNull(Executors.defaultThreadFactory());
+    }
+
+    @Override public synchronized Thread newThread(
+      final @Nullable Runnable r)
+    {
+      final Thread t = this.base.newThread(NullCheck.notNull(r));
+      t.setName(
+        String.format("simplified-book-load-%d", Integer.valueOf(this.id)));
+      ++this.id;
+      return t;
+    }
+  }
+
+  /**
+   * A snapshot of an entry, and the generation of the entry at the time that
+   * the snapshot was taken.
+   */
+
+  private static final class CachedSnapshot
+  {
+    private final long                      generation;
+    private final BookDatabaseEntrySnapshot snapshot;
+
+    CachedSnapshot(
+      final long in_generation,
+      final BookDatabaseEntrySnapshot in_snapshot)
+    {
+      this.generation = in_generation;
+      this.snapshot = NullCheck.notNull(in_snapshot);
+    }
+  }
+
+  /**
+   * The URIs from which the cover and thumbnail of an entry were fetched.
+   */
+
+  private static final class CoverOrigins
+  {
+    private OptionType<URI> cover;
+    private OptionType<URI> thumbnail;
+
+    CoverOrigins()
+    {
+      this.cover = Option.none();
+      this.thumbnail = Option.none();
+    }
+  }
+
+  /**
+   * A single staged change: the serialized metadata of an entry to be
+   * written, or {@code null} if the entry is to be deleted.
+   */
+
+  private static final class TransactionOperation
+  {
+    private final           BookID id;
+    private final @Nullable byte[] data;
+
+    TransactionOperation(
+      final BookID in_id,
+      final @Nullable byte[] in_data)
+    {
+      this.id = NullCheck.notNull(in_id);
+      this.data = in_data;
+    }
+  }
+
+  private final class Transaction implements BookDatabaseTransactionType
+  {
+    private final Map<BookID, OPDSAcquisitionFeedEntry> updates;
+    private final Set<BookID>                           deletes;
+    private       boolean                               committed;
+
+    Transaction()
+    {
+      this.updates = new LinkedHashMap<BookID, OPDSAcquisitionFeedEntry>(64);
+      this.deletes = new LinkedHashSet<BookID>(16);
+      this.committed = false;
+    }
+
+    @Override public void transactionUpdate(final OPDSAcquisitionFeedEntry e)
+    {
+      NullCheck.notNull(e);
+      final BookID id = BookID.newIDFromEntry(e);
+      this.deletes.remove(id);
+      this.updates.put(id, e);
+    }
+
+    @Override public void transactionDelete(final BookID id)
+    {
+      NullCheck.notNull(id);
+      this.updates.remove(id);
+      this.deletes.add(id);
+    }
+
+    @Override public Map<BookID, BookDatabaseEntrySnapshot> transactionCommit(
+      final BooksStatusCacheType books_status)
+      throws IOException
+    {
+      NullCheck.notNull(books_status);
+      Assertions.checkPrecondition(
+        this.committed == false, "Transaction must not already be committed");
+      this.committed = true;
+
+      final BookDatabase db = BookDatabase.this;
+      final Map<BookID, BookDatabaseEntrySnapshot> results =
+        new HashMap<BookID, BookDatabaseEntrySnapshot>(this.updates.size());
+
+      /**
+       * Entries whose serialized metadata has not changed since it was last
+       * written are not staged.
+       */
+
+      final List<TransactionOperation> ops =
+        new ArrayList<TransactionOperation>(
+          this.updates.size() + this.deletes.size());
+      for (final BookID id : this.updates.keySet()) {
+        final BookDatabaseEntry e =
+          new BookDatabaseEntry(db.serializer, db.parser, db.directory, id);
+        final byte[] data =
+          e.serializeData(NullCheck.notNull(this.updates.get(id)));
+        final OptionType<BookDatabaseEntrySnapshot> unchanged =
+          e.getSnapshotIfUnchanged(data);
+        if (unchanged.isSome()) {
+          results.put(id, ((Some<BookDatabaseEntrySnapshot>) unchanged).get());
+        } else {
+          ops.add(new TransactionOperation(id, data));
+        }
+      }
+
+      final Set<BookID> existing = db.databaseGetBooks();
+      for (final BookID id : this.deletes) {
+        if (existing.contains(id)) {
+          ops.add(new TransactionOperation(id, null));
+        }
+      }
+
+      final int staged = this.updates.size() + this.deletes.size();
+      BookDatabase.LOG.debug(
+        "committing transaction of {} operations ({} unchanged)",
+        Integer.valueOf(ops.size()),
+        Integer.valueOf(staged - ops.size()));
+
+      final Set<BookID> ids = new HashSet<BookID>(this.updates.keySet());
+      ids.addAll(this.deletes);
+
+      books_status.booksStatusBroadcastHold(ids);
+      try {
+        final Set<BookID> written = new HashSet<BookID>(ops.size());
+        if (ops.isEmpty() == false) {
+          db.writeTransaction(ops);
+          final Map<BookID, BookDatabaseEntrySnapshot> applied =
+            db.applyTransaction(ops);
+          FileUtilities.fileDelete(db.file_transaction);
+          results.putAll(applied);
+          written.addAll(applied.keySet());
+        }
+
+        for (final BookID id : results.keySet()) {
+          if (written.contains(id)
+            || books_status.booksStatusGet(id).isNone()) {
+            books_status.booksStatusUpdateIfMoreImportant(
+              BookStatus.fromSnapshot(id, NullCheck.notNull(results.get(id))));
+          }
+        }
+        for (final BookID id : this.deletes) {
+          books_status.booksStatusClearFor(id);
+        }
+      } finally {
+        books_status.booksStatusBroadcastRelease(ids);
+      }
+
+      return results;
+    }
   }
 
   /**
@@ -337,10 +932,16 @@ public final class BookDatabase implements BookDatabaseType
     private final File                   file_adobe_meta;
     private final File                   file_adobe_meta_tmp;
     private final File                   file_book;
+    private final File                   file_book_meta;
+    private final File                   file_book_meta_tmp;
     private final File                   file_cover;
-    private final File                   file_lock;
+    private final File                   file_cover_meta;
+    private final File                   file_cover_meta_tmp;
     private final File                   file_meta;
     private final File                   file_meta_tmp;
+    private final File                   file_read;
+    private final File                   file_read_tmp;
+    private final File                   file_thumbnail;
     private final BookID                 id;
     private final OPDSJSONParserType     parser;
     private final OPDSJSONSerializerType serializer;
@@ -359,12 +960,19 @@ public final class BookDatabase implements BookDatabaseType
       NullCheck.notNull(parent);
 
       this.directory = new File(parent, book_id.toString());
-      this.file_lock = new File(parent, book_id.toString() + ".lock");
 
       this.file_cover = new File(this.directory, "cover.jpg");
+      this.file_cover_meta = new File(this.directory, "meta_covers.json");
+      this.file_cover_meta_tmp =
+        new File(this.directory, "meta_covers.json.tmp");
+      this.file_thumbnail = new File(this.directory, "thumbnail.jpg");
       this.file_meta = new File(this.directory, "meta.json");
       this.file_meta_tmp = new File(this.directory, "meta.json.tmp");
       this.file_book = new File(this.directory, "book.epub");
+      this.file_book_meta = new File(this.directory, "meta_book.json");
+      this.file_read = new File(this.directory, "meta_read.json");
+      this.file_read_tmp = new File(this.directory, "meta_read.json.tmp");
+      this.file_book_meta_tmp = new File(this.directory, "meta_book.json.tmp");
       this.file_adobe_rights = new File(this.directory, "rights_adobe.xml");
       this.file_adobe_rights_tmp =
         new File(this.directory, "rights_adobe.xml.tmp");
@@ -381,9 +989,7 @@ public final class BookDatabase implements BookDatabaseType
       final File file)
       throws IOException
     {
-      return FileLocking.withFileThreadLocked(
-        this.file_lock,
-        (long) BookDatabase.LOCK_WAIT_MAXIMUM_MILLISECONDS,
+      return this.withWriteLock(
         new PartialFunctionType<Unit, BookDatabaseEntrySnapshot, IOException>()
         {
           @Override public BookDatabaseEntrySnapshot call(
@@ -399,9 +1005,7 @@ public final class BookDatabase implements BookDatabaseType
     @Override public BookDatabaseEntrySnapshot entryCopyInBook(final File file)
       throws IOException
     {
-      return FileLocking.withFileThreadLocked(
-        this.file_lock,
-        (long) BookDatabase.LOCK_WAIT_MAXIMUM_MILLISECONDS,
+      return this.withWriteLock(
         new PartialFunctionType<Unit, BookDatabaseEntrySnapshot, IOException>()
         {
           @Override public BookDatabaseEntrySnapshot call(
@@ -439,9 +1043,7 @@ public final class BookDatabase implements BookDatabaseType
     @Override public void entryDestroy()
       throws IOException
     {
-      FileLocking.withFileThreadLocked(
-        this.file_lock,
-        (long) BookDatabase.LOCK_WAIT_MAXIMUM_MILLISECONDS,
+      this.withWriteLock(
         new PartialFunctionType<Unit, Unit, IOException>()
         {
           @Override public Unit call(
@@ -458,9 +1060,7 @@ public final class BookDatabase implements BookDatabaseType
     @Override public BookDatabaseEntrySnapshot entryDeleteBookData()
       throws IOException
     {
-      return FileLocking.withFileThreadLocked(
-        this.file_lock,
-        (long) BookDatabase.LOCK_WAIT_MAXIMUM_MILLISECONDS,
+      return this.withWriteLock(
         new PartialFunctionType<Unit, BookDatabaseEntrySnapshot, IOException>()
         {
           @Override public BookDatabaseEntrySnapshot call(
@@ -473,24 +1073,43 @@ public final class BookDatabase implements BookDatabaseType
         });
     }
 
+    /**
+     * If the book file was downloaded directly (rather than fulfilled via
+     * DRM) and its digest is known, the file is moved into the blob store
+     * rather than deleted, and the origin is kept so that the file can be
+     * taken back later.
+     */
+
     private void destroyBookDataLocked()
       throws IOException
     {
+      final OptionType<BookContentOrigin> origin = this.getBookOriginLocked();
+      if (this.file_book.isFile()
+        && origin.isSome()
+        && BookDatabase.this.blob_store.isSome()
+        && this.file_adobe_rights.isFile() == false) {
+        final BookBlobStoreType store =
+          ((Some<BookBlobStoreType>) BookDatabase.this.blob_store).get();
+        store.blobStorePut(
+          this.file_book, ((Some<BookContentOrigin>) origin).get().getDigest());
+        return;
+      }
+
       FileUtilities.fileDelete(this.file_book);
+      FileUtilities.fileDelete(this.file_book_meta);
     }
 
+    /**
+     * Any file that the entry moved into the blob store is left there. The
+     * store holds one file per digest, which other entries with the same
+     * content may also be waiting to take back, and so files leave the
+     * store only when it is trimmed.
+     */
+
     private void destroyLocked()
       throws IOException
     {
-      if (this.directory.isDirectory()) {
-        final File[] files = this.directory.listFiles();
-        for (final File f : files) {
-          FileUtilities.fileDelete(f);
-        }
-      }
-
-      FileUtilities.fileDelete(this.directory);
-      FileUtilities.fileDelete(this.file_lock);
+      FileTrash.trashMove(BookDatabase.this.trash, this.directory);
     }
 
     @Override public boolean entryExists()
@@ -509,9 +1128,8 @@ public final class BookDatabase implements BookDatabaseType
     @Override public OptionType<File> entryGetCover()
       throws IOException
     {
-      return FileLocking.withFileThreadLocked(
-        this.file_lock,
-        (long) BookDatabase.LOCK_WAIT_MAXIMUM_MILLISECONDS,
+      return BookDatabase.this.locks.withReadLock(
+        this.id,
         new PartialFunctionType<Unit, OptionType<File>, IOException>()
         {
           @Override public OptionType<File> call(
@@ -527,9 +1145,7 @@ public final class BookDatabase implements BookDatabaseType
       final OptionType<File> in_cover)
       throws IOException
     {
-      return FileLocking.withFileThreadLocked(
-        this.file_lock,
-        (long) BookDatabase.LOCK_WAIT_MAXIMUM_MILLISECONDS,
+      return this.withWriteLock(
         new PartialFunctionType<Unit, BookDatabaseEntrySnapshot, IOException>()
         {
           @Override public BookDatabaseEntrySnapshot call(
@@ -546,9 +1162,7 @@ public final class BookDatabase implements BookDatabaseType
       final OptionType<AdobeAdeptLoan> loan)
       throws IOException
     {
-      return FileLocking.withFileThreadLocked(
-        this.file_lock,
-        (long) BookDatabase.LOCK_WAIT_MAXIMUM_MILLISECONDS,
+      return this.withWriteLock(
         new PartialFunctionType<Unit, BookDatabaseEntrySnapshot, IOException>()
         {
           @Override public BookDatabaseEntrySnapshot call(
@@ -569,16 +1183,29 @@ public final class BookDatabase implements BookDatabaseType
     {
       final String sid = this.id.getShortID();
 
-      this.entryCreate(e);
-
+      /**
+       * If the serialized entry is identical to the one last written, there
+       * is nothing to write. The status is only published if the status
+       * cache does not already hold one for the book.
+       */
+
+      final byte[] data = this.serializeData(e);
+      final OptionType<BookDatabaseEntrySnapshot> unchanged =
+        this.getSnapshotIfUnchanged(data);
+      if (unchanged.isSome()) {
+        BookDatabase.LOG.debug("[{}]: unchanged, not writing", sid);
+        final BookDatabaseEntrySnapshot snap =
+          ((Some<BookDatabaseEntrySnapshot>) unchanged).get();
+        if (books_status.booksStatusGet(this.id).isNone()) {
+          books_status.booksStatusUpdateIfMoreImportant(
+            BookStatus.fromSnapshot(this.id, snap));
+        }
+        return snap;
+      }
 
-//        BookDatabase.LOG.debug("[{}]: fetching cover", sid);
-//        final OptionType<File> cover =
-//          BookDatabase.makeCover(http, this.id, e.getThumbnail());
-//        this.entrySetCover(cover);
+      DirectoryUtilities.directoryCreate(this.directory);
+      final BookDatabaseEntrySnapshot snap = this.setFeedDataBytes(data);
 
-      BookDatabase.LOG.debug("[{}]: getting snapshot", sid);
-      final BookDatabaseEntrySnapshot snap = this.entryGetSnapshot();
       BookDatabase.LOG.debug("[{}]: determining status", sid);
       final BookStatusType status = BookStatus.fromSnapshot(this.id, snap);
 
@@ -590,6 +1217,30 @@ public final class BookDatabase implements BookDatabaseType
       return snap;
     }
 
+    private OptionType<BookDatabaseEntrySnapshot> getSnapshotIfUnchanged(
+      final byte[] data)
+      throws IOException
+    {
+      final OptionType<BookDatabaseIndexEntry> indexed =
+        BookDatabase.this.databaseGetIndexEntry(this.id);
+      if (indexed.isNone()) {
+        return Option.none();
+      }
+
+      final String previous =
+        ((Some<BookDatabaseIndexEntry>) indexed).get().getFingerprint();
+      if (previous.equals(BookDatabaseIndex.fingerprint(data)) == false) {
+        return Option.none();
+      }
+
+      final OptionType<BookDatabaseEntrySnapshot> cached =
+        BookDatabase.this.databaseGetEntrySnapshot(this.id);
+      if (cached.isSome()) {
+        return cached;
+      }
+      return Option.some(this.entryGetSnapshot());
+    }
+
     private void setAdobeRightsInformationLocked(
       final OptionType<AdobeAdeptLoan> loan)
       throws IOException
@@ -646,6 +1297,220 @@ public final class BookDatabase implements BookDatabaseType
       return Option.none();
     }
 
+    @Override public OptionType<BookContentOrigin> entryGetBookOrigin()
+      throws IOException
+    {
+      return BookDatabase.this.locks.withReadLock(
+        this.id,
+        new PartialFunctionType<Unit, OptionType<BookContentOrigin>,
+          IOException>()
+        {
+          @Override public OptionType<BookContentOrigin> call(
+            final Unit x)
+            throws IOException
+          {
+            return BookDatabaseEntry.this.getBookOriginLocked();
+          }
+        });
+    }
+
+    @Override public BookDatabaseEntrySnapshot entrySetBookOrigin(
+      final OptionType<BookContentOrigin> origin)
+      throws IOException
+    {
+      return this.withWriteLock(
+        new PartialFunctionType<Unit, BookDatabaseEntrySnapshot, IOException>()
+        {
+          @Override public BookDatabaseEntrySnapshot call(
+            final Unit x)
+            throws IOException
+          {
+            BookDatabaseEntry.this.setBookOriginLocked(origin);
+            return BookDatabaseEntry.this.updateSnapshotLocked();
+          }
+        });
+    }
+
+    @Override
+    public OptionType<BookDatabaseEntrySnapshot> entryTakeBookFromBlobStore(
+      final URI uri)
+      throws IOException
+    {
+      NullCheck.notNull(uri);
+      return this.withWriteLock(
+        new PartialFunctionType<Unit, OptionType<BookDatabaseEntrySnapshot>,
+          IOException>()
+        {
+          @Override public OptionType<BookDatabaseEntrySnapshot> call(
+            final Unit x)
+            throws IOException
+          {
+            return BookDatabaseEntry.this.takeBookFromBlobStoreLocked(uri);
+          }
+        });
+    }
+
+    private OptionType<BookDatabaseEntrySnapshot> takeBookFromBlobStoreLocked(
+      final URI uri)
+      throws IOException
+    {
+      final OptionType<BookContentOrigin> origin_opt =
+        this.getBookOriginLocked();
+      if (BookDatabase.this.blob_store.isNone()
+        || origin_opt.isNone()
+        || this.file_book.isFile()) {
+        return Option.none();
+      }
+
+      final BookContentOrigin origin =
+        ((Some<BookContentOrigin>) origin_opt).get();
+      if (origin.getURI().equals(uri) == false) {
+        return Option.none();
+      }
+
+      final BookBlobStoreType store =
+        ((Some<BookBlobStoreType>) BookDatabase.this.blob_store).get();
+      if (store.blobStoreTake(origin.getDigest(), this.file_book)) {
+        BookDatabase.LOG.debug(
+          "[{}]: took book {} from blob store",
+          this.id.getShortID(),
+          origin.getDigest());
+        return Option.some(this.updateSnapshotLocked());
+      }
+      return Option.none();
+    }
+
+    @Override public OptionType<Calendar> entryGetLastReadTime()
+      throws IOException
+    {
+      return BookDatabase.this.locks.withReadLock(
+        this.id,
+        new PartialFunctionType<Unit, OptionType<Calendar>, IOException>()
+        {
+          @Override public OptionType<Calendar> call(
+            final Unit x)
+            throws IOException
+          {
+            return BookDatabaseEntry.this.getLastReadTimeLocked();
+          }
+        });
+    }
+
+    /**
+     * The read time is not part of the snapshot, so the write lock is taken
+     * directly, and the generation of the entry is not changed.
+     */
+
+    @Override public void entrySetLastReadTime(final Calendar time)
+      throws IOException
+    {
+      NullCheck.notNull(time);
+      BookDatabase.this.locks.withWriteLock(
+        this.id,
+        new PartialFunctionType<Unit, Unit, IOException>()
+        {
+          @Override public Unit call(
+            final Unit x)
+            throws IOException
+          {
+            BookDatabaseEntry.this.setLastReadTimeLocked(time);
+            return Unit.unit();
+          }
+        });
+    }
+
+    @Override public long entryGetDiskUsage()
+      throws IOException
+    {
+      return BookDatabase.this.locks.withReadLock(
+        this.id,
+        new PartialFunctionType<Unit, Long, IOException>()
+        {
+          @Override public Long call(
+            final Unit x)
+            throws IOException
+          {
+            long size = 0L;
+            final File[] files = BookDatabaseEntry.this.directory.listFiles();
+            if (files != null) {
+              for (final File f : files) {
+                size += f.length();
+              }
+            }
+            return Long.valueOf(size);
+          }
+        }).longValue();
+    }
+
+    private OptionType<Calendar> getLastReadTimeLocked()
+      throws IOException
+    {
+      if (this.file_read.isFile()) {
+        final ObjectMapper jom = new ObjectMapper();
+        final JsonNode jn = jom.readTree(this.file_read);
+        final ObjectNode o = JSONParserUtilities.checkObject(null, jn);
+        final Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(
+          JSONParserUtilities.getBigInteger(o, "time").longValue());
+        return Option.some(c);
+      }
+      return Option.none();
+    }
+
+    private void setLastReadTimeLocked(final Calendar time)
+      throws IOException
+    {
+      final ObjectMapper jom = new ObjectMapper();
+      final ObjectNode o = jom.createObjectNode();
+      o.put("time", time.getTimeInMillis());
+
+      FileUtilities.fileWriteUTF8Atomically(
+        this.file_read,
+        this.file_read_tmp,
+        JSONSerializerUtilities.serializeToString(o));
+    }
+
+    private OptionType<BookContentOrigin> getBookOriginLocked()
+      throws IOException
+    {
+      if (this.file_book_meta.isFile()) {
+        final ObjectMapper jom = new ObjectMapper();
+        final JsonNode jn = jom.readTree(this.file_book_meta);
+        final ObjectNode o = JSONParserUtilities.checkObject(null, jn);
+        return Option.some(
+          new BookContentOrigin(
+            JSONParserUtilities.getURI(o, "uri"),
+            JSONParserUtilities.getString(o, "digest")));
+      }
+      return Option.none();
+    }
+
+    private void setBookOriginLocked(
+      final OptionType<BookContentOrigin> origin_opt)
+      throws IOException
+    {
+      if (origin_opt.isSome()) {
+        final BookContentOrigin origin =
+          ((Some<BookContentOrigin>) origin_opt).get();
+
+        final ObjectMapper jom = new ObjectMapper();
+        final ObjectNode o = jom.createObjectNode();
+        o.put("uri", origin.getURI().toString());
+        o.put("digest", origin.getDigest());
+
+        final ByteArrayOutputStream bao = new ByteArrayOutputStream();
+        JSONSerializerUtilities.serialize(o, bao);
+
+        FileUtilities.fileWriteUTF8Atomically(
+          this.file_book_meta,
+          this.file_book_meta_tmp,
+          bao.toString("UTF-8"));
+      } else {
+        FileUtilities.fileDelete(this.file_book_meta);
+        FileUtilities.fileDelete(this.file_book_meta_tmp);
+      }
+    }
+
     private OptionType<File> getCoverLocked()
     {
       if (this.file_cover.isFile()) {
@@ -654,10 +1519,157 @@ public final class BookDatabase implements BookDatabaseType
       return Option.none();
     }
 
+    private OptionType<File> getThumbnailLocked()
+    {
+      if (this.file_thumbnail.isFile()) {
+        return Option.some(this.file_thumbnail);
+      }
+      return Option.none();
+    }
+
+    /**
+     * The URIs from which the current cover and thumbnail were fetched are
+     * recorded, so that an image is fetched again if its URI changes. An
+     * image with no recorded URI (such as one set with {@link
+     * #entrySetCover(OptionType)}) is also fetched again. Each fetch
+     * downloads into temporary files of its own, and the files are only
+     * renamed into place, and the URIs recorded, whilst holding the write
+     * lock of the entry; concurrent fetches of the same book therefore
+     * cannot corrupt each other's images.
+     */
+
+    @Override public OptionType<BookDatabaseEntrySnapshot> entryFetchCovers(
+      final HTTPType http)
+      throws IOException
+    {
+      NullCheck.notNull(http);
+
+      final OPDSAcquisitionFeedEntry e = this.entryGetFeedData();
+      final OptionType<URI> cover_uri =
+        e.getCover().isSome() ? e.getCover() : e.getThumbnail();
+      final OptionType<URI> thumbnail_uri =
+        e.getThumbnail().isSome() ? e.getThumbnail() : e.getCover();
+
+      final CoverOrigins current = BookDatabase.this.locks.withReadLock(
+        this.id,
+        new PartialFunctionType<Unit, CoverOrigins, IOException>()
+        {
+          @Override public CoverOrigins call(
+            final Unit x)
+            throws IOException
+          {
+            return BookDatabaseEntry.this.getCoverOriginsLocked();
+          }
+        });
+
+      /**
+       * If both variants have the same URI, the image is only downloaded
+       * once.
+       */
+
+      final boolean fetch_cover = cover_uri.isSome()
+        && (this.file_cover.isFile() == false
+        || cover_uri.equals(current.cover) == false);
+      final boolean fetch_thumbnail = thumbnail_uri.isSome()
+        && (this.file_thumbnail.isFile() == false
+        || thumbnail_uri.equals(current.thumbnail) == false);
+      final boolean same = cover_uri.equals(thumbnail_uri);
+
+      if (fetch_cover == false && fetch_thumbnail == false) {
+        return Option.none();
+      }
+
+      final File cover_tmp =
+        File.createTempFile("cover", ".jpg.tmp", this.directory);
+      final File thumbnail_tmp =
+        File.createTempFile("thumbnail", ".jpg.tmp", this.directory);
+
+      try {
+        if (fetch_cover) {
+          BookDatabase.makeCoverDownload(
+            http, this.id, cover_tmp, ((Some<URI>) cover_uri).get());
+        }
+        if (fetch_thumbnail) {
+          if (same && fetch_cover) {
+            FileUtilities.fileCopy(cover_tmp, thumbnail_tmp);
+          } else {
+            BookDatabase.makeCoverDownload(
+              http,
+              this.id,
+              thumbnail_tmp,
+              ((Some<URI>) thumbnail_uri).get());
+          }
+        }
+
+        return Option.some(
+          this.withWriteLock(
+            new PartialFunctionType<Unit, BookDatabaseEntrySnapshot,
+              IOException>()
+            {
+              @Override public BookDatabaseEntrySnapshot call(
+                final Unit x)
+                throws IOException
+              {
+                final BookDatabaseEntry self = BookDatabaseEntry.this;
+                final CoverOrigins origins = self.getCoverOriginsLocked();
+                if (fetch_cover) {
+                  FileUtilities.fileRename(cover_tmp, self.file_cover);
+                  origins.cover = cover_uri;
+                }
+                if (fetch_thumbnail) {
+                  FileUtilities.fileRename(thumbnail_tmp, self.file_thumbnail);
+                  origins.thumbnail = thumbnail_uri;
+                }
+                self.setCoverOriginsLocked(origins);
+                return self.updateSnapshotLocked();
+              }
+            }));
+      } finally {
+        cover_tmp.delete();
+        thumbnail_tmp.delete();
+      }
+    }
+
+    private CoverOrigins getCoverOriginsLocked()
+      throws IOException
+    {
+      final CoverOrigins o = new CoverOrigins();
+      if (this.file_cover_meta.isFile()) {
+        final ObjectMapper jom = new ObjectMapper();
+        final JsonNode jn = jom.readTree(this.file_cover_meta);
+        final ObjectNode on = JSONParserUtilities.checkObject(null, jn);
+        o.cover = JSONParserUtilities.getURIOptional(on, "cover");
+        o.thumbnail = JSONParserUtilities.getURIOptional(on, "thumbnail");
+      }
+      return o;
+    }
+
+    private void setCoverOriginsLocked(final CoverOrigins origins)
+      throws IOException
+    {
+      final ObjectMapper jom = new ObjectMapper();
+      final ObjectNode o = jom.createObjectNode();
+      if (origins.cover.isSome()) {
+        o.put("cover", ((Some<URI>) origins.cover).get().toString());
+      }
+      if (origins.thumbnail.isSome()) {
+        o.put("thumbnail", ((Some<URI>) origins.thumbnail).get().toString());
+      }
+
+      FileUtilities.fileWriteUTF8Atomically(
+        this.file_cover_meta,
+        this.file_cover_meta_tmp,
+        JSONSerializerUtilities.serializeToString(o));
+    }
+
     private void setCoverLocked(
       final OptionType<File> in_cover)
       throws IOException
     {
+      final CoverOrigins origins = this.getCoverOriginsLocked();
+      origins.cover = Option.none();
+      this.setCoverOriginsLocked(origins);
+
       if (in_cover.isSome()) {
         final Some<File> some = (Some<File>) in_cover;
         FileUtilities.fileCopy(some.get(), this.file_cover);
@@ -670,9 +1682,8 @@ public final class BookDatabase implements BookDatabaseType
     @Override public OPDSAcquisitionFeedEntry entryGetFeedData()
       throws IOException
     {
-      return FileLocking.withFileThreadLocked(
-        this.file_lock,
-        (long) BookDatabase.LOCK_WAIT_MAXIMUM_MILLISECONDS,
+      return BookDatabase.this.locks.withReadLock(
+        this.id,
         new PartialFunctionType<Unit, OPDSAcquisitionFeedEntry, IOException>()
         {
           @Override public OPDSAcquisitionFeedEntry call(
@@ -688,19 +1699,24 @@ public final class BookDatabase implements BookDatabaseType
       final OPDSAcquisitionFeedEntry in_entry)
       throws IOException
     {
-      final ObjectNode d = this.serializer.serializeFeedEntry(in_entry);
+      return this.setFeedDataBytes(this.serializeData(in_entry));
+    }
+
+    private BookDatabaseEntrySnapshot setFeedDataBytes(final byte[] data)
+      throws IOException
+    {
+      final OptionType<String> fingerprint =
+        Option.some(BookDatabaseIndex.fingerprint(data));
 
-      return FileLocking.withFileThreadLocked(
-        this.file_lock,
-        (long) BookDatabase.LOCK_WAIT_MAXIMUM_MILLISECONDS,
+      return this.withWriteLock(
         new PartialFunctionType<Unit, BookDatabaseEntrySnapshot, IOException>()
         {
           @Override public BookDatabaseEntrySnapshot call(
             final Unit x)
             throws IOException
           {
-            BookDatabaseEntry.this.setDataLocked(d);
-            return BookDatabaseEntry.this.updateSnapshotLocked();
+            BookDatabaseEntry.this.setDataLocked(data);
+            return BookDatabaseEntry.this.updateSnapshotLocked(fingerprint);
           }
         });
     }
@@ -711,21 +1727,111 @@ public final class BookDatabase implements BookDatabaseType
         final String sid = this.id.getShortID();
         BookDatabase.LOG.debug("[{}]: deleting snapshot", sid);
         BookDatabase.this.snapshots.remove(this.id);
+        BookDatabase.this.generations.remove(this.id);
+      }
+
+      final OptionType<BookDatabaseIndex> i = BookDatabase.this.getIndex();
+      if (i.isSome()) {
+        ((Some<BookDatabaseIndex>) i).get().indexRemove(this.id);
       }
     }
 
+    /**
+     * Read the current snapshot and record it in the index. This must be
+     * called after every change made to the entry.
+     */
+
     private BookDatabaseEntrySnapshot updateSnapshotLocked()
       throws IOException
+    {
+      final OptionType<String> none = Option.none();
+      return this.updateSnapshotLocked(none);
+    }
+
+    private BookDatabaseEntrySnapshot updateSnapshotLocked(
+      final OptionType<String> fingerprint)
+      throws IOException
+    {
+      final BookDatabaseEntrySnapshot e = this.readSnapshotLocked();
+      final OptionType<BookDatabaseIndex> i = BookDatabase.this.getIndex();
+      if (i.isSome()) {
+        ((Some<BookDatabaseIndex>) i).get().indexPut(e, fingerprint);
+      }
+      return e;
+    }
+
+    /**
+     * Return the cached snapshot if it was taken at the current generation of
+     * the entry, and otherwise read and cache a new snapshot. The caller must
+     * hold at least the read lock of the entry, so that the generation cannot
+     * change whilst the snapshot is being read.
+     */
+
+    private BookDatabaseEntrySnapshot cacheSnapshotLocked()
+      throws IOException
+    {
+      synchronized (BookDatabase.this.snapshots) {
+        final CachedSnapshot c = BookDatabase.this.snapshots.get(this.id);
+        if (c != null && c.generation == this.getGenerationLocked()) {
+          return c.snapshot;
+        }
+      }
+      return this.readSnapshotLocked();
+    }
+
+    private BookDatabaseEntrySnapshot readSnapshotLocked()
+      throws IOException
     {
       final BookDatabaseEntrySnapshot e = this.getSnapshotLocked();
       synchronized (BookDatabase.this.snapshots) {
         final String sid = this.id.getShortID();
         BookDatabase.LOG.debug("[{}]: updating snapshot {}", sid, e);
-        BookDatabase.this.snapshots.put(this.id, e);
+        BookDatabase.this.snapshots.put(
+          this.id, new CachedSnapshot(this.getGenerationLocked(), e));
         return e;
       }
     }
 
+    private long getGenerationLocked()
+    {
+      synchronized (BookDatabase.this.snapshots) {
+        final Long g = BookDatabase.this.generations.get(this.id);
+        return g == null ? 0L : g.longValue();
+      }
+    }
+
+    /**
+     * Invalidate any cached snapshot of the entry. This must be called with
+     * the write lock held, before any change is made to the entry, so that a
+     * change that fails partway is not hidden by the cache.
+     */
+
+    private void bumpGenerationLocked()
+    {
+      synchronized (BookDatabase.this.snapshots) {
+        BookDatabase.this.generations.put(
+          this.id, Long.valueOf(this.getGenerationLocked() + 1L));
+      }
+    }
+
+    private <T> T withWriteLock(
+      final PartialFunctionType<Unit, T, IOException> p)
+      throws IOException
+    {
+      return BookDatabase.this.locks.withWriteLock(
+        this.id,
+        new PartialFunctionType<Unit, T, IOException>()
+        {
+          @Override public T call(
+            final Unit x)
+            throws IOException
+          {
+            BookDatabaseEntry.this.bumpGenerationLocked();
+            return p.call(x);
+          }
+        });
+    }
+
     private OPDSAcquisitionFeedEntry getDataLocked()
       throws IOException
     {
@@ -737,22 +1843,36 @@ public final class BookDatabase implements BookDatabaseType
       }
     }
 
+    private byte[] serializeData(final OPDSAcquisitionFeedEntry e)
+      throws IOException
+    {
+      final ObjectNode d = this.serializer.serializeFeedEntry(e);
+      final ByteArrayOutputStream bao = new ByteArrayOutputStream(4096);
+      this.serializer.serializeToStream(d, bao);
+      return bao.toByteArray();
+    }
+
     private void setDataLocked(
-      final ObjectNode d)
+      final byte[] data)
       throws IOException
     {
       this.log.debug("updating data {}", this.file_meta);
+      FileUtilities.fileWriteBytesAtomically(
+        this.file_meta, this.file_meta_tmp, data);
+    }
 
-      final OutputStream os = new FileOutputStream(this.file_meta_tmp);
-
-      try {
-        this.serializer.serializeToStream(d, os);
-      } finally {
-        os.flush();
-        os.close();
-      }
+    /**
+     * Write the metadata in place. This is only safe when the data has
+     * already been written durably to the transaction file, from which an
+     * incomplete write is repaired.
+     */
 
-      FileUtilities.fileRename(this.file_meta_tmp, this.file_meta);
+    private void setDataInTransactionLocked(
+      final byte[] data)
+      throws IOException
+    {
+      this.log.debug("updating data {} in transaction", this.file_meta);
+      FileUtilities.fileWriteBytes(data, this.file_meta);
     }
 
     @Override public File entryGetDirectory()
@@ -768,16 +1888,15 @@ public final class BookDatabase implements BookDatabaseType
     @Override public BookDatabaseEntrySnapshot entryGetSnapshot()
       throws IOException
     {
-      return FileLocking.withFileThreadLocked(
-        this.file_lock,
-        (long) BookDatabase.LOCK_WAIT_MAXIMUM_MILLISECONDS,
+      return BookDatabase.this.locks.withReadLock(
+        this.id,
         new PartialFunctionType<Unit, BookDatabaseEntrySnapshot, IOException>()
         {
           @Override public BookDatabaseEntrySnapshot call(
             final Unit x)
             throws IOException
           {
-            return BookDatabaseEntry.this.updateSnapshotLocked();
+            return BookDatabaseEntry.this.cacheSnapshotLocked();
           }
         });
     }
@@ -787,11 +1906,12 @@ public final class BookDatabase implements BookDatabaseType
     {
       final OPDSAcquisitionFeedEntry in_entry = this.getDataLocked();
       final OptionType<File> in_cover = this.getCoverLocked();
+      final OptionType<File> in_thumbnail = this.getThumbnailLocked();
       final OptionType<File> in_book = this.getBookLocked();
       final OptionType<AdobeAdeptLoan> in_adobe_rights =
         this.getAdobeAdobeRightsInformationLocked();
       return new BookDatabaseEntrySnapshot(
-        this.id, in_cover, in_book, in_entry, in_adobe_rights);
+        this.id, in_cover, in_thumbnail, in_book, in_entry, in_adobe_rights);
     }
   }
 }
@@ -5,6 +5,7 @@ import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Calendar;
 
 /**
  * <p> The readable interface supported by book database entries. </p>
@@ -36,6 +37,36 @@ public interface BookDatabaseEntryReadableType
   OPDSAcquisitionFeedEntry entryGetFeedData()
     throws IOException;
 
+  /**
+   * @return The origin of the book data, if the book was downloaded directly
+   * and its digest is known. The origin is kept after the book data is
+   * deleted if the data was moved into a blob store.
+   *
+   * @throws IOException On I/O errors or lock acquisition failures
+   */
+
+  OptionType<BookContentOrigin> entryGetBookOrigin()
+    throws IOException;
+
+  /**
+   * @return The time that the book was last opened for reading, if it has
+   * been
+   *
+   * @throws IOException On I/O errors or lock acquisition failures
+   */
+
+  OptionType<Calendar> entryGetLastReadTime()
+    throws IOException;
+
+  /**
+   * @return The total size in bytes of the files of the entry
+   *
+   * @throws IOException On I/O errors or lock acquisition failures
+   */
+
+  long entryGetDiskUsage()
+    throws IOException;
+
   /**
    * @return The database entry directory
    */
@@ -49,7 +80,8 @@ public interface BookDatabaseEntryReadableType
   BookID entryGetBookID();
 
   /**
-   * @return A snapshot of the current entry state
+   * @return A snapshot of the current entry state, which may be a cached
+   * snapshot if the entry has not been written since it was taken
    *
    * @throws IOException On I/O errors or lock acquisition failures
    */
@@ -17,6 +17,7 @@ public final class BookDatabaseEntrySnapshot
   private final OptionType<AdobeAdeptLoan> adobe_rights;
   private final OptionType<File>           book;
   private final OptionType<File>           cover;
+  private final OptionType<File>           thumbnail;
   private final OPDSAcquisitionFeedEntry   entry;
 
   /**
@@ -24,6 +25,7 @@ public final class BookDatabaseEntrySnapshot
    *
    * @param in_id           The book ID
    * @param in_cover        The cover file, if any
+   * @param in_thumbnail    The thumbnail-sized cover file, if any
    * @param in_book         The actual book (typically an EPUB), if any
    * @param in_entry        The acquisition feed entry
    * @param in_adobe_rights The Adobe DRM rights associated with the book, if
@@ -33,12 +35,14 @@ public final class BookDatabaseEntrySnapshot
   public BookDatabaseEntrySnapshot(
     final BookID in_id,
     final OptionType<File> in_cover,
+    final OptionType<File> in_thumbnail,
     final OptionType<File> in_book,
     final OPDSAcquisitionFeedEntry in_entry,
     final OptionType<AdobeAdeptLoan> in_adobe_rights)
   {
     this.id = NullCheck.notNull(in_id);
     this.cover = NullCheck.notNull(in_cover);
+    this.thumbnail = NullCheck.notNull(in_thumbnail);
     this.book = NullCheck.notNull(in_book);
     this.entry = NullCheck.notNull(in_entry);
     this.adobe_rights = NullCheck.notNull(in_adobe_rights);
@@ -71,6 +75,15 @@ public final class BookDatabaseEntrySnapshot
     return this.cover;
   }
 
+  /**
+   * @return The thumbnail-sized cover image, if any
+   */
+
+  public OptionType<File> getThumbnail()
+  {
+    return this.thumbnail;
+  }
+
   /**
    * @return The Adobe DRM rights, if any
    */
@@ -96,6 +109,7 @@ public final class BookDatabaseEntrySnapshot
     sb.append(", id=").append(this.id);
     sb.append(", book=").append(this.book);
     sb.append(", cover=").append(this.cover);
+    sb.append(", thumbnail=").append(this.thumbnail);
     sb.append(", entry=").append(this.entry.getAvailability());
     sb.append('}');
     return sb.toString();
@@ -7,6 +7,8 @@ import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.util.Calendar;
 
 /**
  * <p>The writable interface supported by book database entries.</p>
@@ -47,6 +49,35 @@ public interface BookDatabaseEntryWritableType
     File file)
     throws IOException;
 
+  /**
+   * Set the origin of the book data.
+   *
+   * @param origin The origin, if any
+   *
+   * @return A snapshot of the new database state
+   *
+   * @throws IOException On I/O errors or lock acquisition failures
+   */
+
+  BookDatabaseEntrySnapshot entrySetBookOrigin(
+    OptionType<BookContentOrigin> origin)
+    throws IOException;
+
+  /**
+   * Take the book data back from the database's blob store, if the data was
+   * previously moved there and was originally downloaded from {@code uri}.
+   *
+   * @param uri The URI from which the book would be downloaded
+   *
+   * @return A snapshot of the new database state, if the book data was taken
+   * from the blob store
+   *
+   * @throws IOException On I/O errors or lock acquisition failures
+   */
+
+  OptionType<BookDatabaseEntrySnapshot> entryTakeBookFromBlobStore(URI uri)
+    throws IOException;
+
   /**
    * Create the book directory if it does not exist.
    *
@@ -92,6 +123,19 @@ public interface BookDatabaseEntryWritableType
     OPDSAcquisitionFeedEntry in_entry)
     throws IOException;
 
+  /**
+   * Record the time that the book was last opened for reading. The time is
+   * not part of the snapshot of the entry, and so no snapshot is returned.
+   *
+   * @param time The time
+   *
+   * @throws IOException On I/O errors or lock acquisition failures
+   */
+
+  void entrySetLastReadTime(
+    Calendar time)
+    throws IOException;
+
   /**
    * Set the cover of the book
    *
@@ -121,9 +165,31 @@ public interface BookDatabaseEntryWritableType
     throws IOException;
 
   /**
-   * Update the book data based on {@code e}. The cover, if any, will be fetched
-   * using the http interface {@code http}, and the new status will be published
-   * to {@code books_status}.
+   * Download the full-size and thumbnail-size cover images named by the feed
+   * entry into the entry directory, unless they are already present and
+   * were fetched from the same URIs. If the feed entry names only one of
+   * them, it is used for both. Images are downloaded into temporary files
+   * without holding the lock of the entry, and are renamed into place under
+   * the write lock when complete.
+   *
+   * @param http The HTTP interface
+   *
+   * @return A snapshot of the new database state, if any image was
+   * downloaded
+   *
+   * @throws IOException On I/O errors or lock acquisition failures
+   */
+
+  OptionType<BookDatabaseEntrySnapshot> entryFetchCovers(
+    HTTPType http)
+    throws IOException;
+
+  /**
+   * Update the book data based on {@code e}, and publish the new status to
+   * {@code books_status}. Covers are not fetched; see
+   * {@link #entryFetchCovers(HTTPType)}. If the serialized entry is identical to the one
+   * most recently written, nothing is written, and the status is published
+   * only if {@code books_status} does not yet hold one for the book.
    *
    * @param e            The feed entry
    * @param books_status The book status cache
@@ -0,0 +1,669 @@
+package org.nypl.simplified.books.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.nypl.simplified.assertions.Assertions;
+import org.nypl.simplified.files.FileUtilities;
+import org.nypl.simplified.json.core.JSONParseException;
+import org.nypl.simplified.json.core.JSONParserUtilities;
+import org.nypl.simplified.json.core.JSONSerializerUtilities;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry;
+import org.nypl.simplified.opds.core.OPDSAvailabilityHeld;
+import org.nypl.simplified.opds.core.OPDSAvailabilityHeldReady;
+import org.nypl.simplified.opds.core.OPDSAvailabilityHoldable;
+import org.nypl.simplified.opds.core.OPDSAvailabilityLoanable;
+import org.nypl.simplified.opds.core.OPDSAvailabilityLoaned;
+import org.nypl.simplified.opds.core.OPDSAvailabilityMatcherType;
+import org.nypl.simplified.opds.core.OPDSAvailabilityOpenAccess;
+import org.nypl.simplified.opds.core.OPDSAvailabilityRevoked;
+import org.nypl.simplified.opds.core.OPDSAvailabilityType;
+import org.nypl.simplified.opds.core.OPDSJSONParserType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>An index of the entries of a {@link BookDatabase}, held in memory so
+ * that queries do not need to scan the database directory.</p>
+ *
+ * <p>The index is persisted as a checkpoint file and an append-only journal.
+ * Every change is appended to the journal as a single line of JSON, and once
+ * the journal holds {@link #CHECKPOINT_RECORDS} records the whole index is
+ * written atomically to the checkpoint and the journal is truncated. On
+ * opening, the checkpoint is read, the journal is replayed up to its first
+ * unreadable record, and the result is reconciled with the entry
+ * directories that actually exist. A crash can therefore lose at most the
+ * last few changes, and reconciliation restores them.</p>
+ *
+ * <p>Changes made by a thread between {@link #indexBatchBegin()} and
+ * {@link #indexBatchEnd()} are buffered and appended to the journal with a
+ * single write. Batches belong to the thread that began them, so changes
+ * made by other threads in the meantime are written as usual. Each record
+ * holds the whole state of a book, and so a buffered record that is
+ * superseded by a later change to the same book, by any thread, is simply
+ * dropped.</p>
+ */
+
+final class BookDatabaseIndex
+{
+  /**
+   * The number of journal records after which a checkpoint is written.
+   */
+
+  static final int CHECKPOINT_RECORDS = 128;
+
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(BookDatabaseIndex.class));
+  }
+
+  private final File                                directory;
+  private final File                                file_checkpoint;
+  private final File                                file_checkpoint_tmp;
+  private final File                                file_journal;
+  private final OPDSJSONParserType                  parser;
+  private final Map<BookID, BookDatabaseIndexEntry> entries;
+  private final Map<Thread, Batch>                  batches;
+  private       int                                 journal_records;
+
+  private BookDatabaseIndex(
+    final File in_directory,
+    final OPDSJSONParserType in_parser)
+  {
+    this.directory = NullCheck.notNull(in_directory);
+    this.parser = NullCheck.notNull(in_parser);
+    this.file_checkpoint = new File(in_directory, "index.json");
+    this.file_checkpoint_tmp = new File(in_directory, "index.json.tmp");
+    this.file_journal = new File(in_directory, "index.journal");
+    this.entries = new HashMap<BookID, BookDatabaseIndexEntry>(64);
+    this.batches = new HashMap<Thread, Batch>(4);
+    this.journal_records = 0;
+  }
+
+  /**
+   * Open the index of the database in the given directory, reconciling it
+   * with the entries that exist in the directory.
+   *
+   * @param in_directory The database directory
+   * @param in_parser    A parser for the metadata of entries that the index
+   *                     does not yet know about
+   *
+   * @return An index
+   */
+
+  static BookDatabaseIndex openIndex(
+    final File in_directory,
+    final OPDSJSONParserType in_parser)
+  {
+    final BookDatabaseIndex index =
+      new BookDatabaseIndex(in_directory, in_parser);
+
+    synchronized (index) {
+      index.readCheckpoint();
+      index.replayJournal();
+      index.reconcile();
+      index.checkpoint();
+    }
+
+    BookDatabaseIndex.LOG.debug(
+      "opened index of {} with {} entries",
+      in_directory,
+      Integer.valueOf(index.entries.size()));
+    return index;
+  }
+
+  /**
+   * @param a An availability value
+   *
+   * @return The kind of the availability, named as in the serialized feed
+   * entry
+   */
+
+  static String availabilityKind(final OPDSAvailabilityType a)
+  {
+    return a.matchAvailability(
+      new OPDSAvailabilityMatcherType<String, UnreachableCodeException>()
+      {
+        @Override public String onHeldReady(final OPDSAvailabilityHeldReady x)
+        {
+          return "held_ready";
+        }
+
+        @Override public String onHeld(final OPDSAvailabilityHeld x)
+        {
+          return "held";
+        }
+
+        @Override public String onHoldable(final OPDSAvailabilityHoldable x)
+        {
+          return "holdable";
+        }
+
+        @Override public String onLoaned(final OPDSAvailabilityLoaned x)
+        {
+          return "loaned";
+        }
+
+        @Override public String onLoanable(final OPDSAvailabilityLoanable x)
+        {
+          return "loanable";
+        }
+
+        @Override
+        public String onOpenAccess(final OPDSAvailabilityOpenAccess x)
+        {
+          return "open_access";
+        }
+
+        @Override public String onRevoked(final OPDSAvailabilityRevoked x)
+        {
+          return "revoked";
+        }
+      });
+  }
+
+  private static ObjectNode serializeEntry(
+    final ObjectMapper jom,
+    final BookDatabaseIndexEntry e)
+  {
+    final ObjectNode o = jom.createObjectNode();
+    o.put("book", e.getID().toString());
+    o.put("book_file", e.hasBook());
+    o.put("cover_file", e.hasCover());
+    o.put("availability", e.getAvailability());
+    o.put("version", e.getVersion());
+    o.put("fingerprint", e.getFingerprint());
+    return o;
+  }
+
+  private static BookDatabaseIndexEntry parseEntry(final ObjectNode o)
+    throws JSONParseException
+  {
+    final OptionType<String> fp =
+      JSONParserUtilities.getStringOptional(o, "fingerprint");
+    return new BookDatabaseIndexEntry(
+      BookID.exactString(JSONParserUtilities.getString(o, "book")),
+      JSONParserUtilities.getBoolean(o, "book_file"),
+      JSONParserUtilities.getBoolean(o, "cover_file"),
+      JSONParserUtilities.getString(o, "availability"),
+      JSONParserUtilities.getBigInteger(o, "version").longValue(),
+      fp.isSome() ? ((Some<String>) fp).get() : "");
+  }
+
+  /**
+   * @return The IDs of all books in the index
+   */
+
+  synchronized Set<BookID> indexGetBooks()
+  {
+    return new HashSet<BookID>(this.entries.keySet());
+  }
+
+  /**
+   * @param id The book ID
+   *
+   * @return The index entry for the given book, if any
+   */
+
+  synchronized OptionType<BookDatabaseIndexEntry> indexGet(final BookID id)
+  {
+    return Option.of(this.entries.get(NullCheck.notNull(id)));
+  }
+
+  /**
+   * @param data The serialized metadata of a book
+   *
+   * @return The SHA-256 digest of {@code data}, as a lowercase hexadecimal
+   * string
+   */
+
+  static String fingerprint(final byte[] data)
+  {
+    try {
+      final MessageDigest md = MessageDigest.getInstance("SHA-256");
+      final byte[] dg = md.digest(data);
+      final StringBuilder sb = new StringBuilder(64);
+      for (final byte b : dg) {
+        sb.append(String.format("%02x", Integer.valueOf(b & 0xff)));
+      }
+      return NullCheck.notNull(sb.toString());
+    } catch (final NoSuchAlgorithmException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  /**
+   * Record the given snapshot in the index, incrementing the metadata
+   * version of the book.
+   *
+   * @param snap        The most recent snapshot of a book
+   * @param fingerprint The fingerprint of the metadata, if it was written,
+   *                    or nothing if the previous fingerprint still applies
+   *
+   * @return The new index entry
+   */
+
+  synchronized BookDatabaseIndexEntry indexPut(
+    final BookDatabaseEntrySnapshot snap,
+    final OptionType<String> fingerprint)
+  {
+    final BookID id = snap.getBookID();
+    final BookDatabaseIndexEntry previous = this.entries.get(id);
+    final long version = previous == null ? 1L : previous.getVersion() + 1L;
+
+    final String fp;
+    if (fingerprint.isSome()) {
+      fp = ((Some<String>) fingerprint).get();
+    } else {
+      fp = previous == null ? "" : previous.getFingerprint();
+    }
+
+    final BookDatabaseIndexEntry e = new BookDatabaseIndexEntry(
+      id,
+      snap.getBook().isSome(),
+      snap.getCover().isSome(),
+      BookDatabaseIndex.availabilityKind(snap.getEntry().getAvailability()),
+      version,
+      fp);
+
+    this.entries.put(id, e);
+
+    final ObjectMapper jom = new ObjectMapper();
+    final ObjectNode o = BookDatabaseIndex.serializeEntry(jom, e);
+    o.put("op", "put");
+    this.append(id, jom, o);
+    return e;
+  }
+
+  /**
+   * Remove the given book from the index.
+   *
+   * @param id The book ID
+   */
+
+  synchronized void indexRemove(final BookID id)
+  {
+    if (this.entries.remove(NullCheck.notNull(id)) == null) {
+      return;
+    }
+
+    final ObjectMapper jom = new ObjectMapper();
+    final ObjectNode o = jom.createObjectNode();
+    o.put("op", "remove");
+    o.put("book", id.toString());
+    this.append(id, jom, o);
+  }
+
+  /**
+   * Delete the files of the index. The index is empty afterwards.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  synchronized void indexDelete()
+    throws IOException
+  {
+    this.entries.clear();
+    this.journal_records = 0;
+    FileUtilities.fileDelete(this.file_journal);
+    FileUtilities.fileDelete(this.file_checkpoint);
+    FileUtilities.fileDelete(this.file_checkpoint_tmp);
+  }
+
+  /**
+   * Begin a batch of changes on the current thread. Batches may be nested;
+   * records are buffered until the outermost batch ends.
+   */
+
+  synchronized void indexBatchBegin()
+  {
+    final Thread t = Thread.currentThread();
+    Batch b = this.batches.get(t);
+    if (b == null) {
+      b = new Batch();
+      this.batches.put(t, b);
+    }
+    ++b.depth;
+  }
+
+  /**
+   * End a batch of changes on the current thread, appending the buffered
+   * records to the journal with a single write if this ends the outermost
+   * batch.
+   */
+
+  synchronized void indexBatchEnd()
+  {
+    final Thread t = Thread.currentThread();
+    final Batch b = this.batches.get(t);
+    Assertions.checkPrecondition(b != null, "A batch must be in progress");
+
+    final Batch bb = NullCheck.notNull(b);
+    --bb.depth;
+    if (bb.depth > 0) {
+      return;
+    }
+
+    this.batches.remove(t);
+    final int count = bb.records.size();
+    if (count == 0) {
+      return;
+    }
+    if (this.journal_records + count > BookDatabaseIndex.CHECKPOINT_RECORDS) {
+      this.checkpoint();
+      return;
+    }
+
+    final StringBuilder sb = new StringBuilder(count * 256);
+    for (final String line : bb.records.values()) {
+      sb.append(line);
+    }
+    this.writeJournal(NullCheck.notNull(sb.toString()), count);
+  }
+
+  /**
+   * Append a record to the journal, writing a checkpoint instead if the
+   * journal is full, or buffering the record if the current thread has a
+   * batch in progress. The in-memory index is authoritative, so failures are
+   * logged and repaired by reconciliation the next time the index is
+   * opened.
+   */
+
+  private void append(
+    final BookID id,
+    final ObjectMapper jom,
+    final ObjectNode o)
+  {
+    final String line;
+    try {
+      line = jom.writeValueAsString(o) + "\n";
+    } catch (final IOException e) {
+      throw new UnreachableCodeException(e);
+    }
+
+    /**
+     * A record buffered by another batch would otherwise be written after
+     * this one, and so replace it on replay.
+     */
+
+    final Batch own = this.batches.get(Thread.currentThread());
+    for (final Batch b : this.batches.values()) {
+      if (b != own) {
+        b.records.remove(id);
+      }
+    }
+
+    if (own != null) {
+      own.records.remove(id);
+      own.records.put(id, line);
+      return;
+    }
+
+    if (this.journal_records >= BookDatabaseIndex.CHECKPOINT_RECORDS) {
+      this.checkpoint();
+      return;
+    }
+    this.writeJournal(line, 1);
+  }
+
+  private void writeJournal(
+    final String lines,
+    final int count)
+  {
+    try {
+      final OutputStream os = new FileOutputStream(this.file_journal, true);
+      try {
+        os.write(lines.getBytes("UTF-8"));
+        os.flush();
+      } finally {
+        os.close();
+      }
+      this.journal_records += count;
+    } catch (final IOException e) {
+      BookDatabaseIndex.LOG.error(
+        "could not append to index journal {}: ", this.file_journal, e);
+    }
+  }
+
+  private void checkpoint()
+  {
+    try {
+      final ObjectMapper jom = new ObjectMapper();
+      final ArrayNode a = jom.createArrayNode();
+      for (final BookDatabaseIndexEntry e : this.entries.values()) {
+        a.add(BookDatabaseIndex.serializeEntry(jom, e));
+      }
+
+      final ObjectNode o = jom.createObjectNode();
+      o.set("entries", a);
+
+      FileUtilities.fileWriteUTF8Atomically(
+        this.file_checkpoint,
+        this.file_checkpoint_tmp,
+        JSONSerializerUtilities.serializeToString(o));
+      FileUtilities.fileDelete(this.file_journal);
+      this.journal_records = 0;
+
+      /**
+       * The checkpoint includes every change that batches have buffered.
+       */
+
+      for (final Batch b : this.batches.values()) {
+        b.records.clear();
+      }
+
+      BookDatabaseIndex.LOG.debug(
+        "wrote index checkpoint with {} entries",
+        Integer.valueOf(this.entries.size()));
+    } catch (final IOException e) {
+      BookDatabaseIndex.LOG.error(
+        "could not write index checkpoint {}: ", this.file_checkpoint, e);
+    }
+  }
+
+  private void readCheckpoint()
+  {
+    if (this.file_checkpoint.isFile() == false) {
+      return;
+    }
+
+    try {
+      final ObjectMapper jom = new ObjectMapper();
+      final JsonNode jn = jom.readTree(this.file_checkpoint);
+      final ObjectNode o = JSONParserUtilities.checkObject(null, jn);
+      final ArrayNode a = JSONParserUtilities.getArray(o, "entries");
+      for (final JsonNode n : a) {
+        final ObjectNode no = JSONParserUtilities.checkObject(null, n);
+        final BookDatabaseIndexEntry e = BookDatabaseIndex.parseEntry(no);
+        this.entries.put(e.getID(), e);
+      }
+    } catch (final Exception e) {
+      BookDatabaseIndex.LOG.error(
+        "ignoring unreadable index checkpoint {}: ", this.file_checkpoint, e);
+      this.entries.clear();
+    }
+  }
+
+  /**
+   * Replay the journal. A crash during an append can leave a partial final
+   * record, so replay stops at the first record that cannot be read.
+   */
+
+  private void replayJournal()
+  {
+    if (this.file_journal.isFile() == false) {
+      return;
+    }
+
+    try {
+      final ObjectMapper jom = new ObjectMapper();
+      final InputStream is = new FileInputStream(this.file_journal);
+      final BufferedReader r =
+        new BufferedReader(new InputStreamReader(is, "UTF-8"));
+      try {
+        while (true) {
+          final String line = r.readLine();
+          if (line == null) {
+            break;
+          }
+
+          try {
+            final ObjectNode o =
+              JSONParserUtilities.checkObject(null, jom.readTree(line));
+            final String op = JSONParserUtilities.getString(o, "op");
+            if ("put".equals(op)) {
+              final BookDatabaseIndexEntry e = BookDatabaseIndex.parseEntry(o);
+              this.entries.put(e.getID(), e);
+            } else if ("remove".equals(op)) {
+              this.entries.remove(
+                BookID.exactString(JSONParserUtilities.getString(o, "book")));
+            } else {
+              throw new JSONParseException("Unrecognized operation: " + op);
+            }
+            ++this.journal_records;
+          } catch (final Exception e) {
+            BookDatabaseIndex.LOG.error(
+              "stopping replay of index journal at unreadable record: ", e);
+            break;
+          }
+        }
+      } finally {
+        r.close();
+      }
+    } catch (final IOException e) {
+      BookDatabaseIndex.LOG.error(
+        "could not read index journal {}: ", this.file_journal, e);
+    }
+  }
+
+  /**
+   * Bring the index into agreement with the entry directories that exist.
+   * Entries whose directories have gone are removed, the presence of the book
+   * and cover files of the remaining entries is refreshed, and directories
+   * that the index does not know about are added.
+   */
+
+  private void reconcile()
+  {
+    final File[] dirs = this.directory.listFiles(
+      new FileFilter()
+      {
+        @Override public boolean accept(
+          final @Nullable File path)
+        {
+          return NullCheck.notNull(path).isDirectory();
+        }
+      });
+
+    final Set<BookID> present = new HashSet<BookID>(64);
+    if (dirs != null) {
+      for (final File f : dirs) {
+        final BookID id = BookID.exactString(NullCheck.notNull(f.getName()));
+        present.add(id);
+
+        final boolean book = new File(f, "book.epub").isFile();
+        final boolean cover = new File(f, "cover.jpg").isFile();
+        final BookDatabaseIndexEntry e = this.entries.get(id);
+        if (e == null) {
+          BookDatabaseIndex.LOG.debug("[{}]: adding to index", id.getShortID());
+          this.entries.put(id, this.readEntry(f, id, book, cover, 1L));
+        } else if (e.getFingerprint().isEmpty()) {
+          this.entries.put(
+            id, this.readEntry(f, id, book, cover, e.getVersion()));
+        } else if (e.hasBook() != book || e.hasCover() != cover) {
+          this.entries.put(
+            id,
+            new BookDatabaseIndexEntry(
+              id,
+              book,
+              cover,
+              e.getAvailability(),
+              e.getVersion(),
+              e.getFingerprint()));
+        }
+      }
+    }
+
+    final Iterator<BookID> iter = this.entries.keySet().iterator();
+    while (iter.hasNext()) {
+      final BookID id = iter.next();
+      if (present.contains(id) == false) {
+        BookDatabaseIndex.LOG.debug(
+          "[{}]: removing from index", id.getShortID());
+        iter.remove();
+      }
+    }
+  }
+
+  private BookDatabaseIndexEntry readEntry(
+    final File entry_dir,
+    final BookID id,
+    final boolean book,
+    final boolean cover,
+    final long version)
+  {
+    final File meta = new File(entry_dir, "meta.json");
+    try {
+      final byte[] data = FileUtilities.fileReadBytes(meta);
+      final OPDSAcquisitionFeedEntry e =
+        this.parser.parseAcquisitionFeedEntryFromStream(
+          new ByteArrayInputStream(data));
+      return new BookDatabaseIndexEntry(
+        id,
+        book,
+        cover,
+        BookDatabaseIndex.availabilityKind(e.getAvailability()),
+        version,
+        BookDatabaseIndex.fingerprint(data));
+    } catch (final Exception e) {
+      BookDatabaseIndex.LOG.debug("could not read {}: ", meta, e);
+      return new BookDatabaseIndexEntry(
+        id, book, cover, "unknown", version, "");
+    }
+  }
+
+  /**
+   * The records buffered by a batch, keyed by book, in the order in which
+   * they were last changed.
+   */
+
+  private static final class Batch
+  {
+    private final Map<BookID, String> records;
+    private       int                 depth;
+
+    Batch()
+    {
+      this.records = new LinkedHashMap<BookID, String>(64);
+      this.depth = 0;
+    }
+  }
+
+}
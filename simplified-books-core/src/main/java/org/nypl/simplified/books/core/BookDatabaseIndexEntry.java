@@ -0,0 +1,121 @@
+package org.nypl.simplified.books.core;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * An entry in the book database index: the presence of the book and cover
+ * files of a book, the kind of its availability, and the version and
+ * fingerprint of its metadata.
+ */
+
+public final class BookDatabaseIndexEntry
+{
+  private final BookID  id;
+  private final boolean book;
+  private final boolean cover;
+  private final String  availability;
+  private final long    version;
+  private final String  fingerprint;
+
+  /**
+   * Construct an entry.
+   *
+   * @param in_id           The book ID
+   * @param in_book         {@code true} iff the book file is present
+   * @param in_cover        {@code true} iff the cover file is present
+   * @param in_availability The kind of availability, such as {@code loaned}
+   * @param in_version      The version of the metadata, incremented on each
+   *                        write
+   * @param in_fingerprint  The SHA-256 digest of the serialized feed entry,
+   *                        or the empty string if unknown
+   */
+
+  public BookDatabaseIndexEntry(
+    final BookID in_id,
+    final boolean in_book,
+    final boolean in_cover,
+    final String in_availability,
+    final long in_version,
+    final String in_fingerprint)
+  {
+    this.id = NullCheck.notNull(in_id);
+    this.book = in_book;
+    this.cover = in_cover;
+    this.availability = NullCheck.notNull(in_availability);
+    this.version = in_version;
+    this.fingerprint = NullCheck.notNull(in_fingerprint);
+  }
+
+  /**
+   * @return The book ID
+   */
+
+  public BookID getID()
+  {
+    return this.id;
+  }
+
+  /**
+   * @return {@code true} iff the book file is present
+   */
+
+  public boolean hasBook()
+  {
+    return this.book;
+  }
+
+  /**
+   * @return {@code true} iff the cover file is present
+   */
+
+  public boolean hasCover()
+  {
+    return this.cover;
+  }
+
+  /**
+   * @return The kind of availability, named as in the serialized feed entry,
+   * or {@code unknown} if the metadata could not be read
+   */
+
+  public String getAvailability()
+  {
+    return this.availability;
+  }
+
+  /**
+   * @return The version of the metadata
+   */
+
+  public long getVersion()
+  {
+    return this.version;
+  }
+
+  /**
+   * @return The SHA-256 digest of the serialized feed entry, as a lowercase
+   * hexadecimal string, or the empty string if unknown
+   */
+
+  public String getFingerprint()
+  {
+    return this.fingerprint;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder(128);
+    b.append("[BookDatabaseIndexEntry ");
+    b.append(this.id);
+    b.append(" book=");
+    b.append(this.book);
+    b.append(" cover=");
+    b.append(this.cover);
+    b.append(" ");
+    b.append(this.availability);
+    b.append(" v");
+    b.append(this.version);
+    b.append("]");
+    return NullCheck.notNull(b.toString());
+  }
+}
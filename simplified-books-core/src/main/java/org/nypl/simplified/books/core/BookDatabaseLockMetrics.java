@@ -0,0 +1,103 @@
+package org.nypl.simplified.books.core;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * A snapshot of the counters kept by the lock manager of a book database.
+ */
+
+public final class BookDatabaseLockMetrics
+{
+  private final long reads;
+  private final long writes;
+  private final long contended;
+  private final long timeouts;
+  private final long wait_nanos;
+
+  /**
+   * Construct metrics.
+   *
+   * @param in_reads      The number of read locks acquired
+   * @param in_writes     The number of write locks acquired
+   * @param in_contended  The number of acquisitions that had to wait
+   * @param in_timeouts   The number of acquisitions that timed out
+   * @param in_wait_nanos The total time spent waiting, in nanoseconds
+   */
+
+  public BookDatabaseLockMetrics(
+    final long in_reads,
+    final long in_writes,
+    final long in_contended,
+    final long in_timeouts,
+    final long in_wait_nanos)
+  {
+    this.reads = in_reads;
+    this.writes = in_writes;
+    this.contended = in_contended;
+    this.timeouts = in_timeouts;
+    this.wait_nanos = in_wait_nanos;
+  }
+
+  /**
+   * @return The number of read locks acquired
+   */
+
+  public long getReads()
+  {
+    return this.reads;
+  }
+
+  /**
+   * @return The number of write locks acquired
+   */
+
+  public long getWrites()
+  {
+    return this.writes;
+  }
+
+  /**
+   * @return The number of acquisitions, successful or not, that could not
+   * take the lock immediately
+   */
+
+  public long getContended()
+  {
+    return this.contended;
+  }
+
+  /**
+   * @return The number of acquisitions that timed out
+   */
+
+  public long getTimeouts()
+  {
+    return this.timeouts;
+  }
+
+  /**
+   * @return The total time spent waiting for contended locks, in nanoseconds
+   */
+
+  public long getWaitNanos()
+  {
+    return this.wait_nanos;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder(128);
+    b.append("[BookDatabaseLockMetrics reads=");
+    b.append(this.reads);
+    b.append(" writes=");
+    b.append(this.writes);
+    b.append(" contended=");
+    b.append(this.contended);
+    b.append(" timeouts=");
+    b.append(this.timeouts);
+    b.append(" wait=");
+    b.append(this.wait_nanos / 1000000L);
+    b.append("ms]");
+    return NullCheck.notNull(b.toString());
+  }
+}
@@ -0,0 +1,299 @@
+package org.nypl.simplified.books.core;
+
+import com.io7m.jfunctional.PartialFunctionType;
+import com.io7m.jfunctional.Unit;
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.assertions.Assertions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>The in-process locks of the entries of a book database.</p>
+ *
+ * <p>Books are mapped onto a fixed array of read/write locks by the hash of
+ * their IDs, so that no lock needs to be created, looked up, or canonicalized
+ * per operation. Two books may share a stripe, in which case operations on
+ * them exclude each other exactly as operations on a single book do. Reads
+ * of an entry take the read lock, so that they do not block each other.
+ * Locks are reentrant.</p>
+ *
+ * <p>A thread that holds any read lock cannot take any write lock, and fails
+ * immediately if it tries. Read locks cannot be upgraded, so a write to a
+ * book on the same stripe as the one being read would otherwise wait until
+ * it timed out. Whether two books share a stripe depends only on their
+ * hashes, and so the rule applies to every book rather than only to those
+ * that happen to collide: no database write may be made from within a
+ * read.</p>
+ *
+ * <p>As with {@link org.nypl.simplified.files.FileLocking}, locks are not
+ * shared between processes.</p>
+ */
+
+final class BookDatabaseLocks
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(BookDatabaseLocks.class));
+  }
+
+  private final ReentrantReadWriteLock[] stripes;
+  private final int                      mask;
+  private final long                     timeout_ms;
+  private final AtomicLong               reads;
+  private final AtomicLong               writes;
+  private final AtomicLong               contended;
+  private final AtomicLong               timeouts;
+  private final AtomicLong               wait_nanos;
+  private final ThreadLocal<int[]>       reading;
+
+  private BookDatabaseLocks(
+    final int in_stripes,
+    final long in_timeout_ms)
+  {
+    Assertions.checkPrecondition(
+      in_stripes > 0 && Integer.bitCount(in_stripes) == 1,
+      "Stripe count %d must be a positive power of two",
+      Integer.valueOf(in_stripes));
+    Assertions.checkPrecondition(
+      in_timeout_ms >= 0L,
+      "Timeout %d must be non-negative",
+      Long.valueOf(in_timeout_ms));
+
+    this.stripes = new ReentrantReadWriteLock[in_stripes];
+    for (int index = 0; index < in_stripes; ++index) {
+      this.stripes[index] = new ReentrantReadWriteLock();
+    }
+
+    this.mask = in_stripes - 1;
+    this.timeout_ms = in_timeout_ms;
+    this.reads = new AtomicLong(0L);
+    this.writes = new AtomicLong(0L);
+    this.contended = new AtomicLong(0L);
+    this.timeouts = new AtomicLong(0L);
+    this.wait_nanos = new AtomicLong(0L);
+    this.reading = new ThreadLocal<int[]>()
+    {
+      @Override protected int[] initialValue()
+      {
+        return new int[1];
+      }
+    };
+  }
+
+  /**
+   * @param in_stripes    The number of stripes, a positive power of two
+   * @param in_timeout_ms The maximum time to wait for a lock
+   *
+   * @return A new set of locks
+   */
+
+  static BookDatabaseLocks newLocks(
+    final int in_stripes,
+    final long in_timeout_ms)
+  {
+    return new BookDatabaseLocks(in_stripes, in_timeout_ms);
+  }
+
+  /**
+   * @param id The book ID
+   *
+   * @return The index of the stripe that holds the lock of the book
+   */
+
+  int stripeIndexFor(final BookID id)
+  {
+    final int h = id.hashCode();
+    return (h ^ (h >>> 16)) & this.mask;
+  }
+
+  private ReentrantReadWriteLock stripeFor(final BookID id)
+  {
+    return this.stripes[this.stripeIndexFor(id)];
+  }
+
+  /**
+   * Evaluate {@code p} whilst holding the read lock of the given book.
+   *
+   * @param id  The book ID
+   * @param p   The function to evaluate
+   * @param <T> The type of returned values
+   * @param <E> The type of thrown exceptions
+   *
+   * @return The value returned by {@code p}
+   *
+   * @throws E           If {@code p} raises {@code E}
+   * @throws IOException If the lock cannot be acquired in time
+   */
+
+  <T, E extends Exception> T withReadLock(
+    final BookID id,
+    final PartialFunctionType<Unit, T, E> p)
+    throws E, IOException
+  {
+    final ReentrantReadWriteLock rw = this.stripeFor(NullCheck.notNull(id));
+    final int[] depth = NullCheck.notNull(this.reading.get());
+    ++depth[0];
+    try {
+      return this.withLock(id, rw.readLock(), this.reads, p);
+    } finally {
+      --depth[0];
+    }
+  }
+
+  private void checkNotReading(final String name)
+    throws IOException
+  {
+    if (NullCheck.notNull(this.reading.get())[0] > 0) {
+      throw new IOException(
+        String.format("Cannot write-lock %s whilst reading", name));
+    }
+  }
+
+  /**
+   * Evaluate {@code p} whilst holding the write lock of the given book.
+   *
+   * @param id  The book ID
+   * @param p   The function to evaluate
+   * @param <T> The type of returned values
+   * @param <E> The type of thrown exceptions
+   *
+   * @return The value returned by {@code p}
+   *
+   * @throws E           If {@code p} raises {@code E}
+   * @throws IOException If the lock cannot be acquired in time, or if the
+   *                     current thread holds any read lock
+   */
+
+  <T, E extends Exception> T withWriteLock(
+    final BookID id,
+    final PartialFunctionType<Unit, T, E> p)
+    throws E, IOException
+  {
+    final ReentrantReadWriteLock rw = this.stripeFor(NullCheck.notNull(id));
+    this.checkNotReading(String.format("book %s", id.getShortID()));
+    return this.withLock(id, rw.writeLock(), this.writes, p);
+  }
+
+  /**
+   * Evaluate {@code p} whilst holding the write locks of all of the given
+   * books. The stripes are locked in ascending order, so that two threads
+   * locking overlapping sets of books cannot deadlock.
+   *
+   * @param ids The book IDs
+   * @param p   The function to evaluate
+   * @param <T> The type of returned values
+   * @param <E> The type of thrown exceptions
+   *
+   * @return The value returned by {@code p}
+   *
+   * @throws E           If {@code p} raises {@code E}
+   * @throws IOException If a lock cannot be acquired in time, or if the
+   *                     current thread holds any read lock
+   */
+
+  <T, E extends Exception> T withWriteLocks(
+    final Collection<BookID> ids,
+    final PartialFunctionType<Unit, T, E> p)
+    throws E, IOException
+  {
+    NullCheck.notNull(p);
+    NullCheck.notNull(ids);
+    this.checkNotReading(
+      String.format("%d books", Integer.valueOf(ids.size())));
+
+    final SortedSet<Integer> indices = new TreeSet<Integer>();
+    for (final BookID id : ids) {
+      indices.add(Integer.valueOf(this.stripeIndexFor(id)));
+    }
+
+    final List<Lock> held = new ArrayList<Lock>(indices.size());
+    try {
+      for (final Integer index : indices) {
+        final ReentrantReadWriteLock rw = this.stripes[index.intValue()];
+        final Lock lock = rw.writeLock();
+        this.acquire(
+          lock, String.format("%d books", Integer.valueOf(ids.size())));
+        held.add(lock);
+        this.writes.incrementAndGet();
+      }
+
+      return p.call(Unit.unit());
+    } finally {
+      for (int index = held.size() - 1; index >= 0; --index) {
+        held.get(index).unlock();
+      }
+    }
+  }
+
+  private <T, E extends Exception> T withLock(
+    final BookID id,
+    final Lock lock,
+    final AtomicLong counter,
+    final PartialFunctionType<Unit, T, E> p)
+    throws E, IOException
+  {
+    NullCheck.notNull(p);
+
+    this.acquire(lock, String.format("book %s", id.getShortID()));
+    try {
+      counter.incrementAndGet();
+      return p.call(Unit.unit());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void acquire(
+    final Lock lock,
+    final String name)
+    throws IOException
+  {
+    if (lock.tryLock()) {
+      return;
+    }
+
+    this.contended.incrementAndGet();
+    final long start = System.nanoTime();
+    try {
+      final boolean locked =
+        lock.tryLock(this.timeout_ms, TimeUnit.MILLISECONDS);
+      this.wait_nanos.addAndGet(System.nanoTime() - start);
+      if (locked == false) {
+        this.timeouts.incrementAndGet();
+        BookDatabaseLocks.LOG.error("timed out waiting for lock of {}", name);
+        throw new IOException(
+          String.format("Timed out waiting for lock of %s", name));
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(
+        String.format("Interrupted waiting for lock of %s", name));
+    }
+  }
+
+  /**
+   * @return The current values of the lock counters
+   */
+
+  BookDatabaseLockMetrics getMetrics()
+  {
+    return new BookDatabaseLockMetrics(
+      this.reads.get(),
+      this.writes.get(),
+      this.contended.get(),
+      this.timeouts.get(),
+      this.wait_nanos.get());
+  }
+}
@@ -41,4 +41,16 @@ public interface BookDatabaseReadableType
    */
 
   Set<BookID> databaseGetBooks();
+
+  /**
+   * Retrieve the index entry for the given book. The index is held in memory,
+   * so this does not touch the filesystem once the index has been opened.
+   *
+   * @param book The book ID
+   *
+   * @return The index entry for the given book, if the book exists
+   */
+
+  OptionType<BookDatabaseIndexEntry> databaseGetIndexEntry(
+    BookID book);
 }
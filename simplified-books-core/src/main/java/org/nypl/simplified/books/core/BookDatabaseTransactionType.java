@@ -0,0 +1,55 @@
+package org.nypl.simplified.books.core;
+
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * <p>The type of book database transactions.</p>
+ *
+ * <p>A transaction stages updates and deletions of entries, and applies them
+ * all when committed. The staged changes are first written durably to the
+ * database as a single file, so that if the process dies whilst the changes
+ * are being applied, the remaining changes are applied the next time the
+ * database is opened. A transaction may be committed at most once.</p>
+ */
+
+public interface BookDatabaseTransactionType
+{
+  /**
+   * Stage the creation or update of the entry for the given feed entry. An
+   * entry whose metadata would not change is not written.
+   *
+   * @param e The feed entry
+   */
+
+  void transactionUpdate(OPDSAcquisitionFeedEntry e);
+
+  /**
+   * Stage the deletion of the entry of the given book, including any
+   * downloaded book data.
+   *
+   * @param id The book ID
+   */
+
+  void transactionDelete(BookID id);
+
+  /**
+   * Apply all staged changes. The status of each updated book is published
+   * to the given status cache, and the status of each deleted book is
+   * cleared, with observers of the cache notified once for the whole
+   * transaction.
+   *
+   * @param books_status The status cache
+   *
+   * @return The snapshots of the updated entries
+   *
+   * @throws IOException On I/O errors; any changes that were durably staged
+   *                     are applied when the database is next opened
+   */
+
+  Map<BookID, BookDatabaseEntrySnapshot> transactionCommit(
+    BooksStatusCacheType books_status)
+    throws IOException;
+}
@@ -54,9 +54,25 @@ public interface BookDatabaseType extends BookDatabaseReadableType
   BookDatabaseEntryReadableType databaseOpenEntryForReading(BookID book_id)
     throws IOException;
 
+  /**
+   * Begin a transaction that updates and deletes many entries at once.
+   *
+   * @return A new transaction
+   */
+
+  BookDatabaseTransactionType databaseBeginTransaction();
+
+  /**
+   * @return The current counters of the locks of the database entries
+   */
+
+  BookDatabaseLockMetrics databaseGetLockMetrics();
+
   /**
    * Notify the given status cache of the status of all books within the
-   * database.
+   * database. The snapshots of the books may be loaded concurrently, but the
+   * given procedures are always called on the calling thread. Broadcasts of
+   * the cache are released in batches as the books are loaded.
    *
    * @param cache      The status cache
    * @param on_load    A procedure called for each successfully loaded book
@@ -0,0 +1,162 @@
+package org.nypl.simplified.books.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.files.DirectoryUtilities;
+import org.nypl.simplified.files.FileUtilities;
+import org.nypl.simplified.json.core.JSONParseException;
+import org.nypl.simplified.json.core.JSONParserUtilities;
+import org.nypl.simplified.json.core.JSONSerializerUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The default implementation of the {@link BookDownloadJournalType}
+ * interface. Each entry is held in its own small JSON file, named after the
+ * book ID, which is replaced atomically whenever the entry changes.
+ */
+
+public final class BookDownloadJournal implements BookDownloadJournalType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(BookDownloadJournal.class));
+  }
+
+  private final File directory;
+
+  private BookDownloadJournal(final File in_directory)
+  {
+    this.directory = NullCheck.notNull(in_directory);
+  }
+
+  /**
+   * Open the journal in the given directory, creating the directory if
+   * necessary.
+   *
+   * @param in_directory The directory
+   *
+   * @return A journal
+   *
+   * @throws IOException If the directory cannot be created
+   */
+
+  public static BookDownloadJournalType openJournal(final File in_directory)
+    throws IOException
+  {
+    DirectoryUtilities.directoryCreate(in_directory);
+    return new BookDownloadJournal(in_directory);
+  }
+
+  private static BookDownloadJournalEntry parse(final File file)
+    throws IOException, JSONParseException
+  {
+    final ObjectMapper jom = new ObjectMapper();
+    final JsonNode jn = jom.readTree(file);
+    final ObjectNode o = JSONParserUtilities.checkObject(null, jn);
+
+    final BookID id =
+      BookID.exactString(JSONParserUtilities.getString(o, "book"));
+    final URI uri = JSONParserUtilities.getURI(o, "uri");
+    final long offset =
+      JSONParserUtilities.getBigInteger(o, "offset").longValue();
+    final long expected =
+      JSONParserUtilities.getBigInteger(o, "expected").longValue();
+
+    final BookDownloadJournalEntry.State state;
+    try {
+      state = BookDownloadJournalEntry.State.valueOf(
+        JSONParserUtilities.getString(o, "state"));
+    } catch (final IllegalArgumentException e) {
+      throw new JSONParseException(e);
+    }
+
+    return new BookDownloadJournalEntry(id, uri, offset, expected, state);
+  }
+
+  @Override public synchronized void journalPut(
+    final BookDownloadJournalEntry e)
+    throws IOException
+  {
+    NullCheck.notNull(e);
+
+    final ObjectMapper jom = new ObjectMapper();
+    final ObjectNode o = jom.createObjectNode();
+    o.put("book", e.getID().toString());
+    o.put("uri", e.getURI().toString());
+    o.put("offset", e.getOffset());
+    o.put("expected", e.getExpectedTotal());
+    o.put("state", e.getState().toString());
+
+    final ByteArrayOutputStream bao = new ByteArrayOutputStream(256);
+    JSONSerializerUtilities.serialize(o, bao);
+
+    final BookID id = e.getID();
+    FileUtilities.fileWriteUTF8Atomically(
+      this.fileFor(id), this.fileTemporaryFor(id), bao.toString("UTF-8"));
+  }
+
+  @Override public synchronized void journalRemove(final BookID id)
+    throws IOException
+  {
+    NullCheck.notNull(id);
+
+    final File file = this.fileFor(id);
+    if (file.exists()) {
+      BookDownloadJournal.LOG.debug("removing journal entry for {}", id);
+      FileUtilities.fileDelete(file);
+    }
+  }
+
+  @Override public synchronized List<BookDownloadJournalEntry> journalGetAll()
+  {
+    final List<BookDownloadJournalEntry> entries =
+      new ArrayList<BookDownloadJournalEntry>(8);
+
+    final File[] files = this.directory.listFiles();
+    if (files == null) {
+      return entries;
+    }
+
+    for (final File file : files) {
+      final String name = file.getName();
+      if (name.endsWith(".json") == false) {
+        continue;
+      }
+
+      try {
+        entries.add(BookDownloadJournal.parse(file));
+      } catch (final Exception e) {
+        BookDownloadJournal.LOG.error(
+          "removing unreadable journal entry {}: ", file, e);
+        try {
+          FileUtilities.fileDelete(file);
+        } catch (final IOException x) {
+          BookDownloadJournal.LOG.error("could not delete {}: ", file, x);
+        }
+      }
+    }
+
+    return entries;
+  }
+
+  private File fileFor(final BookID id)
+  {
+    return new File(this.directory, id.toString() + ".json");
+  }
+
+  private File fileTemporaryFor(final BookID id)
+  {
+    return new File(this.directory, id.toString() + ".json.tmp");
+  }
+}
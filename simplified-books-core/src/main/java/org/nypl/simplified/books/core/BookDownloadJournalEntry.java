@@ -0,0 +1,154 @@
+package org.nypl.simplified.books.core;
+
+import com.io7m.jnull.NullCheck;
+
+import java.net.URI;
+
+/**
+ * An entry in the download journal: the URI of a book file that is being
+ * downloaded, the book it belongs to, the amount of data received so far,
+ * and the state of the download.
+ */
+
+public final class BookDownloadJournalEntry
+{
+  private final BookID id;
+  private final URI    uri;
+  private final long   offset;
+  private final long   expected;
+  private final State  state;
+
+  /**
+   * Construct an entry.
+   *
+   * @param in_id       The book ID
+   * @param in_uri      The URI of the book file
+   * @param in_offset   The number of bytes received so far
+   * @param in_expected The expected total number of bytes, or {@code -1} if
+   *                    unknown
+   * @param in_state    The state of the download
+   */
+
+  public BookDownloadJournalEntry(
+    final BookID in_id,
+    final URI in_uri,
+    final long in_offset,
+    final long in_expected,
+    final State in_state)
+  {
+    this.id = NullCheck.notNull(in_id);
+    this.uri = NullCheck.notNull(in_uri);
+    this.offset = in_offset;
+    this.expected = in_expected;
+    this.state = NullCheck.notNull(in_state);
+  }
+
+  /**
+   * @return The book ID
+   */
+
+  public BookID getID()
+  {
+    return this.id;
+  }
+
+  /**
+   * @return The URI of the book file
+   */
+
+  public URI getURI()
+  {
+    return this.uri;
+  }
+
+  /**
+   * @return The number of bytes received so far
+   */
+
+  public long getOffset()
+  {
+    return this.offset;
+  }
+
+  /**
+   * @return The expected total number of bytes, or {@code -1} if unknown
+   */
+
+  public long getExpectedTotal()
+  {
+    return this.expected;
+  }
+
+  /**
+   * @return The state of the download
+   */
+
+  public State getState()
+  {
+    return this.state;
+  }
+
+  /**
+   * @param in_offset   The number of bytes received so far
+   * @param in_expected The expected total number of bytes
+   *
+   * @return A copy of this entry with the given progress
+   */
+
+  public BookDownloadJournalEntry withProgress(
+    final long in_offset,
+    final long in_expected)
+  {
+    return new BookDownloadJournalEntry(
+      this.id, this.uri, in_offset, in_expected, this.state);
+  }
+
+  /**
+   * @param in_state The new state
+   *
+   * @return A copy of this entry with the given state
+   */
+
+  public BookDownloadJournalEntry withState(
+    final State in_state)
+  {
+    return new BookDownloadJournalEntry(
+      this.id, this.uri, this.offset, this.expected, in_state);
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder(128);
+    b.append("[BookDownloadJournalEntry ");
+    b.append(this.id);
+    b.append(" ");
+    b.append(this.uri);
+    b.append(" ");
+    b.append(this.offset);
+    b.append("/");
+    b.append(this.expected);
+    b.append(" ");
+    b.append(this.state);
+    b.append("]");
+    return NullCheck.notNull(b.toString());
+  }
+
+  /**
+   * The state of a journaled download.
+   */
+
+  public enum State
+  {
+    /**
+     * The download is queued or running.
+     */
+
+    DOWNLOAD_RUNNING,
+
+    /**
+     * The download failed, and partial data may have been kept.
+     */
+
+    DOWNLOAD_FAILED
+  }
+}
@@ -0,0 +1,48 @@
+package org.nypl.simplified.books.core;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * <p>A persistent journal of book downloads.</p>
+ *
+ * <p>An entry is written when a book download starts and removed when the
+ * download completes or is cancelled. Entries that remain when the
+ * application starts describe downloads that were interrupted by the process
+ * being killed, and are used to resume or clean up those downloads.</p>
+ */
+
+public interface BookDownloadJournalType
+{
+  /**
+   * Atomically write the given entry, replacing any existing entry for the
+   * same book.
+   *
+   * @param e The entry
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void journalPut(BookDownloadJournalEntry e)
+    throws IOException;
+
+  /**
+   * Remove the entry for the given book, if any.
+   *
+   * @param id The book ID
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void journalRemove(BookID id)
+    throws IOException;
+
+  /**
+   * Read all entries in the journal. Entries that cannot be read are logged
+   * and removed.
+   *
+   * @return The entries in the journal
+   */
+
+  List<BookDownloadJournalEntry> journalGetAll();
+}
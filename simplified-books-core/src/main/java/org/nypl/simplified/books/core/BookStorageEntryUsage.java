@@ -0,0 +1,107 @@
+package org.nypl.simplified.books.core;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+
+import java.util.Calendar;
+
+/**
+ * The storage used by a single entry of the book database.
+ */
+
+public final class BookStorageEntryUsage
+{
+  private final BookID               id;
+  private final long                 total_bytes;
+  private final long                 book_bytes;
+  private final OptionType<Calendar> last_read;
+  private final boolean              evictable;
+
+  /**
+   * Construct usage information.
+   *
+   * @param in_id          The book ID
+   * @param in_total_bytes The total size of the files of the entry
+   * @param in_book_bytes  The size of the book file, or {@code 0} if there is
+   *                       none
+   * @param in_last_read   The time that the book was last read, if ever
+   * @param in_evictable   {@code true} iff the book data may be deleted to
+   *                       free space
+   */
+
+  public BookStorageEntryUsage(
+    final BookID in_id,
+    final long in_total_bytes,
+    final long in_book_bytes,
+    final OptionType<Calendar> in_last_read,
+    final boolean in_evictable)
+  {
+    this.id = NullCheck.notNull(in_id);
+    this.total_bytes = in_total_bytes;
+    this.book_bytes = in_book_bytes;
+    this.last_read = NullCheck.notNull(in_last_read);
+    this.evictable = in_evictable;
+  }
+
+  /**
+   * @return The book ID
+   */
+
+  public BookID getID()
+  {
+    return this.id;
+  }
+
+  /**
+   * @return The total size in bytes of the files of the entry
+   */
+
+  public long getTotalBytes()
+  {
+    return this.total_bytes;
+  }
+
+  /**
+   * @return The size in bytes of the book file, or {@code 0} if there is none
+   */
+
+  public long getBookBytes()
+  {
+    return this.book_bytes;
+  }
+
+  /**
+   * @return The time that the book was last opened for reading, if ever
+   */
+
+  public OptionType<Calendar> getLastRead()
+  {
+    return this.last_read;
+  }
+
+  /**
+   * @return {@code true} iff the book data is held for a loan that can
+   * still be returned, and may therefore be deleted to free space and
+   * downloaded again later
+   */
+
+  public boolean isEvictable()
+  {
+    return this.evictable;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder(128);
+    b.append("[BookStorageEntryUsage ");
+    b.append(this.id.getShortID());
+    b.append(" total=");
+    b.append(this.total_bytes);
+    b.append(" book=");
+    b.append(this.book_bytes);
+    b.append(" evictable=");
+    b.append(this.evictable);
+    b.append("]");
+    return NullCheck.notNull(b.toString());
+  }
+}
@@ -0,0 +1,255 @@
+package org.nypl.simplified.books.core;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import org.nypl.drm.core.AdobeAdeptLoan;
+import org.nypl.simplified.assertions.Assertions;
+import org.nypl.simplified.opds.core.OPDSAvailabilityLoaned;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>The default implementation of the {@link BookStorageManagerType}
+ * interface.</p>
+ *
+ * <p>If the book database moves deleted book data into a blob store, deleting
+ * the data of a book does not free any space by itself, and so the blob store
+ * is trimmed afterwards to whatever part of the quota the entries leave
+ * unused.</p>
+ */
+
+public final class BookStorageManager implements BookStorageManagerType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(BookStorageManager.class));
+  }
+
+  private final BookDatabaseType              database;
+  private final OptionType<BookBlobStoreType> blob_store;
+  private final AtomicLong                    quota;
+
+  private BookStorageManager(
+    final BookDatabaseType in_database,
+    final OptionType<BookBlobStoreType> in_blob_store,
+    final long in_quota)
+  {
+    this.database = NullCheck.notNull(in_database);
+    this.blob_store = NullCheck.notNull(in_blob_store);
+    this.quota = new AtomicLong(BookStorageManager.checkQuota(in_quota));
+  }
+
+  /**
+   * Create a new storage manager.
+   *
+   * @param in_database   The book database
+   * @param in_blob_store The blob store used by the database, if any
+   * @param in_quota      The quota in bytes, or {@link Long#MAX_VALUE} for
+   *                      none
+   *
+   * @return A new storage manager
+   */
+
+  public static BookStorageManagerType newStorageManager(
+    final BookDatabaseType in_database,
+    final OptionType<BookBlobStoreType> in_blob_store,
+    final long in_quota)
+  {
+    return new BookStorageManager(in_database, in_blob_store, in_quota);
+  }
+
+  private static long checkQuota(final long bytes)
+  {
+    Assertions.checkPrecondition(
+      bytes >= 0L, "Quota %d must be non-negative", Long.valueOf(bytes));
+    return bytes;
+  }
+
+  /**
+   * The data of a book may be deleted if it can be downloaded again: that
+   * is, if the book is on loan, and any Adobe loan can still be returned
+   * once its data is gone.
+   */
+
+  private static boolean isEvictable(final BookDatabaseEntrySnapshot snap)
+  {
+    if (snap.getBook().isNone()) {
+      return false;
+    }
+    if ((snap.getEntry().getAvailability()
+      instanceof OPDSAvailabilityLoaned) == false) {
+      return false;
+    }
+
+    final OptionType<AdobeAdeptLoan> rights = snap.getAdobeRights();
+    return rights.isNone()
+      || ((Some<AdobeAdeptLoan>) rights).get().isReturnable();
+  }
+
+  private static long lastReadMillis(final BookStorageEntryUsage e)
+  {
+    final OptionType<Calendar> t = e.getLastRead();
+    if (t.isSome()) {
+      return ((Some<Calendar>) t).get().getTimeInMillis();
+    }
+    return Long.MIN_VALUE;
+  }
+
+  @Override public long storageGetQuota()
+  {
+    return this.quota.get();
+  }
+
+  @Override public void storageSetQuota(final long bytes)
+  {
+    this.quota.set(BookStorageManager.checkQuota(bytes));
+  }
+
+  @Override public BookStorageUsage storageGetUsage()
+    throws IOException
+  {
+    final List<BookStorageEntryUsage> entries =
+      new ArrayList<BookStorageEntryUsage>(64);
+
+    for (final BookID id : this.database.databaseGetBooks()) {
+      try {
+        final BookDatabaseEntryReadableType e =
+          this.database.databaseOpenEntryForReading(id);
+        final BookDatabaseEntrySnapshot snap = e.entryGetSnapshot();
+        final OptionType<File> book = snap.getBook();
+        final long book_bytes =
+          book.isSome() ? ((Some<File>) book).get().length() : 0L;
+
+        entries.add(
+          new BookStorageEntryUsage(
+            id,
+            e.entryGetDiskUsage(),
+            book_bytes,
+            e.entryGetLastReadTime(),
+            BookStorageManager.isEvictable(snap)));
+      } catch (final FileNotFoundException x) {
+        BookStorageManager.LOG.debug(
+          "[{}]: deleted whilst measuring", id.getShortID());
+      }
+    }
+
+    long blob_bytes = 0L;
+    if (this.blob_store.isSome()) {
+      blob_bytes =
+        ((Some<BookBlobStoreType>) this.blob_store).get().blobStoreGetSize();
+    }
+
+    return new BookStorageUsage(entries, blob_bytes, this.quota.get());
+  }
+
+  @Override public void storageNoteBookRead(final BookID id)
+    throws IOException
+  {
+    NullCheck.notNull(id);
+    this.database.databaseOpenEntryForWriting(id)
+      .entrySetLastReadTime(Calendar.getInstance());
+  }
+
+  @Override public List<BookID> storageEnforceQuota(
+    final BooksStatusCacheType books_status)
+    throws IOException
+  {
+    NullCheck.notNull(books_status);
+
+    final long max = this.quota.get();
+    final BookStorageUsage usage = this.storageGetUsage();
+    if (usage.getTotalBytes() <= max) {
+      return Collections.emptyList();
+    }
+
+    BookStorageManager.LOG.debug("over quota: {}", usage);
+
+    /**
+     * Order the evictable entries from least to most recently read. Books
+     * that have never been read come first. The most recently read book of
+     * all is excluded, as it is likely to be open.
+     */
+
+    final List<BookStorageEntryUsage> candidates =
+      new ArrayList<BookStorageEntryUsage>(usage.getEntries().size());
+    OptionType<BookID> newest = Option.none();
+    long newest_time = Long.MIN_VALUE;
+    for (final BookStorageEntryUsage e : usage.getEntries()) {
+      final long t = BookStorageManager.lastReadMillis(e);
+      if (t > newest_time) {
+        newest_time = t;
+        newest = Option.some(e.getID());
+      }
+      if (e.isEvictable()) {
+        candidates.add(e);
+      }
+    }
+
+    Collections.sort(
+      candidates, new Comparator<BookStorageEntryUsage>()
+      {
+        @Override public int compare(
+          final BookStorageEntryUsage a,
+          final BookStorageEntryUsage b)
+        {
+          final long ta = BookStorageManager.lastReadMillis(a);
+          final long tb = BookStorageManager.lastReadMillis(b);
+          return ta < tb ? -1 : (ta == tb ? 0 : 1);
+        }
+      });
+
+    final List<BookID> evicting = new ArrayList<BookID>(candidates.size());
+    long entry_bytes = usage.getEntryBytes();
+    for (final BookStorageEntryUsage e : candidates) {
+      if (entry_bytes <= max) {
+        break;
+      }
+      if (newest.isSome() && ((Some<BookID>) newest).get().equals(e.getID())) {
+        continue;
+      }
+      evicting.add(e.getID());
+      entry_bytes -= e.getBookBytes();
+    }
+
+    final List<BookID> evicted = new ArrayList<BookID>(evicting.size());
+    books_status.booksStatusBroadcastHold(evicting);
+    try {
+      for (final BookID id : evicting) {
+        try {
+          final BookDatabaseEntrySnapshot snap =
+            this.database.databaseOpenEntryForWriting(id).entryDeleteBookData();
+          books_status.booksStatusUpdate(BookStatus.fromSnapshot(id, snap));
+          evicted.add(id);
+          BookStorageManager.LOG.debug("[{}]: evicted", id.getShortID());
+        } catch (final IOException x) {
+          BookStorageManager.LOG.error(
+            "[{}]: could not evict book data: ", id.getShortID(), x);
+        }
+      }
+    } finally {
+      books_status.booksStatusBroadcastRelease(evicting);
+    }
+
+    if (this.blob_store.isSome()) {
+      final long deleted = ((Some<BookBlobStoreType>) this.blob_store).get()
+        .blobStoreTrim(Math.max(0L, max - entry_bytes));
+      BookStorageManager.LOG.debug(
+        "trimmed {} bytes from blob store", Long.valueOf(deleted));
+    }
+
+    return evicted;
+  }
+}
@@ -0,0 +1,67 @@
+package org.nypl.simplified.books.core;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * <p>The type of storage managers.</p>
+ *
+ * <p>A storage manager tracks the space used by the book database, and keeps
+ * it within a quota by deleting the data of the downloaded books that were
+ * least recently read. Only the data of loans that can still be returned is
+ * deleted; the metadata of the books is kept, so that the books can be
+ * downloaded again.</p>
+ */
+
+public interface BookStorageManagerType
+{
+  /**
+   * @return The quota in bytes, or {@link Long#MAX_VALUE} if there is none
+   */
+
+  long storageGetQuota();
+
+  /**
+   * Set the quota. The quota is not enforced until
+   * {@link #storageEnforceQuota(BooksStatusCacheType)} is next called.
+   *
+   * @param bytes The quota in bytes, or {@link Long#MAX_VALUE} for none
+   */
+
+  void storageSetQuota(long bytes);
+
+  /**
+   * @return The current storage usage
+   *
+   * @throws IOException On I/O errors
+   */
+
+  BookStorageUsage storageGetUsage()
+    throws IOException;
+
+  /**
+   * Record that the given book was opened for reading.
+   *
+   * @param id The book ID
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void storageNoteBookRead(BookID id)
+    throws IOException;
+
+  /**
+   * Delete book data until the storage used is within the quota. The most
+   * recently read book is never deleted. The new status of each book whose
+   * data is deleted is published to {@code books_status}.
+   *
+   * @param books_status The book status cache
+   *
+   * @return The books whose data was deleted
+   *
+   * @throws IOException On I/O errors
+   */
+
+  List<BookID> storageEnforceQuota(BooksStatusCacheType books_status)
+    throws IOException;
+}
@@ -0,0 +1,106 @@
+package org.nypl.simplified.books.core;
+
+import com.io7m.jnull.NullCheck;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The storage used by the book database and its blob store, if any.
+ */
+
+public final class BookStorageUsage
+{
+  private final List<BookStorageEntryUsage> entries;
+  private final long                        entry_bytes;
+  private final long                        blob_bytes;
+  private final long                        quota_bytes;
+
+  /**
+   * Construct usage information.
+   *
+   * @param in_entries     The usage of each entry
+   * @param in_blob_bytes  The size of the blob store, or {@code 0} if there
+   *                       is none
+   * @param in_quota_bytes The quota
+   */
+
+  public BookStorageUsage(
+    final List<BookStorageEntryUsage> in_entries,
+    final long in_blob_bytes,
+    final long in_quota_bytes)
+  {
+    this.entries = NullCheck.notNull(
+      Collections.unmodifiableList(
+        new ArrayList<BookStorageEntryUsage>(NullCheck.notNull(in_entries))));
+    this.blob_bytes = in_blob_bytes;
+    this.quota_bytes = in_quota_bytes;
+
+    long size = 0L;
+    for (final BookStorageEntryUsage e : in_entries) {
+      size += e.getTotalBytes();
+    }
+    this.entry_bytes = size;
+  }
+
+  /**
+   * @return The usage of each entry
+   */
+
+  public List<BookStorageEntryUsage> getEntries()
+  {
+    return this.entries;
+  }
+
+  /**
+   * @return The total size in bytes of the files of all entries
+   */
+
+  public long getEntryBytes()
+  {
+    return this.entry_bytes;
+  }
+
+  /**
+   * @return The size in bytes of the blob store
+   */
+
+  public long getBlobBytes()
+  {
+    return this.blob_bytes;
+  }
+
+  /**
+   * @return The total size in bytes of the entries and the blob store
+   */
+
+  public long getTotalBytes()
+  {
+    return this.entry_bytes + this.blob_bytes;
+  }
+
+  /**
+   * @return The quota in bytes, or {@link Long#MAX_VALUE} if there is none
+   */
+
+  public long getQuotaBytes()
+  {
+    return this.quota_bytes;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder(128);
+    b.append("[BookStorageUsage entries=");
+    b.append(this.entries.size());
+    b.append(" entry_bytes=");
+    b.append(this.entry_bytes);
+    b.append(" blob_bytes=");
+    b.append(this.blob_bytes);
+    b.append(" quota=");
+    b.append(this.quota_bytes);
+    b.append("]");
+    return NullCheck.notNull(b.toString());
+  }
+}
@@ -1,6 +1,7 @@
 package org.nypl.simplified.books.core;
 
 import com.io7m.jfunctional.None;
+import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
 import com.io7m.jfunctional.OptionVisitorType;
 import com.io7m.jfunctional.Some;
@@ -12,6 +13,7 @@ import org.nypl.drm.core.AdobeAdeptExecutorType;
 import org.nypl.drm.core.AdobeUserID;
 import org.nypl.simplified.downloader.core.DownloadType;
 import org.nypl.simplified.downloader.core.DownloaderType;
+import org.nypl.simplified.http.core.HTTPAuthType;
 import org.nypl.simplified.http.core.HTTPType;
 import org.nypl.simplified.opds.core.OPDSAcquisition;
 import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry;
@@ -25,6 +27,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.Calendar;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
@@ -47,9 +50,11 @@ public final class BooksController implements BooksType {
   private final DownloaderType downloader;
   private final ConcurrentHashMap<BookID, DownloadType> downloads;
   private final ExecutorService exec;
+  private final ExecutorService exec_prefetch;
   private final FeedLoaderType feed_loader;
   private final OPDSFeedParserType feed_parser;
   private final HTTPType http;
+  private final HTTPType http_prefetch;
   private final AtomicInteger task_id;
   private final OptionType<AdobeAdeptExecutorType> adobe_drm;
   private final DocumentStoreType docs;
@@ -59,11 +64,16 @@ public final class BooksController implements BooksType {
   private final AccountsDatabaseType accounts_database;
   private Map<Integer, Future<?>> tasks;
   private final URI loans_uri;
+  private final BookDownloadJournalType download_journal;
+  private final AtomicBoolean download_recovery_done;
+  private final BookStorageManagerType storage;
 
   private BooksController(
     final ExecutorService in_exec,
+    final ExecutorService in_exec_prefetch,
     final FeedLoaderType in_feeds,
     final HTTPType in_http,
+    final HTTPType in_http_prefetch,
     final DownloaderType in_downloader,
     final OPDSJSONSerializerType in_json_serializer,
     final OPDSJSONParserType in_json_parser,
@@ -72,10 +82,14 @@ public final class BooksController implements BooksType {
     final BookDatabaseType in_book_database,
     final AccountsDatabaseType in_accounts_database,
     final BooksControllerConfigurationType in_config,
-    final URI in_loans_uri) {
+    final URI in_loans_uri,
+    final BookDownloadJournalType in_download_journal,
+    final BookStorageManagerType in_storage) {
     this.exec = NullCheck.notNull(in_exec);
+    this.exec_prefetch = NullCheck.notNull(in_exec_prefetch);
     this.feed_loader = NullCheck.notNull(in_feeds);
     this.http = NullCheck.notNull(in_http);
+    this.http_prefetch = NullCheck.notNull(in_http_prefetch);
     this.downloader = NullCheck.notNull(in_downloader);
     NullCheck.notNull(in_json_serializer);
     NullCheck.notNull(in_json_parser);
@@ -92,14 +106,19 @@ public final class BooksController implements BooksType {
     this.feed_parser = this.feed_loader.getOPDSFeedParser();
     this.syncing = new AtomicBoolean(false);
     this.loans_uri = NullCheck.notNull(in_loans_uri);
+    this.download_journal = NullCheck.notNull(in_download_journal);
+    this.download_recovery_done = new AtomicBoolean(false);
+    this.storage = NullCheck.notNull(in_storage);
   }
 
   /**
    * Construct a new books controller.
    *
    * @param in_exec              An executor
+   * @param in_exec_prefetch     A low-priority executor for cover prefetches
    * @param in_feeds             An asynchronous feed loader
    * @param in_http              An HTTP interface
+   * @param in_http_prefetch     An HTTP interface for cover prefetches
    * @param in_downloader        A downloader
    * @param in_json_serializer   A JSON serializer
    * @param in_json_parser       A JSON parser
@@ -109,13 +128,17 @@ public final class BooksController implements BooksType {
    * @param in_accounts_database The accounts database
    * @param in_config            Mutable configuration data
    * @param in_loans_url         loans url
+   * @param in_download_journal  The journal of book downloads
+   * @param in_storage           The storage manager for the book database
    * @return A new books controller
    */
 
   public static BooksType newBooks(
     final ExecutorService in_exec,
+    final ExecutorService in_exec_prefetch,
     final FeedLoaderType in_feeds,
     final HTTPType in_http,
+    final HTTPType in_http_prefetch,
     final DownloaderType in_downloader,
     final OPDSJSONSerializerType in_json_serializer,
     final OPDSJSONParserType in_json_parser,
@@ -124,11 +147,15 @@ public final class BooksController implements BooksType {
     final BookDatabaseType in_book_database,
     final AccountsDatabaseType in_accounts_database,
     final BooksControllerConfigurationType in_config,
-    final URI in_loans_url) {
+    final URI in_loans_url,
+    final BookDownloadJournalType in_download_journal,
+    final BookStorageManagerType in_storage) {
     return new BooksController(
       in_exec,
+      in_exec_prefetch,
       in_feeds,
       in_http,
+      in_http_prefetch,
       in_downloader,
       in_json_serializer,
       in_json_parser,
@@ -137,7 +164,9 @@ public final class BooksController implements BooksType {
       in_book_database,
       in_accounts_database,
       in_config,
-      in_loans_url);
+      in_loans_url,
+      in_download_journal,
+      in_storage);
   }
 
   @Override
@@ -210,6 +239,28 @@ public final class BooksController implements BooksType {
         this.books_status,
         this.accounts_database,
         listener));
+
+    /**
+     * The first time that books are loaded, resume or clean up any downloads
+     * that were interrupted when the application was last stopped. The task
+     * is submitted after the load task so that, on a single-threaded
+     * executor, the statuses it publishes are not overwritten by the load.
+     */
+
+    if (this.download_recovery_done.compareAndSet(false, true)) {
+      this.submitRunnable(
+        new BooksControllerDownloadRecoveryTask(
+          this.book_database,
+          this.accounts_database,
+          this.books_status,
+          this.downloader,
+          this.http,
+          this.downloads,
+          this.download_journal,
+          this.feed_loader,
+          this.adobe_drm,
+          this.storage));
+    }
   }
 
   @Override
@@ -385,11 +436,13 @@ public final class BooksController implements BooksType {
         this.downloader,
         this.http,
         this.downloads,
+        this.download_journal,
         id,
         acq,
         eo,
         this.feed_loader,
-        this.adobe_drm));
+        this.adobe_drm,
+        this.storage));
   }
 
   @Override
@@ -519,9 +572,71 @@ public final class BooksController implements BooksType {
         this.books_status,
         this.feed_loader,
         id,
+        this.adobe_drm,
+        Option.<HTTPAuthType>none(),
+        Option.<Runnable>none()));
+  }
+
+  @Override
+  public void bookRevokeAll(final List<BookID> ids) {
+    NullCheck.notNull(ids);
+
+    if (ids.isEmpty()) {
+      return;
+    }
+
+    this.submitRunnable(
+      new BooksControllerRevokeBatchTask(
+        this.book_database,
+        this.accounts_database,
+        this.books_status,
+        this.feed_loader,
+        this.exec,
+        ids,
         this.adobe_drm));
   }
 
+  @Override
+  public void bookPrefetchCovers(final List<BookID> ids) {
+    NullCheck.notNull(ids);
+
+    if (ids.isEmpty()) {
+      return;
+    }
+
+    /**
+     * The task only submits fetches to the prefetch executor, so it runs
+     * here rather than occupying the books executor.
+     */
+
+    new BooksControllerCoverPrefetchTask(
+      this.book_database, this.http_prefetch, this.exec_prefetch, ids).run();
+  }
+
+  @Override
+  public BookStorageManagerType bookGetStorageManager() {
+    return this.storage;
+  }
+
+  @Override
+  public void bookNoteRead(final BookID id) {
+    NullCheck.notNull(id);
+
+    final BookStorageManagerType s = this.storage;
+    this.submitRunnable(
+      new Runnable() {
+        @Override
+        public void run() {
+          try {
+            s.storageNoteBookRead(id);
+          } catch (final IOException e) {
+            BooksController.LOG.error(
+              "[{}]: could not record read time: ", id.getShortID(), e);
+          }
+        }
+      });
+  }
+
   @Override
   public void bookGetLatestStatusFromDisk(final BookID id) {
     NullCheck.notNull(id);
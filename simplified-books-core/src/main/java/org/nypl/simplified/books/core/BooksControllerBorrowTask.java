@@ -20,6 +20,7 @@ import org.nypl.drm.core.AdobeUserID;
 import org.nypl.drm.core.DRMUnsupportedException;
 import org.nypl.simplified.assertions.Assertions;
 import org.nypl.simplified.downloader.core.DownloadListenerType;
+import org.nypl.simplified.downloader.core.DownloadPriority;
 import org.nypl.simplified.downloader.core.DownloadType;
 import org.nypl.simplified.downloader.core.DownloaderType;
 import org.nypl.simplified.files.FileUtilities;
@@ -47,8 +48,9 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Calendar;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>The logic for borrowing and/or fulfilling a book.</p>
@@ -58,6 +60,15 @@ final class BooksControllerBorrowTask implements Runnable
 {
   public static final String ACSM_CONTENT_TYPE =
     "application/vnd.adobe.adept+xml";
+
+  /**
+   * The minimum interval between writes of the progress of a download to the
+   * download journal.
+   */
+
+  private static final long JOURNAL_INTERVAL_NS =
+    TimeUnit.NANOSECONDS.convert(1L, TimeUnit.SECONDS);
+
   private static final Logger LOG;
 
   static {
@@ -70,14 +81,19 @@ final class BooksControllerBorrowTask implements Runnable
   private final BookDatabaseType                   books_database;
   private final BooksStatusCacheType               books_status;
   private final DownloaderType                     downloader;
-  private final Map<BookID, DownloadType>          downloads;
+  private final ConcurrentMap<BookID, DownloadType> downloads;
   private final FeedLoaderType                     feed_loader;
   private final HTTPType                           http;
   private final OPDSAcquisitionFeedEntry           feed_entry;
   private final OptionType<AdobeAdeptExecutorType> adobe_drm;
   private final String                             short_id;
   private final AccountsDatabaseType       accounts_database;
+  private final BookDownloadJournalType            download_journal;
+  private final BookStorageManagerType             storage;
   private       long                               download_running_total;
+  private volatile BookDownloadJournalEntry        download_journal_entry;
+  private volatile long                            download_journal_time;
+  private volatile boolean                         download_finished;
 
   BooksControllerBorrowTask(
     final BookDatabaseType in_books_database,
@@ -86,14 +102,17 @@ final class BooksControllerBorrowTask implements Runnable
     final DownloaderType in_downloader,
     final HTTPType in_http,
     final ConcurrentHashMap<BookID, DownloadType> in_downloads,
+    final BookDownloadJournalType in_download_journal,
     final BookID in_book_id,
     final OPDSAcquisition in_acq,
     final OPDSAcquisitionFeedEntry in_feed_entry,
     final FeedLoaderType in_feed_loader,
-    final OptionType<AdobeAdeptExecutorType> in_adobe_drm)
+    final OptionType<AdobeAdeptExecutorType> in_adobe_drm,
+    final BookStorageManagerType in_storage)
   {
     this.downloader = NullCheck.notNull(in_downloader);
     this.downloads = NullCheck.notNull(in_downloads);
+    this.download_journal = NullCheck.notNull(in_download_journal);
     this.http = NullCheck.notNull(in_http);
     this.book_id = NullCheck.notNull(in_book_id);
     this.acq = NullCheck.notNull(in_acq);
@@ -103,6 +122,7 @@ final class BooksControllerBorrowTask implements Runnable
     this.books_status = NullCheck.notNull(in_books_status);
     this.feed_loader = NullCheck.notNull(in_feed_loader);
     this.adobe_drm = NullCheck.notNull(in_adobe_drm);
+    this.storage = NullCheck.notNull(in_storage);
     this.short_id = this.book_id.getShortID();
   }
 
@@ -136,6 +156,35 @@ final class BooksControllerBorrowTask implements Runnable
     return this.downloads.remove(this.book_id);
   }
 
+  /**
+   * Record the current state of the download in the journal. A failure to
+   * write the journal only affects crash recovery, and so is logged rather
+   * than failing the download.
+   */
+
+  private void downloadJournalPut(final BookDownloadJournalEntry e)
+  {
+    this.download_journal_entry = e;
+    this.download_journal_time = System.nanoTime();
+    try {
+      this.download_journal.journalPut(e);
+    } catch (final IOException x) {
+      BooksControllerBorrowTask.LOG.error(
+        "[{}]: could not write download journal: ", this.short_id, x);
+    }
+  }
+
+  private void downloadJournalRemove()
+  {
+    this.download_journal_entry = null;
+    try {
+      this.download_journal.journalRemove(this.book_id);
+    } catch (final IOException x) {
+      BooksControllerBorrowTask.LOG.error(
+        "[{}]: could not write download journal: ", this.short_id, x);
+    }
+  }
+
   private void downloadCancelled()
   {
     try {
@@ -152,17 +201,22 @@ final class BooksControllerBorrowTask implements Runnable
   }
 
   /**
-   * Save an EPUB file for the current book, with optional rights information.
+   * Save the given book file and rights into the book database.
    *
-   * @param file   The EPUB
-   * @param rights The rights information
+   * @param file   The book file
+   * @param rights The Adobe rights, if any
+   * @param origin The origin of a book file that was downloaded directly
+   * @param rename {@code true} if {@code file} is on the same filesystem as
+   *               the book database and can simply be renamed into place
    *
    * @throws IOException On I/O errors
    */
 
   private void saveEPUBAndRights(
     final File file,
-    final OptionType<AdobeAdeptLoan> rights)
+    final OptionType<AdobeAdeptLoan> rights,
+    final OptionType<BookContentOrigin> origin,
+    final boolean rename)
     throws IOException
   {
     BooksControllerBorrowTask.LOG.debug(
@@ -172,8 +226,13 @@ final class BooksControllerBorrowTask implements Runnable
 
     final BookDatabaseEntryType e =
       this.books_database.databaseOpenEntryForWriting(this.book_id);
-    e.entryCopyInBook(file);
+    if (rename) {
+      e.entryCopyInBookFromSameFilesystem(file);
+    } else {
+      e.entryCopyInBook(file);
+    }
     e.entrySetAdobeRightsInformation(rights);
+    e.entrySetBookOrigin(origin);
 
     final BookDatabaseEntrySnapshot downloaded_snap = e.entryGetSnapshot();
     final BookStatusType downloaded_status =
@@ -185,6 +244,20 @@ final class BooksControllerBorrowTask implements Runnable
       downloaded_status);
 
     this.books_status.booksStatusUpdate(downloaded_status);
+
+    /**
+     * The new book counts as the most recently read, so that it is not
+     * itself deleted to make room for it. A failure to enforce the quota
+     * does not fail the download.
+     */
+
+    try {
+      this.storage.storageNoteBookRead(this.book_id);
+      this.storage.storageEnforceQuota(this.books_status);
+    } catch (final IOException x) {
+      BooksControllerBorrowTask.LOG.error(
+        "[{}]: could not enforce storage quota: ", this.short_id, x);
+    }
   }
 
   /**
@@ -234,6 +307,7 @@ final class BooksControllerBorrowTask implements Runnable
     throws IOException, AdobeAdeptACSMException, BookUnsupportedTypeException
   {
     final byte[] acsm = FileUtilities.fileReadBytes(file);
+    FileUtilities.fileDelete(file);
 
     final AdobeAdeptFulfillmentToken parsed =
       AdobeAdeptFulfillmentToken.parseFromBytes(acsm);
@@ -268,6 +342,11 @@ final class BooksControllerBorrowTask implements Runnable
               {
                 return "application/octet-stream";
               }
+
+              @Override public OptionType<String> getContentDigest()
+              {
+                return Option.none();
+              }
             });
 
           final AdobeUserID user = ((Some<AdobeUserID>)
@@ -365,6 +444,27 @@ final class BooksControllerBorrowTask implements Runnable
     }
   }
 
+  /**
+   * Resume a download that was interrupted by the application being stopped.
+   * The acquisition given to this task is assumed to be the URI of the book
+   * file itself, as recorded in the download journal. Any partial data kept
+   * by the downloader is reused.
+   */
+
+  void resumeDownload()
+  {
+    try {
+      BooksControllerBorrowTask.LOG.debug(
+        "[{}]: resuming download of {}", this.short_id, this.acq.getURI());
+
+      this.runAcquisitionFulfillDoDownload(
+        this.acq, DownloadPriority.DOWNLOAD_PRIORITY_AUTOMATIC);
+    } catch (final Throwable e) {
+      BooksControllerBorrowTask.LOG.error("[{}]: error: ", this.short_id, e);
+      this.downloadFailed(Option.some(e));
+    }
+  }
+
   /**
    * Hit a "borrow" link, read the resulting feed, download the book if it is
    * available.
@@ -703,15 +803,18 @@ final class BooksControllerBorrowTask implements Runnable
       });
 
     if (want_fulfill.booleanValue()) {
-      final DownloadType download =
-        BooksControllerBorrowTask.this.runAcquisitionFulfill(ee);
-      BooksControllerBorrowTask.this.downloads.put(
-        b_id, download);
+      BooksControllerBorrowTask.this.runAcquisitionFulfill(ee);
     }
   }
 
-  private DownloadType runAcquisitionFulfillDoDownload(
-    final OPDSAcquisition a)
+  /**
+   * Download the book file at the given acquisition, and record the download
+   * as the current download of the book.
+   */
+
+  private void runAcquisitionFulfillDoDownload(
+    final OPDSAcquisition a,
+    final DownloadPriority priority)
     throws IOException
   {
     /**
@@ -740,11 +843,52 @@ final class BooksControllerBorrowTask implements Runnable
     /**
      * Point the downloader at the acquisition link. The result will either
      * be an EPUB or an ACSM file. ACSM files have to be "fulfilled" after
-     * downloading by passing them to the Adobe DRM connector.
+     * downloading by passing them to the Adobe DRM connector. The file is
+     * downloaded directly into the book's directory, so that an EPUB can be
+     * renamed into place rather than copied.
+     */
+
+    final BookDatabaseEntryType entry =
+      this.books_database.databaseOpenEntryForWriting(this.book_id);
+    final File directory = entry.entryGetDirectory();
+
+    /**
+     * If the same book file was downloaded before and its data was kept
+     * when the book was returned, take it back instead of downloading it
+     * again.
+     */
+
+    final OptionType<BookDatabaseEntrySnapshot> reused =
+      entry.entryTakeBookFromBlobStore(a.getURI());
+    if (reused.isSome()) {
+      BooksControllerBorrowTask.LOG.debug(
+        "[{}]: reusing previously downloaded book", sid);
+      final BookDatabaseEntrySnapshot snap =
+        ((Some<BookDatabaseEntrySnapshot>) reused).get();
+      this.books_status.booksStatusUpdate(
+        BookStatus.fromSnapshot(this.book_id, snap));
+      return;
+    }
+
+    /**
+     * Record the download in the journal so that it can be resumed if the
+     * application is stopped before it completes.
      */
 
-    return this.downloader.download(
-      a.getURI(), Option.some(auth), new DownloadListenerType()
+    this.downloadJournalPut(
+      new BookDownloadJournalEntry(
+        this.book_id,
+        a.getURI(),
+        0L,
+        -1L,
+        BookDownloadJournalEntry.State.DOWNLOAD_RUNNING));
+
+    final DownloadType download = this.downloader.downloadToDirectory(
+      a.getURI(),
+      Option.some(auth),
+      priority,
+      directory,
+      new DownloadListenerType()
       {
         @Override public void onDownloadStarted(
           final DownloadType d,
@@ -759,12 +903,29 @@ final class BooksControllerBorrowTask implements Runnable
           final long running_total,
           final long expected_total)
         {
-          BooksControllerBorrowTask.this.downloadDataReceived(
-            running_total, expected_total);
+          final BooksControllerBorrowTask t = BooksControllerBorrowTask.this;
+          t.downloadDataReceived(running_total, expected_total);
+
+          /**
+           * Each write of the journal is an atomic file replacement, and so
+           * progress is recorded at a fixed rate, independently of the
+           * status updates above. Those are published for every chunk when
+           * the expected size is unknown.
+           */
+
+          final BookDownloadJournalEntry e = t.download_journal_entry;
+          final long elapsed = System.nanoTime() - t.download_journal_time;
+          final boolean due =
+            elapsed >= BooksControllerBorrowTask.JOURNAL_INTERVAL_NS;
+          if (e != null && due) {
+            t.downloadJournalPut(e.withProgress(running_total, expected_total));
+          }
         }
 
         @Override public void onDownloadCancelled(final DownloadType d)
         {
+          BooksControllerBorrowTask.this.download_finished = true;
+          BooksControllerBorrowTask.this.downloadJournalRemove();
           BooksControllerBorrowTask.this.downloadCancelled();
         }
 
@@ -774,6 +935,16 @@ final class BooksControllerBorrowTask implements Runnable
           final long running_total,
           final OptionType<Throwable> exception)
         {
+          final BooksControllerBorrowTask t = BooksControllerBorrowTask.this;
+          t.download_finished = true;
+
+          final BookDownloadJournalEntry je = t.download_journal_entry;
+          if (je != null) {
+            t.downloadJournalPut(
+              je.withProgress(running_total, je.getExpectedTotal()).withState(
+                BookDownloadJournalEntry.State.DOWNLOAD_FAILED));
+          }
+
           /**
            * If the content type indicates that the file was an ACSM file,
            * explicitly indicate that it was fetching an ACSM that failed.
@@ -809,7 +980,9 @@ final class BooksControllerBorrowTask implements Runnable
             BooksControllerBorrowTask.LOG.debug(
               "[{}]: download {} completed for {}", sid, d, file);
 
+            BooksControllerBorrowTask.this.download_finished = true;
             BooksControllerBorrowTask.this.downloadRemoveFromCurrent();
+            BooksControllerBorrowTask.this.downloadJournalRemove();
 
             /**
              * If the downloaded file is an ACSM fulfillment token, then the
@@ -827,11 +1000,23 @@ final class BooksControllerBorrowTask implements Runnable
             } else {
 
               /**
-               * Otherwise, assume it's an EPUB and keep it.
+               * Otherwise, assume it's an EPUB and keep it, along with its
+               * origin so that it can be reused if it is borrowed again.
                */
 
               final OptionType<AdobeAdeptLoan> none = Option.none();
-              BooksControllerBorrowTask.this.saveEPUBAndRights(file, none);
+              final OptionType<String> digest = d.getContentDigest();
+              final OptionType<BookContentOrigin> origin;
+              if (digest.isSome()) {
+                origin = Option.some(
+                  new BookContentOrigin(
+                    a.getURI(), ((Some<String>) digest).get()));
+              } else {
+                origin = Option.none();
+              }
+
+              BooksControllerBorrowTask.this.saveEPUBAndRights(
+                file, none, origin, true);
             }
           } catch (final IOException e) {
             BooksControllerBorrowTask.LOG.error(
@@ -851,13 +1036,29 @@ final class BooksControllerBorrowTask implements Runnable
           }
         }
       });
+
+    /**
+     * The download runs on the downloader's own threads, and so may already
+     * have finished, and tried to remove itself from the current downloads,
+     * before it could be registered. A finished download is not registered,
+     * and one that finishes whilst being registered is removed again (but
+     * only if it has not been replaced, for example by an Adobe DRM
+     * fulfillment).
+     */
+
+    if (this.download_finished == false) {
+      this.downloads.put(this.book_id, download);
+      if (this.download_finished) {
+        this.downloads.remove(this.book_id, download);
+      }
+    }
   }
 
   /**
    * Fulfill a book by hitting the generic or open access links.
    */
 
-  private DownloadType runAcquisitionFulfill(
+  private void runAcquisitionFulfill(
     final OPDSAcquisitionFeedEntry ee)
     throws IOException, BookBorrowExceptionNoUsableAcquisition
   {
@@ -868,7 +1069,9 @@ final class BooksControllerBorrowTask implements Runnable
       switch (ea.getType()) {
         case ACQUISITION_GENERIC:
         case ACQUISITION_OPEN_ACCESS: {
-          return this.runAcquisitionFulfillDoDownload(ea);
+          this.runAcquisitionFulfillDoDownload(
+            ea, DownloadPriority.DOWNLOAD_PRIORITY_USER);
+          return;
         }
         case ACQUISITION_BORROW:
         case ACQUISITION_BUY:
@@ -917,8 +1120,9 @@ final class BooksControllerBorrowTask implements Runnable
       final AdobeAdeptLoan loan)
     {
       try {
+        final OptionType<BookContentOrigin> no_origin = Option.none();
         BooksControllerBorrowTask.this.saveEPUBAndRights(
-          file, Option.some(loan));
+          file, Option.some(loan), no_origin, false);
       } catch (final Throwable x) {
         BooksControllerBorrowTask.LOG.error("failure saving rights: ", x);
         BooksControllerBorrowTask.this.downloadFailed(Option.some(x));
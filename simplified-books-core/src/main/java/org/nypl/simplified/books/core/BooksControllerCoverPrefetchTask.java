@@ -0,0 +1,97 @@
+package org.nypl.simplified.books.core;
+
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.http.core.HTTPType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>A task that downloads the covers of several books into their database
+ * entries, so that covers can be shown without network access.</p>
+ *
+ * <p>The task does not wait for the covers: it submits one fetch per book to
+ * the given executor, which is expected to be a long-lived pool of a few
+ * low-priority threads, and returns immediately. The HTTP interface should
+ * be one that schedules requests as prefetches, so that cover downloads
+ * yield to catalog browsing. Books whose covers are already present, and
+ * were fetched from the URIs that the books currently name, are skipped
+ * without any network access, and a failure to fetch the cover of one book
+ * does not affect the others.</p>
+ */
+
+final class BooksControllerCoverPrefetchTask implements Runnable
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(
+      LoggerFactory.getLogger(BooksControllerCoverPrefetchTask.class));
+  }
+
+  private final BookDatabaseType books_database;
+  private final HTTPType         http;
+  private final ExecutorService  exec;
+  private final List<BookID>     book_ids;
+
+  BooksControllerCoverPrefetchTask(
+    final BookDatabaseType in_books_database,
+    final HTTPType in_http,
+    final ExecutorService in_exec,
+    final List<BookID> in_book_ids)
+  {
+    this.books_database = NullCheck.notNull(in_books_database);
+    this.http = NullCheck.notNull(in_http);
+    this.exec = NullCheck.notNull(in_exec);
+    this.book_ids = new ArrayList<BookID>(NullCheck.notNull(in_book_ids));
+  }
+
+  @Override public void run()
+  {
+    BooksControllerCoverPrefetchTask.LOG.debug(
+      "prefetching covers of {} books", Integer.valueOf(this.book_ids.size()));
+
+    try {
+      for (final BookID id : this.book_ids) {
+        this.exec.submit(new Fetch(id));
+      }
+    } catch (final RejectedExecutionException e) {
+      BooksControllerCoverPrefetchTask.LOG.debug(
+        "cover prefetch executor is shut down");
+    }
+  }
+
+  private final class Fetch implements Runnable
+  {
+    private final BookID id;
+
+    Fetch(final BookID in_id)
+    {
+      this.id = NullCheck.notNull(in_id);
+    }
+
+    @Override public void run()
+    {
+      final BooksControllerCoverPrefetchTask task =
+        BooksControllerCoverPrefetchTask.this;
+      try {
+        final BookDatabaseEntryType e =
+          task.books_database.databaseOpenEntryForWriting(this.id);
+        if (e.entryExists() == false) {
+          return;
+        }
+        if (e.entryFetchCovers(task.http).isSome()) {
+          BooksControllerCoverPrefetchTask.LOG.debug(
+            "[{}]: fetched cover", this.id.getShortID());
+        }
+      } catch (final Throwable x) {
+        BooksControllerCoverPrefetchTask.LOG.error(
+          "[{}]: unable to fetch cover: ", this.id.getShortID(), x);
+      }
+    }
+  }
+}
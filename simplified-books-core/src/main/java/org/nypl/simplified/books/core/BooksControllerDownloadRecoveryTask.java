@@ -0,0 +1,174 @@
+package org.nypl.simplified.books.core;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import org.nypl.drm.core.AdobeAdeptExecutorType;
+import org.nypl.simplified.downloader.core.DownloadType;
+import org.nypl.simplified.downloader.core.DownloaderType;
+import org.nypl.simplified.http.core.HTTPType;
+import org.nypl.simplified.opds.core.OPDSAcquisition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>A task that reconciles the download journal with the book database
+ * when the application starts.</p>
+ *
+ * <p>A download that was running when the application was stopped is
+ * resumed if the book still exists, has not already been downloaded, and the
+ * user is still logged in. Any other entry is removed, along with any partial
+ * data kept for it. The status of every affected book is published again so
+ * that no book is left appearing to download.</p>
+ */
+
+final class BooksControllerDownloadRecoveryTask implements Runnable
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(
+      LoggerFactory.getLogger(BooksControllerDownloadRecoveryTask.class));
+  }
+
+  private final BookDatabaseType                        books_database;
+  private final AccountsDatabaseType                    accounts_database;
+  private final BooksStatusCacheType                    books_status;
+  private final DownloaderType                          downloader;
+  private final HTTPType                                http;
+  private final ConcurrentHashMap<BookID, DownloadType> downloads;
+  private final BookDownloadJournalType                 download_journal;
+  private final FeedLoaderType                          feed_loader;
+  private final OptionType<AdobeAdeptExecutorType>      adobe_drm;
+  private final BookStorageManagerType                  storage;
+
+  BooksControllerDownloadRecoveryTask(
+    final BookDatabaseType in_books_database,
+    final AccountsDatabaseType in_accounts_database,
+    final BooksStatusCacheType in_books_status,
+    final DownloaderType in_downloader,
+    final HTTPType in_http,
+    final ConcurrentHashMap<BookID, DownloadType> in_downloads,
+    final BookDownloadJournalType in_download_journal,
+    final FeedLoaderType in_feed_loader,
+    final OptionType<AdobeAdeptExecutorType> in_adobe_drm,
+    final BookStorageManagerType in_storage)
+  {
+    this.books_database = NullCheck.notNull(in_books_database);
+    this.accounts_database = NullCheck.notNull(in_accounts_database);
+    this.books_status = NullCheck.notNull(in_books_status);
+    this.downloader = NullCheck.notNull(in_downloader);
+    this.http = NullCheck.notNull(in_http);
+    this.downloads = NullCheck.notNull(in_downloads);
+    this.download_journal = NullCheck.notNull(in_download_journal);
+    this.feed_loader = NullCheck.notNull(in_feed_loader);
+    this.adobe_drm = NullCheck.notNull(in_adobe_drm);
+    this.storage = NullCheck.notNull(in_storage);
+  }
+
+  @Override public void run()
+  {
+    final List<BookDownloadJournalEntry> entries =
+      this.download_journal.journalGetAll();
+
+    BooksControllerDownloadRecoveryTask.LOG.debug(
+      "{} journaled downloads", Integer.valueOf(entries.size()));
+
+    final boolean logged_in =
+      this.accounts_database.accountGetCredentials().isSome();
+
+    for (final BookDownloadJournalEntry e : entries) {
+      try {
+        this.recover(e, logged_in);
+      } catch (final Throwable x) {
+        BooksControllerDownloadRecoveryTask.LOG.error(
+          "could not recover download {}: ", e, x);
+      }
+    }
+  }
+
+  private void recover(
+    final BookDownloadJournalEntry e,
+    final boolean logged_in)
+    throws IOException
+  {
+    final BookID id = e.getID();
+
+    /**
+     * The book may have been deleted since the download was started, in
+     * which case its partial data went with it.
+     */
+
+    final OptionType<BookDatabaseEntrySnapshot> snap_opt =
+      this.books_database.databaseGetEntrySnapshot(id);
+    if (snap_opt.isNone()) {
+      BooksControllerDownloadRecoveryTask.LOG.debug(
+        "[{}]: book no longer exists, removing journal entry",
+        id.getShortID());
+      this.download_journal.journalRemove(id);
+      return;
+    }
+
+    final BookDatabaseEntrySnapshot snap =
+      ((Some<BookDatabaseEntrySnapshot>) snap_opt).get();
+    final File directory =
+      this.books_database.databaseOpenEntryForReading(id).entryGetDirectory();
+
+    final boolean resume = logged_in
+      && snap.getBook().isNone()
+      && e.getState() == BookDownloadJournalEntry.State.DOWNLOAD_RUNNING;
+
+    if (resume == false) {
+      BooksControllerDownloadRecoveryTask.LOG.debug(
+        "[{}]: discarding download {}", id.getShortID(), e);
+      this.downloader.downloadDiscardPartial(e.getURI(), directory);
+      this.download_journal.journalRemove(id);
+      this.books_status.booksStatusUpdate(BookStatus.fromSnapshot(id, snap));
+      return;
+    }
+
+    BooksControllerDownloadRecoveryTask.LOG.debug(
+      "[{}]: resuming download {}", id.getShortID(), e);
+
+    /**
+     * If the length of the file was never learned, show the download as
+     * having just started.
+     */
+
+    final OptionType<Calendar> none = Option.none();
+    if (e.getExpectedTotal() > 0L) {
+      this.books_status.booksStatusUpdate(
+        new BookStatusDownloadInProgress(
+          id, e.getOffset(), e.getExpectedTotal(), none));
+    } else {
+      this.books_status.booksStatusUpdate(
+        new BookStatusDownloadInProgress(id, 0L, 100L, none));
+    }
+
+    final OPDSAcquisition acq = new OPDSAcquisition(
+      OPDSAcquisition.Type.ACQUISITION_GENERIC, e.getURI());
+
+    final BooksControllerBorrowTask task = new BooksControllerBorrowTask(
+      this.books_database,
+      this.accounts_database,
+      this.books_status,
+      this.downloader,
+      this.http,
+      this.downloads,
+      this.download_journal,
+      id,
+      acq,
+      snap.getEntry(),
+      this.feed_loader,
+      this.adobe_drm,
+      this.storage);
+    task.resumeDownload();
+  }
+}
@@ -0,0 +1,245 @@
+package org.nypl.simplified.books.core;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import org.nypl.drm.core.AdobeAdeptExecutorType;
+import org.nypl.simplified.http.core.HTTPAuthType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>A task that revokes the loans or holds of several books.</p>
+ *
+ * <p>Each book is revoked as by {@link BooksControllerRevokeBookTask}, but
+ * the authentication details are computed once for the whole batch, at most
+ * {@link #MAXIMUM_REQUESTS} revocation requests are in flight at any one
+ * time, and status broadcasts for the books are held until every request has
+ * finished.</p>
+ *
+ * <p>The task never waits for a request. It starts as many requests as are
+ * allowed and returns, and each request that finishes submits the task to
+ * the executor again to start the next one. Other book tasks therefore run
+ * in between the steps of a batch. The batch stops starting requests if the
+ * thread running it is interrupted, or if the account has been logged out
+ * in the meantime.</p>
+ */
+
+final class BooksControllerRevokeBatchTask implements Runnable
+{
+  /**
+   * The maximum number of revocation requests that may be in flight at once.
+   */
+
+  static final int MAXIMUM_REQUESTS = 4;
+
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(
+      LoggerFactory.getLogger(BooksControllerRevokeBatchTask.class));
+  }
+
+  private final BookDatabaseType                   books_database;
+  private final AccountsDatabaseReadableType       accounts_database;
+  private final BooksStatusCacheType               books_status;
+  private final FeedLoaderType                     feed_loader;
+  private final List<BookID>                       book_ids;
+  private final OptionType<AdobeAdeptExecutorType> adobe_drm;
+  private final Executor                           exec;
+  private final Runnable                           step;
+  private final Runnable                           request_finished;
+  private       OptionType<HTTPAuthType>           auth;
+  private       int                                next;
+  private       int                                in_flight;
+  private       boolean                            done;
+
+  BooksControllerRevokeBatchTask(
+    final BookDatabaseType in_books_database,
+    final AccountsDatabaseReadableType in_accounts_database,
+    final BooksStatusCacheType in_books_status,
+    final FeedLoaderType in_feed_loader,
+    final Executor in_exec,
+    final List<BookID> in_book_ids,
+    final OptionType<AdobeAdeptExecutorType> in_adobe_drm)
+  {
+    this.books_database = NullCheck.notNull(in_books_database);
+    this.accounts_database = NullCheck.notNull(in_accounts_database);
+    this.books_status = NullCheck.notNull(in_books_status);
+    this.feed_loader = NullCheck.notNull(in_feed_loader);
+    this.book_ids = new ArrayList<BookID>(NullCheck.notNull(in_book_ids));
+    this.adobe_drm = NullCheck.notNull(in_adobe_drm);
+    this.exec = NullCheck.notNull(in_exec);
+    this.auth = Option.none();
+    this.next = 0;
+    this.in_flight = 0;
+    this.done = false;
+
+    this.step = new Runnable()
+    {
+      @Override public void run()
+      {
+        BooksControllerRevokeBatchTask.this.startRequests();
+      }
+    };
+    this.request_finished = new Runnable()
+    {
+      @Override public void run()
+      {
+        BooksControllerRevokeBatchTask.this.finishOne(true);
+      }
+    };
+  }
+
+  @Override public void run()
+  {
+    BooksControllerRevokeBatchTask.LOG.debug(
+      "revoking {} books", Integer.valueOf(this.book_ids.size()));
+
+    final OptionType<AccountCredentials> credentials_opt =
+      this.accounts_database.accountGetCredentials();
+    if (credentials_opt.isNone()) {
+      BooksControllerRevokeBatchTask.LOG.error(
+        "not logged in, not revoking {} books",
+        Integer.valueOf(this.book_ids.size()));
+      return;
+    }
+
+    this.auth = Option.some(
+      BooksControllerRevokeBookTask.getHTTPAuthForCredentials(
+        ((Some<AccountCredentials>) credentials_opt).get()));
+
+    this.books_status.booksStatusBroadcastHold(this.book_ids);
+    this.startRequests();
+  }
+
+  /**
+   * Start revocation requests until {@link #MAXIMUM_REQUESTS} are in flight
+   * or no books remain. The step itself counts as a request in flight while
+   * it runs, so that requests that finish during the step cannot complete
+   * the batch early.
+   */
+
+  private void startRequests()
+  {
+    synchronized (this) {
+      ++this.in_flight;
+    }
+
+    try {
+      while (true) {
+        final BookID id;
+        synchronized (this) {
+          if (this.next == this.book_ids.size()) {
+            break;
+          }
+          if (this.isStopped()) {
+            this.abandon();
+            break;
+          }
+          final int max = BooksControllerRevokeBatchTask.MAXIMUM_REQUESTS;
+          if (this.in_flight > max) {
+            break;
+          }
+          id = NullCheck.notNull(this.book_ids.get(this.next));
+          ++this.next;
+          ++this.in_flight;
+        }
+
+        this.books_status.booksStatusUpdate(new BookStatusRequestingRevoke(id));
+        final BooksControllerRevokeBookTask task =
+          new BooksControllerRevokeBookTask(
+            this.books_database,
+            this.accounts_database,
+            this.books_status,
+            this.feed_loader,
+            id,
+            this.adobe_drm,
+            this.auth,
+            Option.some(this.request_finished));
+        task.run();
+      }
+    } finally {
+      this.finishOne(false);
+    }
+  }
+
+  /**
+   * @return {@code true} if no more requests should be started
+   */
+
+  private boolean isStopped()
+  {
+    if (Thread.currentThread().isInterrupted()) {
+      BooksControllerRevokeBatchTask.LOG.debug("interrupted");
+      return true;
+    }
+    if (this.accounts_database.accountGetCredentials().isNone()) {
+      BooksControllerRevokeBatchTask.LOG.debug("logged out");
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Give up on the books for which no request has been started.
+   */
+
+  private synchronized void abandon()
+  {
+    final int remaining = this.book_ids.size() - this.next;
+    if (remaining > 0) {
+      BooksControllerRevokeBatchTask.LOG.debug(
+        "not revoking {} remaining books", Integer.valueOf(remaining));
+      this.next = this.book_ids.size();
+    }
+  }
+
+  /**
+   * A request (or a step) has finished. Schedule another step if books
+   * remain, and release the held broadcasts once nothing is in flight.
+   */
+
+  private void finishOne(final boolean schedule)
+  {
+    final boolean submit;
+    synchronized (this) {
+      --this.in_flight;
+      submit = schedule && this.next < this.book_ids.size();
+    }
+
+    if (submit) {
+      try {
+        this.exec.execute(this.step);
+      } catch (final RejectedExecutionException e) {
+        BooksControllerRevokeBatchTask.LOG.error(
+          "could not schedule remaining revocations: ", e);
+        this.abandon();
+      }
+    }
+
+    this.completeIfIdle();
+  }
+
+  private void completeIfIdle()
+  {
+    synchronized (this) {
+      if (this.done
+        || this.in_flight > 0
+        || this.next < this.book_ids.size()) {
+        return;
+      }
+      this.done = true;
+    }
+
+    this.books_status.booksStatusBroadcastRelease(this.book_ids);
+    BooksControllerRevokeBatchTask.LOG.debug(
+      "revoked {} books", Integer.valueOf(this.book_ids.size()));
+  }
+}
@@ -54,6 +54,9 @@ final class BooksControllerRevokeBookTask
   private final OptionType<AdobeAdeptExecutorType> adobe_drm;
   private final FeedLoaderType                     feed_loader;
   private final AccountsDatabaseReadableType       accounts_database;
+  private final OptionType<HTTPAuthType>           auth;
+  private final OptionType<Runnable>               on_finished;
+  private       boolean                            request_sent;
 
   BooksControllerRevokeBookTask(
     final BookDatabaseType in_books_database,
@@ -61,7 +64,9 @@ final class BooksControllerRevokeBookTask
     final BooksStatusCacheType in_books_status,
     final FeedLoaderType in_feed_loader,
     final BookID in_book_id,
-    final OptionType<AdobeAdeptExecutorType> in_adobe_drm)
+    final OptionType<AdobeAdeptExecutorType> in_adobe_drm,
+    final OptionType<HTTPAuthType> in_auth,
+    final OptionType<Runnable> in_on_finished)
   {
     this.book_id = NullCheck.notNull(in_book_id);
     this.books_database = NullCheck.notNull(in_books_database);
@@ -69,6 +74,48 @@ final class BooksControllerRevokeBookTask
     this.books_status = NullCheck.notNull(in_books_status);
     this.adobe_drm = NullCheck.notNull(in_adobe_drm);
     this.feed_loader = NullCheck.notNull(in_feed_loader);
+    this.auth = NullCheck.notNull(in_auth);
+    this.on_finished = NullCheck.notNull(in_on_finished);
+    this.request_sent = false;
+  }
+
+  /**
+   * @param credentials The account credentials
+   *
+   * @return The HTTP authentication details for the given credentials
+   */
+
+  static HTTPAuthType getHTTPAuthForCredentials(
+    final AccountCredentials credentials)
+  {
+    final AccountBarcode barcode = credentials.getBarcode();
+    final AccountPIN pin = credentials.getPin();
+
+    HTTPAuthType auth =
+      new HTTPAuthBasic(barcode.toString(), pin.toString());
+
+    if (credentials.getAuthToken().isSome()) {
+      final AccountAuthToken token = ((Some<AccountAuthToken>) credentials.getAuthToken()).get();
+      if (token != null) {
+        auth = new HTTPAuthOAuth(token.toString());
+      }
+    }
+
+    return auth;
+  }
+
+  /**
+   * Run the completion procedure, if any. The revocation request is sent to
+   * the server asynchronously, and so the procedure is run exactly once:
+   * after the server has responded if a request was sent, and at the end of
+   * {@link #run()} otherwise.
+   */
+
+  private void finished()
+  {
+    if (this.on_finished.isSome()) {
+      ((Some<Runnable>) this.on_finished).get().run();
+    }
   }
 
   @Override public void run()
@@ -87,6 +134,10 @@ final class BooksControllerRevokeBookTask
     } catch (final Throwable e) {
       BooksControllerRevokeBookTask.LOG.error(
         "[{}]: could not revoke book: ", this.book_id.getShortID(), e);
+    } finally {
+      if (this.request_sent == false) {
+        this.finished();
+      }
     }
   }
 
@@ -132,6 +183,8 @@ final class BooksControllerRevokeBookTask
         } catch (final Throwable e) {
           BooksControllerRevokeBookTask.this.revokeFailed(
             Option.some(e), e.getMessage());
+        } finally {
+          BooksControllerRevokeBookTask.this.finished();
         }
       }
 
@@ -152,13 +205,24 @@ final class BooksControllerRevokeBookTask
         final URI u,
         final Throwable x)
       {
-        BooksControllerRevokeBookTask.this.revokeFailed(
-          Option.some(x), x.getMessage());
+        try {
+          BooksControllerRevokeBookTask.this.revokeFailed(
+            Option.some(x), x.getMessage());
+        } finally {
+          BooksControllerRevokeBookTask.this.finished();
+        }
       }
     };
 
+    /**
+     * The listener may be called before the request is returned, so the
+     * request is only marked as sent once it has been submitted: if the
+     * submission fails, the completion procedure is run by {@link #run()}.
+     */
+
     this.feed_loader.fromURIRefreshing(
       u, Option.some(auth), "PUT", listener);
+    this.request_sent = true;
   }
 
   private void revokeFeedReceived(final FeedType f)
@@ -278,21 +342,12 @@ final class BooksControllerRevokeBookTask
   @NonNull private HTTPAuthType getHTTPAuth()
     throws IOException
   {
-    final AccountCredentials credentials = this.getAccountCredentials();
-    final AccountBarcode barcode = credentials.getBarcode();
-    final AccountPIN pin = credentials.getPin();
-
-    HTTPAuthType auth =
-      new HTTPAuthBasic(barcode.toString(), pin.toString());
-
-    if (credentials.getAuthToken().isSome()) {
-      final AccountAuthToken token = ((Some<AccountAuthToken>) credentials.getAuthToken()).get();
-      if (token != null) {
-        auth = new HTTPAuthOAuth(token.toString());
-      }
+    if (this.auth.isSome()) {
+      return ((Some<HTTPAuthType>) this.auth).get();
     }
 
-    return auth;
+    return BooksControllerRevokeBookTask.getHTTPAuthForCredentials(
+      this.getAccountCredentials());
   }
 
   private AccountCredentials getAccountCredentials()
@@ -26,7 +26,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -179,10 +181,14 @@ final class BooksControllerSyncTask implements Runnable
     final Set<BookID> existing = this.books_database.databaseGetBooks();
 
     /**
-     * Handle each book in the received feed.
+     * Stage each book in the received feed. A book that cannot be staged is
+     * still counted as received, so that it is not deleted below.
      */
 
-    final Set<BookID> received = new HashSet<BookID>(64);
+    final BookDatabaseTransactionType tx =
+      this.books_database.databaseBeginTransaction();
+
+    final Set<BookID> received = new LinkedHashSet<BookID>(64);
     final List<OPDSAcquisitionFeedEntry> entries = feed.getFeedEntries();
     for (final OPDSAcquisitionFeedEntry e : entries) {
       final OPDSAcquisitionFeedEntry e_nn = NullCheck.notNull(e);
@@ -190,24 +196,21 @@ final class BooksControllerSyncTask implements Runnable
 
       try {
         received.add(book_id);
-        final BookDatabaseEntryType db_e =
-          this.books_database.databaseOpenEntryForWriting(book_id);
-        db_e.entryUpdateAll(e_nn, books_status, this.http);
-
-        this.listener.onAccountSyncBook(book_id);
+        tx.transactionUpdate(e_nn);
       } catch (final Throwable x) {
         BooksControllerSyncTask.LOG.error(
-          "[{}]: unable to save entry: {}: ", book_id.getShortID(), x);
+          "[{}]: unable to stage entry: ", book_id.getShortID(), x);
       }
     }
 
     /**
-     * Now delete any book that previously existed, but is not in the
-     * received set. Queue any revoked books for completion and then
-     * deletion.
+     * Now stage the deletion of any book that previously existed, but is not
+     * in the received set. Revoked books are kept so that their revocation
+     * can be completed; the revocation deletes them when it succeeds.
      */
 
-    final Set<BookID> revoking = new HashSet<BookID>(existing.size());
+    final List<BookID> revoking = new ArrayList<BookID>(existing.size());
+    final List<BookID> deleted = new ArrayList<BookID>(existing.size());
     for (final BookID existing_id : existing) {
       try {
         if (received.contains(existing_id) == false) {
@@ -217,11 +220,11 @@ final class BooksControllerSyncTask implements Runnable
           final OPDSAvailabilityType a = e.entryGetFeedData().getAvailability();
           if (a instanceof OPDSAvailabilityRevoked) {
             revoking.add(existing_id);
+            continue;
           }
 
-          e.entryDestroy();
-          books_status.booksStatusClearFor(existing_id);
-          this.listener.onAccountSyncBookDeleted(existing_id);
+          tx.transactionDelete(existing_id);
+          deleted.add(existing_id);
         }
       } catch (final Throwable x) {
         BooksControllerSyncTask.LOG.error(
@@ -230,11 +233,31 @@ final class BooksControllerSyncTask implements Runnable
     }
 
     /**
-     * Try to finish the revocation of any books that require it.
+     * Apply all of the changes at once, and only then tell the listener
+     * about them.
      */
 
-    for (final BookID existing_id : revoking) {
-      this.books_controller.bookRevoke(existing_id);
+    tx.transactionCommit(books_status);
+    for (final BookID id : received) {
+      this.listener.onAccountSyncBook(id);
+    }
+    for (final BookID id : deleted) {
+      this.listener.onAccountSyncBookDeleted(id);
     }
+
+    /**
+     * Try to finish the revocation of any books that require it, as a single
+     * batch.
+     */
+
+    this.books_controller.bookRevokeAll(revoking);
+
+    /**
+     * Fetch the covers of the received books in the background, so that they
+     * can be shown offline.
+     */
+
+    this.books_controller.bookPrefetchCovers(
+      new ArrayList<BookID>(received));
   }
 }
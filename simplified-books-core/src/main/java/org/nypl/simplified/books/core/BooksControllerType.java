@@ -6,6 +6,7 @@ import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry;
 
 import java.net.URI;
 import java.util.Calendar;
+import java.util.List;
 
 /**
  * Interface to the book management functions.
@@ -105,6 +106,45 @@ public interface BooksControllerType
   void bookRevoke(
     BookID id);
 
+  /**
+   * Revoke the loans or holds for the given books as a single operation.
+   * Requests to the server are made with a bounded number in flight, using
+   * the same authentication details, and observers of the status cache are
+   * told about each book once, when the whole batch has finished.
+   *
+   * @param ids The book IDs
+   */
+
+  void bookRevokeAll(
+    List<BookID> ids);
+
+  /**
+   * Download the covers of the given books into the book database in the
+   * background, with a bounded number of requests in flight at low
+   * priority. Books whose covers are already present are skipped.
+   *
+   * @param ids The book IDs
+   */
+
+  void bookPrefetchCovers(
+    List<BookID> ids);
+
+  /**
+   * @return The manager that keeps downloaded books within the storage quota
+   */
+
+  BookStorageManagerType bookGetStorageManager();
+
+  /**
+   * Record, in the background, that the given book was opened for reading.
+   * Books that were read recently are the last to be deleted when the
+   * storage quota is exceeded.
+   *
+   * @param id The book ID
+   */
+
+  void bookNoteRead(BookID id);
+
   /**
    * Submit a problem report for a book
    *
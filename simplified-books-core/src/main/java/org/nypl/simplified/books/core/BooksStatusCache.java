@@ -3,35 +3,73 @@ package org.nypl.simplified.books.core;
 import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
 import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
- * The default implementation of the {@link BooksStatusCacheType} interface.
+ * <p>The default implementation of the {@link BooksStatusCacheType}
+ * interface.</p>
+ *
+ * <p>Successive download progress updates for a book are broadcast at most
+ * once every {@link #PROGRESS_BROADCAST_INTERVAL_MS} milliseconds. An update
+ * arriving sooner is stored, and a broadcast of the latest stored status is
+ * scheduled for the end of the interval, so that the last update of a burst
+ * is never lost. Any other status is broadcast immediately, unless
+ * broadcasts for the book are being held.</p>
+ *
+ * <p>Holds are counted per book, so that several tasks may hold the same
+ * book at once: broadcasts resume only when every hold has been
+ * released.</p>
  */
 
 public final class BooksStatusCache extends Observable
   implements BooksStatusCacheType
 {
-  private static final Logger LOG;
+  /**
+   * The minimum interval between broadcasts of download progress for a
+   * single book: roughly one display frame.
+   */
+
+  public static final long PROGRESS_BROADCAST_INTERVAL_MS = 16L;
+
+  private static final Logger                   LOG;
+  private static final ScheduledExecutorService FLUSHER;
 
   static {
     LOG = NullCheck.notNull(LoggerFactory.getLogger(BooksStatusCache.class));
+    FLUSHER = NullCheck.notNull(
+      Executors.newSingleThreadScheduledExecutor(new FlusherThreads()));
   }
 
   private final Map<BookID, BookStatusType>            status;
   private final Map<BookID, FeedEntryType>             entries;
+  private final Map<BookID, Long>                      progress_times;
+  private final Set<BookID>                            progress_pending;
+  private final Map<BookID, Integer>                   held;
+  private final Set<BookID>                            held_changed;
 
   private BooksStatusCache()
   {
     this.status = new HashMap<BookID, BookStatusType>(32);
     this.entries = new WeakHashMap<BookID, FeedEntryType>(32);
+    this.progress_times = new HashMap<BookID, Long>(8);
+    this.progress_pending = new HashSet<BookID>(8);
+    this.held = new HashMap<BookID, Integer>(8);
+    this.held_changed = new HashSet<BookID>(8);
   }
 
   /**
@@ -69,6 +107,8 @@ public final class BooksStatusCache extends Observable
   @Override public synchronized void booksStatusClearAll()
   {
     this.status.clear();
+    this.progress_times.clear();
+    this.progress_pending.clear();
   }
 
   @Override public synchronized OptionType<BookStatusType> booksStatusGet(
@@ -140,12 +180,60 @@ public final class BooksStatusCache extends Observable
   {
     BooksStatusCache.LOG.debug("clear {}", book_id);
     this.status.remove(book_id);
+    this.progress_times.remove(book_id);
+    this.progress_pending.remove(book_id);
     this.broadcast(book_id);
   }
 
+  @Override public synchronized void booksStatusBroadcastHold(
+    final Collection<BookID> book_ids)
+  {
+    for (final BookID id : NullCheck.notNull(book_ids)) {
+      final Integer count = this.held.get(id);
+      final int next = count == null ? 1 : count.intValue() + 1;
+      this.held.put(id, Integer.valueOf(next));
+    }
+  }
+
+  @Override public synchronized void booksStatusBroadcastRelease(
+    final Collection<BookID> book_ids)
+  {
+    NullCheck.notNull(book_ids);
+
+    int released = 0;
+    int changed = 0;
+    for (final BookID id : book_ids) {
+      final Integer count = this.held.get(id);
+      if (count == null) {
+        continue;
+      }
+      if (count.intValue() > 1) {
+        this.held.put(id, Integer.valueOf(count.intValue() - 1));
+        continue;
+      }
+
+      this.held.remove(id);
+      ++released;
+      if (this.held_changed.remove(id)) {
+        this.broadcast(id);
+        ++changed;
+      }
+    }
+
+    BooksStatusCache.LOG.debug(
+      "released {} held books, {} changed",
+      Integer.valueOf(released),
+      Integer.valueOf(changed));
+  }
+
   private void broadcast(
     final BookID id)
   {
+    if (this.held.containsKey(id)) {
+      this.held_changed.add(id);
+      return;
+    }
+
     this.setChanged();
     this.notifyObservers(id);
   }
@@ -154,9 +242,77 @@ public final class BooksStatusCache extends Observable
     final T s)
   {
     final BookID id = s.getID();
+    final BookStatusType previous = this.status.put(id, s);
+
+    if (s instanceof BookStatusDownloadInProgress) {
+      final long now = System.nanoTime();
+      if (previous instanceof BookStatusDownloadInProgress
+        && this.progress_times.containsKey(id)) {
+        final long last = this.progress_times.get(id).longValue();
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(now - last);
+        if (elapsed < BooksStatusCache.PROGRESS_BROADCAST_INTERVAL_MS) {
+          this.scheduleProgressBroadcast(
+            id, BooksStatusCache.PROGRESS_BROADCAST_INTERVAL_MS - elapsed);
+          return s;
+        }
+      }
+      this.progress_times.put(id, Long.valueOf(now));
+    } else {
+      this.progress_times.remove(id);
+    }
+
+    this.progress_pending.remove(id);
+
     BooksStatusCache.LOG.debug("put {}", s);
-    this.status.put(id, s);
     this.broadcast(id);
     return s;
   }
+
+  /**
+   * Schedule a broadcast of the stored progress of the given book, unless
+   * one is already scheduled. A broadcast made in the meantime, for any
+   * reason, cancels the scheduled one.
+   */
+
+  private void scheduleProgressBroadcast(
+    final BookID id,
+    final long delay_ms)
+  {
+    if (this.progress_pending.add(id)) {
+      BooksStatusCache.FLUSHER.schedule(
+        new Runnable()
+        {
+          @Override public void run()
+          {
+            BooksStatusCache.this.flushProgress(id);
+          }
+        }, delay_ms, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private synchronized void flushProgress(final BookID id)
+  {
+    if (this.progress_pending.remove(id)) {
+      this.progress_times.put(id, Long.valueOf(System.nanoTime()));
+      this.broadcast(id);
+    }
+  }
+
+  private static final class FlusherThreads implements ThreadFactory
+  {
+    private final ThreadFactory base;
+
+    FlusherThreads()
+    {
+      this.base = NullCheck.notNull(Executors.defaultThreadFactory());
+    }
+
+    @Override public Thread newThread(final @Nullable Runnable r)
+    {
+      final Thread t = this.base.newThread(NullCheck.notNull(r));
+      t.setName("simplified-book-status-flusher");
+      t.setDaemon(true);
+      return t;
+    }
+  }
 }
@@ -2,6 +2,8 @@ package org.nypl.simplified.books.core;
 
 import com.io7m.jfunctional.OptionType;
 
+import java.util.Collection;
+
 /**
  * The type of book status caches.
  *
@@ -79,4 +81,27 @@ public interface BooksStatusCacheType extends BooksObservableType
    */
 
   void booksStatusClearFor(BookID book_id);
+
+  /**
+   * Hold back broadcasts for the given books. Status changes for the books
+   * are still stored, but observers are not told about them until {@link
+   * #booksStatusBroadcastRelease(Collection)} is called. This allows a task
+   * that changes the status of many books several times to broadcast each
+   * book once when it has finished. Holds nest: a book that is held several
+   * times must be released as many times before it is broadcast.
+   *
+   * @param book_ids The books
+   */
+
+  void booksStatusBroadcastHold(Collection<BookID> book_ids);
+
+  /**
+   * Release one hold on each of the given books. Once a book has no holds
+   * left, it is broadcast once if its status changed whilst broadcasts were
+   * held.
+   *
+   * @param book_ids The books
+   */
+
+  void booksStatusBroadcastRelease(Collection<BookID> book_ids);
 }
@@ -1,9 +1,11 @@
 package org.nypl.simplified.books.core;
 
+import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
 import com.io7m.jnull.NullCheck;
 import org.nypl.simplified.http.core.HTTPAuthType;
 import org.nypl.simplified.http.core.HTTPRedirectFollower;
+import org.nypl.simplified.http.core.HTTPRequestListenerType;
 import org.nypl.simplified.http.core.HTTPResultError;
 import org.nypl.simplified.http.core.HTTPResultException;
 import org.nypl.simplified.http.core.HTTPResultMatcherType;
@@ -35,11 +37,15 @@ public final class FeedHTTPTransport
     LOG = NullCheck.notNull(LoggerFactory.getLogger(FeedHTTPTransport.class));
   }
 
-  private final HTTPType http;
+  private final HTTPType                            http;
+  private final OptionType<HTTPRequestListenerType> listener;
 
-  private FeedHTTPTransport(final HTTPType in_http)
+  private FeedHTTPTransport(
+    final HTTPType in_http,
+    final OptionType<HTTPRequestListenerType> in_listener)
   {
     this.http = NullCheck.notNull(in_http);
+    this.listener = NullCheck.notNull(in_listener);
   }
 
   /**
@@ -51,7 +57,23 @@ public final class FeedHTTPTransport
   public static OPDSFeedTransportType<OptionType<HTTPAuthType>> newTransport(
     final HTTPType http)
   {
-    return new FeedHTTPTransport(http);
+    return new FeedHTTPTransport(http, Option.<HTTPRequestListenerType>none());
+  }
+
+  /**
+   * @param http     An HTTP interface
+   * @param listener A listener that will receive the redirect and
+   *                 authentication counts of each feed request
+   *
+   * @return A new transport
+   */
+
+  public static OPDSFeedTransportType<OptionType<HTTPAuthType>>
+  newTransportWithListener(
+    final HTTPType http,
+    final HTTPRequestListenerType listener)
+  {
+    return new FeedHTTPTransport(http, Option.some(NullCheck.notNull(listener)));
   }
 
   @Override public InputStream getStream(
@@ -63,7 +85,7 @@ public final class FeedHTTPTransport
     FeedHTTPTransport.LOG.debug("get stream: {} {}", uri, auth);
 
     final HTTPRedirectFollower rf = new HTTPRedirectFollower(
-      FeedHTTPTransport.LOG, this.http, method, auth, 5, uri, 0L);
+      FeedHTTPTransport.LOG, this.http, method, auth, 5, uri, 0L, this.listener);
 
     final HTTPResultType<InputStream> r = rf.run();
     return r.matchResult(
@@ -0,0 +1,156 @@
+package org.nypl.simplified.books.core;
+
+import com.io7m.jfunctional.PartialFunctionType;
+import com.io7m.jfunctional.Unit;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The locks are package-private, and so these tests live in the package of
+ * the locks rather than beside the other book tests.
+ */
+
+@SuppressWarnings({ "null", "static-method" }) public final class BookDatabaseLocksTest
+{
+  private static final BookID BOOK_A = BookID.exactString("a");
+
+  /**
+   * A lock timeout much longer than the timeout of the tests, so that a
+   * write that waits for the lock instead of being rejected fails the test.
+   */
+
+  private static final long LOCK_TIMEOUT_MS = 60000L;
+
+  private static BookID otherStripe(final BookDatabaseLocks locks)
+  {
+    final int a = locks.stripeIndexFor(BookDatabaseLocksTest.BOOK_A);
+    for (int index = 0; true; ++index) {
+      final BookID b = BookID.exactString("b" + index);
+      if (locks.stripeIndexFor(b) != a) {
+        return b;
+      }
+    }
+  }
+
+  private static PartialFunctionType<Unit, Unit, IOException> nothing()
+  {
+    return new PartialFunctionType<Unit, Unit, IOException>()
+    {
+      @Override public Unit call(final Unit x)
+      {
+        return Unit.unit();
+      }
+    };
+  }
+
+  private static void assertWriteInsideReadRejected(
+    final BookDatabaseLocks locks,
+    final PartialFunctionType<Unit, Unit, IOException> write)
+    throws IOException
+  {
+    final boolean[] rejected = new boolean[1];
+    locks.withReadLock(
+      BookDatabaseLocksTest.BOOK_A,
+      new PartialFunctionType<Unit, Unit, IOException>()
+      {
+        @Override public Unit call(final Unit x)
+          throws IOException
+        {
+          try {
+            write.call(Unit.unit());
+          } catch (final IOException e) {
+            rejected[0] = true;
+          }
+          return Unit.unit();
+        }
+      });
+
+    Assert.assertTrue(rejected[0]);
+
+    /**
+     * Once the read has finished, the same write succeeds.
+     */
+
+    write.call(Unit.unit());
+  }
+
+  @Test(timeout = 10000L) public void testWriteInsideReadSameBook()
+    throws Exception
+  {
+    final BookDatabaseLocks locks = BookDatabaseLocks.newLocks(
+      4, BookDatabaseLocksTest.LOCK_TIMEOUT_MS);
+    BookDatabaseLocksTest.assertWriteInsideReadRejected(
+      locks, new PartialFunctionType<Unit, Unit, IOException>()
+      {
+        @Override public Unit call(final Unit x)
+          throws IOException
+        {
+          return locks.withWriteLock(
+            BookDatabaseLocksTest.BOOK_A, BookDatabaseLocksTest.nothing());
+        }
+      });
+  }
+
+  @Test(timeout = 10000L) public void testWriteInsideReadOtherBook()
+    throws Exception
+  {
+    /**
+     * The write is rejected even though it could not deadlock, because
+     * whether two books share a stripe is not something callers can see.
+     */
+
+    final BookDatabaseLocks locks = BookDatabaseLocks.newLocks(
+      16, BookDatabaseLocksTest.LOCK_TIMEOUT_MS);
+    final BookID b = BookDatabaseLocksTest.otherStripe(locks);
+    BookDatabaseLocksTest.assertWriteInsideReadRejected(
+      locks, new PartialFunctionType<Unit, Unit, IOException>()
+      {
+        @Override public Unit call(final Unit x)
+          throws IOException
+        {
+          return locks.withWriteLock(b, BookDatabaseLocksTest.nothing());
+        }
+      });
+  }
+
+  @Test(timeout = 10000L) public void testWriteManyInsideRead()
+    throws Exception
+  {
+    final BookDatabaseLocks locks = BookDatabaseLocks.newLocks(
+      16, BookDatabaseLocksTest.LOCK_TIMEOUT_MS);
+    final BookID b = BookDatabaseLocksTest.otherStripe(locks);
+    BookDatabaseLocksTest.assertWriteInsideReadRejected(
+      locks, new PartialFunctionType<Unit, Unit, IOException>()
+      {
+        @Override public Unit call(final Unit x)
+          throws IOException
+        {
+          final List<BookID> ids =
+            Arrays.asList(BookDatabaseLocksTest.BOOK_A, b);
+          return locks.withWriteLocks(ids, BookDatabaseLocksTest.nothing());
+        }
+      });
+  }
+
+  @Test(timeout = 10000L) public void testReadInsideWrite()
+    throws Exception
+  {
+    final BookDatabaseLocks locks = BookDatabaseLocks.newLocks(
+      1, BookDatabaseLocksTest.LOCK_TIMEOUT_MS);
+    locks.withWriteLock(
+      BookDatabaseLocksTest.BOOK_A,
+      new PartialFunctionType<Unit, Unit, IOException>()
+      {
+        @Override public Unit call(final Unit x)
+          throws IOException
+        {
+          return locks.withReadLock(
+            BookID.exactString("b"), BookDatabaseLocksTest.nothing());
+        }
+      });
+  }
+}
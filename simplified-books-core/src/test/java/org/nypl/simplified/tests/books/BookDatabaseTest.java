@@ -0,0 +1,306 @@
+package org.nypl.simplified.tests.books;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nypl.simplified.books.core.BookDatabase;
+import org.nypl.simplified.books.core.BookDatabaseIndexEntry;
+import org.nypl.simplified.books.core.BookDatabaseTransactionType;
+import org.nypl.simplified.books.core.BookDatabaseType;
+import org.nypl.simplified.books.core.BookID;
+import org.nypl.simplified.books.core.BooksStatusCache;
+import org.nypl.simplified.books.core.BooksStatusCacheType;
+import org.nypl.simplified.http.core.HTTP;
+import org.nypl.simplified.http.core.HTTPType;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry;
+import org.nypl.simplified.opds.core.OPDSAvailabilityLoaned;
+import org.nypl.simplified.opds.core.OPDSJSONParser;
+import org.nypl.simplified.opds.core.OPDSJSONSerializer;
+import org.nypl.simplified.opds.core.OPDSJSONSerializerType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Calendar;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+
+@SuppressWarnings({ "null", "static-method" }) public final class BookDatabaseTest
+{
+  @Rule public final TemporaryFolder temp = new TemporaryFolder();
+
+  private static BookDatabaseType open(final File directory)
+  {
+    return BookDatabase.newDatabase(
+      OPDSJSONSerializer.newSerializer(),
+      OPDSJSONParser.newParser(),
+      directory);
+  }
+
+  private static OPDSAcquisitionFeedEntry entry(
+    final String id,
+    final String title)
+  {
+    final OptionType<Calendar> no_date = Option.none();
+    final OptionType<URI> no_revoke = Option.none();
+    final Calendar updated = Calendar.getInstance();
+    updated.setTimeInMillis(0L);
+    return OPDSAcquisitionFeedEntry.newBuilder(
+      id,
+      title,
+      updated,
+      OPDSAvailabilityLoaned.get(no_date, no_date, no_revoke)).build();
+  }
+
+  private static long version(
+    final BookDatabaseType db,
+    final BookID id)
+  {
+    final OptionType<BookDatabaseIndexEntry> e = db.databaseGetIndexEntry(id);
+    Assert.assertTrue(e.isSome());
+    return ((Some<BookDatabaseIndexEntry>) e).get().getVersion();
+  }
+
+  private static void append(
+    final File file,
+    final String text)
+    throws IOException
+  {
+    final OutputStream os = new FileOutputStream(file, true);
+    try {
+      os.write(text.getBytes("UTF-8"));
+    } finally {
+      os.close();
+    }
+  }
+
+  private static String serialize(final OPDSAcquisitionFeedEntry e)
+    throws Exception
+  {
+    final OPDSJSONSerializerType s = OPDSJSONSerializer.newSerializer();
+    final ByteArrayOutputStream bao = new ByteArrayOutputStream();
+    s.serializeToStream(s.serializeFeedEntry(e), bao);
+    return bao.toString("UTF-8");
+  }
+
+  private File directory()
+    throws IOException
+  {
+    return new File(this.temp.newFolder(), "books");
+  }
+
+  @Test public void testIndexJournalTornTail()
+    throws Exception
+  {
+    final File dir = this.directory();
+    final BookDatabaseType db0 = BookDatabaseTest.open(dir);
+    db0.databaseCreate();
+
+    final OPDSAcquisitionFeedEntry a = BookDatabaseTest.entry("urn:a", "a0");
+    final OPDSAcquisitionFeedEntry b = BookDatabaseTest.entry("urn:b", "b0");
+    final BookID a_id = BookID.newIDFromEntry(a);
+    final BookID b_id = BookID.newIDFromEntry(b);
+
+    db0.databaseOpenEntryForWriting(a_id).entryCreate(a);
+    db0.databaseOpenEntryForWriting(b_id).entryCreate(b);
+    db0.databaseOpenEntryForWriting(a_id).entrySetFeedData(
+      BookDatabaseTest.entry("urn:a", "a1"));
+    db0.databaseOpenEntryForWriting(a_id).entrySetFeedData(
+      BookDatabaseTest.entry("urn:a", "a2"));
+    final long a_version = BookDatabaseTest.version(db0, a_id);
+    final long b_version = BookDatabaseTest.version(db0, b_id);
+    Assert.assertTrue(a_version > b_version);
+
+    /**
+     * Simulate a crash part way through appending a record.
+     */
+
+    final File journal = new File(dir, "index.journal");
+    Assert.assertTrue(journal.length() > 0L);
+    BookDatabaseTest.append(journal, "{\"op\":\"put\",\"book\":\"");
+
+    final BookDatabaseType db1 = BookDatabaseTest.open(dir);
+    Assert.assertEquals(2L, (long) db1.databaseGetBooks().size());
+    Assert.assertEquals(a_version, BookDatabaseTest.version(db1, a_id));
+    Assert.assertEquals(b_version, BookDatabaseTest.version(db1, b_id));
+
+    /**
+     * Records appended after the torn one must survive the next replay.
+     */
+
+    db1.databaseOpenEntryForWriting(b_id).entrySetFeedData(
+      BookDatabaseTest.entry("urn:b", "b1"));
+    final long b_next = BookDatabaseTest.version(db1, b_id);
+    Assert.assertTrue(b_next > b_version);
+
+    final BookDatabaseType db2 = BookDatabaseTest.open(dir);
+    Assert.assertEquals(a_version, BookDatabaseTest.version(db2, a_id));
+    Assert.assertEquals(b_next, BookDatabaseTest.version(db2, b_id));
+  }
+
+  @Test public void testUpdateUnchangedSkipped()
+    throws Exception
+  {
+    final File dir = this.directory();
+    final BookDatabaseType db0 = BookDatabaseTest.open(dir);
+    db0.databaseCreate();
+
+    final BooksStatusCacheType cache = BooksStatusCache.newStatusCache();
+    final int[] broadcasts = new int[1];
+    cache.booksObservableAddObserver(
+      new Observer()
+      {
+        @Override public void update(
+          final Observable o,
+          final Object arg)
+        {
+          ++broadcasts[0];
+        }
+      });
+
+    final HTTPType http = HTTP.newHTTP();
+    final OPDSAcquisitionFeedEntry a = BookDatabaseTest.entry("urn:a", "a0");
+    final BookID a_id = BookID.newIDFromEntry(a);
+    db0.databaseOpenEntryForWriting(a_id).entryUpdateAll(a, cache, http);
+
+    final long version = BookDatabaseTest.version(db0, a_id);
+    final int count = broadcasts[0];
+    Assert.assertTrue(count > 0);
+
+    db0.databaseOpenEntryForWriting(a_id).entryUpdateAll(a, cache, http);
+    Assert.assertEquals(version, BookDatabaseTest.version(db0, a_id));
+    Assert.assertEquals(count, broadcasts[0]);
+
+    /**
+     * The fingerprint of the last write survives reopening the database.
+     */
+
+    final BookDatabaseType db1 = BookDatabaseTest.open(dir);
+    db1.databaseOpenEntryForWriting(a_id).entryUpdateAll(a, cache, http);
+    Assert.assertEquals(version, BookDatabaseTest.version(db1, a_id));
+    Assert.assertEquals(count, broadcasts[0]);
+
+    db1.databaseOpenEntryForWriting(a_id).entryUpdateAll(
+      BookDatabaseTest.entry("urn:a", "a1"), cache, http);
+    Assert.assertTrue(BookDatabaseTest.version(db1, a_id) > version);
+    Assert.assertTrue(broadcasts[0] > count);
+  }
+
+  @Test public void testTransactionCommit()
+    throws Exception
+  {
+    final File dir = this.directory();
+    final BookDatabaseType db = BookDatabaseTest.open(dir);
+    db.databaseCreate();
+
+    final OPDSAcquisitionFeedEntry a = BookDatabaseTest.entry("urn:a", "a0");
+    final OPDSAcquisitionFeedEntry b = BookDatabaseTest.entry("urn:b", "b0");
+    final BookID a_id = BookID.newIDFromEntry(a);
+    final BookID b_id = BookID.newIDFromEntry(b);
+
+    final BookDatabaseTransactionType tx0 = db.databaseBeginTransaction();
+    tx0.transactionUpdate(a);
+    tx0.transactionUpdate(b);
+    tx0.transactionCommit(BooksStatusCache.newStatusCache());
+
+    Assert.assertEquals(2L, (long) db.databaseGetBooks().size());
+    Assert.assertFalse(new File(dir, "transaction.json").exists());
+
+    final BookDatabaseTransactionType tx1 = db.databaseBeginTransaction();
+    tx1.transactionUpdate(BookDatabaseTest.entry("urn:a", "a1"));
+    tx1.transactionDelete(b_id);
+    tx1.transactionCommit(BooksStatusCache.newStatusCache());
+
+    final Set<BookID> books = db.databaseGetBooks();
+    Assert.assertEquals(1L, (long) books.size());
+    Assert.assertTrue(books.contains(a_id));
+    Assert.assertEquals(
+      "a1",
+      db.databaseOpenEntryForReading(a_id).entryGetFeedData().getTitle());
+    Assert.assertFalse(new File(dir, "transaction.json").exists());
+  }
+
+  @Test public void testTransactionReplayInterrupted()
+    throws Exception
+  {
+    final File dir = this.directory();
+    final BookDatabaseType db0 = BookDatabaseTest.open(dir);
+    db0.databaseCreate();
+
+    final OPDSAcquisitionFeedEntry a = BookDatabaseTest.entry("urn:a", "a0");
+    final OPDSAcquisitionFeedEntry b = BookDatabaseTest.entry("urn:b", "b0");
+    final BookID a_id = BookID.newIDFromEntry(a);
+    final BookID b_id = BookID.newIDFromEntry(b);
+    db0.databaseOpenEntryForWriting(a_id).entryCreate(a);
+    db0.databaseOpenEntryForWriting(b_id).entryCreate(b);
+
+    /**
+     * Simulate a crash after the transaction file was written and while
+     * the metadata of the first book was being rewritten.
+     */
+
+    final String a1 =
+      BookDatabaseTest.serialize(BookDatabaseTest.entry("urn:a", "a1"));
+
+    final ObjectMapper jom = new ObjectMapper();
+    final ObjectNode root = jom.createObjectNode();
+    final ArrayNode ops = root.putArray("operations");
+    final ObjectNode put = ops.addObject();
+    put.put("op", "put");
+    put.put("book", a_id.toString());
+    put.put("data", a1);
+    final ObjectNode delete = ops.addObject();
+    delete.put("op", "delete");
+    delete.put("book", b_id.toString());
+
+    final File tx = new File(dir, "transaction.json");
+    BookDatabaseTest.append(tx, jom.writeValueAsString(root));
+
+    final File meta = new File(new File(dir, a_id.toString()), "meta.json");
+    Assert.assertTrue(meta.delete());
+    BookDatabaseTest.append(meta, "{\"id\":");
+
+    final BookDatabaseType db1 = BookDatabaseTest.open(dir);
+    Assert.assertFalse(tx.exists());
+
+    final Set<BookID> books = db1.databaseGetBooks();
+    Assert.assertEquals(1L, (long) books.size());
+    Assert.assertTrue(books.contains(a_id));
+    Assert.assertEquals(
+      "a1",
+      db1.databaseOpenEntryForReading(a_id).entryGetFeedData().getTitle());
+  }
+
+  @Test public void testTransactionUnreadableDiscarded()
+    throws Exception
+  {
+    final File dir = this.directory();
+    final BookDatabaseType db0 = BookDatabaseTest.open(dir);
+    db0.databaseCreate();
+
+    final OPDSAcquisitionFeedEntry a = BookDatabaseTest.entry("urn:a", "a0");
+    final BookID a_id = BookID.newIDFromEntry(a);
+    db0.databaseOpenEntryForWriting(a_id).entryCreate(a);
+
+    final File tx = new File(dir, "transaction.json");
+    BookDatabaseTest.append(tx, "{\"operations\":[{\"op\":");
+
+    final BookDatabaseType db1 = BookDatabaseTest.open(dir);
+    Assert.assertFalse(tx.exists());
+    Assert.assertTrue(db1.databaseGetBooks().contains(a_id));
+    Assert.assertEquals(
+      "a0",
+      db1.databaseOpenEntryForReading(a_id).entryGetFeedData().getTitle());
+  }
+}
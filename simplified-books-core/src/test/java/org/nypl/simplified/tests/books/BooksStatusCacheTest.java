@@ -0,0 +1,114 @@
+package org.nypl.simplified.tests.books;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import org.junit.Assert;
+import org.junit.Test;
+import org.nypl.simplified.books.core.BookID;
+import org.nypl.simplified.books.core.BookStatusDownloadInProgress;
+import org.nypl.simplified.books.core.BookStatusType;
+import org.nypl.simplified.books.core.BooksStatusCache;
+import org.nypl.simplified.books.core.BooksStatusCacheType;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+
+@SuppressWarnings({ "null", "static-method" }) public final class BooksStatusCacheTest
+{
+  private static BookStatusType progress(
+    final BookID id,
+    final long current)
+  {
+    final OptionType<Calendar> no_date = Option.none();
+    return new BookStatusDownloadInProgress(id, current, 100L, no_date);
+  }
+
+  @Test public void testHoldsNest()
+  {
+    final BooksStatusCacheType cache = BooksStatusCache.newStatusCache();
+    final Recorder r = new Recorder(cache);
+    cache.booksObservableAddObserver(r);
+
+    final BookID id = BookID.exactString("a");
+    final List<BookID> ids = Collections.singletonList(id);
+
+    cache.booksStatusBroadcastHold(ids);
+    cache.booksStatusBroadcastHold(ids);
+    cache.booksStatusUpdate(BooksStatusCacheTest.progress(id, 1L));
+    Assert.assertEquals(0L, (long) r.size());
+
+    cache.booksStatusBroadcastRelease(ids);
+    Assert.assertEquals(0L, (long) r.size());
+
+    cache.booksStatusBroadcastRelease(ids);
+    Assert.assertEquals(1L, (long) r.size());
+
+    cache.booksStatusUpdate(BooksStatusCacheTest.progress(id, 2L));
+    Assert.assertTrue(r.size() >= 1);
+  }
+
+  @Test(timeout = 10000L) public void testProgressBurstFlushed()
+    throws Exception
+  {
+    final BooksStatusCacheType cache = BooksStatusCache.newStatusCache();
+    final Recorder r = new Recorder(cache);
+    cache.booksObservableAddObserver(r);
+
+    final BookID id = BookID.exactString("a");
+    for (long index = 0L; index < 100L; ++index) {
+      cache.booksStatusUpdate(BooksStatusCacheTest.progress(id, index));
+    }
+
+    /**
+     * The last update of the burst must be broadcast once the interval has
+     * passed, even though no further update arrives.
+     */
+
+    while (r.lastProgress() != 99L) {
+      Thread.sleep(BooksStatusCache.PROGRESS_BROADCAST_INTERVAL_MS);
+    }
+    Assert.assertTrue(r.size() < 100);
+  }
+
+  private static final class Recorder implements Observer
+  {
+    private final BooksStatusCacheType cache;
+    private final List<BookStatusType> seen;
+
+    Recorder(final BooksStatusCacheType in_cache)
+    {
+      this.cache = in_cache;
+      this.seen = new ArrayList<BookStatusType>(16);
+    }
+
+    @Override public synchronized void update(
+      final Observable o,
+      final Object arg)
+    {
+      final OptionType<BookStatusType> s =
+        this.cache.booksStatusGet((BookID) arg);
+      if (s.isSome()) {
+        this.seen.add(((Some<BookStatusType>) s).get());
+      }
+    }
+
+    synchronized int size()
+    {
+      return this.seen.size();
+    }
+
+    synchronized long lastProgress()
+    {
+      if (this.seen.isEmpty()) {
+        return -1L;
+      }
+      final BookStatusType s = this.seen.get(this.seen.size() - 1);
+      return ((BookStatusDownloadInProgress) s).getCurrentTotalBytes();
+    }
+  }
+}
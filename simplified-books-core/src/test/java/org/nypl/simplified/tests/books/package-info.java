@@ -0,0 +1,5 @@
+/**
+ * Book database tests.
+ */
+
+@com.io7m.jnull.NonNullByDefault package org.nypl.simplified.tests.books;
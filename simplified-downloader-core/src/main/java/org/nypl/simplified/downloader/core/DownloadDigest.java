@@ -0,0 +1,280 @@
+package org.nypl.simplified.downloader.core;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.nypl.simplified.files.FileUtilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>A chunked SHA-256 digest, computed whilst data is streamed to disk.</p>
+ *
+ * <p>The data is split into chunks of {@link #CHUNK_SIZE} bytes (the last
+ * chunk may be shorter), and the digest of the data is the SHA-256 digest of
+ * the concatenated SHA-256 digests of the chunks. The digest of each complete
+ * chunk can be written to a sink as soon as the chunk is complete, so that a
+ * resumed download can continue the digest from the last complete chunk
+ * without reading the partial data again.</p>
+ */
+
+final class DownloadDigest
+{
+  /**
+   * The size of a chunk.
+   */
+
+  static final int CHUNK_SIZE = 1024 * 1024;
+
+  /**
+   * The size of the digest of a chunk.
+   */
+
+  static final int DIGEST_SIZE = 32;
+
+  private final List<byte[]>             chunks;
+  private final MessageDigest            current;
+  private final OptionType<OutputStream> sink;
+  private       int                      current_length;
+
+  private DownloadDigest(
+    final List<byte[]> in_chunks,
+    final OptionType<OutputStream> in_sink)
+  {
+    this.chunks = NullCheck.notNull(in_chunks);
+    this.sink = NullCheck.notNull(in_sink);
+    this.current = DownloadDigest.newSHA256();
+    this.current_length = 0;
+  }
+
+  /**
+   * @param sink A sink that will receive the digest of each complete chunk
+   *
+   * @return A new, empty digest
+   */
+
+  static DownloadDigest newDigest(final OptionType<OutputStream> sink)
+  {
+    return new DownloadDigest(new ArrayList<byte[]>(16), sink);
+  }
+
+  /**
+   * Load the digests of at most {@code max_chunks} complete chunks from the
+   * given file, truncating the file to the chunks that were loaded.
+   *
+   * @param file       The file
+   * @param max_chunks The maximum number of chunks to load
+   *
+   * @return The chunk digests
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static List<byte[]> loadChunks(
+    final File file,
+    final long max_chunks)
+    throws IOException
+  {
+    final List<byte[]> chunks = new ArrayList<byte[]>(16);
+    if (file.isFile() == false) {
+      return chunks;
+    }
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      final long count = Math.min(
+        max_chunks, raf.length() / (long) DownloadDigest.DIGEST_SIZE);
+      for (long index = 0L; index < count; ++index) {
+        final byte[] d = new byte[DownloadDigest.DIGEST_SIZE];
+        raf.readFully(d);
+        chunks.add(d);
+      }
+      raf.setLength(count * (long) DownloadDigest.DIGEST_SIZE);
+    } finally {
+      raf.close();
+    }
+    return chunks;
+  }
+
+  /**
+   * Atomically write the given chunk digests to a file.
+   *
+   * @param file     The file
+   * @param file_tmp The temporary file used whilst writing
+   * @param chunks   The chunk digests
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static void saveChunks(
+    final File file,
+    final File file_tmp,
+    final List<byte[]> chunks)
+    throws IOException
+  {
+    final byte[] data = new byte[chunks.size() * DownloadDigest.DIGEST_SIZE];
+    for (int index = 0; index < chunks.size(); ++index) {
+      System.arraycopy(
+        chunks.get(index),
+        0,
+        data,
+        index * DownloadDigest.DIGEST_SIZE,
+        DownloadDigest.DIGEST_SIZE);
+    }
+    FileUtilities.fileWriteBytesAtomically(file, file_tmp, data);
+  }
+
+  /**
+   * @param chunks The digests of complete chunks already received
+   * @param sink   A sink that will receive the digest of each further
+   *               complete chunk
+   *
+   * @return A digest that continues from the given chunks
+   */
+
+  static DownloadDigest newDigestContinuing(
+    final List<byte[]> chunks,
+    final OptionType<OutputStream> sink)
+  {
+    return new DownloadDigest(new ArrayList<byte[]>(chunks), sink);
+  }
+
+  private static MessageDigest newSHA256()
+  {
+    try {
+      return NullCheck.notNull(MessageDigest.getInstance("SHA-256"));
+    } catch (final NoSuchAlgorithmException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  /**
+   * Add data to the digest.
+   *
+   * @param data   The data
+   * @param offset The offset of the first byte in {@code data}
+   * @param length The number of bytes
+   *
+   * @throws IOException If the sink cannot be written
+   */
+
+  void update(
+    final byte[] data,
+    final int offset,
+    final int length)
+    throws IOException
+  {
+    int position = offset;
+    int remaining = length;
+    while (remaining > 0) {
+      final int want = Math.min(
+        remaining, DownloadDigest.CHUNK_SIZE - this.current_length);
+      this.current.update(data, position, want);
+      this.current_length += want;
+      position += want;
+      remaining -= want;
+
+      if (this.current_length == DownloadDigest.CHUNK_SIZE) {
+        this.completeChunk();
+      }
+    }
+  }
+
+  private void completeChunk()
+    throws IOException
+  {
+    final byte[] d = this.current.digest();
+    this.chunks.add(d);
+    this.current_length = 0;
+    if (this.sink.isSome()) {
+      ((Some<OutputStream>) this.sink).get().write(d);
+    }
+  }
+
+  /**
+   * @return The digests of the complete chunks received so far
+   */
+
+  List<byte[]> getChunks()
+  {
+    return this.chunks;
+  }
+
+  /**
+   * @return The number of bytes covered by complete chunks
+   */
+
+  long getChunkedLength()
+  {
+    return (long) this.chunks.size() * (long) DownloadDigest.CHUNK_SIZE;
+  }
+
+  /**
+   * Complete the digest.
+   *
+   * @return The digest of all data received, as a lowercase hexadecimal
+   * string
+   */
+
+  String finish()
+  {
+    final List<DownloadDigest> parts = new ArrayList<DownloadDigest>(1);
+    parts.add(this);
+    return DownloadDigest.combine(parts);
+  }
+
+  /**
+   * Complete the digest of data that was received in several consecutive
+   * parts. Every part except the last must end on a chunk boundary.
+   *
+   * @param parts The digests of the parts, in order
+   *
+   * @return The digest of all data received, as a lowercase hexadecimal
+   * string
+   */
+
+  static String combine(final List<DownloadDigest> parts)
+  {
+    final MessageDigest md = DownloadDigest.newSHA256();
+    for (int index = 0; index < parts.size(); ++index) {
+      final DownloadDigest part = parts.get(index);
+      for (final byte[] d : part.chunks) {
+        md.update(d);
+      }
+      if (part.current_length > 0) {
+        if (index != parts.size() - 1) {
+          throw new IllegalArgumentException(
+            "Only the last part may end with a partial chunk");
+        }
+        md.update(part.current.digest());
+        part.current_length = 0;
+      }
+    }
+
+    final byte[] result = md.digest();
+    final StringBuilder sb = new StringBuilder(64);
+    for (final byte b : result) {
+      sb.append(String.format("%02x", Integer.valueOf(b & 0xff)));
+    }
+    return NullCheck.notNull(sb.toString());
+  }
+
+  /**
+   * @return A digest with no sink that has received no data
+   */
+
+  static DownloadDigest newDigestWithoutSink()
+  {
+    final OptionType<OutputStream> none = Option.none();
+    return DownloadDigest.newDigest(none);
+  }
+}
@@ -0,0 +1,87 @@
+package org.nypl.simplified.downloader.core;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * The condition of the network, as reported by a
+ * {@link DownloadNetworkConditionProviderType}.
+ */
+
+public final class DownloadNetworkCondition
+{
+  private final boolean connected;
+  private final boolean metered;
+  private final long    bandwidth;
+
+  /**
+   * Construct a network condition.
+   *
+   * @param in_connected {@code true} iff the network is connected
+   * @param in_metered   {@code true} iff the network is metered
+   * @param in_bandwidth The estimated downstream bandwidth of the network in
+   *                     bytes per second, or {@code -1} if unknown
+   */
+
+  public DownloadNetworkCondition(
+    final boolean in_connected,
+    final boolean in_metered,
+    final long in_bandwidth)
+  {
+    this.connected = in_connected;
+    this.metered = in_metered;
+    this.bandwidth = in_bandwidth;
+  }
+
+  /**
+   * A connected, unmetered network of unknown bandwidth. This is the
+   * condition assumed when no provider is available.
+   *
+   * @return An unrestricted network condition
+   */
+
+  public static DownloadNetworkCondition getUnrestricted()
+  {
+    return new DownloadNetworkCondition(true, false, -1L);
+  }
+
+  /**
+   * @return {@code true} iff the network is connected
+   */
+
+  public boolean isConnected()
+  {
+    return this.connected;
+  }
+
+  /**
+   * @return {@code true} iff the network is metered
+   */
+
+  public boolean isMetered()
+  {
+    return this.metered;
+  }
+
+  /**
+   * @return The estimated downstream bandwidth of the network in bytes per
+   * second, or {@code -1} if unknown
+   */
+
+  public long getEstimatedBandwidth()
+  {
+    return this.bandwidth;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder(64);
+    b.append("[DownloadNetworkCondition connected=");
+    b.append(this.connected);
+    b.append(" metered=");
+    b.append(this.metered);
+    b.append(" bandwidth=");
+    b.append(this.bandwidth);
+    b.append("]");
+    return NullCheck.notNull(b.toString());
+  }
+}
@@ -0,0 +1,18 @@
+package org.nypl.simplified.downloader.core;
+
+/**
+ * <p>The type of providers of the current network condition.</p>
+ *
+ * <p>A provider is queried by a {@link DownloadSchedulerType} when the
+ * scheduler is created and each time it is told that the network has
+ * changed. The provider may be queried from any thread.</p>
+ */
+
+public interface DownloadNetworkConditionProviderType
+{
+  /**
+   * @return The current condition of the network
+   */
+
+  DownloadNetworkCondition networkGetCondition();
+}
@@ -0,0 +1,86 @@
+package org.nypl.simplified.downloader.core;
+
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.assertions.Assertions;
+
+/**
+ * <p>The default implementation of the {@link DownloadNetworkPolicyType}
+ * interface.</p>
+ *
+ * <p>Downloads that the user asked for are always allowed. Automatic
+ * downloads wait for a connected network, and automatic downloads with more
+ * than a configured number of bytes left to fetch wait for a network that is
+ * neither metered nor known to be slower than a configured bandwidth. A
+ * download whose length is not yet known is allowed to start; it is checked
+ * again once the server has reported the length.</p>
+ */
+
+public final class DownloadNetworkPolicy implements DownloadNetworkPolicyType
+{
+  private final long bulk_size;
+  private final long min_bandwidth;
+
+  /**
+   * Construct a policy.
+   *
+   * @param in_bulk_size     The number of remaining bytes above which an
+   *                         automatic download is considered a bulk download
+   * @param in_min_bandwidth The estimated bandwidth in bytes per second below
+   *                         which bulk downloads are deferred
+   */
+
+  public DownloadNetworkPolicy(
+    final long in_bulk_size,
+    final long in_min_bandwidth)
+  {
+    Assertions.checkPrecondition(
+      in_bulk_size >= 0L,
+      "Bulk size %d must be >= 0",
+      Long.valueOf(in_bulk_size));
+    Assertions.checkPrecondition(
+      in_min_bandwidth >= 0L,
+      "Minimum bandwidth %d must be >= 0",
+      Long.valueOf(in_min_bandwidth));
+
+    this.bulk_size = in_bulk_size;
+    this.min_bandwidth = in_min_bandwidth;
+  }
+
+  /**
+   * The default policy: automatic downloads with more than 4MiB left are
+   * deferred on metered networks and on networks slower than 32KiB/s.
+   *
+   * @return The default policy
+   */
+
+  public static DownloadNetworkPolicyType getDefault()
+  {
+    return new DownloadNetworkPolicy(4L * 1024L * 1024L, 32L * 1024L);
+  }
+
+  @Override public boolean policyAllowsDownload(
+    final DownloadNetworkCondition condition,
+    final DownloadPriority priority,
+    final long remaining)
+  {
+    NullCheck.notNull(condition);
+    NullCheck.notNull(priority);
+
+    if (priority == DownloadPriority.DOWNLOAD_PRIORITY_USER) {
+      return true;
+    }
+
+    if (condition.isConnected() == false) {
+      return false;
+    }
+    if (remaining < 0L || remaining <= this.bulk_size) {
+      return true;
+    }
+    if (condition.isMetered()) {
+      return false;
+    }
+
+    final long bandwidth = condition.getEstimatedBandwidth();
+    return bandwidth < 0L || bandwidth >= this.min_bandwidth;
+  }
+}
@@ -0,0 +1,26 @@
+package org.nypl.simplified.downloader.core;
+
+/**
+ * The type of policies that decide whether a download may run under the
+ * current network condition.
+ */
+
+public interface DownloadNetworkPolicyType
+{
+  /**
+   * Decide whether a download may start, or continue, under the given
+   * network condition.
+   *
+   * @param condition The network condition
+   * @param priority  The priority of the download
+   * @param remaining The number of bytes left to download, or {@code -1} if
+   *                  not yet known
+   *
+   * @return {@code true} iff the download may run
+   */
+
+  boolean policyAllowsDownload(
+    DownloadNetworkCondition condition,
+    DownloadPriority priority,
+    long remaining);
+}
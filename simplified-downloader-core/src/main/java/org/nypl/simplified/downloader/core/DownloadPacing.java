@@ -0,0 +1,108 @@
+package org.nypl.simplified.downloader.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * The default implementation of the {@link DownloadPacingType} interface,
+ * using one token bucket for network reads and one for disk writes.
+ */
+
+public final class DownloadPacing implements DownloadPacingType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(DownloadPacing.class));
+  }
+
+  private final DownloadPacingProfile profile_normal;
+  private final DownloadPacingProfile profile_foreground;
+  private final DownloadTokenBucket   network;
+  private final DownloadTokenBucket   disk;
+  private       int                   foreground;
+
+  private DownloadPacing(
+    final DownloadPacingProfile in_profile_normal,
+    final DownloadPacingProfile in_profile_foreground)
+  {
+    this.profile_normal = NullCheck.notNull(in_profile_normal);
+    this.profile_foreground = NullCheck.notNull(in_profile_foreground);
+    this.network = new DownloadTokenBucket();
+    this.disk = new DownloadTokenBucket();
+    this.foreground = 0;
+    this.apply(in_profile_normal);
+  }
+
+  /**
+   * @param in_profile_normal     The profile used when no foreground session
+   *                              is active
+   * @param in_profile_foreground The profile used whilst any foreground
+   *                              session is active
+   *
+   * @return A new pacer
+   */
+
+  public static DownloadPacingType newPacing(
+    final DownloadPacingProfile in_profile_normal,
+    final DownloadPacingProfile in_profile_foreground)
+  {
+    return new DownloadPacing(in_profile_normal, in_profile_foreground);
+  }
+
+  /**
+   * @return A pacer that never limits downloads
+   */
+
+  public static DownloadPacingType newUnlimited()
+  {
+    return new DownloadPacing(
+      DownloadPacingProfile.getUnlimited(),
+      DownloadPacingProfile.getUnlimited());
+  }
+
+  private void apply(final DownloadPacingProfile p)
+  {
+    DownloadPacing.LOG.debug("pacing profile: {}", p);
+    this.network.setRate(p.getNetworkRate());
+    this.disk.setRate(p.getDiskRate());
+  }
+
+  @Override public synchronized void pacingForegroundStart()
+  {
+    this.foreground = this.foreground + 1;
+    if (this.foreground == 1) {
+      this.apply(this.profile_foreground);
+    }
+  }
+
+  @Override public synchronized void pacingForegroundFinish()
+  {
+    if (this.foreground > 0) {
+      this.foreground = this.foreground - 1;
+      if (this.foreground == 0) {
+        this.apply(this.profile_normal);
+      }
+    }
+  }
+
+  @Override public synchronized DownloadPacingProfile pacingGetCurrentProfile()
+  {
+    return this.foreground > 0 ? this.profile_foreground : this.profile_normal;
+  }
+
+  @Override public void pacingAcquireNetwork(final int bytes)
+    throws IOException
+  {
+    this.network.acquire(bytes);
+  }
+
+  @Override public void pacingAcquireDisk(final int bytes)
+    throws IOException
+  {
+    this.disk.acquire(bytes);
+  }
+}
@@ -0,0 +1,82 @@
+package org.nypl.simplified.downloader.core;
+
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.assertions.Assertions;
+
+/**
+ * The rates at which downloads may read from the network and write to disk.
+ */
+
+public final class DownloadPacingProfile
+{
+  private final long network_rate;
+  private final long disk_rate;
+
+  /**
+   * Construct a profile.
+   *
+   * @param in_network_rate The rate in bytes per second at which all
+   *                        downloads together may read from the network, or
+   *                        {@code 0} for no limit
+   * @param in_disk_rate    The rate in bytes per second at which all
+   *                        downloads together may write to disk, or {@code
+   *                        0} for no limit
+   */
+
+  public DownloadPacingProfile(
+    final long in_network_rate,
+    final long in_disk_rate)
+  {
+    Assertions.checkPrecondition(
+      in_network_rate >= 0L,
+      "Network rate %d must be >= 0",
+      Long.valueOf(in_network_rate));
+    Assertions.checkPrecondition(
+      in_disk_rate >= 0L,
+      "Disk rate %d must be >= 0",
+      Long.valueOf(in_disk_rate));
+
+    this.network_rate = in_network_rate;
+    this.disk_rate = in_disk_rate;
+  }
+
+  /**
+   * @return A profile that does not limit downloads
+   */
+
+  public static DownloadPacingProfile getUnlimited()
+  {
+    return new DownloadPacingProfile(0L, 0L);
+  }
+
+  /**
+   * @return The rate in bytes per second at which downloads may read from the
+   * network, or {@code 0} for no limit
+   */
+
+  public long getNetworkRate()
+  {
+    return this.network_rate;
+  }
+
+  /**
+   * @return The rate in bytes per second at which downloads may write to
+   * disk, or {@code 0} for no limit
+   */
+
+  public long getDiskRate()
+  {
+    return this.disk_rate;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder(64);
+    b.append("[DownloadPacingProfile network=");
+    b.append(this.network_rate);
+    b.append(" disk=");
+    b.append(this.disk_rate);
+    b.append("]");
+    return NullCheck.notNull(b.toString());
+  }
+}
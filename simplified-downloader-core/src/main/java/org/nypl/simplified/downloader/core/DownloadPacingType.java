@@ -0,0 +1,57 @@
+package org.nypl.simplified.downloader.core;
+
+import java.io.IOException;
+
+/**
+ * <p>The type of download pacers.</p>
+ *
+ * <p>A pacer limits the combined rate at which all downloads read from the
+ * network and write to disk, so that downloads do not starve the rest of the
+ * application of bandwidth and storage throughput. A pacer has a normal
+ * profile, and a gentler profile that applies whilst any foreground session,
+ * such as the reading of a book, is active.</p>
+ */
+
+public interface DownloadPacingType
+{
+  /**
+   * Indicate that a foreground session has started. The foreground profile
+   * applies until every started session has finished.
+   */
+
+  void pacingForegroundStart();
+
+  /**
+   * Indicate that a foreground session has finished.
+   */
+
+  void pacingForegroundFinish();
+
+  /**
+   * @return The profile that currently applies
+   */
+
+  DownloadPacingProfile pacingGetCurrentProfile();
+
+  /**
+   * Wait until the given number of bytes may be read from the network.
+   *
+   * @param bytes The number of bytes
+   *
+   * @throws IOException If the calling thread is interrupted
+   */
+
+  void pacingAcquireNetwork(int bytes)
+    throws IOException;
+
+  /**
+   * Wait until the given number of bytes may be written to disk.
+   *
+   * @param bytes The number of bytes
+   *
+   * @throws IOException If the calling thread is interrupted
+   */
+
+  void pacingAcquireDisk(int bytes)
+    throws IOException;
+}
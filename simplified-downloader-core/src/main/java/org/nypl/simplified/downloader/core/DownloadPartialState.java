@@ -0,0 +1,182 @@
+package org.nypl.simplified.downloader.core;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.files.FileUtilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Properties;
+
+/**
+ * The persisted state of a partially completed download: the URI that was
+ * requested, the validators of the response that is being written, and its
+ * total length. A download may only be resumed if the server still serves a
+ * representation with the same validators.
+ */
+
+final class DownloadPartialState
+{
+  private static final String KEY_URI           = "uri";
+  private static final String KEY_ETAG          = "etag";
+  private static final String KEY_LAST_MODIFIED = "last_modified";
+  private static final String KEY_LENGTH        = "length";
+  private static final String KEY_CONTENT_TYPE  = "content_type";
+
+  private final URI                uri;
+  private final OptionType<String> etag;
+  private final long               last_modified;
+  private final long               length;
+  private final String             content_type;
+
+  DownloadPartialState(
+    final URI in_uri,
+    final OptionType<String> in_etag,
+    final long in_last_modified,
+    final long in_length,
+    final String in_content_type)
+  {
+    this.uri = NullCheck.notNull(in_uri);
+    this.etag = NullCheck.notNull(in_etag);
+    this.last_modified = in_last_modified;
+    this.length = in_length;
+    this.content_type = NullCheck.notNull(in_content_type);
+  }
+
+  /**
+   * Load state from the given file.
+   *
+   * @param file The file
+   *
+   * @return The state
+   *
+   * @throws IOException On I/O errors, or if the file is malformed
+   */
+
+  static DownloadPartialState load(final File file)
+    throws IOException
+  {
+    final Properties p = new Properties();
+    final InputStream is = new FileInputStream(file);
+    try {
+      p.load(is);
+    } finally {
+      is.close();
+    }
+
+    final String uri_text = p.getProperty(DownloadPartialState.KEY_URI);
+    final String length_text = p.getProperty(DownloadPartialState.KEY_LENGTH);
+    final String lm_text =
+      p.getProperty(DownloadPartialState.KEY_LAST_MODIFIED, "0");
+    final String type_text = p.getProperty(
+      DownloadPartialState.KEY_CONTENT_TYPE, "application/octet-stream");
+    if (uri_text == null || length_text == null) {
+      throw new IOException(
+        String.format("Malformed download state file %s", file));
+    }
+
+    try {
+      final String etag_text = p.getProperty(DownloadPartialState.KEY_ETAG);
+      final OptionType<String> etag_opt;
+      if (etag_text != null) {
+        etag_opt = Option.some(etag_text);
+      } else {
+        etag_opt = Option.none();
+      }
+
+      return new DownloadPartialState(
+        NullCheck.notNull(URI.create(uri_text)),
+        etag_opt,
+        Long.parseLong(lm_text),
+        Long.parseLong(length_text),
+        type_text);
+    } catch (final IllegalArgumentException e) {
+      throw new IOException(
+        String.format("Malformed download state file %s", file), e);
+    }
+  }
+
+  /**
+   * Atomically save state to the given file.
+   *
+   * @param file     The file
+   * @param file_tmp The temporary file used whilst writing
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void save(
+    final File file,
+    final File file_tmp)
+    throws IOException
+  {
+    final Properties p = new Properties();
+    p.setProperty(DownloadPartialState.KEY_URI, this.uri.toString());
+    if (this.etag.isSome()) {
+      p.setProperty(
+        DownloadPartialState.KEY_ETAG, ((Some<String>) this.etag).get());
+    }
+    p.setProperty(
+      DownloadPartialState.KEY_LAST_MODIFIED,
+      Long.toString(this.last_modified));
+    p.setProperty(DownloadPartialState.KEY_LENGTH, Long.toString(this.length));
+    p.setProperty(DownloadPartialState.KEY_CONTENT_TYPE, this.content_type);
+
+    final StringWriter w = new StringWriter(256);
+    p.store(w, null);
+    FileUtilities.fileWriteUTF8Atomically(
+      file, file_tmp, NullCheck.notNull(w.toString()));
+  }
+
+  /**
+   * @return {@code true} if a download with this state could be resumed: the
+   * total length is known and there is at least one validator
+   */
+
+  boolean isResumable()
+  {
+    return this.length > 0L && (this.etag.isSome() || this.last_modified > 0L);
+  }
+
+  /**
+   * @param in_etag          The entity tag of a response, if any
+   * @param in_last_modified The modification time of a response, or {@code 0}
+   *                         if unknown
+   *
+   * @return {@code true} if a response with the given validators is the same
+   * representation as the one described by this state
+   */
+
+  boolean isSameRepresentation(
+    final OptionType<String> in_etag,
+    final long in_last_modified)
+  {
+    if (this.etag.isSome()) {
+      return in_etag.isSome()
+        && ((Some<String>) this.etag).get().equals(
+        ((Some<String>) in_etag).get());
+    }
+    return this.last_modified > 0L && this.last_modified == in_last_modified;
+  }
+
+  URI getURI()
+  {
+    return this.uri;
+  }
+
+  long getLength()
+  {
+    return this.length;
+  }
+
+  String getContentType()
+  {
+    return this.content_type;
+  }
+}
@@ -0,0 +1,23 @@
+package org.nypl.simplified.downloader.core;
+
+/**
+ * The priority of a download, used by {@link DownloadSchedulerType} to order
+ * queued downloads. Downloads of a higher priority are always started before
+ * queued downloads of a lower priority.
+ */
+
+public enum DownloadPriority
+{
+  /**
+   * A download that the user explicitly asked for.
+   */
+
+  DOWNLOAD_PRIORITY_USER,
+
+  /**
+   * A download started automatically, such as the fetching of a book that was
+   * borrowed on another device.
+   */
+
+  DOWNLOAD_PRIORITY_AUTOMATIC
+}
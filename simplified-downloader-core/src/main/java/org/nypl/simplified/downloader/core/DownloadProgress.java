@@ -0,0 +1,96 @@
+package org.nypl.simplified.downloader.core;
+
+import com.io7m.jnull.NullCheck;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A filter that limits the rate at which progress is reported to a
+ * download listener.</p>
+ *
+ * <p>Progress is reported when at least {@link #INTERVAL_MINIMUM_MS} has
+ * elapsed since the last report and at least one percent of the expected
+ * total has arrived, or when {@link #INTERVAL_MAXIMUM_MS} has elapsed
+ * regardless of the amount received. The final total is always reported by
+ * {@link #finish(long)}.</p>
+ */
+
+final class DownloadProgress
+{
+  /**
+   * The minimum interval between reports.
+   */
+
+  static final long INTERVAL_MINIMUM_MS = 100L;
+
+  /**
+   * The interval after which progress is reported even if less than one
+   * percent of the data has arrived.
+   */
+
+  static final long INTERVAL_MAXIMUM_MS = 1000L;
+
+  private final DownloadListenerType listener;
+  private final DownloadType         download;
+  private final long                 expected;
+  private final long                 step;
+  private       long                 last_time;
+  private       long                 last_total;
+
+  DownloadProgress(
+    final DownloadListenerType in_listener,
+    final DownloadType in_download,
+    final long in_expected,
+    final long in_initial)
+  {
+    this.listener = NullCheck.notNull(in_listener);
+    this.download = NullCheck.notNull(in_download);
+    this.expected = in_expected;
+    this.step = in_expected > 0L ? Math.max(1L, in_expected / 100L) : 1L;
+    this.last_time = System.nanoTime();
+    this.last_total = in_initial;
+  }
+
+  /**
+   * Report progress if enough time has passed and enough data has arrived.
+   *
+   * @param total The number of bytes received so far
+   */
+
+  void update(final long total)
+  {
+    final long now = System.nanoTime();
+    final long elapsed_ms = TimeUnit.NANOSECONDS.toMillis(now - this.last_time);
+    if (elapsed_ms < DownloadProgress.INTERVAL_MINIMUM_MS) {
+      return;
+    }
+    if (total - this.last_total < this.step
+      && elapsed_ms < DownloadProgress.INTERVAL_MAXIMUM_MS) {
+      return;
+    }
+    this.report(total, now);
+  }
+
+  /**
+   * Report the final amount of data received, unless it has already been
+   * reported.
+   *
+   * @param total The number of bytes received
+   */
+
+  void finish(final long total)
+  {
+    if (total != this.last_total) {
+      this.report(total, System.nanoTime());
+    }
+  }
+
+  private void report(
+    final long total,
+    final long now)
+  {
+    this.last_time = now;
+    this.last_total = total;
+    this.listener.onDownloadDataReceived(this.download, total, this.expected);
+  }
+}
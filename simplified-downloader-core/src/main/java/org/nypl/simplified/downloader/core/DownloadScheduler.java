@@ -0,0 +1,335 @@
+package org.nypl.simplified.downloader.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>The default implementation of the {@link DownloadSchedulerType}
+ * interface.</p>
+ *
+ * <p>Queued tasks are kept in order of priority and then of submission. When
+ * a slot becomes free, the first queued task whose host is below its
+ * per-host limit is handed to the underlying executor. A task from a busy
+ * host therefore never blocks tasks from other hosts queued behind it.</p>
+ *
+ * <p>Tasks that the network policy does not allow under the last known
+ * network condition are skipped in the same way, and are reconsidered each
+ * time the network changes.</p>
+ */
+
+public final class DownloadScheduler implements DownloadSchedulerType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(DownloadScheduler.class));
+  }
+
+  private final ExecutorService                      exec;
+  private final DownloadSchedulerConfiguration       config;
+  private final DownloadNetworkConditionProviderType network;
+  private final DownloadNetworkPolicyType            policy;
+  private final TreeSet<Queued>                      queue;
+  private final Map<String, Integer>                 hosts;
+  private       DownloadNetworkCondition             condition;
+  private       int                                  active;
+  private       long                                 sequence;
+  private       long                                 started;
+  private       long                                 wait_total;
+  private       long                                 wait_max;
+
+  private DownloadScheduler(
+    final ExecutorService in_exec,
+    final DownloadSchedulerConfiguration in_config,
+    final DownloadNetworkConditionProviderType in_network,
+    final DownloadNetworkPolicyType in_policy)
+  {
+    this.exec = NullCheck.notNull(in_exec);
+    this.config = NullCheck.notNull(in_config);
+    this.network = NullCheck.notNull(in_network);
+    this.policy = NullCheck.notNull(in_policy);
+    this.condition = NullCheck.notNull(in_network.networkGetCondition());
+    this.queue = new TreeSet<Queued>(
+      new Comparator<Queued>()
+      {
+        @Override public int compare(
+          final Queued x,
+          final Queued y)
+        {
+          final int p = x.priority.compareTo(y.priority);
+          if (p != 0) {
+            return p;
+          }
+          return Long.compare(x.sequence, y.sequence);
+        }
+      });
+    this.hosts = new HashMap<String, Integer>(8);
+  }
+
+  /**
+   * Construct a new scheduler that assumes the network is always connected
+   * and unmetered. The executor should have at least as many threads as the
+   * configured maximum concurrency, and should not be used for anything else.
+   *
+   * @param in_exec   The executor that will run tasks
+   * @param in_config The scheduler configuration
+   *
+   * @return A new scheduler
+   */
+
+  public static DownloadSchedulerType newScheduler(
+    final ExecutorService in_exec,
+    final DownloadSchedulerConfiguration in_config)
+  {
+    return DownloadScheduler.newSchedulerWithNetworkPolicy(
+      in_exec,
+      in_config,
+      new DownloadNetworkConditionProviderType()
+      {
+        @Override public DownloadNetworkCondition networkGetCondition()
+        {
+          return DownloadNetworkCondition.getUnrestricted();
+        }
+      },
+      DownloadNetworkPolicy.getDefault());
+  }
+
+  /**
+   * Construct a new scheduler that applies the given policy to the network
+   * condition reported by the given provider. The executor should have at
+   * least as many threads as the configured maximum concurrency, and should
+   * not be used for anything else.
+   *
+   * @param in_exec    The executor that will run tasks
+   * @param in_config  The scheduler configuration
+   * @param in_network A provider of the current network condition
+   * @param in_policy  The network policy
+   *
+   * @return A new scheduler
+   */
+
+  public static DownloadSchedulerType newSchedulerWithNetworkPolicy(
+    final ExecutorService in_exec,
+    final DownloadSchedulerConfiguration in_config,
+    final DownloadNetworkConditionProviderType in_network,
+    final DownloadNetworkPolicyType in_policy)
+  {
+    return new DownloadScheduler(in_exec, in_config, in_network, in_policy);
+  }
+
+  @Override public void schedulerSubmit(
+    final DownloadPriority priority,
+    final String host,
+    final Runnable task)
+  {
+    this.submit(priority, host, -1L, task);
+  }
+
+  @Override public void schedulerResubmit(
+    final DownloadPriority priority,
+    final String host,
+    final long remaining,
+    final Runnable task)
+  {
+    this.submit(priority, host, remaining, task);
+  }
+
+  private void submit(
+    final DownloadPriority priority,
+    final String host,
+    final long remaining,
+    final Runnable task)
+  {
+    NullCheck.notNull(priority);
+    NullCheck.notNull(host);
+    NullCheck.notNull(task);
+
+    synchronized (this) {
+      final Queued q = new Queued(
+        priority,
+        host,
+        task,
+        this.sequence,
+        System.nanoTime(),
+        remaining,
+        false);
+      this.sequence = this.sequence + 1L;
+      this.queue.add(q);
+      DownloadScheduler.LOG.debug(
+        "queued {} download for {} ({} queued, {} active)",
+        priority,
+        host,
+        Integer.valueOf(this.queue.size()),
+        Integer.valueOf(this.active));
+      this.dispatchLocked();
+    }
+  }
+
+  @Override public synchronized void schedulerRelease(final Runnable task)
+  {
+    NullCheck.notNull(task);
+
+    final Iterator<Queued> iter = this.queue.iterator();
+    while (iter.hasNext()) {
+      final Queued q = iter.next();
+      if (q.task == task) {
+        iter.remove();
+        this.queue.add(
+          new Queued(
+            q.priority,
+            q.host,
+            q.task,
+            q.sequence,
+            q.time_queued,
+            q.remaining,
+            true));
+        this.dispatchLocked();
+        return;
+      }
+    }
+  }
+
+  @Override public synchronized boolean schedulerNetworkAllows(
+    final DownloadPriority priority,
+    final long remaining)
+  {
+    return this.policy.policyAllowsDownload(
+      this.condition, NullCheck.notNull(priority), remaining);
+  }
+
+  @Override public void schedulerNetworkChanged()
+  {
+    /**
+     * The provider may be slow to answer, so it is not queried with the
+     * scheduler locked.
+     */
+
+    final DownloadNetworkCondition c =
+      NullCheck.notNull(this.network.networkGetCondition());
+
+    synchronized (this) {
+      DownloadScheduler.LOG.debug("network changed: {}", c);
+      this.condition = c;
+      this.dispatchLocked();
+    }
+  }
+
+  @Override public synchronized DownloadSchedulerStatistics
+  schedulerGetStatistics()
+  {
+    return new DownloadSchedulerStatistics(
+      this.queue.size(),
+      this.active,
+      this.started,
+      this.wait_total,
+      this.wait_max);
+  }
+
+  private int hostActiveLocked(final String host)
+  {
+    final Integer count = this.hosts.get(host);
+    return count == null ? 0 : count.intValue();
+  }
+
+  private void dispatchLocked()
+  {
+    final int max_host = this.config.getMaximumConcurrencyPerHost();
+    final Iterator<Queued> iter = this.queue.iterator();
+    while (this.active < this.config.getMaximumConcurrency()
+      && iter.hasNext()) {
+      final Queued q = iter.next();
+      final int host_active = this.hostActiveLocked(q.host);
+      if (host_active >= max_host) {
+        continue;
+      }
+      if (q.released == false
+        && this.policy.policyAllowsDownload(
+        this.condition, q.priority, q.remaining) == false) {
+        continue;
+      }
+
+      iter.remove();
+      this.active = this.active + 1;
+      this.hosts.put(q.host, Integer.valueOf(host_active + 1));
+
+      final long waited = System.nanoTime() - q.time_queued;
+      this.started = this.started + 1L;
+      this.wait_total = this.wait_total + waited;
+      this.wait_max = Math.max(this.wait_max, waited);
+
+      try {
+        this.exec.execute(
+          new Runnable()
+          {
+            @Override public void run()
+            {
+              try {
+                q.task.run();
+              } finally {
+                DownloadScheduler.this.completed(q);
+              }
+            }
+          });
+      } catch (final RejectedExecutionException e) {
+        DownloadScheduler.LOG.error("executor rejected download: ", e);
+        this.releaseLocked(q);
+        throw e;
+      }
+    }
+  }
+
+  private void releaseLocked(final Queued q)
+  {
+    this.active = this.active - 1;
+    final int host_active = this.hostActiveLocked(q.host) - 1;
+    if (host_active <= 0) {
+      this.hosts.remove(q.host);
+    } else {
+      this.hosts.put(q.host, Integer.valueOf(host_active));
+    }
+  }
+
+  private synchronized void completed(final Queued q)
+  {
+    this.releaseLocked(q);
+    this.dispatchLocked();
+  }
+
+  private static final class Queued
+  {
+    private final DownloadPriority priority;
+    private final String           host;
+    private final Runnable         task;
+    private final long             sequence;
+    private final long             time_queued;
+    private final long             remaining;
+    private final boolean          released;
+
+    Queued(
+      final DownloadPriority in_priority,
+      final String in_host,
+      final Runnable in_task,
+      final long in_sequence,
+      final long in_time_queued,
+      final long in_remaining,
+      final boolean in_released)
+    {
+      this.priority = in_priority;
+      this.host = in_host;
+      this.task = in_task;
+      this.sequence = in_sequence;
+      this.time_queued = in_time_queued;
+      this.remaining = in_remaining;
+      this.released = in_released;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package org.nypl.simplified.downloader.core;
+
+import org.nypl.simplified.assertions.Assertions;
+
+/**
+ * The configuration for {@link DownloadScheduler}.
+ */
+
+public final class DownloadSchedulerConfiguration
+{
+  private final int max_concurrent;
+  private final int max_per_host;
+
+  /**
+   * Construct a configuration.
+   *
+   * @param in_max_concurrent The maximum number of downloads that may run at
+   *                          once
+   * @param in_max_per_host   The maximum number of downloads from a single host
+   *                          that may run at once
+   */
+
+  public DownloadSchedulerConfiguration(
+    final int in_max_concurrent,
+    final int in_max_per_host)
+  {
+    Assertions.checkPrecondition(
+      in_max_concurrent >= 1,
+      "Maximum concurrency %d must be >= 1",
+      Integer.valueOf(in_max_concurrent));
+    Assertions.checkPrecondition(
+      in_max_per_host >= 1,
+      "Maximum per-host concurrency %d must be >= 1",
+      Integer.valueOf(in_max_per_host));
+
+    this.max_concurrent = in_max_concurrent;
+    this.max_per_host = in_max_per_host;
+  }
+
+  /**
+   * The default configuration: two concurrent downloads, both of which may be
+   * from the same host.
+   *
+   * @return The default configuration
+   */
+
+  public static DownloadSchedulerConfiguration getDefault()
+  {
+    return new DownloadSchedulerConfiguration(2, 2);
+  }
+
+  /**
+   * @return The maximum number of downloads that may run at once
+   */
+
+  public int getMaximumConcurrency()
+  {
+    return this.max_concurrent;
+  }
+
+  /**
+   * @return The maximum number of downloads from a single host that may run
+   * at once
+   */
+
+  public int getMaximumConcurrencyPerHost()
+  {
+    return this.max_per_host;
+  }
+}
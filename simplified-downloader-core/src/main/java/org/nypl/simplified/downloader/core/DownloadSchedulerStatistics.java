@@ -0,0 +1,101 @@
+package org.nypl.simplified.downloader.core;
+
+/**
+ * A snapshot of the state of a download scheduler.
+ */
+
+public final class DownloadSchedulerStatistics
+{
+  private final int  queued;
+  private final int  active;
+  private final long started;
+  private final long wait_total_ns;
+  private final long wait_max_ns;
+
+  /**
+   * Construct statistics.
+   *
+   * @param in_queued        The number of downloads currently waiting
+   * @param in_active        The number of downloads currently running
+   * @param in_started       The total number of downloads that have been
+   *                         started
+   * @param in_wait_total_ns The total time in nanoseconds that downloads have
+   *                         spent waiting to start
+   * @param in_wait_max_ns   The longest time in nanoseconds that any download
+   *                         has spent waiting to start
+   */
+
+  public DownloadSchedulerStatistics(
+    final int in_queued,
+    final int in_active,
+    final long in_started,
+    final long in_wait_total_ns,
+    final long in_wait_max_ns)
+  {
+    this.queued = in_queued;
+    this.active = in_active;
+    this.started = in_started;
+    this.wait_total_ns = in_wait_total_ns;
+    this.wait_max_ns = in_wait_max_ns;
+  }
+
+  /**
+   * @return The number of downloads currently waiting to start
+   */
+
+  public int getQueuedCount()
+  {
+    return this.queued;
+  }
+
+  /**
+   * @return The number of downloads currently running
+   */
+
+  public int getActiveCount()
+  {
+    return this.active;
+  }
+
+  /**
+   * @return The total number of downloads that have been started
+   */
+
+  public long getStartedCount()
+  {
+    return this.started;
+  }
+
+  /**
+   * @return The mean queueing delay in milliseconds
+   */
+
+  public double getQueueDelayMeanMilliseconds()
+  {
+    if (this.started == 0L) {
+      return 0.0;
+    }
+    return ((double) this.wait_total_ns / (double) this.started) / 1000000.0;
+  }
+
+  /**
+   * @return The longest queueing delay in milliseconds
+   */
+
+  public double getQueueDelayMaximumMilliseconds()
+  {
+    return (double) this.wait_max_ns / 1000000.0;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder sb = new StringBuilder("DownloadSchedulerStatistics{");
+    sb.append("queued=").append(this.queued);
+    sb.append(", active=").append(this.active);
+    sb.append(", started=").append(this.started);
+    sb.append(", wait_mean_ms=").append(this.getQueueDelayMeanMilliseconds());
+    sb.append(", wait_max_ms=").append(this.getQueueDelayMaximumMilliseconds());
+    sb.append('}');
+    return sb.toString();
+  }
+}
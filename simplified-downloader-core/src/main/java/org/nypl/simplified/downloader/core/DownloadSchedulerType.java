@@ -0,0 +1,88 @@
+package org.nypl.simplified.downloader.core;
+
+/**
+ * <p>The type of download schedulers.</p>
+ *
+ * <p>A scheduler runs downloads with a bounded amount of concurrency, in
+ * priority order, without allowing any single host to take every available
+ * slot.</p>
+ *
+ * <p>A scheduler also applies a {@link DownloadNetworkPolicyType} to the
+ * current network condition: queued downloads that the policy does not allow
+ * are held until the network changes, and running downloads may ask whether
+ * they may continue.</p>
+ */
+
+public interface DownloadSchedulerType
+{
+  /**
+   * Submit a download task. The task is run when a slot is free and no
+   * higher priority task that is eligible to run is waiting.
+   *
+   * @param priority The priority of the task
+   * @param host     The host from which the task downloads
+   * @param task     The task
+   */
+
+  void schedulerSubmit(
+    DownloadPriority priority,
+    String host,
+    Runnable task);
+
+  /**
+   * Submit a download task that paused because the network policy no longer
+   * allowed it to continue. The task is held until the policy allows a
+   * download with the given number of remaining bytes, and is then run as if
+   * submitted with {@link #schedulerSubmit(DownloadPriority, String,
+   * Runnable)}.
+   *
+   * @param priority  The priority of the task
+   * @param host      The host from which the task downloads
+   * @param remaining The number of bytes left to download, or {@code -1} if
+   *                  unknown
+   * @param task      The task
+   */
+
+  void schedulerResubmit(
+    DownloadPriority priority,
+    String host,
+    long remaining,
+    Runnable task);
+
+  /**
+   * Run a queued task as soon as a slot is free, regardless of the network
+   * policy. This is used to let a paused download notice that it has been
+   * cancelled. If the task is not queued, this method has no effect.
+   *
+   * @param task The task
+   */
+
+  void schedulerRelease(Runnable task);
+
+  /**
+   * @param priority  The priority of a download
+   * @param remaining The number of bytes left to download, or {@code -1} if
+   *                  unknown
+   *
+   * @return {@code true} iff the network policy allows the download to
+   * continue under the current network condition
+   */
+
+  boolean schedulerNetworkAllows(
+    DownloadPriority priority,
+    long remaining);
+
+  /**
+   * Indicate that the network may have changed. The scheduler queries its
+   * network condition provider again and starts any held downloads that are
+   * now allowed.
+   */
+
+  void schedulerNetworkChanged();
+
+  /**
+   * @return The current statistics for the scheduler
+   */
+
+  DownloadSchedulerStatistics schedulerGetStatistics();
+}
@@ -0,0 +1,276 @@
+package org.nypl.simplified.downloader.core;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jfunctional.Unit;
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.http.core.HTTPAuthType;
+import org.nypl.simplified.http.core.HTTPHeaders;
+import org.nypl.simplified.http.core.HTTPRedirectFollower;
+import org.nypl.simplified.http.core.HTTPRequestListenerType;
+import org.nypl.simplified.http.core.HTTPResultError;
+import org.nypl.simplified.http.core.HTTPResultException;
+import org.nypl.simplified.http.core.HTTPResultMatcherType;
+import org.nypl.simplified.http.core.HTTPResultOKType;
+import org.nypl.simplified.http.core.HTTPType;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A single segment of a segmented download.</p>
+ *
+ * <p>A segment requests the range starting at its first byte and writes the
+ * response into its region of a preallocated file, stopping at the end of the
+ * region. The response must be a {@code 206} starting at the requested offset
+ * of the same representation as the rest of the download.</p>
+ *
+ * <p>The first segment of a download instead reads from the stream of the
+ * response that was used to discover the length of the file.</p>
+ */
+
+final class DownloadSegment implements Callable<Unit>,
+  HTTPResultMatcherType<InputStream, Unit, IOException>
+{
+  private final Logger                              log;
+  private final HTTPType                            http;
+  private final OptionType<HTTPAuthType>            auth;
+  private final URI                                 uri;
+  private final OptionType<HTTPRequestListenerType> request_listener;
+  private final OptionType<InputStream>             initial;
+  private final File                                file;
+  private final long                                start;
+  private final long                                end;
+  private final DownloadPartialState                state;
+  private final AtomicBoolean                       cancel;
+  private final AtomicLong                          received;
+  private final DownloadDigest                      digest;
+  private final DownloadPacingType                  pacing;
+  private       long                                position;
+
+  DownloadSegment(
+    final Logger in_log,
+    final HTTPType in_http,
+    final OptionType<HTTPAuthType> in_auth,
+    final URI in_uri,
+    final OptionType<HTTPRequestListenerType> in_request_listener,
+    final OptionType<InputStream> in_initial,
+    final File in_file,
+    final long in_start,
+    final long in_end,
+    final DownloadPartialState in_state,
+    final AtomicBoolean in_cancel,
+    final AtomicLong in_received,
+    final DownloadDigest in_digest,
+    final DownloadPacingType in_pacing)
+  {
+    this.log = NullCheck.notNull(in_log);
+    this.http = NullCheck.notNull(in_http);
+    this.auth = NullCheck.notNull(in_auth);
+    this.uri = NullCheck.notNull(in_uri);
+    this.request_listener = NullCheck.notNull(in_request_listener);
+    this.initial = NullCheck.notNull(in_initial);
+    this.file = NullCheck.notNull(in_file);
+    this.start = in_start;
+    this.end = in_end;
+    this.state = NullCheck.notNull(in_state);
+    this.cancel = NullCheck.notNull(in_cancel);
+    this.received = NullCheck.notNull(in_received);
+    this.digest = NullCheck.notNull(in_digest);
+    this.pacing = NullCheck.notNull(in_pacing);
+    this.position = in_start;
+  }
+
+  /**
+   * Copy data from {@code stream} into the region {@code [position, end)} of
+   * {@code file}, stopping early if the download is cancelled. Data is added
+   * to {@code digest} as it is written. Reads and writes are paced by
+   * {@code pacing}.
+   *
+   * @return The position following the last byte written
+   */
+
+  static long copyRegion(
+    final InputStream stream,
+    final File file,
+    final long position,
+    final long end,
+    final AtomicBoolean cancel,
+    final AtomicLong received,
+    final DownloadDigest digest,
+    final DownloadPacingType pacing)
+    throws IOException
+  {
+    long current = position;
+    final RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try {
+      out.seek(current);
+      final byte[] buffer = new byte[DownloaderHTTP.BUFFER_SIZE];
+      while (current < end && cancel.get() == false) {
+        final int want = (int) Math.min((long) buffer.length, end - current);
+        final int r = stream.read(buffer, 0, want);
+        if (r == -1) {
+          break;
+        }
+        pacing.pacingAcquireNetwork(r);
+        pacing.pacingAcquireDisk(r);
+        out.write(buffer, 0, r);
+        digest.update(buffer, 0, r);
+        current += (long) r;
+        received.addAndGet((long) r);
+      }
+    } finally {
+      out.close();
+    }
+    return current;
+  }
+
+  /**
+   * @return The position following the last byte written by this segment
+   */
+
+  long getPosition()
+  {
+    return this.position;
+  }
+
+  /**
+   * @return The position of the first byte of this segment
+   */
+
+  long getStart()
+  {
+    return this.start;
+  }
+
+  /**
+   * @return The digest of the data written by this segment
+   */
+
+  DownloadDigest getDigest()
+  {
+    return this.digest;
+  }
+
+  /**
+   * @return The position following the last byte of this segment
+   */
+
+  long getEnd()
+  {
+    return this.end;
+  }
+
+  @Override public Unit call()
+    throws Exception
+  {
+    if (this.initial.isSome()) {
+      final InputStream stream = ((Some<InputStream>) this.initial).get();
+      try {
+        this.position = DownloadSegment.copyRegion(
+          stream,
+          this.file,
+          this.position,
+          this.end,
+          this.cancel,
+          this.received,
+          this.digest,
+          this.pacing);
+      } finally {
+        stream.close();
+      }
+      this.checkComplete();
+      return Unit.unit();
+    }
+
+    final HTTPRedirectFollower rf = new HTTPRedirectFollower(
+      this.log,
+      this.http,
+      "GET",
+      this.auth,
+      5,
+      this.uri,
+      this.start,
+      this.request_listener);
+
+    this.log.debug(
+      "starting segment [{}, {})",
+      Long.valueOf(this.start),
+      Long.valueOf(this.end));
+    return rf.runExceptional().matchResult(this);
+  }
+
+  @Override public Unit onHTTPError(final HTTPResultError<InputStream> e)
+    throws IOException
+  {
+    e.getData().close();
+    throw new IOException(
+      String.format("%d: %s", e.getStatus(), e.getMessage()));
+  }
+
+  @Override public Unit onHTTPException(final HTTPResultException<InputStream> e)
+    throws IOException
+  {
+    throw new IOException(e.getError());
+  }
+
+  @Override public Unit onHTTPOK(final HTTPResultOKType<InputStream> e)
+    throws IOException
+  {
+    final InputStream stream = e.getValue();
+    try {
+      final Map<String, List<String>> headers = e.getResponseHeaders();
+      final long range_start = HTTPHeaders.getContentRangeStart(headers);
+      if (e.getStatus() != 206 || range_start != this.start) {
+        throw new IOException(
+          String.format(
+            "Expected a range starting at %d, got status %d starting at %d",
+            Long.valueOf(this.start),
+            Integer.valueOf(e.getStatus()),
+            Long.valueOf(range_start)));
+      }
+
+      final OptionType<String> etag = HTTPHeaders.getFirst(headers, "ETag");
+      if (this.state.isSameRepresentation(etag, e.getLastModifiedTime())
+        == false) {
+        throw new IOException("Representation changed during download");
+      }
+
+      this.position = DownloadSegment.copyRegion(
+        stream,
+        this.file,
+        this.position,
+        this.end,
+        this.cancel,
+        this.received,
+        this.digest,
+        this.pacing);
+    } finally {
+      stream.close();
+    }
+
+    this.checkComplete();
+    return Unit.unit();
+  }
+
+  private void checkComplete()
+    throws IOException
+  {
+    if (this.position != this.end && this.cancel.get() == false) {
+      throw new IOException(
+        String.format(
+          "Segment ended at %d, expected %d",
+          Long.valueOf(this.position),
+          Long.valueOf(this.end)));
+    }
+  }
+}
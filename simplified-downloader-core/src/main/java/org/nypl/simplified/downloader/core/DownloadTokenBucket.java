@@ -0,0 +1,87 @@
+package org.nypl.simplified.downloader.core;
+
+import java.io.InterruptedIOException;
+
+/**
+ * <p>A token bucket that limits a flow of bytes to a given rate.</p>
+ *
+ * <p>The bucket holds at most a quarter of a second of tokens, and never less
+ * than one copy buffer's worth, so that short bursts are not delayed. A
+ * caller that takes more tokens than the bucket holds goes into debt and
+ * waits until the debt would have been repaid, outside of any lock.</p>
+ */
+
+final class DownloadTokenBucket
+{
+  private long   rate;
+  private double capacity;
+  private double tokens;
+  private long   time_last;
+
+  DownloadTokenBucket()
+  {
+    this.rate = 0L;
+    this.time_last = System.nanoTime();
+  }
+
+  /**
+   * Set the rate of the bucket.
+   *
+   * @param in_rate The rate in bytes per second, or {@code 0} for no limit
+   */
+
+  synchronized void setRate(final long in_rate)
+  {
+    this.refill(System.nanoTime());
+    this.rate = in_rate;
+    this.capacity = Math.max(
+      (double) in_rate / 4.0, (double) DownloaderHTTP.BUFFER_SIZE);
+    this.tokens = Math.min(this.tokens, this.capacity);
+  }
+
+  private void refill(final long now)
+  {
+    if (this.rate > 0L) {
+      final double elapsed = (double) (now - this.time_last) / 1.0e9;
+      this.tokens =
+        Math.min(this.capacity, this.tokens + elapsed * (double) this.rate);
+    }
+    this.time_last = now;
+  }
+
+  private synchronized long reserve(final int bytes)
+  {
+    if (this.rate <= 0L) {
+      return 0L;
+    }
+
+    this.refill(System.nanoTime());
+    this.tokens -= (double) bytes;
+    if (this.tokens >= 0.0) {
+      return 0L;
+    }
+    return (long) ((-this.tokens * 1.0e9) / (double) this.rate);
+  }
+
+  /**
+   * Take the given number of tokens, waiting if necessary.
+   *
+   * @param bytes The number of tokens
+   *
+   * @throws InterruptedIOException If the calling thread is interrupted
+   */
+
+  void acquire(final int bytes)
+    throws InterruptedIOException
+  {
+    final long wait = this.reserve(bytes);
+    if (wait > 0L) {
+      try {
+        Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted whilst paced");
+      }
+    }
+  }
+}
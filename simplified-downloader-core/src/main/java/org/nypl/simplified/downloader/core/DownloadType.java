@@ -1,5 +1,7 @@
 package org.nypl.simplified.downloader.core;
 
+import com.io7m.jfunctional.OptionType;
+
 /**
  * The type of a download in progress.
  */
@@ -17,4 +19,15 @@ public interface DownloadType
    */
 
   String getContentType();
+
+  /**
+   * The digest of the downloaded data, available once the download has
+   * completed. The digest is a chunked SHA-256 digest: the SHA-256 digest of
+   * the concatenated SHA-256 digests of each 1MiB chunk of the data.
+   *
+   * @return The digest of the data as a lowercase hexadecimal string, if the
+   * download has completed
+   */
+
+  OptionType<String> getContentDigest();
 }
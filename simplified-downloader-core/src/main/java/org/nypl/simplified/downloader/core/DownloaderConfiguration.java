@@ -0,0 +1,83 @@
+package org.nypl.simplified.downloader.core;
+
+import org.nypl.simplified.assertions.Assertions;
+
+/**
+ * The configuration for {@link DownloaderHTTP}.
+ */
+
+public final class DownloaderConfiguration
+{
+  private final int  max_connections;
+  private final long min_segment_size;
+
+  /**
+   * Construct a configuration.
+   *
+   * @param in_max_connections  The maximum number of connections used for a
+   *                            single download; {@code 1} disables segmented
+   *                            downloads
+   * @param in_min_segment_size The minimum size in bytes of each segment of a
+   *                            segmented download
+   */
+
+  public DownloaderConfiguration(
+    final int in_max_connections,
+    final long in_min_segment_size)
+  {
+    Assertions.checkPrecondition(
+      in_max_connections >= 1,
+      "Maximum connections %d must be >= 1",
+      Integer.valueOf(in_max_connections));
+    Assertions.checkPrecondition(
+      in_min_segment_size >= 1L,
+      "Minimum segment size %d must be >= 1",
+      Long.valueOf(in_min_segment_size));
+
+    this.max_connections = in_max_connections;
+    this.min_segment_size = in_min_segment_size;
+  }
+
+  /**
+   * The default configuration: one connection per download.
+   *
+   * @return The default configuration
+   */
+
+  public static DownloaderConfiguration getDefault()
+  {
+    return new DownloaderConfiguration(1, 4L * 1024L * 1024L);
+  }
+
+  /**
+   * @return The maximum number of connections used for a single download
+   */
+
+  public int getMaximumConnectionsPerDownload()
+  {
+    return this.max_connections;
+  }
+
+  /**
+   * @return The minimum size in bytes of each segment of a segmented
+   * download
+   */
+
+  public long getMinimumSegmentSize()
+  {
+    return this.min_segment_size;
+  }
+
+  /**
+   * @param length The length of a file
+   *
+   * @return The number of segments into which a file of the given length
+   * should be split
+   */
+
+  public int getSegmentCount(final long length)
+  {
+    final long by_size = length / this.min_segment_size;
+    return (int) Math.max(1L, Math.min((long) this.max_connections, by_size));
+  }
+}
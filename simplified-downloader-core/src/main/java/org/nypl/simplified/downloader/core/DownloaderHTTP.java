@@ -2,15 +2,21 @@ package org.nypl.simplified.downloader.core;
 
 import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
 import com.io7m.jfunctional.Unit;
 import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.nypl.simplified.files.FileUtilities;
 import org.nypl.simplified.http.core.HTTPAuthType;
+import org.nypl.simplified.http.core.HTTPHeaders;
 import org.nypl.simplified.http.core.HTTPRedirectFollower;
+import org.nypl.simplified.http.core.HTTPRequestListenerType;
 import org.nypl.simplified.http.core.HTTPResultError;
 import org.nypl.simplified.http.core.HTTPResultException;
 import org.nypl.simplified.http.core.HTTPResultMatcherType;
 import org.nypl.simplified.http.core.HTTPResultOKType;
 import org.nypl.simplified.http.core.HTTPResultType;
+import org.nypl.simplified.http.core.HTTPStatusException;
 import org.nypl.simplified.http.core.HTTPType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,19 +26,52 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * The default implementation of the {@link DownloaderType} interface.
+ * <p>The default implementation of the {@link DownloaderType} interface.</p>
+ *
+ * <p>The data for a download is written to a file whose name is derived from
+ * the download URI, alongside a file describing the response being written.
+ * If a download fails part way through, both files are kept, and a later
+ * download of the same URI (including one made after the process has been
+ * restarted) resumes from the end of the partial data with a {@code Range}
+ * request. The partial data is discarded, and the download restarted from the
+ * beginning, if the server rejects or does not honour the range or now serves
+ * a different representation.</p>
  */
 
 public final class DownloaderHTTP implements DownloaderType
 {
+  /**
+   * The size of the buffer used to copy data from the network to disk.
+   */
+
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The status code with which a server rejects a range that lies beyond the
+   * end of the resource.
+   */
+
+  private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
   private static final Logger LOG;
 
   static {
@@ -40,19 +79,33 @@ public final class DownloaderHTTP implements DownloaderType
   }
 
   private final HTTPType        http;
-  private final ExecutorService exec;
+  private final DownloadSchedulerType scheduler;
   private final File            directory;
   private final AtomicLong      id_pool;
+  private final OptionType<HTTPRequestListenerType> request_listener;
+  private final Set<String>     active;
+  private final ExecutorService segment_exec;
+  private final DownloaderConfiguration config;
+  private final DownloadPacingType pacing;
 
   private DownloaderHTTP(
-    final ExecutorService in_exec,
+    final DownloadSchedulerType in_scheduler,
+    final ExecutorService in_segment_exec,
     final File in_directory,
-    final HTTPType in_http)
+    final HTTPType in_http,
+    final OptionType<HTTPRequestListenerType> in_request_listener,
+    final DownloaderConfiguration in_config,
+    final DownloadPacingType in_pacing)
   {
-    this.exec = NullCheck.notNull(in_exec);
+    this.scheduler = NullCheck.notNull(in_scheduler);
+    this.pacing = NullCheck.notNull(in_pacing);
+    this.segment_exec = NullCheck.notNull(in_segment_exec);
+    this.config = NullCheck.notNull(in_config);
     this.directory = NullCheck.notNull(in_directory);
     this.http = NullCheck.notNull(in_http);
+    this.request_listener = NullCheck.notNull(in_request_listener);
     this.id_pool = new AtomicLong(0L);
+    this.active = new HashSet<String>(8);
   }
 
   /**
@@ -68,66 +121,304 @@ public final class DownloaderHTTP implements DownloaderType
     final File in_directory,
     final HTTPType in_http)
   {
-    return new DownloaderHTTP(in_exec, in_directory, in_http);
+    return new DownloaderHTTP(
+      DownloadScheduler.newScheduler(
+        in_exec, DownloadSchedulerConfiguration.getDefault()),
+      in_exec,
+      in_directory,
+      in_http,
+      Option.<HTTPRequestListenerType>none(),
+      DownloaderConfiguration.getDefault(),
+      DownloadPacing.newUnlimited());
+  }
+
+  /**
+   * @param in_exec             An executor service
+   * @param in_directory        A storage directory
+   * @param in_http             An HTTP interface
+   * @param in_request_listener A listener that will receive the redirect and
+   *                            authentication counts of each download
+   *
+   * @return A new downloader
+   */
+
+  public static DownloaderType newDownloaderWithListener(
+    final ExecutorService in_exec,
+    final File in_directory,
+    final HTTPType in_http,
+    final HTTPRequestListenerType in_request_listener)
+  {
+    return new DownloaderHTTP(
+      DownloadScheduler.newScheduler(
+        in_exec, DownloadSchedulerConfiguration.getDefault()),
+      in_exec,
+      in_directory,
+      in_http,
+      Option.some(NullCheck.notNull(in_request_listener)),
+      DownloaderConfiguration.getDefault(),
+      DownloadPacing.newUnlimited());
+  }
+
+  /**
+   * Construct a downloader that runs downloads on the given scheduler and
+   * may split large downloads into segments that are fetched concurrently.
+   * Segments are executed on {@code in_segment_exec}, which must not be the
+   * executor used by {@code in_scheduler} unless segmented downloads are
+   * disabled in {@code in_config}. Network reads and disk writes are paced
+   * by {@code in_pacing}.
+   *
+   * @param in_scheduler        A download scheduler
+   * @param in_segment_exec     An executor service for download segments
+   * @param in_directory        A storage directory
+   * @param in_http             An HTTP interface
+   * @param in_request_listener A listener that will receive the redirect and
+   *                            authentication counts of each download
+   * @param in_config           The downloader configuration
+   * @param in_pacing           The pacer shared by all downloads
+   *
+   * @return A new downloader
+   */
+
+  public static DownloaderType newDownloaderWithConfiguration(
+    final DownloadSchedulerType in_scheduler,
+    final ExecutorService in_segment_exec,
+    final File in_directory,
+    final HTTPType in_http,
+    final HTTPRequestListenerType in_request_listener,
+    final DownloaderConfiguration in_config,
+    final DownloadPacingType in_pacing)
+  {
+    return new DownloaderHTTP(
+      in_scheduler,
+      in_segment_exec,
+      in_directory,
+      in_http,
+      Option.some(NullCheck.notNull(in_request_listener)),
+      in_config,
+      in_pacing);
   }
 
   @Override public DownloadType download(
     final URI in_uri,
     final OptionType<HTTPAuthType> in_auth,
     final DownloadListenerType in_listener)
+  {
+    return this.downloadWithPriority(
+      in_uri, in_auth, DownloadPriority.DOWNLOAD_PRIORITY_USER, in_listener);
+  }
+
+  @Override public DownloadType downloadWithPriority(
+    final URI in_uri,
+    final OptionType<HTTPAuthType> in_auth,
+    final DownloadPriority in_priority,
+    final DownloadListenerType in_listener)
+  {
+    return this.downloadToDirectory(
+      in_uri, in_auth, in_priority, this.directory, in_listener);
+  }
+
+  @Override public DownloadType downloadToDirectory(
+    final URI in_uri,
+    final OptionType<HTTPAuthType> in_auth,
+    final DownloadPriority in_priority,
+    final File in_directory,
+    final DownloadListenerType in_listener)
   {
     NullCheck.notNull(in_uri);
     NullCheck.notNull(in_auth);
+    NullCheck.notNull(in_priority);
+    NullCheck.notNull(in_directory);
     NullCheck.notNull(in_listener);
 
     final long id = this.id_pool.incrementAndGet();
-    final File file = new File(
-      this.directory, String.format(
-      "%016d.data", Long.valueOf(id)));
+
+    /**
+     * Two downloads of the same URI into the same directory cannot share the
+     * same files. The second download uses a unique name and cannot be
+     * resumed later.
+     */
+
+    File base = new File(in_directory, DownloaderHTTP.nameForURI(in_uri));
+    synchronized (this.active) {
+      if (this.active.add(base.getPath()) == false) {
+        base = new File(
+          in_directory, String.format("%016d", Long.valueOf(id)));
+        this.active.add(base.getPath());
+      }
+    }
+
+    final String name = NullCheck.notNull(base.getPath());
+    final File file = new File(name + ".data");
+    final File file_meta = new File(name + ".meta");
+    final File file_meta_tmp = new File(name + ".meta.tmp");
 
     DownloaderHTTP.LOG.debug("queued download {} for {}", file, in_uri);
+    final String host = in_uri.getHost();
     final Download d =
-      new Download(id, file, in_auth, in_uri, this.http, in_listener);
-    this.exec.execute(d);
+      new Download(
+        this.scheduler,
+        in_priority,
+        host != null ? host : "",
+        id,
+        name,
+        this.active,
+        file,
+        file_meta,
+        file_meta_tmp,
+        in_auth,
+        in_uri,
+        this.http,
+        this.request_listener,
+        this.segment_exec,
+        this.config,
+        this.pacing,
+        in_listener);
+    this.scheduler.schedulerSubmit(in_priority, d.host, d);
     return d;
   }
 
+  @Override public void downloadDiscardPartial(
+    final URI in_uri,
+    final File in_directory)
+  {
+    NullCheck.notNull(in_uri);
+    NullCheck.notNull(in_directory);
+
+    final File base = new File(in_directory, DownloaderHTTP.nameForURI(in_uri));
+    synchronized (this.active) {
+      if (this.active.contains(base.getPath())) {
+        DownloaderHTTP.LOG.debug(
+          "not discarding {}: download is running", base);
+        return;
+      }
+
+      final String name = base.getPath();
+      final File[] files = {
+        new File(name + ".data"),
+        new File(name + ".meta"),
+        new File(name + ".meta.tmp"),
+        new File(name + ".sums"),
+        new File(name + ".sums.tmp"),
+      };
+
+      for (final File f : files) {
+        if (f.exists()) {
+          DownloaderHTTP.LOG.debug("discarding {}", f);
+          try {
+            FileUtilities.fileDelete(f);
+          } catch (final IOException e) {
+            DownloaderHTTP.LOG.error("could not delete {}: ", f, e);
+          }
+        }
+      }
+    }
+  }
+
+  private static String nameForURI(final URI uri)
+  {
+    try {
+      final MessageDigest md = MessageDigest.getInstance("SHA-256");
+      final byte[] hash =
+        md.digest(uri.toString().getBytes(Charset.forName("UTF-8")));
+      final StringBuilder sb = new StringBuilder(64);
+      for (final byte b : hash) {
+        sb.append(String.format("%02x", Integer.valueOf(b & 0xff)));
+      }
+      return NullCheck.notNull(sb.toString());
+    } catch (final NoSuchAlgorithmException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
   private static final class Download implements Runnable,
     DownloadType,
     HTTPResultMatcherType<InputStream, Unit, IOException>
   {
+    private final DownloadSchedulerType    scheduler;
+    private final DownloadPriority         priority;
+    private final String                   host;
     private final URI                      uri;
     private final AtomicBoolean            cancel;
+    private final AtomicBoolean            held;
     private final HTTPType                 http;
     private final OptionType<HTTPAuthType> auth;
+    private final String                   name;
+    private final Set<String>              active;
     private final File                     file;
+    private final File                     file_meta;
+    private final File                     file_meta_tmp;
+    private final File                     file_sums;
+    private final File                     file_sums_tmp;
     private final DownloadListenerType     listener;
     private final Logger                   log;
+    private final OptionType<HTTPRequestListenerType> request_listener;
+    private final ExecutorService          segment_exec;
+    private final DownloaderConfiguration  config;
+    private final DownloadPacingType       pacing;
     private       long                     total;
+    private       long                     offset;
+    private       boolean                  restart;
+    private       boolean                  paused;
+    private       long                     paused_remaining;
+    private       DownloadPartialState     state;
+    private       byte[]                   buffer;
     private       String                   content_type;
+    private       List<byte[]>             resume_chunks;
+    private       OptionType<String>       content_digest;
 
     private Download(
+      final DownloadSchedulerType in_scheduler,
+      final DownloadPriority in_priority,
+      final String in_host,
       final long in_id,
+      final String in_name,
+      final Set<String> in_active,
       final File in_file,
+      final File in_file_meta,
+      final File in_file_meta_tmp,
       final OptionType<HTTPAuthType> in_auth,
       final URI in_uri,
       final HTTPType in_http,
+      final OptionType<HTTPRequestListenerType> in_request_listener,
+      final ExecutorService in_segment_exec,
+      final DownloaderConfiguration in_config,
+      final DownloadPacingType in_pacing,
       final DownloadListenerType in_listener)
     {
+      this.scheduler = NullCheck.notNull(in_scheduler);
+      this.priority = NullCheck.notNull(in_priority);
+      this.host = NullCheck.notNull(in_host);
       this.auth = NullCheck.notNull(in_auth);
+      this.request_listener = NullCheck.notNull(in_request_listener);
+      this.segment_exec = NullCheck.notNull(in_segment_exec);
+      this.config = NullCheck.notNull(in_config);
+      this.pacing = NullCheck.notNull(in_pacing);
+      this.name = NullCheck.notNull(in_name);
+      this.active = NullCheck.notNull(in_active);
       this.file = NullCheck.notNull(in_file);
+      this.file_meta = NullCheck.notNull(in_file_meta);
+      this.file_meta_tmp = NullCheck.notNull(in_file_meta_tmp);
+      this.file_sums = new File(in_name + ".sums");
+      this.file_sums_tmp = new File(in_name + ".sums.tmp");
       this.uri = NullCheck.notNull(in_uri);
       this.http = NullCheck.notNull(in_http);
       NullCheck.notNull(in_listener);
 
-      final String name = String.format(
+      final String log_name = String.format(
         "%s[%d]", DownloaderHTTP.class, Long.valueOf(in_id));
-      this.log = NullCheck.notNull(LoggerFactory.getLogger(name));
+      this.log = NullCheck.notNull(LoggerFactory.getLogger(log_name));
       this.cancel = new AtomicBoolean(false);
+      this.held = new AtomicBoolean(false);
       this.listener =
         new DownloadCatchingListener(DownloaderHTTP.LOG, in_listener);
 
       this.total = 0L;
+      this.offset = 0L;
+      this.restart = false;
+      this.paused = false;
+      this.paused_remaining = -1L;
+      this.resume_chunks = new ArrayList<byte[]>(0);
+      this.content_digest = Option.none();
     }
 
     private static String getContentType(
@@ -143,23 +434,216 @@ public final class DownloaderHTTP implements DownloaderType
       return "application/octet-stream";
     }
 
+    /**
+     * Determine the offset at which the download can be resumed from any
+     * existing partial data, discarding partial data that cannot be used.
+     */
+
+    private long resumeOffset()
+    {
+      if (this.file.isFile() == false || this.file_meta.isFile() == false) {
+        this.discardPartial();
+        return 0L;
+      }
+
+      final DownloadPartialState s;
+      try {
+        s = DownloadPartialState.load(this.file_meta);
+      } catch (final IOException e) {
+        this.log.error("could not load partial download state: ", e);
+        this.discardPartial();
+        return 0L;
+      }
+
+      final long have = this.file.length();
+      if (s.getURI().equals(this.uri) == false
+        || s.isResumable() == false
+        || have <= 0L
+        || have >= s.getLength()) {
+        this.discardPartial();
+        return 0L;
+      }
+
+      /**
+       * The download can only be resumed from the end of the last chunk
+       * whose digest was recorded, so that the digest of the earlier data
+       * does not have to be computed again. Any data after that chunk is
+       * downloaded again.
+       */
+
+      final List<byte[]> chunks;
+      try {
+        chunks = DownloadDigest.loadChunks(
+          this.file_sums, have / (long) DownloadDigest.CHUNK_SIZE);
+      } catch (final IOException e) {
+        this.log.error("could not load partial download digests: ", e);
+        this.discardPartial();
+        return 0L;
+      }
+
+      final long usable =
+        (long) chunks.size() * (long) DownloadDigest.CHUNK_SIZE;
+      if (usable <= 0L) {
+        this.discardPartial();
+        return 0L;
+      }
+
+      if (usable < have) {
+        try {
+          final RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+          try {
+            raf.setLength(usable);
+          } finally {
+            raf.close();
+          }
+        } catch (final IOException e) {
+          this.log.error("could not truncate partial download: ", e);
+          this.discardPartial();
+          return 0L;
+        }
+      }
+
+      this.log.debug(
+        "resuming download at {} of {} bytes",
+        Long.valueOf(usable),
+        Long.valueOf(s.getLength()));
+      this.state = s;
+      this.resume_chunks = chunks;
+      return usable;
+    }
+
+    private HTTPResultType<InputStream> request()
+      throws Exception
+    {
+      final HTTPRedirectFollower rf = new HTTPRedirectFollower(
+        this.log,
+        this.http,
+        "GET",
+        this.auth,
+        5,
+        this.uri,
+        this.offset,
+        this.request_listener);
+
+      this.log.debug(
+        "starting download, uri {} to file {} (offset {})",
+        this.uri,
+        this.file,
+        Long.valueOf(this.offset));
+
+      return rf.runExceptional();
+    }
+
     @Override public void run()
     {
+      this.held.set(false);
+      this.paused = false;
+      this.restart = false;
+
+      /**
+       * A download that was cancelled whilst paused is released by the
+       * scheduler only so that it can finish here.
+       */
+
+      if (this.cancel.get()) {
+        this.log.debug("download cancelled before starting");
+        synchronized (this.active) {
+          this.active.remove(this.name);
+        }
+        this.discardPartial();
+        this.listener.onDownloadCancelled(this);
+        return;
+      }
+
       try {
-        final HTTPRedirectFollower rf = new HTTPRedirectFollower(
-          this.log, this.http, "GET", this.auth, 5, this.uri, 0L);
+        try {
+          this.offset = this.resumeOffset();
+          try {
+            this.request().matchResult(this);
+          } catch (final HTTPStatusException e) {
+
+            /**
+             * A range that cannot be satisfied means that the partial data
+             * cannot be resumed, and so the download is restarted from the
+             * beginning.
+             */
+
+            if (this.offset == 0L
+              || e.getStatus() != DownloaderHTTP.HTTP_RANGE_NOT_SATISFIABLE) {
+              throw e;
+            }
+            this.restart = true;
+          }
+
+          if (this.restart) {
+            this.log.debug("partial data cannot be used, restarting download");
+            this.discardPartial();
+            this.offset = 0L;
+            this.request().matchResult(this);
+          }
+        } finally {
 
-        this.log.debug(
-          "starting download, uri {} to file {}", this.uri, this.file);
+          /**
+           * A paused download keeps its name, so that its partial data is
+           * not discarded or reused by another download whilst it waits.
+           */
 
-        final HTTPResultType<InputStream> r = rf.runExceptional();
-        r.matchResult(this);
+          if (this.paused == false) {
+            synchronized (this.active) {
+              this.active.remove(this.name);
+            }
+          }
+        }
+
+        if (this.paused) {
+          this.hold();
+        }
       } catch (final Throwable e) {
+
+        /**
+         * Any partial data is kept, so that it can be resumed later.
+         */
+
         this.listener.onDownloadFailed(this, -1, this.total, Option.some(e));
         this.failed();
       }
     }
 
+    /**
+     * Return a paused download to the scheduler, which holds it until the
+     * network policy allows it to continue. If the download was cancelled
+     * in the meantime, it is released immediately so that it can finish.
+     */
+
+    private void hold()
+    {
+      this.log.debug(
+        "pausing download with {} bytes remaining",
+        Long.valueOf(this.paused_remaining));
+      this.held.set(true);
+      this.scheduler.schedulerResubmit(
+        this.priority, this.host, this.paused_remaining, this);
+      if (this.cancel.get()) {
+        this.scheduler.schedulerRelease(this);
+      }
+    }
+
+    /**
+     * Check whether the network policy allows the download to continue,
+     * marking the download as paused if it does not.
+     */
+
+    private boolean networkAllows(final long expected)
+    {
+      final long remaining = expected >= 0L ? expected - this.total : -1L;
+      if (this.scheduler.schedulerNetworkAllows(this.priority, remaining)) {
+        return true;
+      }
+      this.paused = true;
+      this.paused_remaining = remaining;
+      return false;
+    }
+
     @Override public Unit onHTTPError(
       final HTTPResultError<InputStream> e)
       throws IOException
@@ -188,72 +672,406 @@ public final class DownloaderHTTP implements DownloaderType
       final HTTPResultOKType<InputStream> e)
       throws IOException
     {
-      this.log.debug("http ok: ", Integer.valueOf(e.getStatus()));
-      final long expected = e.getContentLength();
-      this.content_type = Download.getContentType(e.getResponseHeaders());
+      final int status = e.getStatus();
+      this.log.debug("http ok: {}", Integer.valueOf(status));
+
+      final Map<String, List<String>> headers = e.getResponseHeaders();
+      final OptionType<String> etag = HTTPHeaders.getFirst(headers, "ETag");
+      final long content_length = e.getContentLength();
+
+      /**
+       * A resumed download can only append to the partial data if the server
+       * returned exactly the requested range of the same representation. If
+       * the server ignored the range and sent the whole entity, the partial
+       * data is simply overwritten.
+       */
+
+      final boolean append;
+      if (this.offset > 0L && status == 206) {
+        final long start = HTTPHeaders.getContentRangeStart(headers);
+        if (start != this.offset
+          || this.state.isSameRepresentation(etag, e.getLastModifiedTime())
+          == false) {
+          this.log.debug(
+            "range starts at {}, expected {}",
+            Long.valueOf(start),
+            Long.valueOf(this.offset));
+          e.getValue().close();
+          this.restart = true;
+          return Unit.unit();
+        }
+        append = true;
+        this.content_type = this.state.getContentType();
+      } else {
+        append = false;
+        this.offset = 0L;
+        this.content_type = Download.getContentType(headers);
+        this.state = new DownloadPartialState(
+          this.uri,
+          etag,
+          e.getLastModifiedTime(),
+          content_length,
+          this.content_type);
+        this.state.save(this.file_meta, this.file_meta_tmp);
+      }
+
+      final long expected =
+        content_length >= 0L ? this.offset + content_length : -1L;
+      this.total = this.offset;
       this.log.debug(
         "expecting {} bytes of {}", Long.valueOf(expected), this.content_type);
       this.listener.onDownloadStarted(this, expected);
+      if (this.total > 0L) {
+        this.listener.onDownloadDataReceived(this, this.total, expected);
+      }
+
+      /**
+       * Now that the length of the download is known, the network policy may
+       * not allow it to run. Nothing has been written, so the download can be
+       * paused whether or not the server supports resumption.
+       */
+
+      if (this.networkAllows(expected) == false) {
+        e.getValue().close();
+        return Unit.unit();
+      }
+
+      final DownloadProgress progress =
+        new DownloadProgress(this.listener, this, expected, this.total);
+
+      if (append == false && this.isSegmentable(status, headers)) {
+        this.runSegmented(e.getValue(), content_length, progress);
+        if (this.paused == false) {
+          this.finish(status, expected);
+        }
+        return Unit.unit();
+      }
+
+      /**
+       * The digest of each complete chunk is appended to the digest file
+       * after the chunk has been written, so that the digest file never
+       * describes more data than has been written. A download is only
+       * paused part of the way through if it can be resumed from that
+       * file.
+       */
 
-      final OutputStream out = new FileOutputStream(this.file);
+      final boolean pausable = this.state.isResumable();
+
+      final OutputStream out = new FileOutputStream(this.file, append);
       try {
-        final InputStream stream = e.getValue();
+        final OutputStream out_sums =
+          new FileOutputStream(this.file_sums, append);
         try {
-          final byte[] buffer = new byte[1024];
-
-          while (this.cancel.get() == false) {
-            final int r = stream.read(buffer);
-            if (r == -1) {
-              break;
-            }
-            this.total += (long) r;
-            out.write(buffer, 0, r);
-            this.listener.onDownloadDataReceived(
-              this, this.total, expected);
+          final DownloadDigest digest;
+          if (append) {
+            digest = DownloadDigest.newDigestContinuing(
+              this.resume_chunks, Option.some(out_sums));
+          } else {
+            digest = DownloadDigest.newDigest(Option.some(out_sums));
           }
 
-          if (this.cancel.get()) {
-            this.log.debug("download cancelled");
-            this.listener.onDownloadCancelled(this);
-          } else {
-            if (this.total != expected) {
-              this.log.error(
-                "received {} bytes but expected {}",
-                Long.valueOf(this.total),
-                Long.valueOf(expected));
-              final OptionType<Throwable> none = Option.none();
-              this.listener.onDownloadFailed(
-                this, e.getStatus(), this.total, none);
-              this.failed();
-            } else {
-              this.log.debug("download completed");
-              this.listener.onDownloadCompleted(this, this.file);
+          final InputStream stream = e.getValue();
+          try {
+            final byte[] buffer = this.getBuffer();
+
+            while (this.cancel.get() == false) {
+              final int r = stream.read(buffer);
+              if (r == -1) {
+                break;
+              }
+              this.total += (long) r;
+              this.pacing.pacingAcquireNetwork(r);
+              this.pacing.pacingAcquireDisk(r);
+              out.write(buffer, 0, r);
+              digest.update(buffer, 0, r);
+              progress.update(this.total);
+
+              if (pausable && this.networkAllows(expected) == false) {
+                break;
+              }
             }
+          } finally {
+            stream.close();
           }
 
+          if (this.paused) {
+            return Unit.unit();
+          }
+          this.content_digest = Option.some(digest.finish());
         } finally {
-          stream.close();
+          out_sums.close();
         }
-        return Unit.unit();
       } finally {
         out.close();
       }
+
+      progress.finish(this.total);
+      this.finish(status, expected);
+      return Unit.unit();
+    }
+
+    /**
+     * The buffer is allocated once per download and reused if the download
+     * has to be restarted.
+     */
+
+    private byte[] getBuffer()
+    {
+      if (this.buffer == null) {
+        this.buffer = new byte[DownloaderHTTP.BUFFER_SIZE];
+      }
+      return this.buffer;
+    }
+
+    private void finish(
+      final int status,
+      final long expected)
+      throws IOException
+    {
+      if (this.cancel.get()) {
+        this.log.debug("download cancelled");
+        this.discardPartial();
+        this.listener.onDownloadCancelled(this);
+      } else {
+        if (this.total != expected) {
+          this.log.error(
+            "received {} bytes but expected {}",
+            Long.valueOf(this.total),
+            Long.valueOf(expected));
+          final OptionType<Throwable> none = Option.none();
+          this.listener.onDownloadFailed(this, status, this.total, none);
+          this.failed();
+        } else {
+          this.log.debug(
+            "download completed with digest {}", this.content_digest);
+          this.deleteQuietly(this.file_meta);
+          this.deleteQuietly(this.file_sums);
+          this.listener.onDownloadCompleted(this, this.file);
+        }
+      }
+    }
+
+    /**
+     * A download is split into segments only if the server has said that it
+     * accepts byte ranges, the representation has a validator that each
+     * segment can be checked against, and the file is large enough.
+     */
+
+    private boolean isSegmentable(
+      final int status,
+      final Map<String, List<String>> headers)
+    {
+      if (status != 200 || this.state.isResumable() == false) {
+        return false;
+      }
+
+      final OptionType<String> ranges =
+        HTTPHeaders.getFirst(headers, "Accept-Ranges");
+      if (ranges.isNone()
+        || "bytes".equalsIgnoreCase(((Some<String>) ranges).get().trim())
+        == false) {
+        return false;
+      }
+
+      return this.config.getSegmentCount(this.state.getLength()) > 1;
+    }
+
+    /**
+     * Download the file in segments into a preallocated file. The first
+     * segment is read from the stream of the response that is already open.
+     * Segments start on chunk boundaries so that each segment can compute the
+     * digests of its own chunks. If any segment fails, or the network policy
+     * no longer allows the download to continue, the file is truncated to the
+     * longest prefix of complete chunks, and their digests are saved, so that
+     * the download can be resumed later over a single connection.
+     */
+
+    private void runSegmented(
+      final InputStream stream,
+      final long length,
+      final DownloadProgress progress)
+      throws IOException
+    {
+      final long chunk = (long) DownloadDigest.CHUNK_SIZE;
+      final long wanted = (long) this.config.getSegmentCount(length);
+      final long size_min = (length + wanted - 1L) / wanted;
+      final long size = ((size_min + chunk - 1L) / chunk) * chunk;
+      final int count = (int) ((length + size - 1L) / size);
+      this.log.debug(
+        "downloading {} bytes in {} segments",
+        Long.valueOf(length),
+        Integer.valueOf(count));
+
+      final RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+      try {
+        raf.setLength(length);
+      } finally {
+        raf.close();
+      }
+
+      final AtomicBoolean stop = new AtomicBoolean(false);
+      final AtomicLong received = new AtomicLong(0L);
+      final List<DownloadSegment> segments =
+        new ArrayList<DownloadSegment>(count);
+      final List<Future<Unit>> futures = new ArrayList<Future<Unit>>(count);
+
+      for (int index = 0; index < count; ++index) {
+        final long start = (long) index * size;
+        final long end = index == count - 1 ? length : start + size;
+        final OptionType<InputStream> initial;
+        if (index == 0) {
+          initial = Option.some(stream);
+        } else {
+          initial = Option.none();
+        }
+
+        final DownloadSegment segment = new DownloadSegment(
+          this.log,
+          this.http,
+          this.auth,
+          this.uri,
+          this.request_listener,
+          initial,
+          this.file,
+          start,
+          end,
+          this.state,
+          stop,
+          received,
+          DownloadDigest.newDigestWithoutSink(),
+          this.pacing);
+        segments.add(segment);
+        futures.add(this.segment_exec.submit(segment));
+      }
+
+      /**
+       * Wait for every segment to finish, reporting progress periodically.
+       * Progress is only ever reported from this thread.
+       */
+
+      Throwable error = null;
+      for (final Future<Unit> f : futures) {
+        while (true) {
+          try {
+            f.get(250L, TimeUnit.MILLISECONDS);
+            break;
+          } catch (final TimeoutException x) {
+            if (this.cancel.get()) {
+              stop.set(true);
+            }
+            this.total = received.get();
+            if (this.paused == false
+              && this.networkAllows(length) == false) {
+              stop.set(true);
+            }
+            progress.update(received.get());
+          } catch (final ExecutionException x) {
+            this.log.error("segment failed: ", x.getCause());
+            if (error == null) {
+              error = x.getCause();
+            }
+            stop.set(true);
+            break;
+          } catch (final InterruptedException x) {
+            stop.set(true);
+            Thread.currentThread().interrupt();
+            throw new IOException(x);
+          }
+        }
+      }
+
+      if (error != null || this.paused) {
+        long prefix = 0L;
+        final List<byte[]> chunks = new ArrayList<byte[]>(16);
+        for (final DownloadSegment segment : segments) {
+          final DownloadDigest digest = segment.getDigest();
+          chunks.addAll(digest.getChunks());
+          prefix = segment.getStart() + digest.getChunkedLength();
+          if (segment.getPosition() != segment.getEnd()) {
+            break;
+          }
+        }
+
+        this.log.debug("keeping {} bytes of partial data", Long.valueOf(prefix));
+        DownloadDigest.saveChunks(this.file_sums, this.file_sums_tmp, chunks);
+        final RandomAccessFile trunc = new RandomAccessFile(this.file, "rw");
+        try {
+          trunc.setLength(prefix);
+        } finally {
+          trunc.close();
+        }
+        this.total = prefix;
+        if (error == null) {
+          return;
+        }
+        if (error instanceof IOException) {
+          throw (IOException) error;
+        }
+        throw new IOException(error);
+      }
+
+      final List<DownloadDigest> digests =
+        new ArrayList<DownloadDigest>(segments.size());
+      for (final DownloadSegment segment : segments) {
+        digests.add(segment.getDigest());
+      }
+
+      this.content_digest = Option.some(DownloadDigest.combine(digests));
+      this.total = received.get();
+      progress.finish(this.total);
     }
 
+    /**
+     * Delete the data of a failed download, unless it can be resumed later.
+     */
+
     private void failed()
     {
-      this.file.delete();
+      if (this.file_meta.isFile() == false) {
+        this.deleteQuietly(this.file);
+      }
+    }
+
+    private void discardPartial()
+    {
+      this.deleteQuietly(this.file);
+      this.deleteQuietly(this.file_meta);
+      this.deleteQuietly(this.file_meta_tmp);
+      this.deleteQuietly(this.file_sums);
+      this.deleteQuietly(this.file_sums_tmp);
+    }
+
+    /**
+     * Files are deleted with {@link FileUtilities#fileDelete(File)} because
+     * download files are frequently recreated with the same name.
+     */
+
+    private void deleteQuietly(final File f)
+    {
+      try {
+        FileUtilities.fileDelete(f);
+      } catch (final IOException e) {
+        this.log.error("could not delete {}: ", f, e);
+      }
     }
 
     @Override public void cancel()
     {
       this.log.debug("cancelling download");
       this.cancel.set(true);
+      if (this.held.get()) {
+        this.scheduler.schedulerRelease(this);
+      }
     }
 
     @Override public String getContentType()
     {
       return this.content_type;
     }
+
+    @Override public OptionType<String> getContentDigest()
+    {
+      return this.content_digest;
+    }
   }
 }
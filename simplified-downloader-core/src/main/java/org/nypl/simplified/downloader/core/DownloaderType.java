@@ -3,6 +3,7 @@ package org.nypl.simplified.downloader.core;
 import com.io7m.jfunctional.OptionType;
 import org.nypl.simplified.http.core.HTTPAuthType;
 
+import java.io.File;
 import java.net.URI;
 
 /**
@@ -12,7 +13,8 @@ import java.net.URI;
 public interface DownloaderType
 {
   /**
-   * Download the file at the given URI.
+   * Download the file at the given URI, with priority {@link
+   * DownloadPriority#DOWNLOAD_PRIORITY_USER}.
    *
    * @param uri      The URI
    * @param auth     The authentication data, if any
@@ -25,4 +27,58 @@ public interface DownloaderType
     URI uri,
     OptionType<HTTPAuthType> auth,
     DownloadListenerType listener);
+
+  /**
+   * Download the file at the given URI.
+   *
+   * @param uri      The URI
+   * @param auth     The authentication data, if any
+   * @param priority The priority of the download
+   * @param listener The listener
+   *
+   * @return A download
+   */
+
+  DownloadType downloadWithPriority(
+    URI uri,
+    OptionType<HTTPAuthType> auth,
+    DownloadPriority priority,
+    DownloadListenerType listener);
+
+  /**
+   * Download the file at the given URI into the given directory. The file
+   * passed to {@link DownloadListenerType#onDownloadCompleted(DownloadType,
+   * File)} is in {@code directory}, so that the receiver can move it into
+   * place with a rename instead of a copy. Partial data for the download is
+   * also kept in {@code directory}.
+   *
+   * @param uri       The URI
+   * @param auth      The authentication data, if any
+   * @param priority  The priority of the download
+   * @param directory The directory that will contain the downloaded file
+   * @param listener  The listener
+   *
+   * @return A download
+   */
+
+  DownloadType downloadToDirectory(
+    URI uri,
+    OptionType<HTTPAuthType> auth,
+    DownloadPriority priority,
+    File directory,
+    DownloadListenerType listener);
+
+  /**
+   * Discard any partial data kept for a download of the given URI into the
+   * given directory. This is used when a download that was interrupted will
+   * not be resumed. Partial data for a download that is currently running is
+   * not discarded.
+   *
+   * @param uri       The URI
+   * @param directory The directory that would contain the downloaded file
+   */
+
+  void downloadDiscardPartial(
+    URI uri,
+    File directory);
 }
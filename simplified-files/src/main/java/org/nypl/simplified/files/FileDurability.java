@@ -0,0 +1,25 @@
+package org.nypl.simplified.files;
+
+/**
+ * The durability required of data written by {@link FileUtilities}.
+ */
+
+public enum FileDurability
+{
+  /**
+   * The data is handed to the operating system, which may write it to
+   * storage at any later time. After a crash or power loss, a file that was
+   * atomically renamed into place may be empty or incomplete.
+   */
+
+  FILE_DURABILITY_NONE,
+
+  /**
+   * The data is synced to storage before the call returns and, for atomic
+   * writes, before the temporary file is renamed into place. After a crash or
+   * power loss, an atomically written file holds either the old or the new
+   * contents in full.
+   */
+
+  FILE_DURABILITY_SYNC
+}
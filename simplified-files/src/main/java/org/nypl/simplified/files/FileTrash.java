@@ -0,0 +1,227 @@
+package org.nypl.simplified.files;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Deferred file deletion.</p>
+ *
+ * <p>A file or directory is deleted by renaming it into a trash directory on
+ * the same filesystem, which takes constant time regardless of the size of
+ * the file or the number of files in the directory. The contents of trash
+ * directories are deleted later by a single minimum-priority background
+ * thread.</p>
+ *
+ * <p>This preserves the workaround for issue #98 in {@link
+ * FileUtilities#fileDelete(File)}: the original name of a file is released
+ * by the rename, and the name that is eventually deleted is never used again
+ * by the process.</p>
+ */
+
+public final class FileTrash
+{
+  private static final Logger           LOG;
+  private static final Map<File, Trash> TRASHES;
+  private static final ExecutorService  PURGER;
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(FileTrash.class));
+    TRASHES = new HashMap<File, Trash>(4);
+    PURGER = NullCheck.notNull(
+      Executors.newSingleThreadExecutor(new PurgerThreads()));
+  }
+
+  private FileTrash()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Delete the file or directory {@code f}, if it exists, by moving it into
+   * the trash directory {@code trash} and scheduling the contents of the
+   * trash to be deleted in the background. The trash directory is created if
+   * necessary, and should be on the same filesystem as {@code f}: if the
+   * file cannot be renamed into it, the file is deleted immediately instead.
+   *
+   * @param trash The trash directory
+   * @param f     The file or directory
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void trashMove(
+    final File trash,
+    final File f)
+    throws IOException
+  {
+    NullCheck.notNull(f);
+
+    if (f.exists() == false) {
+      return;
+    }
+
+    final Trash t = FileTrash.getTrash(trash);
+    final File target = t.newName();
+    if (f.renameTo(target)) {
+      t.schedulePurge();
+      return;
+    }
+
+    FileTrash.LOG.debug(
+      "could not rename {} into {}, deleting directly", f, t.directory);
+    FileTrash.deleteNow(f);
+  }
+
+  private static Trash getTrash(final File trash)
+    throws IOException
+  {
+    final File key = NullCheck.notNull(trash.getAbsoluteFile());
+    synchronized (FileTrash.TRASHES) {
+      final Trash existing = FileTrash.TRASHES.get(key);
+      if (existing != null) {
+        return existing;
+      }
+
+      DirectoryUtilities.directoryCreate(key);
+      final Trash t = new Trash(key);
+      FileTrash.TRASHES.put(key, t);
+
+      /**
+       * The trash may still hold files left behind when the process was last
+       * stopped.
+       */
+
+      t.schedulePurge();
+      return t;
+    }
+  }
+
+  private static void deleteNow(final File f)
+    throws IOException
+  {
+    if (f.isDirectory()) {
+      final File[] files = f.listFiles();
+      if (files != null) {
+        for (final File c : files) {
+          FileTrash.deleteNow(NullCheck.notNull(c));
+        }
+      }
+    }
+    FileUtilities.fileDelete(f);
+  }
+
+  private static void deleteRecursively(final File f)
+  {
+    if (f.isDirectory()) {
+      final File[] files = f.listFiles();
+      if (files != null) {
+        for (final File c : files) {
+          FileTrash.deleteRecursively(NullCheck.notNull(c));
+        }
+      }
+    }
+    if (f.delete() == false && f.exists()) {
+      FileTrash.LOG.error("could not delete {}", f);
+    }
+  }
+
+  private static final class Trash implements Runnable
+  {
+    private final File          directory;
+    private final String        prefix;
+    private final AtomicLong    names;
+    private final AtomicBoolean scheduled;
+
+    Trash(final File in_directory)
+    {
+      this.directory = NullCheck.notNull(in_directory);
+      this.names = new AtomicLong(0L);
+      this.scheduled = new AtomicBoolean(false);
+
+      /**
+       * A random prefix, chosen once, keeps names distinct from those of
+       * any files left in the trash by earlier processes.
+       */
+
+      final SecureRandom sr = new SecureRandom();
+      this.prefix = NullCheck.notNull(Long.toHexString(sr.nextLong()));
+    }
+
+    File newName()
+    {
+      while (true) {
+        final StringBuilder sb = new StringBuilder(32);
+        sb.append(this.prefix);
+        sb.append("-");
+        sb.append(this.names.getAndIncrement());
+        final File f = new File(this.directory, sb.toString());
+        if (f.exists() == false) {
+          return f;
+        }
+      }
+    }
+
+    void schedulePurge()
+    {
+      if (this.scheduled.compareAndSet(false, true)) {
+        FileTrash.PURGER.execute(this);
+      }
+    }
+
+    @Override public void run()
+    {
+      /**
+       * Files moved into the trash while this purge is running schedule
+       * another purge.
+       */
+
+      this.scheduled.set(false);
+
+      final File[] files = this.directory.listFiles();
+      if (files == null) {
+        return;
+      }
+
+      FileTrash.LOG.debug(
+        "purging {} files from {}",
+        Integer.valueOf(files.length),
+        this.directory);
+      for (final File f : files) {
+        FileTrash.deleteRecursively(NullCheck.notNull(f));
+      }
+    }
+  }
+
+  private static final class PurgerThreads implements ThreadFactory
+  {
+    private final ThreadFactory base;
+
+    PurgerThreads()
+    {
+      this.base = NullCheck.notNull(Executors.defaultThreadFactory());
+    }
+
+    @Override public Thread newThread(final @Nullable Runnable r)
+    {
+      final Thread t = this.base.newThread(NullCheck.notNull(r));
+      t.setName("simplified-file-trash-purger");
+      t.setPriority(Thread.MIN_PRIORITY);
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
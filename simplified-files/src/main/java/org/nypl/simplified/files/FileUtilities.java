@@ -14,6 +14,10 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.security.SecureRandom;
 
 /**
@@ -22,6 +26,12 @@ import java.security.SecureRandom;
 
 public final class FileUtilities
 {
+  /**
+   * The size of the direct buffers used to write streams to files.
+   */
+
+  private static final int STREAM_BUFFER_SIZE = 65536;
+
   private FileUtilities()
   {
     throw new UnreachableCodeException();
@@ -40,39 +50,119 @@ public final class FileUtilities
     final File from,
     final File to)
     throws IOException
+  {
+    FileUtilities.fileCopy(from, to, FileDurability.FILE_DURABILITY_NONE);
+  }
+
+  /**
+   * Copy the file {@code from} to {@code to}. The data is transferred with
+   * {@link FileChannel#transferTo}, which on most platforms copies the data
+   * without passing it through the Java heap.
+   *
+   * @param from       The source file
+   * @param to         The target file
+   * @param durability The required durability of {@code to}
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void fileCopy(
+    final File from,
+    final File to,
+    final FileDurability durability)
+    throws IOException
   {
     NullCheck.notNull(from);
     NullCheck.notNull(to);
+    NullCheck.notNull(durability);
 
-    final byte[] buffer = new byte[8192];
-
-    FileInputStream in = null;
+    final FileInputStream in = new FileInputStream(from);
     try {
-      in = new FileInputStream(from);
-
-      FileOutputStream out = null;
+      final FileOutputStream out = new FileOutputStream(to);
       try {
-        out = new FileOutputStream(to);
-
-        while (true) {
-          final int r = in.read(buffer);
-          if (r == -1) {
+        final FileChannel in_channel = in.getChannel();
+        final FileChannel out_channel = out.getChannel();
+        final long size = in_channel.size();
+
+        /**
+         * A single call to transferTo may transfer fewer bytes than
+         * requested.
+         */
+
+        long position = 0L;
+        while (position < size) {
+          final long n =
+            in_channel.transferTo(position, size - position, out_channel);
+          if (n <= 0L) {
             break;
           }
-          out.write(buffer, 0, r);
-          out.flush();
+          position += n;
         }
 
+        FileUtilities.sync(out_channel, durability);
       } finally {
-        if (out != null) {
-          out.flush();
-          out.close();
-        }
+        out.close();
       }
     } finally {
-      if (in != null) {
-        in.close();
+      in.close();
+    }
+  }
+
+  /**
+   * Copy the file {@code from} to {@code to_tmp}, atomically renaming {@code
+   * to_tmp} to {@code to} on success. For portability, {@code to_tmp} and
+   * {@code to} should be in the same directory.
+   *
+   * @param from       The source file
+   * @param to         The target file
+   * @param to_tmp     The temporary file
+   * @param durability The required durability of {@code to}
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void fileCopyAtomically(
+    final File from,
+    final File to,
+    final File to_tmp,
+    final FileDurability durability)
+    throws IOException
+  {
+    FileUtilities.fileCopy(from, to_tmp, durability);
+    FileUtilities.fileRename(to_tmp, NullCheck.notNull(to));
+  }
+
+  private static void sync(
+    final FileChannel channel,
+    final FileDurability durability)
+    throws IOException
+  {
+    switch (durability) {
+      case FILE_DURABILITY_NONE:
+        return;
+      case FILE_DURABILITY_SYNC:
+        channel.force(true);
+        return;
+    }
+
+    throw new UnreachableCodeException();
+  }
+
+  private static void writeBuffer(
+    final File file,
+    final ByteBuffer data,
+    final FileDurability durability)
+    throws IOException
+  {
+    final FileOutputStream fs = new FileOutputStream(file);
+    try {
+      final FileChannel channel = fs.getChannel();
+      while (data.hasRemaining()) {
+        channel.write(data);
       }
+      FileUtilities.sync(channel, durability);
+    } finally {
+      fs.close();
     }
   }
 
@@ -412,4 +502,108 @@ public final class FileUtilities
     FileUtilities.fileWriteBytes(data, file_tmp);
     FileUtilities.fileRename(file_tmp, file);
   }
+
+  /**
+   * Write {@code data} to {@code file_tmp}, atomically renaming {@code
+   * file_tmp} to {@code file} on success. For portability, {@code file_tmp} and
+   * {@code file} should be in the same directory.
+   *
+   * @param file       The file
+   * @param file_tmp   The temporary file
+   * @param data       The input data
+   * @param durability The required durability of {@code file}
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void fileWriteBytesAtomically(
+    final File file,
+    final File file_tmp,
+    final byte[] data,
+    final FileDurability durability)
+    throws IOException
+  {
+    NullCheck.notNull(file);
+    NullCheck.notNull(file_tmp);
+    NullCheck.notNull(data);
+    NullCheck.notNull(durability);
+
+    FileUtilities.writeBuffer(
+      file_tmp, NullCheck.notNull(ByteBuffer.wrap(data)), durability);
+    FileUtilities.fileRename(file_tmp, file);
+  }
+
+  /**
+   * Write the given string to the given file, completely replacing it if it
+   * already exists. The file {@code f_tmp} is used as a temporary file and is
+   * atomically renamed to {@code f} on writing.
+   *
+   * @param f          The file
+   * @param f_tmp      The temporary intermediate file
+   * @param text       The text
+   * @param durability The required durability of {@code f}
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void fileWriteUTF8Atomically(
+    final File f,
+    final File f_tmp,
+    final String text,
+    final FileDurability durability)
+    throws IOException
+  {
+    NullCheck.notNull(text);
+    FileUtilities.fileWriteBytesAtomically(
+      f, f_tmp, NullCheck.notNull(text.getBytes("UTF-8")), durability);
+  }
+
+  /**
+   * Write {@code stream} to {@code file_tmp}, atomically renaming {@code
+   * file_tmp} to {@code file} on success. The stream is read into a direct
+   * buffer, which is written to the file without an intermediate copy. For
+   * portability, {@code file_tmp} and {@code file} should be in the same
+   * directory.
+   *
+   * @param file       The file
+   * @param file_tmp   The temporary file
+   * @param stream     The input stream
+   * @param durability The required durability of {@code file}
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void fileWriteStreamAtomically(
+    final File file,
+    final File file_tmp,
+    final InputStream stream,
+    final FileDurability durability)
+    throws IOException
+  {
+    NullCheck.notNull(file);
+    NullCheck.notNull(file_tmp);
+    NullCheck.notNull(stream);
+    NullCheck.notNull(durability);
+
+    final ReadableByteChannel in = Channels.newChannel(stream);
+    final ByteBuffer buffer =
+      ByteBuffer.allocateDirect(FileUtilities.STREAM_BUFFER_SIZE);
+
+    final FileOutputStream fs = new FileOutputStream(file_tmp);
+    try {
+      final FileChannel out = fs.getChannel();
+      while (in.read(buffer) != -1) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+        buffer.clear();
+      }
+      FileUtilities.sync(out, durability);
+    } finally {
+      fs.close();
+    }
+
+    FileUtilities.fileRename(file_tmp, file);
+  }
 }
@@ -9,6 +9,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -31,11 +32,13 @@ public final class HTTP implements HTTPType
     LOG = NullCheck.notNull(LoggerFactory.getLogger(HTTP.class));
   }
 
-  private final String user_agent;
+  private final String                             user_agent;
+  private final OptionType<HTTPRequestListenerType> listener;
 
-  private HTTP()
+  private HTTP(final OptionType<HTTPRequestListenerType> in_listener)
   {
     this.user_agent = HTTP.userAgent();
+    this.listener = NullCheck.notNull(in_listener);
   }
 
   private static String userAgent()
@@ -73,7 +76,23 @@ public final class HTTP implements HTTPType
 
   public static HTTPType newHTTP()
   {
-    return new HTTP();
+    return new HTTP(Option.<HTTPRequestListenerType>none());
+  }
+
+  /**
+   * Construct an HTTP interface that reports the timing of every request to
+   * the given listener. Host resolution is not measured: the reported DNS
+   * time is always {@code -1}, and is included in the connection time.
+   *
+   * @param in_listener The request listener
+   *
+   * @return A new HTTP interface
+   */
+
+  public static HTTPType newHTTPWithListener(
+    final HTTPRequestListenerType in_listener)
+  {
+    return new HTTP(Option.some(NullCheck.notNull(in_listener)));
   }
 
   @Override public HTTPResultType<InputStream> get(
@@ -116,6 +135,7 @@ public final class HTTP implements HTTPType
     NullCheck.notNull(auth_opt);
     HTTP.checkURI(uri);
 
+    final Measurement m = new Measurement(this.listener, method, uri);
     try {
       HTTP.LOG.trace("{} {} (auth {})", method, uri, auth_opt);
 
@@ -144,18 +164,23 @@ public final class HTTP implements HTTPType
         auth.setConnectionParameters(conn);
       }
 
+      if (data_opt.isSome()) {
+        conn.setDoOutput(true);
+      }
+
+      conn.connect();
+      m.connected();
+
       if (data_opt.isSome()) {
         final Some<byte[]> data_some = (Some<byte[]>) data_opt;
         final byte[] data = data_some.get();
-        conn.setDoOutput(true);
         final OutputStream os = conn.getOutputStream();
         os.write(data);
         os.close();
       }
 
-      conn.connect();
-
       final int code = conn.getResponseCode();
+      m.firstByte(code);
       HTTP.LOG.trace(
           "{} {} (auth {}) (result {})", method, uri, auth_opt, code);
 
@@ -163,6 +188,7 @@ public final class HTTP implements HTTPType
       if (code >= 400) {
         final OptionType<HTTPProblemReport> report =
             this.getReportFromError(conn);
+        m.finish(0L);
         return new HTTPResultError<InputStream>(
             code,
             NullCheck.notNull(conn.getResponseMessage()),
@@ -173,18 +199,30 @@ public final class HTTP implements HTTPType
             report);
       }
 
+      /**
+       * Redirects and empty responses are frequently never read, so they are
+       * counted as complete as soon as the status is known.
+       */
+
+      final long length = (long) conn.getContentLength();
+      if (length == 0L || (code >= 300 && code < 400) || code == 204) {
+        m.finish(0L);
+      }
+
       return new HTTPResultOK<InputStream>(
           NullCheck.notNull(conn.getResponseMessage()),
           code,
-          conn.getInputStream(),
+          m.wrap(NullCheck.notNull(conn.getInputStream())),
           (long) conn.getContentLength(),
           NullCheck.notNull(conn.getHeaderFields()),
           conn.getLastModified());
     } catch (final MalformedURLException e) {
       throw new IllegalArgumentException(e);
     } catch (final UnknownHostException e) {
+      m.finish(0L);
       return new HTTPResultException<InputStream>(uri, e);
     } catch (final IOException e) {
+      m.finish(0L);
       return new HTTPResultException<InputStream>(uri, e);
     }
   }
@@ -218,6 +256,7 @@ public final class HTTP implements HTTPType
     NullCheck.notNull(auth_opt);
     HTTP.checkURI(uri);
 
+    final Measurement m = new Measurement(this.listener, "HEAD", uri);
     try {
       HTTP.LOG.trace("HEAD {} (auth {})", uri, auth_opt);
 
@@ -239,8 +278,11 @@ public final class HTTP implements HTTPType
       }
 
       conn.connect();
+      m.connected();
 
       final int code = conn.getResponseCode();
+      m.firstByte(code);
+      m.finish(0L);
       HTTP.LOG.trace(
         "HEAD {} (auth {}) (result {})", uri, auth_opt, code);
 
@@ -267,8 +309,10 @@ public final class HTTP implements HTTPType
     } catch (final MalformedURLException e) {
       throw new IllegalArgumentException(e);
     } catch (final UnknownHostException e) {
+      m.finish(0L);
       return new HTTPResultException<InputStream>(uri, e);
     } catch (final IOException e) {
+      m.finish(0L);
       return new HTTPResultException<InputStream>(uri, e);
     }
   }
@@ -281,4 +325,150 @@ public final class HTTP implements HTTPType
     }
     return new ByteArrayInputStream(new byte[0]);
   }
+
+  /**
+   * The measurements taken for a single request. If no listener is present,
+   * nothing is measured and the response body is returned unwrapped.
+   * {@link HttpURLConnection} resolves the host internally, and so DNS time
+   * is not available; it is not measured separately, as doing so would add
+   * a blocking lookup to every request.
+   */
+
+  private static final class Measurement
+  {
+    private final OptionType<HTTPRequestListenerType> listener;
+    private final String                             method;
+    private final URI                                uri;
+    private final long                               start;
+    private       long                               connect;
+    private       long                               first_byte;
+    private       int                                status;
+    private       boolean                            finished;
+
+    Measurement(
+      final OptionType<HTTPRequestListenerType> in_listener,
+      final String in_method,
+      final URI in_uri)
+    {
+      this.listener = in_listener;
+      this.method = in_method;
+      this.uri = in_uri;
+      this.start = System.nanoTime();
+      this.connect = -1L;
+      this.first_byte = -1L;
+      this.status = -1;
+      this.finished = false;
+    }
+
+    void connected()
+    {
+      this.connect = System.nanoTime() - this.start;
+    }
+
+    void firstByte(final int code)
+    {
+      this.first_byte = System.nanoTime() - this.start;
+      this.status = code;
+    }
+
+    InputStream wrap(final InputStream s)
+    {
+      if (this.listener.isSome()) {
+        return new MeasuredInputStream(this, s);
+      }
+      return s;
+    }
+
+    void finish(final long bytes)
+    {
+      if (this.listener.isNone() || this.finished) {
+        return;
+      }
+      this.finished = true;
+
+      final String host = this.uri.getHost();
+      final HTTPRequestMetrics r = new HTTPRequestMetrics(
+        this.method,
+        host != null ? host : "",
+        HTTPURITemplate.normalize(this.uri),
+        this.status,
+        -1L,
+        this.connect,
+        this.first_byte,
+        System.nanoTime() - this.start,
+        bytes);
+
+      try {
+        ((Some<HTTPRequestListenerType>) this.listener).get()
+          .onHTTPRequestCompleted(r);
+      } catch (final Throwable e) {
+        HTTP.LOG.error("ignored exception raised by request listener: ", e);
+      }
+    }
+  }
+
+  /**
+   * A response body that counts the bytes read and completes the
+   * measurement when the stream is closed or the end is reached.
+   */
+
+  private static final class MeasuredInputStream extends FilterInputStream
+  {
+    private final Measurement measurement;
+    private       long        count;
+
+    MeasuredInputStream(
+      final Measurement in_measurement,
+      final InputStream in_stream)
+    {
+      super(in_stream);
+      this.measurement = in_measurement;
+      this.count = 0L;
+    }
+
+    @Override public int read()
+      throws IOException
+    {
+      final int r = super.read();
+      if (r == -1) {
+        this.measurement.finish(this.count);
+      } else {
+        ++this.count;
+      }
+      return r;
+    }
+
+    @Override public int read(
+      final byte[] b,
+      final int off,
+      final int len)
+      throws IOException
+    {
+      final int r = super.read(b, off, len);
+      if (r == -1) {
+        this.measurement.finish(this.count);
+      } else {
+        this.count += (long) r;
+      }
+      return r;
+    }
+
+    @Override public long skip(final long n)
+      throws IOException
+    {
+      final long r = super.skip(n);
+      this.count += r;
+      return r;
+    }
+
+    @Override public void close()
+      throws IOException
+    {
+      try {
+        super.close();
+      } finally {
+        this.measurement.finish(this.count);
+      }
+    }
+  }
 }
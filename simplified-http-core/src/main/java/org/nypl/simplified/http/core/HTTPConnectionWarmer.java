@@ -0,0 +1,152 @@
+package org.nypl.simplified.http.core;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>The default implementation of the {@link HTTPConnectionWarmerType}
+ * interface.</p>
+ *
+ * <p>Warming an origin issues an unauthenticated {@code HEAD} request for the
+ * root of the origin. The status of the response
+ * is irrelevant: any response at all means that the DNS lookup, TCP handshake
+ * and TLS negotiation have been paid for, and a response without a body
+ * returns the connection to the keep-alive pool.</p>
+ */
+
+public final class HTTPConnectionWarmer implements HTTPConnectionWarmerType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(HTTPConnectionWarmer.class));
+  }
+
+  private final ExecutorService exec;
+  private final HTTPType        http;
+  private final Set<URI>        origins;
+
+  private HTTPConnectionWarmer(
+    final ExecutorService in_exec,
+    final HTTPType in_http)
+  {
+    this.exec = NullCheck.notNull(in_exec);
+    this.http = NullCheck.notNull(in_http);
+    this.origins = new HashSet<URI>(4);
+  }
+
+  /**
+   * Construct a new connection warmer. Each origin is warmed as a separate
+   * task on {@code in_exec}, so that several origins are warmed in parallel
+   * if the executor has more than one thread.
+   *
+   * @param in_exec An executor for warm-up tasks
+   * @param in_http The HTTP interface used to open connections
+   *
+   * @return A new connection warmer
+   */
+
+  public static HTTPConnectionWarmerType newWarmer(
+    final ExecutorService in_exec,
+    final HTTPType in_http)
+  {
+    return new HTTPConnectionWarmer(in_exec, in_http);
+  }
+
+  private static URI origin(final URI uri)
+  {
+    try {
+      return new URI(
+        uri.getScheme(), null, uri.getHost(), uri.getPort(), "/", null, null);
+    } catch (final URISyntaxException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private static void discard(final HTTPResultType<InputStream> r)
+  {
+    r.matchResult(
+      new HTTPResultMatcherType<InputStream, Void, UnreachableCodeException>()
+      {
+        @Override public Void onHTTPError(final HTTPResultError<InputStream> e)
+        {
+          HTTPConnectionWarmer.closeQuietly(e.getData());
+          return null;
+        }
+
+        @Override
+        public Void onHTTPException(final HTTPResultException<InputStream> e)
+        {
+          HTTPConnectionWarmer.LOG.debug(
+            "could not warm {}: {}", e.getURI(), e.getError().getMessage());
+          return null;
+        }
+
+        @Override public Void onHTTPOK(final HTTPResultOKType<InputStream> e)
+        {
+          HTTPConnectionWarmer.closeQuietly(e.getValue());
+          return null;
+        }
+      });
+  }
+
+  private static void closeQuietly(final InputStream s)
+  {
+    try {
+      s.close();
+    } catch (final IOException e) {
+      HTTPConnectionWarmer.LOG.trace("ignored exception on close: ", e);
+    }
+  }
+
+  @Override public void warmerWarm(final URI uri)
+  {
+    NullCheck.notNull(uri);
+
+    final URI target = HTTPConnectionWarmer.origin(uri);
+    synchronized (this.origins) {
+      if (this.origins.add(target) == false) {
+        return;
+      }
+    }
+
+    this.exec.execute(
+      new Runnable()
+      {
+        @Override public void run()
+        {
+          HTTPConnectionWarmer.this.warm(target);
+        }
+      });
+  }
+
+  private void warm(final URI target)
+  {
+    final long time_start = System.nanoTime();
+    try {
+      final OptionType<HTTPAuthType> no_auth = Option.none();
+      HTTPConnectionWarmer.discard(this.http.head(no_auth, target));
+      final long time_end = System.nanoTime();
+
+      HTTPConnectionWarmer.LOG.debug(
+        "warmed {} in {}ms",
+        target,
+        Long.valueOf(TimeUnit.NANOSECONDS.toMillis(time_end - time_start)));
+    } catch (final Throwable e) {
+      HTTPConnectionWarmer.LOG.error("could not warm {}: ", target, e);
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package org.nypl.simplified.http.core;
+
+import java.net.URI;
+
+/**
+ * <p>The type of connection warmers.</p>
+ *
+ * <p>A connection warmer resolves the host of an origin and opens a
+ * connection to it in the background, so that the connection is already in
+ * the platform's connection pool when the first real request is made.</p>
+ */
+
+public interface HTTPConnectionWarmerType
+{
+  /**
+   * Begin warming a connection to the origin (scheme, host and port) of the
+   * given URI. The call returns immediately. An origin is warmed at most once
+   * per warmer, and failures are logged and otherwise ignored.
+   *
+   * @param uri A URI on the origin
+   */
+
+  void warmerWarm(URI uri);
+}
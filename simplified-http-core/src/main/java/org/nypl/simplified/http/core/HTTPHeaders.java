@@ -0,0 +1,140 @@
+package org.nypl.simplified.http.core;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Functions for interpreting response headers.
+ */
+
+public final class HTTPHeaders
+{
+  private static final Pattern CONTENT_RANGE;
+  private static final Pattern DELTA_SECONDS;
+
+  static {
+    CONTENT_RANGE = NullCheck.notNull(
+      Pattern.compile("^\\s*bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)\\s*$"));
+    DELTA_SECONDS = NullCheck.notNull(Pattern.compile("^\\d{1,9}$"));
+  }
+
+  private HTTPHeaders()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Find the first value of the given header. Header names are compared
+   * case-insensitively.
+   *
+   * @param headers The response headers
+   * @param name    The header name
+   *
+   * @return The first value of the header, if any
+   */
+
+  public static OptionType<String> getFirst(
+    final Map<String, List<String>> headers,
+    final String name)
+  {
+    NullCheck.notNull(headers);
+    NullCheck.notNull(name);
+
+    for (final String k : headers.keySet()) {
+      if (k != null && name.equalsIgnoreCase(k)) {
+        final List<String> values = headers.get(k);
+        if (values != null && values.isEmpty() == false) {
+          final String v = values.get(0);
+          if (v != null) {
+            return Option.some(v);
+          }
+        }
+      }
+    }
+    return Option.none();
+  }
+
+  /**
+   * Parse the start offset of a {@code Content-Range} header of the form
+   * {@code bytes start-end/total}.
+   *
+   * @param headers The response headers
+   *
+   * @return The start offset, or {@code -1} if the header is missing or
+   * malformed
+   */
+
+  public static long getContentRangeStart(
+    final Map<String, List<String>> headers)
+  {
+    final OptionType<String> v = HTTPHeaders.getFirst(headers, "Content-Range");
+    if (v.isNone()) {
+      return -1L;
+    }
+
+    final String text = ((Some<String>) v).get();
+    final Matcher m = HTTPHeaders.CONTENT_RANGE.matcher(text);
+    if (m.matches() == false) {
+      return -1L;
+    }
+
+    try {
+      return Long.parseLong(m.group(1));
+    } catch (final NumberFormatException e) {
+      return -1L;
+    }
+  }
+
+  /**
+   * Parse a {@code Retry-After} header, which may be given either as a number
+   * of seconds or as an HTTP date.
+   *
+   * @param headers The response headers
+   * @param now_ms  The current time in milliseconds since the epoch
+   *
+   * @return The requested delay in milliseconds, or {@code -1} if the header
+   * is missing or malformed
+   */
+
+  public static long getRetryAfterMilliseconds(
+    final Map<String, List<String>> headers,
+    final long now_ms)
+  {
+    final OptionType<String> v = HTTPHeaders.getFirst(headers, "Retry-After");
+    if (v.isNone()) {
+      return -1L;
+    }
+
+    final String text = ((Some<String>) v).get().trim();
+    if (HTTPHeaders.DELTA_SECONDS.matcher(text).matches()) {
+      try {
+        return Long.parseLong(text) * 1000L;
+      } catch (final NumberFormatException e) {
+        return -1L;
+      }
+    }
+
+    final SimpleDateFormat f =
+      new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    f.setTimeZone(TimeZone.getTimeZone("GMT"));
+    try {
+      final Date d = f.parse(text);
+      return Math.max(0L, d.getTime() - now_ms);
+    } catch (final ParseException e) {
+      return -1L;
+    }
+  }
+}
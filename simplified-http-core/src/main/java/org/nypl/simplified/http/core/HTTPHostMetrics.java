@@ -0,0 +1,219 @@
+package org.nypl.simplified.http.core;
+
+import com.io7m.jnull.NullCheck;
+
+import java.util.Arrays;
+
+/**
+ * A snapshot of the aggregated metrics for a single host.
+ *
+ * @see HTTPMetricsAggregatorType
+ */
+
+public final class HTTPHostMetrics
+{
+  private static final long[] BUCKET_BOUNDS_MS = {
+    10L, 25L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L,
+  };
+
+  private final String host;
+  private final long   requests;
+  private final long   errors;
+  private final long   body_bytes;
+  private final long   redirects;
+  private final long   auth_retries;
+  private final long[] latency_buckets;
+
+  /**
+   * Construct metrics.
+   *
+   * @param in_host            The host
+   * @param in_requests        The number of sampled requests
+   * @param in_errors          The number of sampled requests that failed
+   * @param in_body_bytes      The number of response body bytes read
+   * @param in_redirects       The number of redirects followed
+   * @param in_auth_retries    The number of authentication retries
+   * @param in_latency_buckets The latency histogram, with
+   *                           {@link #getLatencyBucketCount()} buckets
+   */
+
+  public HTTPHostMetrics(
+    final String in_host,
+    final long in_requests,
+    final long in_errors,
+    final long in_body_bytes,
+    final long in_redirects,
+    final long in_auth_retries,
+    final long[] in_latency_buckets)
+  {
+    this.host = NullCheck.notNull(in_host);
+    this.requests = in_requests;
+    this.errors = in_errors;
+    this.body_bytes = in_body_bytes;
+    this.redirects = in_redirects;
+    this.auth_retries = in_auth_retries;
+    this.latency_buckets = NullCheck.notNull(in_latency_buckets).clone();
+  }
+
+  /**
+   * @return The number of latency histogram buckets
+   */
+
+  public static int getLatencyBucketCount()
+  {
+    return HTTPHostMetrics.BUCKET_BOUNDS_MS.length + 1;
+  }
+
+  /**
+   * @param index The bucket index
+   *
+   * @return The inclusive upper bound in milliseconds of the given bucket, or
+   * {@link Long#MAX_VALUE} for the last bucket
+   */
+
+  public static long getLatencyBucketBoundMilliseconds(final int index)
+  {
+    if (index >= HTTPHostMetrics.BUCKET_BOUNDS_MS.length) {
+      return Long.MAX_VALUE;
+    }
+    return HTTPHostMetrics.BUCKET_BOUNDS_MS[index];
+  }
+
+  /**
+   * @param ms A latency in milliseconds
+   *
+   * @return The index of the bucket that holds the given latency
+   */
+
+  public static int getLatencyBucketIndex(final long ms)
+  {
+    for (int index = 0; index < HTTPHostMetrics.BUCKET_BOUNDS_MS.length;
+         ++index) {
+      if (ms <= HTTPHostMetrics.BUCKET_BOUNDS_MS[index]) {
+        return index;
+      }
+    }
+    return HTTPHostMetrics.BUCKET_BOUNDS_MS.length;
+  }
+
+  /**
+   * @return The host
+   */
+
+  public String getHost()
+  {
+    return this.host;
+  }
+
+  /**
+   * @return The number of sampled requests
+   */
+
+  public long getRequestCount()
+  {
+    return this.requests;
+  }
+
+  /**
+   * @return The number of sampled requests that failed
+   */
+
+  public long getErrorCount()
+  {
+    return this.errors;
+  }
+
+  /**
+   * @return The fraction of sampled requests that failed, in {@code [0, 1]}
+   */
+
+  public double getErrorRate()
+  {
+    if (this.requests == 0L) {
+      return 0.0;
+    }
+    return (double) this.errors / (double) this.requests;
+  }
+
+  /**
+   * @return The number of response body bytes read
+   */
+
+  public long getBodyBytes()
+  {
+    return this.body_bytes;
+  }
+
+  /**
+   * @return The number of redirects followed
+   */
+
+  public long getRedirectCount()
+  {
+    return this.redirects;
+  }
+
+  /**
+   * @return The number of authentication retries
+   */
+
+  public long getAuthRetryCount()
+  {
+    return this.auth_retries;
+  }
+
+  /**
+   * @param index The bucket index
+   *
+   * @return The number of requests in the given latency bucket
+   */
+
+  public long getLatencyBucket(final int index)
+  {
+    return this.latency_buckets[index];
+  }
+
+  /**
+   * Estimate a latency percentile from the histogram. The result is the upper
+   * bound of the bucket that contains the percentile.
+   *
+   * @param p The percentile in {@code [0, 1]}
+   *
+   * @return The estimated latency in milliseconds
+   */
+
+  public long getLatencyPercentileMilliseconds(final double p)
+  {
+    long total = 0L;
+    for (final long c : this.latency_buckets) {
+      total += c;
+    }
+    if (total == 0L) {
+      return 0L;
+    }
+
+    final long rank = (long) Math.ceil(p * (double) total);
+    long seen = 0L;
+    for (int index = 0; index < this.latency_buckets.length; ++index) {
+      seen += this.latency_buckets[index];
+      if (seen >= rank) {
+        return HTTPHostMetrics.getLatencyBucketBoundMilliseconds(index);
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder sb = new StringBuilder("HTTPHostMetrics{");
+    sb.append("host=").append(this.host);
+    sb.append(", requests=").append(this.requests);
+    sb.append(", errors=").append(this.errors);
+    sb.append(", body_bytes=").append(this.body_bytes);
+    sb.append(", redirects=").append(this.redirects);
+    sb.append(", auth_retries=").append(this.auth_retries);
+    sb.append(", latency_buckets=").append(Arrays.toString(this.latency_buckets));
+    sb.append('}');
+    return sb.toString();
+  }
+}
@@ -0,0 +1,170 @@
+package org.nypl.simplified.http.core;
+
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.assertions.Assertions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The default implementation of the {@link HTTPMetricsAggregatorType}
+ * interface.
+ */
+
+public final class HTTPMetricsAggregator implements HTTPMetricsAggregatorType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(HTTPMetricsAggregator.class));
+  }
+
+  private final int                   sample_interval;
+  private final AtomicLong            counter;
+  private final Map<String, HostState> hosts;
+
+  private HTTPMetricsAggregator(final int in_sample_interval)
+  {
+    Assertions.checkPrecondition(
+      in_sample_interval >= 1,
+      "Sample interval %d must be >= 1",
+      Integer.valueOf(in_sample_interval));
+
+    this.sample_interval = in_sample_interval;
+    this.counter = new AtomicLong(0L);
+    this.hosts = new HashMap<String, HostState>(16);
+  }
+
+  /**
+   * Construct a new aggregator that records one in every
+   * {@code sample_interval} requests. An interval of {@code 1} records every
+   * request.
+   *
+   * @param sample_interval The sample interval
+   *
+   * @return A new aggregator
+   */
+
+  public static HTTPMetricsAggregatorType newAggregator(
+    final int sample_interval)
+  {
+    return new HTTPMetricsAggregator(sample_interval);
+  }
+
+  private boolean sample()
+  {
+    return this.counter.getAndIncrement() % (long) this.sample_interval == 0L;
+  }
+
+  private HostState host(final String name)
+  {
+    HostState s = this.hosts.get(name);
+    if (s == null) {
+      s = new HostState();
+      this.hosts.put(name, s);
+    }
+    return s;
+  }
+
+  @Override public void onHTTPRequestCompleted(final HTTPRequestMetrics m)
+  {
+    NullCheck.notNull(m);
+    if (this.sample() == false) {
+      return;
+    }
+
+    final long latency_ns =
+      m.getFirstByteTime() >= 0L ? m.getFirstByteTime() : m.getTotalTime();
+    final long latency_ms =
+      TimeUnit.MILLISECONDS.convert(latency_ns, TimeUnit.NANOSECONDS);
+
+    HTTPMetricsAggregator.LOG.trace("{}", m);
+
+    synchronized (this.hosts) {
+      final HostState s = this.host(m.getHost());
+      s.requests += 1L;
+      if (m.isError()) {
+        s.errors += 1L;
+      }
+      s.body_bytes += m.getBodyBytes();
+      s.latency_buckets[HTTPHostMetrics.getLatencyBucketIndex(latency_ms)] += 1L;
+    }
+  }
+
+  @Override public void onHTTPRedirectsFollowed(
+    final String method,
+    final URI uri,
+    final int redirects,
+    final int auth_retries)
+  {
+    NullCheck.notNull(method);
+    NullCheck.notNull(uri);
+
+    if (redirects == 0 && auth_retries == 0) {
+      return;
+    }
+    if (this.sample() == false) {
+      return;
+    }
+
+    final String host = uri.getHost();
+    synchronized (this.hosts) {
+      final HostState s = this.host(host != null ? host : "");
+      s.redirects += (long) redirects;
+      s.auth_retries += (long) auth_retries;
+    }
+  }
+
+  @Override public Map<String, HTTPHostMetrics> aggregatorGetHostMetrics()
+  {
+    final SortedMap<String, HTTPHostMetrics> r =
+      new TreeMap<String, HTTPHostMetrics>();
+
+    synchronized (this.hosts) {
+      for (final String name : this.hosts.keySet()) {
+        final HostState s = NullCheck.notNull(this.hosts.get(name));
+        r.put(
+          name, new HTTPHostMetrics(
+            name,
+            s.requests,
+            s.errors,
+            s.body_bytes,
+            s.redirects,
+            s.auth_retries,
+            s.latency_buckets));
+      }
+    }
+
+    return NullCheck.notNull(Collections.unmodifiableSortedMap(r));
+  }
+
+  @Override public void aggregatorReset()
+  {
+    synchronized (this.hosts) {
+      this.hosts.clear();
+    }
+  }
+
+  private static final class HostState
+  {
+    private final long[] latency_buckets;
+    private       long   requests;
+    private       long   errors;
+    private       long   body_bytes;
+    private       long   redirects;
+    private       long   auth_retries;
+
+    HostState()
+    {
+      this.latency_buckets = new long[HTTPHostMetrics.getLatencyBucketCount()];
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package org.nypl.simplified.http.core;
+
+import java.util.Map;
+
+/**
+ * <p>The type of request listeners that aggregate metrics per host.</p>
+ *
+ * <p>Aggregators are intended to be left installed in production builds, so
+ * they hold only a fixed amount of state per host and may be configured to
+ * sample a fraction of requests.</p>
+ */
+
+public interface HTTPMetricsAggregatorType extends HTTPRequestListenerType
+{
+  /**
+   * @return A snapshot of the current metrics, keyed by host
+   */
+
+  Map<String, HTTPHostMetrics> aggregatorGetHostMetrics();
+
+  /**
+   * Discard all aggregated metrics.
+   */
+
+  void aggregatorReset();
+}
@@ -2,6 +2,7 @@ package org.nypl.simplified.http.core;
 
 import com.io7m.jfunctional.Option;
 import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
 import com.io7m.jnull.NullCheck;
 import org.nypl.simplified.assertions.Assertions;
 import org.slf4j.Logger;
@@ -31,6 +32,8 @@ public final class HTTPRedirectFollower
   private final OptionType<HTTPAuthType> target_auth;
   private final Set<URI>                 tried_auth;
   private final Logger                   logger;
+  private final URI                      target_uri;
+  private final OptionType<HTTPRequestListenerType> listener;
   private       int                      cur_redirects;
   private       OptionType<HTTPAuthType> current_auth;
   private       URI                      current_uri;
@@ -58,6 +61,44 @@ public final class HTTPRedirectFollower
     final URI in_uri,
     final long in_byte_offset)
   {
+    this(
+      in_logger,
+      in_http,
+      in_method,
+      in_auth,
+      in_max_redirects,
+      in_uri,
+      in_byte_offset,
+      Option.<HTTPRequestListenerType>none());
+  }
+
+  /**
+   * Construct a redirect follower capable of making a request to the given
+   * URI. When the follower has finished, the number of redirects followed and
+   * the number of authentication retries are reported to the given listener.
+   *
+   * @param in_logger        A log interface
+   * @param in_http          An HTTP interface
+   * @param in_method        HTTP method to use (GET/PUT)
+   * @param in_auth          Authentication info
+   * @param in_max_redirects The maximum number of redirects to follow
+   * @param in_uri           The target URI
+   * @param in_byte_offset   The byte offset of the request
+   * @param in_listener      A request listener, if any
+   */
+
+  public HTTPRedirectFollower(
+    final Logger in_logger,
+    final HTTPType in_http,
+    final String in_method,
+    final OptionType<HTTPAuthType> in_auth,
+    final int in_max_redirects,
+    final URI in_uri,
+    final long in_byte_offset,
+    final OptionType<HTTPRequestListenerType> in_listener)
+  {
+    this.listener = NullCheck.notNull(in_listener);
+    this.target_uri = NullCheck.notNull(in_uri);
     this.logger = NullCheck.notNull(in_logger);
     this.http = NullCheck.notNull(in_http);
     this.method = NullCheck.notNull(in_method);
@@ -95,6 +136,7 @@ public final class HTTPRedirectFollower
         });
     } finally {
       this.used = true;
+      this.report();
     }
   }
 
@@ -115,6 +157,23 @@ public final class HTTPRedirectFollower
 
     } finally {
       this.used = true;
+      this.report();
+    }
+  }
+
+  private void report()
+  {
+    if (this.listener.isSome()) {
+      try {
+        ((Some<HTTPRequestListenerType>) this.listener).get()
+          .onHTTPRedirectsFollowed(
+            this.method,
+            this.target_uri,
+            this.cur_redirects,
+            this.tried_auth.size());
+      } catch (final Throwable e) {
+        this.logger.error("ignored exception raised by request listener: ", e);
+      }
     }
   }
 
@@ -144,7 +203,7 @@ public final class HTTPRedirectFollower
     }
 
     final String m = String.format("%d: %s", code, e.getMessage());
-    throw new IOException(NullCheck.notNull(m));
+    throw new HTTPStatusException(NullCheck.notNull(m), code);
   }
 
   @Override public HTTPResultType<InputStream> onHTTPException(
@@ -183,6 +242,14 @@ public final class HTTPRedirectFollower
         }
 
         final String location = NullCheck.notNull(locations.get(0));
+
+        /**
+         * The body of the redirect is never read. It is closed so that the
+         * connection (and any resources held with it) is released before the
+         * next request is made.
+         */
+
+        e.getValue().close();
         this.cur_redirects = this.cur_redirects + 1;
         this.current_uri = NullCheck.notNull(URI.create(location));
 
@@ -193,6 +260,7 @@ public final class HTTPRedirectFollower
       }
     }
 
+    e.getValue().close();
     throw new IOException(
       String.format(
         "Unhandled http code (%d: %s)", e.getStatus(), e.getMessage()));
@@ -211,7 +279,8 @@ public final class HTTPRedirectFollower
     if ("PUT".equals(this.method)) {
       r = this.http.put(this.current_auth, this.current_uri);
     } else {
-      r = this.http.get(this.current_auth, this.current_uri, 0L);
+      r = this.http.get(
+        this.current_auth, this.current_uri, this.byte_offset);
     }
     return r.matchResult(this);
   }
@@ -229,7 +298,7 @@ public final class HTTPRedirectFollower
       throws Exception
     {
       final String m = String.format("%d: %s", e.getStatus(), e.getMessage());
-      throw new IOException(NullCheck.notNull(m));
+      throw new HTTPStatusException(NullCheck.notNull(m), e.getStatus());
     }
 
     @Override public final B onHTTPException(
@@ -0,0 +1,37 @@
+package org.nypl.simplified.http.core;
+
+/**
+ * The class of an HTTP request, used by {@link HTTPSchedulerType} to decide
+ * how requests share the network.
+ */
+
+public enum HTTPRequestClass
+{
+  /**
+   * A request that the user is actively waiting for, such as a catalog feed.
+   */
+
+  HTTP_REQUEST_INTERACTIVE,
+
+  /**
+   * A speculative request whose results may be wanted soon, such as a cover
+   * image for a lane that is not yet visible.
+   */
+
+  HTTP_REQUEST_PREFETCH,
+
+  /**
+   * A large transfer, such as a book download. Requests of this class hold
+   * their scheduler slot until the response body is closed or exhausted, and
+   * may be throttled whilst interactive requests are in flight.
+   */
+
+  HTTP_REQUEST_BULK,
+
+  /**
+   * A request that nobody is waiting for, such as a document refresh or an
+   * analytics event.
+   */
+
+  HTTP_REQUEST_BACKGROUND
+}
@@ -0,0 +1,41 @@
+package org.nypl.simplified.http.core;
+
+import java.net.URI;
+
+/**
+ * <p>The type of listeners that receive timing and size information about
+ * completed HTTP requests.</p>
+ *
+ * <p>Listeners are called on the thread that completed the request, and must
+ * therefore be cheap and must not block. Exceptions raised by listeners are
+ * logged and otherwise ignored.</p>
+ */
+
+public interface HTTPRequestListenerType
+{
+  /**
+   * A single HTTP request has completed. For requests that returned a body,
+   * this is called when the body has been closed or read to the end.
+   *
+   * @param m The request metrics
+   */
+
+  void onHTTPRequestCompleted(HTTPRequestMetrics m);
+
+  /**
+   * A {@link HTTPRedirectFollower} has finished following a chain of
+   * requests.
+   *
+   * @param method       The HTTP method
+   * @param uri          The URI at the start of the chain
+   * @param redirects    The number of redirects that were followed
+   * @param auth_retries The number of times a request was retried with
+   *                     credentials after an authentication challenge
+   */
+
+  void onHTTPRedirectsFollowed(
+    String method,
+    URI uri,
+    int redirects,
+    int auth_retries);
+}
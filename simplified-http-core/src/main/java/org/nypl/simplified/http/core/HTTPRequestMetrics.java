@@ -0,0 +1,167 @@
+package org.nypl.simplified.http.core;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * Timing and size information for a single completed HTTP request. All
+ * durations are in nanoseconds, and are measured from the start of the
+ * request. Durations that could not be measured are {@code -1}.
+ */
+
+public final class HTTPRequestMetrics
+{
+  private final String method;
+  private final String host;
+  private final String uri_template;
+  private final int    status;
+  private final long   dns_ns;
+  private final long   connect_ns;
+  private final long   first_byte_ns;
+  private final long   total_ns;
+  private final long   body_bytes;
+
+  /**
+   * Construct metrics.
+   *
+   * @param in_method        The HTTP method
+   * @param in_host          The host that served the request
+   * @param in_uri_template  The normalized URI (see {@link HTTPURITemplate})
+   * @param in_status        The status code, or {@code -1} if the request
+   *                         failed without a response
+   * @param in_dns_ns        The time taken to resolve the host, or {@code -1}
+   *                         if it is not available
+   * @param in_connect_ns    The time taken to connect (including any TLS
+   *                         handshake)
+   * @param in_first_byte_ns The time until the response status was received
+   * @param in_total_ns      The time until the response body was consumed
+   * @param in_body_bytes    The number of response body bytes read
+   */
+
+  public HTTPRequestMetrics(
+    final String in_method,
+    final String in_host,
+    final String in_uri_template,
+    final int in_status,
+    final long in_dns_ns,
+    final long in_connect_ns,
+    final long in_first_byte_ns,
+    final long in_total_ns,
+    final long in_body_bytes)
+  {
+    this.method = NullCheck.notNull(in_method);
+    this.host = NullCheck.notNull(in_host);
+    this.uri_template = NullCheck.notNull(in_uri_template);
+    this.status = in_status;
+    this.dns_ns = in_dns_ns;
+    this.connect_ns = in_connect_ns;
+    this.first_byte_ns = in_first_byte_ns;
+    this.total_ns = in_total_ns;
+    this.body_bytes = in_body_bytes;
+  }
+
+  /**
+   * @return The HTTP method
+   */
+
+  public String getMethod()
+  {
+    return this.method;
+  }
+
+  /**
+   * @return The host that served the request
+   */
+
+  public String getHost()
+  {
+    return this.host;
+  }
+
+  /**
+   * @return The normalized URI of the request
+   */
+
+  public String getURITemplate()
+  {
+    return this.uri_template;
+  }
+
+  /**
+   * @return The status code, or {@code -1} if no response was received
+   */
+
+  public int getStatus()
+  {
+    return this.status;
+  }
+
+  /**
+   * @return {@code true} iff the request failed without a response, or the
+   * server returned an error status
+   */
+
+  public boolean isError()
+  {
+    return this.status < 0 || this.status >= 400;
+  }
+
+  /**
+   * @return The time taken to resolve the host, or {@code -1}
+   */
+
+  public long getDNSTime()
+  {
+    return this.dns_ns;
+  }
+
+  /**
+   * @return The time taken to connect, or {@code -1}
+   */
+
+  public long getConnectTime()
+  {
+    return this.connect_ns;
+  }
+
+  /**
+   * @return The time until the response status was received, or {@code -1}
+   */
+
+  public long getFirstByteTime()
+  {
+    return this.first_byte_ns;
+  }
+
+  /**
+   * @return The time until the response body was consumed
+   */
+
+  public long getTotalTime()
+  {
+    return this.total_ns;
+  }
+
+  /**
+   * @return The number of response body bytes read
+   */
+
+  public long getBodyBytes()
+  {
+    return this.body_bytes;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder sb = new StringBuilder("HTTPRequestMetrics{");
+    sb.append("method=").append(this.method);
+    sb.append(", uri=").append(this.uri_template);
+    sb.append(", status=").append(this.status);
+    sb.append(", dns_ns=").append(this.dns_ns);
+    sb.append(", connect_ns=").append(this.connect_ns);
+    sb.append(", first_byte_ns=").append(this.first_byte_ns);
+    sb.append(", total_ns=").append(this.total_ns);
+    sb.append(", body_bytes=").append(this.body_bytes);
+    sb.append('}');
+    return sb.toString();
+  }
+}
@@ -7,8 +7,8 @@ import java.net.URI;
 
 /**
  * A result matcher that returns results in the case that the server responds
- * with a non-error code, raises {@link IOException} in the case of the server
- * responding with an error code, or re-raises any exception raised in the
+ * with a non-error code, raises {@link HTTPStatusException} in the case of the
+ * server responding with an error code, or re-raises any exception raised in the
  * process of creating a connection.
  *
  * @param <A> The type of returned values
@@ -38,7 +38,7 @@ import java.net.URI;
     final String s = NullCheck.notNull(
       String.format(
         "%s: %d: %s", this.uri, e.getStatus(), e.getMessage()));
-    throw new IOException(s);
+    throw new HTTPStatusException(s, e.getStatus());
   }
 
   @Override public HTTPResultOKType<A> onHTTPException(
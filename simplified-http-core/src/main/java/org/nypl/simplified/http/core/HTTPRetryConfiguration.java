@@ -0,0 +1,142 @@
+package org.nypl.simplified.http.core;
+
+import org.nypl.simplified.assertions.Assertions;
+
+/**
+ * The configuration for {@link HTTPRetrying}.
+ */
+
+public final class HTTPRetryConfiguration
+{
+  private final int    max_attempts;
+  private final long   base_delay_ms;
+  private final long   max_delay_ms;
+  private final long   max_retry_after_ms;
+  private final double budget_capacity;
+  private final double budget_ratio;
+
+  /**
+   * Construct a configuration.
+   *
+   * @param in_max_attempts       The maximum number of attempts made for a
+   *                              single request (including the first)
+   * @param in_base_delay_ms      The base delay for exponential backoff
+   * @param in_max_delay_ms       The maximum backoff delay
+   * @param in_max_retry_after_ms The longest {@code Retry-After} delay that
+   *                              will be honoured; responses asking for longer
+   *                              delays are not retried
+   * @param in_budget_capacity    The maximum number of retries that may be
+   *                              banked in the retry budget
+   * @param in_budget_ratio       The fraction of a retry earned by each
+   *                              request that succeeded without retrying
+   */
+
+  public HTTPRetryConfiguration(
+    final int in_max_attempts,
+    final long in_base_delay_ms,
+    final long in_max_delay_ms,
+    final long in_max_retry_after_ms,
+    final double in_budget_capacity,
+    final double in_budget_ratio)
+  {
+    Assertions.checkPrecondition(
+      in_max_attempts >= 1,
+      "Maximum attempts %d must be >= 1",
+      Integer.valueOf(in_max_attempts));
+    Assertions.checkPrecondition(
+      in_base_delay_ms >= 0L,
+      "Base delay %d must be >= 0",
+      Long.valueOf(in_base_delay_ms));
+    Assertions.checkPrecondition(
+      in_max_delay_ms >= in_base_delay_ms,
+      "Maximum delay %d must be >= base delay %d",
+      Long.valueOf(in_max_delay_ms),
+      Long.valueOf(in_base_delay_ms));
+    Assertions.checkPrecondition(
+      in_max_retry_after_ms >= 0L,
+      "Maximum Retry-After delay %d must be >= 0",
+      Long.valueOf(in_max_retry_after_ms));
+    Assertions.checkPrecondition(
+      in_budget_capacity >= 0.0,
+      "Budget capacity %f must be >= 0",
+      Double.valueOf(in_budget_capacity));
+    Assertions.checkPrecondition(
+      in_budget_ratio >= 0.0,
+      "Budget ratio %f must be >= 0",
+      Double.valueOf(in_budget_ratio));
+
+    this.max_attempts = in_max_attempts;
+    this.base_delay_ms = in_base_delay_ms;
+    this.max_delay_ms = in_max_delay_ms;
+    this.max_retry_after_ms = in_max_retry_after_ms;
+    this.budget_capacity = in_budget_capacity;
+    this.budget_ratio = in_budget_ratio;
+  }
+
+  /**
+   * The default configuration: up to three attempts, backoff between 250ms
+   * and 4s, {@code Retry-After} delays of up to 10s, and a budget of ten
+   * retries refilled at one retry per ten successful requests.
+   *
+   * @return The default configuration
+   */
+
+  public static HTTPRetryConfiguration getDefault()
+  {
+    return new HTTPRetryConfiguration(3, 250L, 4000L, 10000L, 10.0, 0.1);
+  }
+
+  /**
+   * @return The maximum number of attempts made for a single request
+   */
+
+  public int getMaximumAttempts()
+  {
+    return this.max_attempts;
+  }
+
+  /**
+   * @return The base delay for exponential backoff in milliseconds
+   */
+
+  public long getBaseDelayMilliseconds()
+  {
+    return this.base_delay_ms;
+  }
+
+  /**
+   * @return The maximum backoff delay in milliseconds
+   */
+
+  public long getMaximumDelayMilliseconds()
+  {
+    return this.max_delay_ms;
+  }
+
+  /**
+   * @return The longest {@code Retry-After} delay that will be honoured
+   */
+
+  public long getMaximumRetryAfterMilliseconds()
+  {
+    return this.max_retry_after_ms;
+  }
+
+  /**
+   * @return The maximum number of retries that may be banked
+   */
+
+  public double getBudgetCapacity()
+  {
+    return this.budget_capacity;
+  }
+
+  /**
+   * @return The fraction of a retry earned by each successful request
+   */
+
+  public double getBudgetRatio()
+  {
+    return this.budget_ratio;
+  }
+}
@@ -0,0 +1,582 @@
+package org.nypl.simplified.http.core;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Random;
+
+/**
+ * <p>An {@link HTTPType} decorator that retries idempotent requests.</p>
+ *
+ * <p>{@code GET} and {@code HEAD} requests that fail with an I/O error, or
+ * that receive a {@code 429}, {@code 502}, {@code 503} or {@code 504}
+ * response, are retried with exponential backoff and full jitter. A {@code
+ * Retry-After} header on {@code 429} and {@code 503} responses is honoured.
+ * Retries are drawn from a budget that is refilled by requests that succeed
+ * at the first attempt, so that a failing server is not hammered by every
+ * client at once.</p>
+ *
+ * <p>If the body of a {@code GET} response fails part way through and the
+ * server supports byte ranges, the request is resumed from the last byte
+ * read, provided that the entity tag (if any) has not changed.</p>
+ *
+ * <p>{@code PUT} and {@code POST} requests are passed through unmodified.</p>
+ */
+
+public final class HTTPRetrying implements HTTPType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(HTTPRetrying.class));
+  }
+
+  private final HTTPType               http;
+  private final HTTPRetryConfiguration config;
+  private final Random                 random;
+  private       double                 budget;
+
+  private HTTPRetrying(
+    final HTTPType in_http,
+    final HTTPRetryConfiguration in_config)
+  {
+    this.http = NullCheck.notNull(in_http);
+    this.config = NullCheck.notNull(in_config);
+    this.random = new Random();
+    this.budget = in_config.getBudgetCapacity();
+  }
+
+  /**
+   * Construct a new retrying HTTP interface.
+   *
+   * @param in_http   The HTTP interface that will actually perform requests
+   * @param in_config The retry configuration
+   *
+   * @return A new HTTP interface
+   */
+
+  public static HTTPType newRetrying(
+    final HTTPType in_http,
+    final HTTPRetryConfiguration in_config)
+  {
+    return new HTTPRetrying(in_http, in_config);
+  }
+
+  private static void discard(final HTTPResultType<InputStream> r)
+  {
+    r.matchResult(
+      new HTTPResultMatcherType<InputStream, Void, UnreachableCodeException>()
+      {
+        @Override public Void onHTTPError(final HTTPResultError<InputStream> e)
+        {
+          HTTPRetrying.closeQuietly(e.getData());
+          return null;
+        }
+
+        @Override
+        public Void onHTTPException(final HTTPResultException<InputStream> e)
+        {
+          return null;
+        }
+
+        @Override public Void onHTTPOK(final HTTPResultOKType<InputStream> e)
+        {
+          HTTPRetrying.closeQuietly(e.getValue());
+          return null;
+        }
+      });
+  }
+
+  private static void closeQuietly(final InputStream s)
+  {
+    try {
+      s.close();
+    } catch (final IOException e) {
+      HTTPRetrying.LOG.trace("ignored exception on close: ", e);
+    }
+  }
+
+  private static boolean sameEntityTag(
+    final OptionType<String> original,
+    final OptionType<String> current)
+  {
+    if (original.isNone()) {
+      return true;
+    }
+    if (current.isNone()) {
+      return false;
+    }
+    return ((Some<String>) original).get().equals(
+      ((Some<String>) current).get());
+  }
+
+  private synchronized void budgetDeposit()
+  {
+    this.budget = Math.min(
+      this.config.getBudgetCapacity(),
+      this.budget + this.config.getBudgetRatio());
+  }
+
+  private synchronized boolean budgetWithdraw()
+  {
+    if (this.budget >= 1.0) {
+      this.budget -= 1.0;
+      return true;
+    }
+    return false;
+  }
+
+  private long backoff(final int attempt)
+  {
+    final int shift = Math.min(attempt - 1, 20);
+    final long cap = Math.min(
+      this.config.getMaximumDelayMilliseconds(),
+      this.config.getBaseDelayMilliseconds() << (long) shift);
+
+    synchronized (this.random) {
+      return (long) (this.random.nextDouble() * (double) cap);
+    }
+  }
+
+  /**
+   * @return The delay before the next attempt, or {@code -1} if the result
+   * should not be retried
+   */
+
+  private long retryDelay(
+    final HTTPResultType<InputStream> r,
+    final int attempt)
+  {
+    if (attempt >= this.config.getMaximumAttempts()) {
+      return -1L;
+    }
+
+    return r.matchResult(
+      new HTTPResultMatcherType<InputStream, Long, UnreachableCodeException>()
+      {
+        @Override public Long onHTTPError(final HTTPResultError<InputStream> e)
+        {
+          final int code = e.getStatus();
+          switch (code) {
+            case 429:
+            case 503: {
+              final long after = HTTPHeaders.getRetryAfterMilliseconds(
+                e.getResponseHeaders(), System.currentTimeMillis());
+              final long limit =
+                HTTPRetrying.this.config.getMaximumRetryAfterMilliseconds();
+              if (after > limit) {
+                return Long.valueOf(-1L);
+              }
+              if (after >= 0L) {
+                return Long.valueOf(after);
+              }
+              return Long.valueOf(HTTPRetrying.this.backoff(attempt));
+            }
+            case 502:
+            case 504: {
+              return Long.valueOf(HTTPRetrying.this.backoff(attempt));
+            }
+            default: {
+              return Long.valueOf(-1L);
+            }
+          }
+        }
+
+        @Override
+        public Long onHTTPException(final HTTPResultException<InputStream> e)
+        {
+          if (e.getError() instanceof IOException) {
+            if (Thread.currentThread().isInterrupted() == false) {
+              return Long.valueOf(HTTPRetrying.this.backoff(attempt));
+            }
+          }
+          return Long.valueOf(-1L);
+        }
+
+        @Override public Long onHTTPOK(final HTTPResultOKType<InputStream> e)
+        {
+          return Long.valueOf(-1L);
+        }
+      }).longValue();
+  }
+
+  /**
+   * @return {@code true} if the server answered with a 2xx status; only
+   * these results earn a deposit into the retry budget, so that a burst of
+   * failing requests cannot refill it
+   */
+
+  private static boolean isSuccess(final HTTPResultType<InputStream> r)
+  {
+    return r.matchResult(
+      new HTTPResultMatcherType<InputStream, Boolean,
+        UnreachableCodeException>()
+      {
+        @Override
+        public Boolean onHTTPError(final HTTPResultError<InputStream> e)
+        {
+          return Boolean.FALSE;
+        }
+
+        @Override
+        public Boolean onHTTPException(final HTTPResultException<InputStream> e)
+        {
+          return Boolean.FALSE;
+        }
+
+        @Override public Boolean onHTTPOK(final HTTPResultOKType<InputStream> e)
+        {
+          final int code = e.getStatus();
+          return Boolean.valueOf(code >= 200 && code < 300);
+        }
+      }).booleanValue();
+  }
+
+  private HTTPResultType<InputStream> execute(
+    final URI uri,
+    final RequestType request)
+  {
+    int attempt = 1;
+    while (true) {
+      final HTTPResultType<InputStream> r = request.execute();
+      final long delay = this.retryDelay(r, attempt);
+      if (delay < 0L) {
+        if (attempt == 1 && HTTPRetrying.isSuccess(r)) {
+          this.budgetDeposit();
+        }
+        return r;
+      }
+
+      if (this.budgetWithdraw() == false) {
+        HTTPRetrying.LOG.debug("retry budget exhausted for {}", uri);
+        return r;
+      }
+
+      HTTPRetrying.discard(r);
+      HTTPRetrying.LOG.debug(
+        "retrying {} in {}ms (attempt {})",
+        uri,
+        Long.valueOf(delay),
+        Integer.valueOf(attempt + 1));
+
+      try {
+        Thread.sleep(delay);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return new HTTPResultException<InputStream>(
+          uri, new InterruptedIOException("Interrupted awaiting retry"));
+      }
+      ++attempt;
+    }
+  }
+
+  private HTTPResultType<InputStream> resumable(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri,
+    final long offset,
+    final HTTPResultType<InputStream> r)
+  {
+    return r.matchResult(
+      new HTTPResultMatcherType<InputStream, HTTPResultType<InputStream>,
+        UnreachableCodeException>()
+      {
+        @Override public HTTPResultType<InputStream> onHTTPError(
+          final HTTPResultError<InputStream> e)
+        {
+          return e;
+        }
+
+        @Override public HTTPResultType<InputStream> onHTTPException(
+          final HTTPResultException<InputStream> e)
+        {
+          return e;
+        }
+
+        @Override public HTTPResultType<InputStream> onHTTPOK(
+          final HTTPResultOKType<InputStream> e)
+        {
+          final int code = e.getStatus();
+          final OptionType<String> ranges =
+            HTTPHeaders.getFirst(e.getResponseHeaders(), "Accept-Ranges");
+          final boolean ranged = code == 206 || (code == 200 && ranges.isSome()
+            && "bytes".equals(((Some<String>) ranges).get().trim()));
+
+          if (ranged == false) {
+            return e;
+          }
+
+          final OptionType<String> etag =
+            HTTPHeaders.getFirst(e.getResponseHeaders(), "ETag");
+          final long length = e.getContentLength();
+          final long end = length >= 0L ? Math.max(0L, offset) + length : -1L;
+          final InputStream s = new ResumingInputStream(
+            auth, uri, offset, end, etag, e.getValue());
+
+          return new HTTPResultOK<InputStream>(
+            e.getMessage(),
+            code,
+            s,
+            e.getContentLength(),
+            e.getResponseHeaders(),
+            e.getLastModifiedTime());
+        }
+      });
+  }
+
+  @Override public HTTPResultType<InputStream> get(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri,
+    final long offset)
+  {
+    final HTTPResultType<InputStream> r = this.execute(
+      uri, new RequestType()
+      {
+        @Override public HTTPResultType<InputStream> execute()
+        {
+          return HTTPRetrying.this.http.get(auth, uri, offset);
+        }
+      });
+    return this.resumable(auth, uri, offset, r);
+  }
+
+  @Override public HTTPResultType<InputStream> put(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri)
+  {
+    return this.http.put(auth, uri);
+  }
+
+  @Override public HTTPResultType<InputStream> post(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri,
+    final byte[] data,
+    final String content_type)
+  {
+    return this.http.post(auth, uri, data, content_type);
+  }
+
+  @Override public HTTPResultType<InputStream> head(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri)
+  {
+    return this.execute(
+      uri, new RequestType()
+      {
+        @Override public HTTPResultType<InputStream> execute()
+        {
+          return HTTPRetrying.this.http.head(auth, uri);
+        }
+      });
+  }
+
+  private interface RequestType
+  {
+    HTTPResultType<InputStream> execute();
+  }
+
+  /**
+   * A response body that, on an I/O error, re-requests the remainder of the
+   * entity with a {@code Range} request and continues from where it left
+   * off.
+   */
+
+  private final class ResumingInputStream extends InputStream
+  {
+    private final OptionType<HTTPAuthType> auth;
+    private final URI                      uri;
+    private final OptionType<String>       etag;
+    private final long                     end;
+    private       InputStream              current;
+    private       long                     position;
+    private       int                      resumes;
+    private       boolean                  closed;
+
+    ResumingInputStream(
+      final OptionType<HTTPAuthType> in_auth,
+      final URI in_uri,
+      final long in_offset,
+      final long in_end,
+      final OptionType<String> in_etag,
+      final InputStream in_stream)
+    {
+      this.end = in_end;
+      this.auth = NullCheck.notNull(in_auth);
+      this.uri = NullCheck.notNull(in_uri);
+      this.etag = NullCheck.notNull(in_etag);
+      this.current = NullCheck.notNull(in_stream);
+      this.position = Math.max(0L, in_offset);
+      this.resumes = 0;
+      this.closed = false;
+    }
+
+    @Override public int read()
+      throws IOException
+    {
+      while (true) {
+        try {
+          final int r = this.current.read();
+          if (r != -1) {
+            ++this.position;
+          } else {
+            this.checkComplete();
+          }
+          return r;
+        } catch (final IOException e) {
+          if (this.resume(e) == false) {
+            throw e;
+          }
+        }
+      }
+    }
+
+    @Override public int read(
+      final byte[] b,
+      final int off,
+      final int len)
+      throws IOException
+    {
+      while (true) {
+        try {
+          final int r = this.current.read(b, off, len);
+          if (r > 0) {
+            this.position += (long) r;
+          } else if (r == -1) {
+            this.checkComplete();
+          }
+          return r;
+        } catch (final IOException e) {
+          if (this.resume(e) == false) {
+            throw e;
+          }
+        }
+      }
+    }
+
+    @Override public int available()
+      throws IOException
+    {
+      return this.current.available();
+    }
+
+    @Override public void close()
+      throws IOException
+    {
+      this.closed = true;
+      this.current.close();
+    }
+
+    /**
+     * A connection that is dropped cleanly can look like the end of the
+     * stream, so an early end is treated as an error when the length is known.
+     */
+
+    private void checkComplete()
+      throws EOFException
+    {
+      if (this.end >= 0L && this.position < this.end) {
+        throw new EOFException(
+          String.format(
+            "Premature end of stream at %d (expected %d)",
+            Long.valueOf(this.position),
+            Long.valueOf(this.end)));
+      }
+    }
+
+    private boolean resume(final IOException cause)
+    {
+      if (this.closed || Thread.currentThread().isInterrupted()) {
+        return false;
+      }
+
+      final int attempt = this.resumes + 1;
+      if (attempt >= HTTPRetrying.this.config.getMaximumAttempts()) {
+        return false;
+      }
+      if (HTTPRetrying.this.budgetWithdraw() == false) {
+        HTTPRetrying.LOG.debug("retry budget exhausted for {}", this.uri);
+        return false;
+      }
+
+      HTTPRetrying.closeQuietly(this.current);
+      this.resumes = attempt;
+
+      final long delay = HTTPRetrying.this.backoff(attempt);
+      HTTPRetrying.LOG.debug(
+        "resuming {} at offset {} in {}ms after: {}",
+        this.uri,
+        Long.valueOf(this.position),
+        Long.valueOf(delay),
+        cause.getMessage());
+
+      try {
+        Thread.sleep(delay);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+
+      final HTTPResultType<InputStream> r =
+        HTTPRetrying.this.http.get(this.auth, this.uri, this.position);
+
+      final OptionType<InputStream> next = r.matchResult(
+        new HTTPResultMatcherType<InputStream, OptionType<InputStream>,
+          UnreachableCodeException>()
+        {
+          @Override public OptionType<InputStream> onHTTPError(
+            final HTTPResultError<InputStream> e)
+          {
+            HTTPRetrying.closeQuietly(e.getData());
+            return Option.none();
+          }
+
+          @Override public OptionType<InputStream> onHTTPException(
+            final HTTPResultException<InputStream> e)
+          {
+            return Option.none();
+          }
+
+          @Override public OptionType<InputStream> onHTTPOK(
+            final HTTPResultOKType<InputStream> e)
+          {
+            final ResumingInputStream self = ResumingInputStream.this;
+            final long start =
+              HTTPHeaders.getContentRangeStart(e.getResponseHeaders());
+            final OptionType<String> tag =
+              HTTPHeaders.getFirst(e.getResponseHeaders(), "ETag");
+
+            final boolean ok = e.getStatus() == 206
+              && start == self.position
+              && HTTPRetrying.sameEntityTag(self.etag, tag);
+
+            if (ok) {
+              return Option.some(e.getValue());
+            }
+
+            HTTPRetrying.LOG.debug(
+              "cannot resume {}: status {}, range start {}",
+              self.uri,
+              Integer.valueOf(e.getStatus()),
+              Long.valueOf(start));
+            HTTPRetrying.closeQuietly(e.getValue());
+            return Option.none();
+          }
+        });
+
+      if (next.isSome()) {
+        this.current = ((Some<InputStream>) next).get();
+        return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,461 @@
+package org.nypl.simplified.http.core;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>The default implementation of the {@link HTTPSchedulerType}
+ * interface.</p>
+ *
+ * <p>Each request class is given a fair semaphore sized by the configured
+ * concurrency limit. Requests of class {@link HTTPRequestClass#HTTP_REQUEST_BULK}
+ * keep their slot until the body of a successful response has been closed or
+ * read to the end; all other requests, and bulk requests that fail or are
+ * redirected, release their slot as soon as the server has answered.
+ * Whilst any interactive request is in flight, the bodies of bulk transfers
+ * are paced to the configured throttle rate.</p>
+ */
+
+public final class HTTPScheduler implements HTTPSchedulerType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(HTTPScheduler.class));
+  }
+
+  private final HTTPType                                http;
+  private final HTTPSchedulerConfiguration              config;
+  private final Map<HTTPRequestClass, ClassState>       states;
+  private final Map<HTTPRequestClass, HTTPType>         views;
+  private final AtomicInteger                           interactive_active;
+  private final AtomicLong                              interactive_last;
+  private final long                                    interactive_grace_ns;
+
+  private HTTPScheduler(
+    final HTTPType in_http,
+    final HTTPSchedulerConfiguration in_config)
+  {
+    this.http = NullCheck.notNull(in_http);
+    this.config = NullCheck.notNull(in_config);
+    this.interactive_active = new AtomicInteger(0);
+    this.interactive_grace_ns = TimeUnit.NANOSECONDS.convert(
+      in_config.getInteractiveGraceMilliseconds(), TimeUnit.MILLISECONDS);
+    this.interactive_last =
+      new AtomicLong(System.nanoTime() - this.interactive_grace_ns - 1L);
+
+    this.states =
+      new EnumMap<HTTPRequestClass, ClassState>(HTTPRequestClass.class);
+    this.views =
+      new EnumMap<HTTPRequestClass, HTTPType>(HTTPRequestClass.class);
+
+    for (final HTTPRequestClass c : HTTPRequestClass.values()) {
+      final ClassState s =
+        new ClassState(c, in_config.getMaximumConcurrency(c));
+      this.states.put(c, s);
+      this.views.put(c, new ScheduledHTTP(s));
+    }
+  }
+
+  /**
+   * Construct a new scheduler.
+   *
+   * @param in_http   The HTTP interface that will actually perform requests
+   * @param in_config The scheduler configuration
+   *
+   * @return A new scheduler
+   */
+
+  public static HTTPSchedulerType newScheduler(
+    final HTTPType in_http,
+    final HTTPSchedulerConfiguration in_config)
+  {
+    return new HTTPScheduler(in_http, in_config);
+  }
+
+  @Override public HTTPType schedulerHTTPForClass(final HTTPRequestClass c)
+  {
+    return NullCheck.notNull(this.views.get(NullCheck.notNull(c)));
+  }
+
+  @Override
+  public HTTPSchedulerStatistics schedulerGetStatistics(
+    final HTTPRequestClass c)
+  {
+    return NullCheck.notNull(this.states.get(NullCheck.notNull(c))).snapshot();
+  }
+
+  private boolean isInteractiveInFlight()
+  {
+    if (this.interactive_active.get() > 0) {
+      return true;
+    }
+    final long since = System.nanoTime() - this.interactive_last.get();
+    return since < this.interactive_grace_ns;
+  }
+
+  private HTTPResultType<InputStream> run(
+    final ClassState state,
+    final URI uri,
+    final boolean has_body,
+    final RequestType request)
+  {
+    final boolean interactive =
+      state.request_class == HTTPRequestClass.HTTP_REQUEST_INTERACTIVE;
+    if (interactive) {
+      this.interactive_active.incrementAndGet();
+    }
+
+    try {
+      try {
+        state.acquire();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return new HTTPResultException<InputStream>(
+          uri, new InterruptedIOException("Interrupted waiting for a slot"));
+      }
+
+      final boolean holds_slot =
+        has_body && state.request_class == HTTPRequestClass.HTTP_REQUEST_BULK;
+
+      boolean release = true;
+      try {
+        final HTTPResultType<InputStream> r = request.execute();
+        if (holds_slot) {
+          final HTTPResultType<InputStream> rr = this.wrapBulk(state, r);
+          release = rr == r;
+          return rr;
+        }
+        return r;
+      } finally {
+        if (release) {
+          state.release();
+        }
+      }
+    } finally {
+      if (interactive) {
+        this.interactive_last.set(System.nanoTime());
+        this.interactive_active.decrementAndGet();
+      }
+    }
+  }
+
+  private HTTPResultType<InputStream> wrapBulk(
+    final ClassState state,
+    final HTTPResultType<InputStream> r)
+  {
+    return r.matchResult(
+      new HTTPResultMatcherType<InputStream, HTTPResultType<InputStream>,
+        UnreachableCodeException>()
+      {
+        @Override public HTTPResultType<InputStream> onHTTPError(
+          final HTTPResultError<InputStream> e)
+        {
+          return e;
+        }
+
+        @Override public HTTPResultType<InputStream> onHTTPException(
+          final HTTPResultException<InputStream> e)
+        {
+          return e;
+        }
+
+        @Override public HTTPResultType<InputStream> onHTTPOK(
+          final HTTPResultOKType<InputStream> e)
+        {
+          /**
+           * Only successful responses carry a body that is worth holding
+           * the slot for. Redirects are followed by the caller with a new
+           * request, which needs a slot of its own.
+           */
+
+          final int code = e.getStatus();
+          if (code < 200 || code >= 300) {
+            return e;
+          }
+
+          final InputStream s =
+            new BulkInputStream(HTTPScheduler.this, state, e.getValue());
+          return new HTTPResultOK<InputStream>(
+            e.getMessage(),
+            e.getStatus(),
+            s,
+            e.getContentLength(),
+            e.getResponseHeaders(),
+            e.getLastModifiedTime());
+        }
+      });
+  }
+
+  private interface RequestType
+  {
+    HTTPResultType<InputStream> execute();
+  }
+
+  private static final class ClassState
+  {
+    private final HTTPRequestClass request_class;
+    private final Semaphore        slots;
+    private final AtomicInteger    queued;
+    private final AtomicInteger    active;
+    private final AtomicLong       requests;
+    private final AtomicLong       wait_total;
+    private final AtomicLong       wait_max;
+
+    ClassState(
+      final HTTPRequestClass in_class,
+      final int in_maximum)
+    {
+      this.request_class = NullCheck.notNull(in_class);
+      this.slots = new Semaphore(in_maximum, true);
+      this.queued = new AtomicInteger(0);
+      this.active = new AtomicInteger(0);
+      this.requests = new AtomicLong(0L);
+      this.wait_total = new AtomicLong(0L);
+      this.wait_max = new AtomicLong(0L);
+    }
+
+    void acquire()
+      throws InterruptedException
+    {
+      final long start = System.nanoTime();
+      this.queued.incrementAndGet();
+      try {
+        this.slots.acquire();
+      } finally {
+        this.queued.decrementAndGet();
+      }
+
+      final long waited = System.nanoTime() - start;
+      this.active.incrementAndGet();
+      this.requests.incrementAndGet();
+      this.wait_total.addAndGet(waited);
+
+      while (true) {
+        final long max = this.wait_max.get();
+        if (waited <= max || this.wait_max.compareAndSet(max, waited)) {
+          break;
+        }
+      }
+
+      HTTPScheduler.LOG.trace(
+        "{}: waited {}ns for a slot",
+        this.request_class,
+        Long.valueOf(waited));
+    }
+
+    void release()
+    {
+      this.active.decrementAndGet();
+      this.slots.release();
+    }
+
+    HTTPSchedulerStatistics snapshot()
+    {
+      return new HTTPSchedulerStatistics(
+        this.request_class,
+        this.queued.get(),
+        this.active.get(),
+        this.requests.get(),
+        this.wait_total.get(),
+        this.wait_max.get());
+    }
+  }
+
+  /**
+   * The body of a bulk transfer. The scheduler slot is released exactly once,
+   * when the stream is closed or the end of the stream is reached.
+   */
+
+  private static final class BulkInputStream extends FilterInputStream
+  {
+    private final HTTPScheduler scheduler;
+    private final ClassState    state;
+    private final AtomicBoolean released;
+    private final long          rate;
+    private       long          window_start;
+    private       long          window_bytes;
+    private       boolean       window_open;
+
+    BulkInputStream(
+      final HTTPScheduler in_scheduler,
+      final ClassState in_state,
+      final InputStream in_stream)
+    {
+      super(NullCheck.notNull(in_stream));
+      this.scheduler = NullCheck.notNull(in_scheduler);
+      this.state = NullCheck.notNull(in_state);
+      this.released = new AtomicBoolean(false);
+      this.rate = in_scheduler.config.getBulkThrottleBytesPerSecond();
+      this.window_open = false;
+    }
+
+    @Override public int read()
+      throws IOException
+    {
+      final int r = super.read();
+      if (r == -1) {
+        this.release();
+      } else {
+        this.pace(1);
+      }
+      return r;
+    }
+
+    @Override public int read(
+      final byte[] b,
+      final int off,
+      final int len)
+      throws IOException
+    {
+      int want = len;
+      if (this.isThrottled()) {
+        want = (int) Math.max(1L, Math.min((long) len, this.rate / 8L));
+      }
+
+      final int r = super.read(b, off, want);
+      if (r == -1) {
+        this.release();
+      } else {
+        this.pace(r);
+      }
+      return r;
+    }
+
+    @Override public void close()
+      throws IOException
+    {
+      try {
+        super.close();
+      } finally {
+        this.release();
+      }
+    }
+
+    private boolean isThrottled()
+    {
+      return this.rate > 0L && this.scheduler.isInteractiveInFlight();
+    }
+
+    private void pace(final int count)
+      throws InterruptedIOException
+    {
+      if (this.isThrottled() == false) {
+        this.window_open = false;
+        return;
+      }
+
+      final long now = System.nanoTime();
+      if (this.window_open == false) {
+        this.window_open = true;
+        this.window_start = now;
+        this.window_bytes = 0L;
+      }
+
+      this.window_bytes += (long) count;
+      final long due_ns = (this.window_bytes * 1000000000L) / this.rate;
+      final long ahead_ns = due_ns - (now - this.window_start);
+      if (ahead_ns > 0L) {
+        try {
+          Thread.sleep(
+            TimeUnit.MILLISECONDS.convert(ahead_ns, TimeUnit.NANOSECONDS));
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted whilst throttled");
+        }
+      }
+    }
+
+    private void release()
+    {
+      if (this.released.compareAndSet(false, true)) {
+        this.state.release();
+      }
+    }
+  }
+
+  private final class ScheduledHTTP implements HTTPType
+  {
+    private final ClassState state;
+
+    ScheduledHTTP(final ClassState in_state)
+    {
+      this.state = NullCheck.notNull(in_state);
+    }
+
+    @Override public HTTPResultType<InputStream> get(
+      final OptionType<HTTPAuthType> auth,
+      final URI uri,
+      final long offset)
+    {
+      return HTTPScheduler.this.run(
+        this.state, uri, true, new RequestType()
+        {
+          @Override public HTTPResultType<InputStream> execute()
+          {
+            return HTTPScheduler.this.http.get(auth, uri, offset);
+          }
+        });
+    }
+
+    @Override public HTTPResultType<InputStream> put(
+      final OptionType<HTTPAuthType> auth,
+      final URI uri)
+    {
+      return HTTPScheduler.this.run(
+        this.state, uri, true, new RequestType()
+        {
+          @Override public HTTPResultType<InputStream> execute()
+          {
+            return HTTPScheduler.this.http.put(auth, uri);
+          }
+        });
+    }
+
+    @Override public HTTPResultType<InputStream> post(
+      final OptionType<HTTPAuthType> auth,
+      final URI uri,
+      final byte[] data,
+      final String content_type)
+    {
+      return HTTPScheduler.this.run(
+        this.state, uri, true, new RequestType()
+        {
+          @Override public HTTPResultType<InputStream> execute()
+          {
+            return HTTPScheduler.this.http.post(auth, uri, data, content_type);
+          }
+        });
+    }
+
+    @Override public HTTPResultType<InputStream> head(
+      final OptionType<HTTPAuthType> auth,
+      final URI uri)
+    {
+      return HTTPScheduler.this.run(
+        this.state, uri, false, new RequestType()
+        {
+          @Override public HTTPResultType<InputStream> execute()
+          {
+            return HTTPScheduler.this.http.head(auth, uri);
+          }
+        });
+    }
+  }
+}
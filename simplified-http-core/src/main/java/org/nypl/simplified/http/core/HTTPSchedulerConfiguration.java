@@ -0,0 +1,127 @@
+package org.nypl.simplified.http.core;
+
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.assertions.Assertions;
+
+/**
+ * Configuration values for {@link HTTPScheduler}.
+ */
+
+public final class HTTPSchedulerConfiguration
+{
+  private final int  max_interactive;
+  private final int  max_prefetch;
+  private final int  max_bulk;
+  private final int  max_background;
+  private final long bulk_throttle;
+  private final long interactive_grace;
+
+  /**
+   * Construct a configuration.
+   *
+   * @param in_max_interactive   The maximum number of concurrent interactive
+   *                             requests
+   * @param in_max_prefetch      The maximum number of concurrent prefetch
+   *                             requests
+   * @param in_max_bulk          The maximum number of concurrent bulk
+   *                             transfers
+   * @param in_max_background    The maximum number of concurrent background
+   *                             requests
+   * @param in_bulk_throttle     The rate in bytes per second to which bulk
+   *                             transfers are limited whilst interactive
+   *                             requests are in flight, or {@code 0} to
+   *                             disable throttling
+   * @param in_interactive_grace The time in milliseconds after an
+   *                             interactive request has been answered during
+   *                             which it is still considered to be in flight
+   *                             (its response body is typically still being
+   *                             read)
+   */
+
+  public HTTPSchedulerConfiguration(
+    final int in_max_interactive,
+    final int in_max_prefetch,
+    final int in_max_bulk,
+    final int in_max_background,
+    final long in_bulk_throttle,
+    final long in_interactive_grace)
+  {
+    Assertions.checkPrecondition(
+      in_max_interactive > 0, "Interactive limit %d must be positive",
+      Integer.valueOf(in_max_interactive));
+    Assertions.checkPrecondition(
+      in_max_prefetch > 0, "Prefetch limit %d must be positive",
+      Integer.valueOf(in_max_prefetch));
+    Assertions.checkPrecondition(
+      in_max_bulk > 0, "Bulk limit %d must be positive",
+      Integer.valueOf(in_max_bulk));
+    Assertions.checkPrecondition(
+      in_max_background > 0, "Background limit %d must be positive",
+      Integer.valueOf(in_max_background));
+    Assertions.checkPrecondition(
+      in_bulk_throttle >= 0L, "Bulk throttle %d must be non-negative",
+      Long.valueOf(in_bulk_throttle));
+    Assertions.checkPrecondition(
+      in_interactive_grace >= 0L, "Interactive grace %d must be non-negative",
+      Long.valueOf(in_interactive_grace));
+
+    this.max_interactive = in_max_interactive;
+    this.max_prefetch = in_max_prefetch;
+    this.max_bulk = in_max_bulk;
+    this.max_background = in_max_background;
+    this.bulk_throttle = in_bulk_throttle;
+    this.interactive_grace = in_interactive_grace;
+  }
+
+  /**
+   * @return A configuration with reasonable defaults for a mobile device
+   */
+
+  public static HTTPSchedulerConfiguration getDefault()
+  {
+    return new HTTPSchedulerConfiguration(4, 2, 2, 1, 128L * 1024L, 2000L);
+  }
+
+  /**
+   * @param c The request class
+   *
+   * @return The maximum number of concurrent requests of class {@code c}
+   */
+
+  public int getMaximumConcurrency(final HTTPRequestClass c)
+  {
+    switch (NullCheck.notNull(c)) {
+      case HTTP_REQUEST_INTERACTIVE:
+        return this.max_interactive;
+      case HTTP_REQUEST_PREFETCH:
+        return this.max_prefetch;
+      case HTTP_REQUEST_BULK:
+        return this.max_bulk;
+      case HTTP_REQUEST_BACKGROUND:
+        return this.max_background;
+    }
+
+    throw new IllegalArgumentException(c.toString());
+  }
+
+  /**
+   * @return The rate in bytes per second to which bulk transfers are limited
+   * whilst interactive requests are in flight, or {@code 0} if bulk transfers
+   * are never throttled
+   */
+
+  public long getBulkThrottleBytesPerSecond()
+  {
+    return this.bulk_throttle;
+  }
+
+  /**
+   * @return The time in milliseconds after an interactive request has been
+   * answered during which it is still considered to be in flight
+   */
+
+  public long getInteractiveGraceMilliseconds()
+  {
+    return this.interactive_grace;
+  }
+}
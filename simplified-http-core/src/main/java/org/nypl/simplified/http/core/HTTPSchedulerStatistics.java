@@ -0,0 +1,117 @@
+package org.nypl.simplified.http.core;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * A snapshot of the state of a single request class within a scheduler.
+ */
+
+public final class HTTPSchedulerStatistics
+{
+  private final HTTPRequestClass request_class;
+  private final int              queued;
+  private final int              active;
+  private final long             requests;
+  private final long             wait_total_ns;
+  private final long             wait_max_ns;
+
+  /**
+   * Construct statistics.
+   *
+   * @param in_class         The request class
+   * @param in_queued        The number of requests currently waiting
+   * @param in_active        The number of requests currently holding a slot
+   * @param in_requests      The total number of requests that have been given
+   *                         a slot
+   * @param in_wait_total_ns The total time in nanoseconds that requests have
+   *                         spent waiting for a slot
+   * @param in_wait_max_ns   The longest time in nanoseconds that any request
+   *                         has spent waiting for a slot
+   */
+
+  public HTTPSchedulerStatistics(
+    final HTTPRequestClass in_class,
+    final int in_queued,
+    final int in_active,
+    final long in_requests,
+    final long in_wait_total_ns,
+    final long in_wait_max_ns)
+  {
+    this.request_class = NullCheck.notNull(in_class);
+    this.queued = in_queued;
+    this.active = in_active;
+    this.requests = in_requests;
+    this.wait_total_ns = in_wait_total_ns;
+    this.wait_max_ns = in_wait_max_ns;
+  }
+
+  /**
+   * @return The request class
+   */
+
+  public HTTPRequestClass getRequestClass()
+  {
+    return this.request_class;
+  }
+
+  /**
+   * @return The number of requests currently waiting for a slot
+   */
+
+  public int getQueuedCount()
+  {
+    return this.queued;
+  }
+
+  /**
+   * @return The number of requests currently holding a slot
+   */
+
+  public int getActiveCount()
+  {
+    return this.active;
+  }
+
+  /**
+   * @return The total number of requests that have been given a slot
+   */
+
+  public long getRequestCount()
+  {
+    return this.requests;
+  }
+
+  /**
+   * @return The mean queueing delay in milliseconds
+   */
+
+  public double getQueueDelayMeanMilliseconds()
+  {
+    if (this.requests == 0L) {
+      return 0.0;
+    }
+    return ((double) this.wait_total_ns / (double) this.requests) / 1000000.0;
+  }
+
+  /**
+   * @return The longest queueing delay in milliseconds
+   */
+
+  public double getQueueDelayMaximumMilliseconds()
+  {
+    return (double) this.wait_max_ns / 1000000.0;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder sb = new StringBuilder("HTTPSchedulerStatistics{");
+    sb.append("class=").append(this.request_class);
+    sb.append(", queued=").append(this.queued);
+    sb.append(", active=").append(this.active);
+    sb.append(", requests=").append(this.requests);
+    sb.append(", wait_mean_ms=").append(this.getQueueDelayMeanMilliseconds());
+    sb.append(", wait_max_ms=").append(this.getQueueDelayMaximumMilliseconds());
+    sb.append('}');
+    return sb.toString();
+  }
+}
@@ -0,0 +1,29 @@
+package org.nypl.simplified.http.core;
+
+/**
+ * <p>The type of HTTP request schedulers.</p>
+ *
+ * <p>A scheduler arbitrates access to the network between requests of
+ * different {@link HTTPRequestClass classes}. Each class has its own limit on
+ * the number of concurrent requests, so that a large download cannot starve
+ * the interactive catalog of connections.</p>
+ */
+
+public interface HTTPSchedulerType
+{
+  /**
+   * @param c The request class
+   *
+   * @return An HTTP interface that submits all requests as class {@code c}
+   */
+
+  HTTPType schedulerHTTPForClass(HTTPRequestClass c);
+
+  /**
+   * @param c The request class
+   *
+   * @return The current statistics for requests of class {@code c}
+   */
+
+  HTTPSchedulerStatistics schedulerGetStatistics(HTTPRequestClass c);
+}
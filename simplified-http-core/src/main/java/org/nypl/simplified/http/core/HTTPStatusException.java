@@ -0,0 +1,38 @@
+package org.nypl.simplified.http.core;
+
+import java.io.IOException;
+
+/**
+ * The type of exceptions raised when a server responds with an error code.
+ */
+
+public final class HTTPStatusException extends IOException
+{
+  private static final long serialVersionUID = 1L;
+
+  private final int status;
+
+  /**
+   * Construct an exception.
+   *
+   * @param in_message The message
+   * @param in_status  The HTTP status code
+   */
+
+  public HTTPStatusException(
+    final String in_message,
+    final int in_status)
+  {
+    super(in_message);
+    this.status = in_status;
+  }
+
+  /**
+   * @return The HTTP status code
+   */
+
+  public int getStatus()
+  {
+    return this.status;
+  }
+}
@@ -0,0 +1,94 @@
+package org.nypl.simplified.http.core;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.net.URI;
+
+/**
+ * <p>Functions to reduce URIs to templates suitable for use as metric
+ * keys.</p>
+ *
+ * <p>Path segments that look like identifiers (numbers, UUIDs, and long
+ * tokens containing digits) are replaced with {@code {id}}, and query
+ * parameter values are dropped, so that requests for different books against
+ * the same endpoint are counted together.</p>
+ */
+
+public final class HTTPURITemplate
+{
+  private static final String ID = "{id}";
+
+  private HTTPURITemplate()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * @param uri The URI
+   *
+   * @return A normalized template for the URI
+   */
+
+  public static String normalize(
+    final URI uri)
+  {
+    NullCheck.notNull(uri);
+
+    final StringBuilder sb = new StringBuilder(64);
+    final String path = uri.getRawPath();
+    if (path == null || path.isEmpty()) {
+      sb.append('/');
+    } else {
+      final String[] segments = path.split("/", -1);
+      for (int index = 0; index < segments.length; ++index) {
+        if (index > 0) {
+          sb.append('/');
+        }
+        final String s = segments[index];
+        if (HTTPURITemplate.isIdentifier(s)) {
+          sb.append(HTTPURITemplate.ID);
+        } else {
+          sb.append(s);
+        }
+      }
+    }
+
+    final String query = uri.getRawQuery();
+    if (query != null && query.isEmpty() == false) {
+      final String[] params = query.split("&");
+      for (int index = 0; index < params.length; ++index) {
+        sb.append(index == 0 ? '?' : '&');
+        final String p = params[index];
+        final int eq = p.indexOf('=');
+        sb.append(eq >= 0 ? p.substring(0, eq) : p);
+      }
+    }
+
+    return NullCheck.notNull(sb.toString());
+  }
+
+  private static boolean isIdentifier(
+    final String s)
+  {
+    if (s.isEmpty()) {
+      return false;
+    }
+
+    boolean digits = false;
+    boolean all_digits = true;
+    for (int index = 0; index < s.length(); ++index) {
+      final char c = s.charAt(index);
+      if (Character.isDigit(c)) {
+        digits = true;
+      } else {
+        all_digits = false;
+      }
+    }
+
+    if (all_digits) {
+      return true;
+    }
+    return digits && s.length() >= 16;
+  }
+}
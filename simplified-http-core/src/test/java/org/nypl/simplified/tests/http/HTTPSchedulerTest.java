@@ -0,0 +1,180 @@
+package org.nypl.simplified.tests.http;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.junreachable.UnimplementedCodeException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.nypl.simplified.http.core.HTTPAuthType;
+import org.nypl.simplified.http.core.HTTPRedirectFollower;
+import org.nypl.simplified.http.core.HTTPRequestClass;
+import org.nypl.simplified.http.core.HTTPResultOK;
+import org.nypl.simplified.http.core.HTTPResultOKType;
+import org.nypl.simplified.http.core.HTTPResultType;
+import org.nypl.simplified.http.core.HTTPScheduler;
+import org.nypl.simplified.http.core.HTTPSchedulerConfiguration;
+import org.nypl.simplified.http.core.HTTPSchedulerType;
+import org.nypl.simplified.http.core.HTTPType;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@SuppressWarnings({ "null", "static-method" }) public final class HTTPSchedulerTest
+{
+  private static final URI START = URI.create("http://example.com/start");
+  private static final URI FINAL = URI.create("http://example.com/final");
+
+  private static HTTPSchedulerConfiguration config(final int bulk)
+  {
+    return new HTTPSchedulerConfiguration(4, 2, bulk, 1, 0L, 0L);
+  }
+
+  @Test(timeout = 10000L) public void testBulkRedirectsReleaseSlots()
+    throws Exception
+  {
+    final RedirectingHTTP http = new RedirectingHTTP();
+    final HTTPSchedulerType s =
+      HTTPScheduler.newScheduler(http, HTTPSchedulerTest.config(2));
+    final HTTPType bulk =
+      s.schedulerHTTPForClass(HTTPRequestClass.HTTP_REQUEST_BULK);
+
+    for (int index = 0; index < 8; ++index) {
+      final OptionType<HTTPAuthType> none = Option.none();
+      final HTTPRedirectFollower rf = new HTTPRedirectFollower(
+        LoggerFactory.getLogger(HTTPSchedulerTest.class),
+        bulk,
+        "GET",
+        none,
+        5,
+        HTTPSchedulerTest.START,
+        0L);
+
+      final HTTPResultOKType<InputStream> r = rf.runExceptional();
+      Assert.assertEquals(200L, (long) r.getStatus());
+      final InputStream in = r.getValue();
+      try {
+        while (in.read() != -1) {
+          // Discard the body
+        }
+      } finally {
+        in.close();
+      }
+    }
+
+    Assert.assertEquals(
+      0L,
+      (long) s.schedulerGetStatistics(HTTPRequestClass.HTTP_REQUEST_BULK)
+        .getActiveCount());
+    Assert.assertEquals(8L, (long) http.redirects.size());
+    for (final Body b : http.redirects) {
+      Assert.assertTrue(b.closed);
+    }
+  }
+
+  @Test(timeout = 10000L) public void testBulkBodyHoldsSlot()
+    throws Exception
+  {
+    final RedirectingHTTP http = new RedirectingHTTP();
+    final HTTPSchedulerType s =
+      HTTPScheduler.newScheduler(http, HTTPSchedulerTest.config(1));
+    final HTTPType bulk =
+      s.schedulerHTTPForClass(HTTPRequestClass.HTTP_REQUEST_BULK);
+
+    final OptionType<HTTPAuthType> none = Option.none();
+    final HTTPResultType<InputStream> r =
+      bulk.get(none, HTTPSchedulerTest.FINAL, 0L);
+    final HTTPResultOKType<InputStream> ok = (HTTPResultOKType<InputStream>) r;
+
+    Assert.assertEquals(
+      1L,
+      (long) s.schedulerGetStatistics(HTTPRequestClass.HTTP_REQUEST_BULK)
+        .getActiveCount());
+
+    ok.getValue().close();
+
+    Assert.assertEquals(
+      0L,
+      (long) s.schedulerGetStatistics(HTTPRequestClass.HTTP_REQUEST_BULK)
+        .getActiveCount());
+  }
+
+  private static final class Body extends ByteArrayInputStream
+  {
+    private volatile boolean closed;
+
+    Body(final byte[] data)
+    {
+      super(data);
+    }
+
+    @Override public void close()
+      throws IOException
+    {
+      this.closed = true;
+      super.close();
+    }
+  }
+
+  private static final class RedirectingHTTP implements HTTPType
+  {
+    private final List<Body> redirects;
+
+    RedirectingHTTP()
+    {
+      this.redirects = Collections.synchronizedList(new ArrayList<Body>(8));
+    }
+
+    @Override public HTTPResultType<InputStream> get(
+      final OptionType<HTTPAuthType> auth,
+      final URI uri,
+      final long offset)
+    {
+      final Map<String, List<String>> headers =
+        new HashMap<String, List<String>>(1);
+
+      if (HTTPSchedulerTest.START.equals(uri)) {
+        final Body b = new Body(new byte[16]);
+        this.redirects.add(b);
+        headers.put(
+          "Location",
+          Collections.singletonList(HTTPSchedulerTest.FINAL.toString()));
+        return new HTTPResultOK<InputStream>(
+          "Found", 302, b, 16L, headers, 0L);
+      }
+
+      return new HTTPResultOK<InputStream>(
+        "OK", 200, new Body(new byte[64]), 64L, headers, 0L);
+    }
+
+    @Override public HTTPResultType<InputStream> put(
+      final OptionType<HTTPAuthType> auth,
+      final URI uri)
+    {
+      throw new UnimplementedCodeException();
+    }
+
+    @Override public HTTPResultType<InputStream> post(
+      final OptionType<HTTPAuthType> auth,
+      final URI uri,
+      final byte[] data,
+      final String content_type)
+    {
+      throw new UnimplementedCodeException();
+    }
+
+    @Override public HTTPResultType<InputStream> head(
+      final OptionType<HTTPAuthType> auth,
+      final URI uri)
+    {
+      throw new UnimplementedCodeException();
+    }
+  }
+}
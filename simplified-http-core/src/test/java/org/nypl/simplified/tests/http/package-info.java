@@ -0,0 +1,5 @@
+/**
+ * HTTP tests.
+ */
+
+@com.io7m.jnull.NonNullByDefault package org.nypl.simplified.tests.http;
@@ -0,0 +1,158 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Pair;
+import com.io7m.jfunctional.ProcedureType;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.nypl.simplified.books.core.BookDatabase;
+import org.nypl.simplified.books.core.BookDatabaseEntrySnapshot;
+import org.nypl.simplified.books.core.BookDatabaseType;
+import org.nypl.simplified.books.core.BookID;
+import org.nypl.simplified.books.core.BooksStatusCache;
+import org.nypl.simplified.books.core.BooksStatusCacheType;
+import org.nypl.simplified.files.DirectoryUtilities;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntryBuilderType;
+import org.nypl.simplified.opds.core.OPDSAvailabilityLoaned;
+import org.nypl.simplified.opds.core.OPDSJSONParser;
+import org.nypl.simplified.opds.core.OPDSJSONSerializer;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Calendar;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A command-line benchmark of the time taken to load the status of every
+ * book in a {@link BookDatabase}, as happens when the application starts.</p>
+ *
+ * <p>For each database size, the benchmark creates a database of loaned books
+ * and then reports the time taken until the status of the first book was
+ * broadcast, the time taken until the status of every book was known, and
+ * the number of broadcasts observed. The figures are only meaningful when
+ * run on the storage of the device of interest.</p>
+ */
+
+public final class BookDatabaseLoadBenchmarkMain
+{
+  private static final int[] SIZES = {10, 100, 1000};
+
+  private BookDatabaseLoadBenchmarkMain()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Command-line entry point.
+   *
+   * @param args A working directory
+   *
+   * @throws Exception On errors
+   */
+
+  public static void main(final String[] args)
+    throws Exception
+  {
+    if (args.length < 1) {
+      System.err.println("usage: directory");
+      System.exit(1);
+    }
+
+    final File directory = new File(args[0]);
+    for (final int size : BookDatabaseLoadBenchmarkMain.SIZES) {
+      final File db_dir = new File(
+        directory, String.format("books-%d", Integer.valueOf(size)));
+      final BookDatabaseType db = BookDatabase.newDatabase(
+        OPDSJSONSerializer.newSerializer(),
+        OPDSJSONParser.newParser(),
+        db_dir);
+
+      db.databaseDestroy();
+      db.databaseCreate();
+      BookDatabaseLoadBenchmarkMain.populate(db, size);
+      BookDatabaseLoadBenchmarkMain.load(db, size);
+      db.databaseDestroy();
+    }
+
+    DirectoryUtilities.directoryDelete(directory);
+    System.exit(0);
+  }
+
+  private static void populate(
+    final BookDatabaseType db,
+    final int size)
+    throws Exception
+  {
+    final OptionType<Calendar> no_date = Option.none();
+    final OptionType<URI> no_revoke = Option.none();
+
+    for (int index = 0; index < size; ++index) {
+      final String id = String.format(
+        "urn:simplified-benchmark:%d", Integer.valueOf(index));
+      final OPDSAcquisitionFeedEntryBuilderType b =
+        OPDSAcquisitionFeedEntry.newBuilder(
+          id,
+          String.format("Book %d", Integer.valueOf(index)),
+          Calendar.getInstance(),
+          OPDSAvailabilityLoaned.get(no_date, no_date, no_revoke));
+
+      db.databaseOpenEntryForWriting(BookID.newIDFromEntry(b.build()))
+        .entryCreate(b.build());
+    }
+  }
+
+  private static void load(
+    final BookDatabaseType db,
+    final int size)
+  {
+    final BooksStatusCacheType cache = BooksStatusCache.newStatusCache();
+    final AtomicInteger broadcasts = new AtomicInteger(0);
+    final AtomicLong first = new AtomicLong(-1L);
+    final AtomicInteger failed = new AtomicInteger(0);
+
+    final long start = System.nanoTime();
+    cache.booksObservableAddObserver(
+      new Observer()
+      {
+        @Override public void update(
+          final Observable o,
+          final Object arg)
+        {
+          broadcasts.incrementAndGet();
+          first.compareAndSet(-1L, System.nanoTime() - start);
+        }
+      });
+
+    db.databaseNotifyAllBookStatus(
+      cache,
+      new ProcedureType<Pair<BookID, BookDatabaseEntrySnapshot>>()
+      {
+        @Override
+        public void call(final Pair<BookID, BookDatabaseEntrySnapshot> p)
+        {
+          // Nothing
+        }
+      },
+      new ProcedureType<Pair<BookID, Throwable>>()
+      {
+        @Override public void call(final Pair<BookID, Throwable> p)
+        {
+          failed.incrementAndGet();
+        }
+      });
+
+    final long elapsed = System.nanoTime() - start;
+    System.out.printf(
+      "%5d books: first status %8dus  all statuses %8dus  broadcasts %5d"
+        + "  failed %d\n",
+      Integer.valueOf(size),
+      Long.valueOf(first.get() / 1000L),
+      Long.valueOf(elapsed / 1000L),
+      Integer.valueOf(broadcasts.get()),
+      Integer.valueOf(failed.get()));
+  }
+}
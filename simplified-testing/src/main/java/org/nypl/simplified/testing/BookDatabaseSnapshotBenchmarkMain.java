@@ -0,0 +1,193 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.nypl.simplified.books.core.BookDatabase;
+import org.nypl.simplified.books.core.BookDatabaseEntryReadableType;
+import org.nypl.simplified.books.core.BookDatabaseType;
+import org.nypl.simplified.books.core.BookID;
+import org.nypl.simplified.files.DirectoryUtilities;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntryBuilderType;
+import org.nypl.simplified.opds.core.OPDSAvailabilityLoaned;
+import org.nypl.simplified.opds.core.OPDSJSONParser;
+import org.nypl.simplified.opds.core.OPDSJSONSerializer;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A command-line benchmark of the rate at which snapshots of the entries
+ * of a {@link BookDatabase} can be taken by concurrent readers.</p>
+ *
+ * <p>The benchmark creates a database of loaned books and reports the rate
+ * of snapshot reads on a freshly opened database, on which every snapshot
+ * must be read from disk, and then the rate achieved by increasing numbers
+ * of threads reading snapshots of the same entries repeatedly.</p>
+ */
+
+public final class BookDatabaseSnapshotBenchmarkMain
+{
+  private static final int   BOOKS       = 100;
+  private static final long  DURATION_MS = 2000L;
+  private static final int[] THREADS     = {1, 2, 4, 8};
+
+  private BookDatabaseSnapshotBenchmarkMain()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Command-line entry point.
+   *
+   * @param args A working directory
+   *
+   * @throws Exception On errors
+   */
+
+  public static void main(final String[] args)
+    throws Exception
+  {
+    if (args.length < 1) {
+      System.err.println("usage: directory");
+      System.exit(1);
+    }
+
+    final File directory = new File(args[0]);
+    final File db_dir = new File(directory, "books");
+    final BookDatabaseType db_init =
+      BookDatabaseSnapshotBenchmarkMain.open(db_dir);
+    db_init.databaseDestroy();
+    db_init.databaseCreate();
+    BookDatabaseSnapshotBenchmarkMain.populate(db_init);
+
+    /**
+     * A newly opened database has no cached snapshots.
+     */
+
+    final BookDatabaseType db = BookDatabaseSnapshotBenchmarkMain.open(db_dir);
+    final List<BookDatabaseEntryReadableType> entries =
+      new ArrayList<BookDatabaseEntryReadableType>(
+        BookDatabaseSnapshotBenchmarkMain.BOOKS);
+    for (final BookID id : db.databaseGetBooks()) {
+      entries.add(db.databaseOpenEntryForReading(id));
+    }
+
+    final long start = System.nanoTime();
+    for (final BookDatabaseEntryReadableType e : entries) {
+      e.entryGetSnapshot();
+    }
+    BookDatabaseSnapshotBenchmarkMain.report(
+      "cold", entries.size(), System.nanoTime() - start);
+
+    for (final int threads : BookDatabaseSnapshotBenchmarkMain.THREADS) {
+      BookDatabaseSnapshotBenchmarkMain.read(entries, threads);
+    }
+
+    db.databaseDestroy();
+    DirectoryUtilities.directoryDelete(directory);
+    System.exit(0);
+  }
+
+  private static BookDatabaseType open(final File db_dir)
+  {
+    return BookDatabase.newDatabase(
+      OPDSJSONSerializer.newSerializer(), OPDSJSONParser.newParser(), db_dir);
+  }
+
+  private static void populate(final BookDatabaseType db)
+    throws Exception
+  {
+    final OptionType<Calendar> no_date = Option.none();
+    final OptionType<URI> no_revoke = Option.none();
+
+    for (int index = 0; index < BookDatabaseSnapshotBenchmarkMain.BOOKS;
+         ++index) {
+      final String id = String.format(
+        "urn:simplified-benchmark:%d", Integer.valueOf(index));
+      final OPDSAcquisitionFeedEntryBuilderType b =
+        OPDSAcquisitionFeedEntry.newBuilder(
+          id,
+          String.format("Book %d", Integer.valueOf(index)),
+          Calendar.getInstance(),
+          OPDSAvailabilityLoaned.get(no_date, no_date, no_revoke));
+
+      db.databaseOpenEntryForWriting(BookID.newIDFromEntry(b.build()))
+        .entryCreate(b.build());
+    }
+  }
+
+  private static void read(
+    final List<BookDatabaseEntryReadableType> entries,
+    final int threads)
+    throws Exception
+  {
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicLong reads = new AtomicLong(0L);
+    final AtomicLong failed = new AtomicLong(0L);
+    final CountDownLatch finished = new CountDownLatch(threads);
+
+    for (int t = 0; t < threads; ++t) {
+      final int offset = t;
+      final Thread th = new Thread(
+        new Runnable()
+        {
+          @Override public void run()
+          {
+            try {
+              long count = 0L;
+              int index = offset;
+              while (done.get() == false) {
+                try {
+                  entries.get(index % entries.size()).entryGetSnapshot();
+                  ++count;
+                } catch (final Exception e) {
+                  failed.incrementAndGet();
+                }
+                ++index;
+              }
+              reads.addAndGet(count);
+            } finally {
+              finished.countDown();
+            }
+          }
+        });
+      th.setName(String.format("snapshot-reader-%d", Integer.valueOf(t)));
+      th.start();
+    }
+
+    final long start = System.nanoTime();
+    Thread.sleep(BookDatabaseSnapshotBenchmarkMain.DURATION_MS);
+    done.set(true);
+    finished.await();
+
+    BookDatabaseSnapshotBenchmarkMain.report(
+      String.format("%d threads", Integer.valueOf(threads)),
+      reads.get(),
+      System.nanoTime() - start);
+    if (failed.get() > 0L) {
+      System.out.printf("  failed %d\n", Long.valueOf(failed.get()));
+    }
+  }
+
+  private static void report(
+    final String name,
+    final long reads,
+    final long elapsed)
+  {
+    final double seconds = (double) elapsed / 1.0e9;
+    System.out.printf(
+      "%-10s: %10d reads in %8dus: %12.0f reads/s\n",
+      name,
+      Long.valueOf(reads),
+      Long.valueOf(elapsed / 1000L),
+      Double.valueOf((double) reads / seconds));
+  }
+}
@@ -0,0 +1,128 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Functions to generate minimal, structurally valid EPUB files of a given
+ * approximate size.
+ */
+
+final class EPUBGenerator
+{
+  private static final Charset UTF8 = NullCheck.notNull(Charset.forName("UTF-8"));
+
+  private EPUBGenerator()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  private static void stored(
+    final ZipOutputStream z,
+    final String name,
+    final byte[] data)
+    throws IOException
+  {
+    final CRC32 crc = new CRC32();
+    crc.update(data);
+
+    final ZipEntry e = new ZipEntry(name);
+    e.setMethod(ZipEntry.STORED);
+    e.setSize((long) data.length);
+    e.setCompressedSize((long) data.length);
+    e.setCrc(crc.getValue());
+    z.putNextEntry(e);
+    z.write(data);
+    z.closeEntry();
+  }
+
+  private static void deflated(
+    final ZipOutputStream z,
+    final String name,
+    final String text)
+    throws IOException
+  {
+    z.putNextEntry(new ZipEntry(name));
+    z.write(text.getBytes(EPUBGenerator.UTF8));
+    z.closeEntry();
+  }
+
+  /**
+   * Generate an EPUB. The file is padded with an incompressible resource so
+   * that transfers of it are realistic.
+   *
+   * @param size The approximate size in bytes
+   * @param seed The seed used for the padding content
+   *
+   * @return The EPUB data
+   */
+
+  static byte[] generate(
+    final int size,
+    final long seed)
+  {
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(size + 4096);
+      final ZipOutputStream z = new ZipOutputStream(out);
+      try {
+        EPUBGenerator.stored(
+          z, "mimetype", "application/epub+zip".getBytes(EPUBGenerator.UTF8));
+
+        EPUBGenerator.deflated(
+          z,
+          "META-INF/container.xml",
+          "<?xml version=\"1.0\"?>\n"
+            + "<container version=\"1.0\""
+            + " xmlns=\"urn:oasis:names:tc:opendocument:xmlns:container\">\n"
+            + "<rootfiles><rootfile full-path=\"OEBPS/content.opf\""
+            + " media-type=\"application/oebps-package+xml\"/></rootfiles>\n"
+            + "</container>\n");
+
+        EPUBGenerator.deflated(
+          z,
+          "OEBPS/content.opf",
+          "<?xml version=\"1.0\"?>\n"
+            + "<package xmlns=\"http://www.idpf.org/2007/opf\" version=\"3.0\""
+            + " unique-identifier=\"id\">\n"
+            + "<metadata xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+            + "<dc:identifier id=\"id\">urn:simplified-testing:" + seed
+            + "</dc:identifier><dc:title>Book " + seed + "</dc:title>"
+            + "<dc:language>en</dc:language></metadata>\n"
+            + "<manifest><item id=\"c\" href=\"chapter.xhtml\""
+            + " media-type=\"application/xhtml+xml\"/>"
+            + "<item id=\"p\" href=\"padding.bin\""
+            + " media-type=\"application/octet-stream\"/></manifest>\n"
+            + "<spine><itemref idref=\"c\"/></spine>\n"
+            + "</package>\n");
+
+        EPUBGenerator.deflated(
+          z,
+          "OEBPS/chapter.xhtml",
+          "<?xml version=\"1.0\"?>\n"
+            + "<html xmlns=\"http://www.w3.org/1999/xhtml\"><head>"
+            + "<title>Chapter</title></head><body><p>Chapter 1</p></body>"
+            + "</html>\n");
+
+        final int padding = Math.max(0, size - 2048);
+        final byte[] data = new byte[padding];
+        new Random(seed).nextBytes(data);
+        EPUBGenerator.stored(z, "OEBPS/padding.bin", data);
+
+        z.finish();
+      } finally {
+        z.close();
+      }
+      return out.toByteArray();
+    } catch (final IOException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+}
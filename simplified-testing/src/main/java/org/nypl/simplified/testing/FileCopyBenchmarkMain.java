@@ -0,0 +1,249 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.junreachable.UnreachableCodeException;
+import org.nypl.simplified.files.DirectoryUtilities;
+import org.nypl.simplified.files.FileDurability;
+import org.nypl.simplified.files.FileUtilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * <p>A command-line benchmark of the file copy and atomic write functions of
+ * {@link FileUtilities}.</p>
+ *
+ * <p>For source files of 4KB up to 500MB, the benchmark compares copying
+ * through an 8KB heap buffer that is flushed after every chunk (the original
+ * implementation of {@link FileUtilities#fileCopy(File, File)}) with copying
+ * through {@link java.nio.channels.FileChannel#transferTo}, with and without
+ * syncing the copy to storage. It then compares atomic writes of small
+ * files with and without {@link FileDurability#FILE_DURABILITY_SYNC}.</p>
+ *
+ * <p>Each measurement is preceded by an untimed run. The source file is
+ * usually in the page cache, so copies measure the cost of writing rather
+ * than of reading from storage.</p>
+ */
+
+public final class FileCopyBenchmarkMain
+{
+  private static final long[] SIZES = {
+    4L * 1024L,
+    64L * 1024L,
+    1024L * 1024L,
+    16L * 1024L * 1024L,
+    128L * 1024L * 1024L,
+    500L * 1024L * 1024L,
+  };
+
+  private static final long BYTES_PER_SIZE = 256L * 1024L * 1024L;
+  private static final int  ITERATIONS_MIN = 3;
+  private static final int  ITERATIONS_MAX = 500;
+  private static final int  ATOMIC_WRITES  = 200;
+  private static final int  ATOMIC_SIZE    = 4 * 1024;
+
+  private FileCopyBenchmarkMain()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Command-line entry point.
+   *
+   * @param args A working directory, and optionally the largest file size to
+   *             test in megabytes
+   *
+   * @throws Exception On errors
+   */
+
+  public static void main(final String[] args)
+    throws Exception
+  {
+    if (args.length < 1) {
+      System.err.println("usage: directory [maximum-megabytes]");
+      System.exit(1);
+    }
+
+    final File directory = new File(args[0]);
+    long maximum = Long.MAX_VALUE;
+    if (args.length >= 2) {
+      maximum = Long.parseLong(args[1]) * 1024L * 1024L;
+    }
+
+    DirectoryUtilities.directoryCreate(directory);
+    final File source = new File(directory, "source");
+    final File target = new File(directory, "target");
+    final File target_tmp = new File(directory, "target.tmp");
+
+    for (final long size : FileCopyBenchmarkMain.SIZES) {
+      if (size > maximum) {
+        break;
+      }
+
+      FileCopyBenchmarkMain.makeSource(source, size);
+      final int iterations = (int) Math.max(
+        (long) FileCopyBenchmarkMain.ITERATIONS_MIN,
+        Math.min(
+          (long) FileCopyBenchmarkMain.ITERATIONS_MAX,
+          FileCopyBenchmarkMain.BYTES_PER_SIZE / size));
+
+      FileCopyBenchmarkMain.copy(
+        "stream", source, target, size, iterations, new CopyType()
+        {
+          @Override public void copy(
+            final File from,
+            final File to)
+            throws IOException
+          {
+            FileCopyBenchmarkMain.copyStream(from, to);
+          }
+        });
+      FileCopyBenchmarkMain.copy(
+        "channel", source, target, size, iterations, new CopyType()
+        {
+          @Override public void copy(
+            final File from,
+            final File to)
+            throws IOException
+          {
+            FileUtilities.fileCopy(
+              from, to, FileDurability.FILE_DURABILITY_NONE);
+          }
+        });
+      FileCopyBenchmarkMain.copy(
+        "channel+sync", source, target, size, iterations, new CopyType()
+        {
+          @Override public void copy(
+            final File from,
+            final File to)
+            throws IOException
+          {
+            FileUtilities.fileCopy(
+              from, to, FileDurability.FILE_DURABILITY_SYNC);
+          }
+        });
+    }
+
+    final byte[] data = new byte[FileCopyBenchmarkMain.ATOMIC_SIZE];
+    new Random(0L).nextBytes(data);
+    for (final FileDurability d : FileDurability.values()) {
+      FileUtilities.fileWriteBytesAtomically(target, target_tmp, data, d);
+
+      final long start = System.nanoTime();
+      for (int i = 0; i < FileCopyBenchmarkMain.ATOMIC_WRITES; ++i) {
+        FileUtilities.fileWriteBytesAtomically(target, target_tmp, data, d);
+      }
+      final long elapsed = System.nanoTime() - start;
+
+      System.out.printf(
+        "atomic %-22s: %6d writes of %dKB: %10.1fus/write\n",
+        d,
+        Integer.valueOf(FileCopyBenchmarkMain.ATOMIC_WRITES),
+        Integer.valueOf(FileCopyBenchmarkMain.ATOMIC_SIZE / 1024),
+        Double.valueOf(
+          (double) elapsed / 1000.0 / FileCopyBenchmarkMain.ATOMIC_WRITES));
+    }
+
+    DirectoryUtilities.directoryDelete(directory);
+    System.exit(0);
+  }
+
+  private static void makeSource(
+    final File file,
+    final long size)
+    throws IOException
+  {
+    final Random random = new Random(size);
+    final byte[] buffer = new byte[1024 * 1024];
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      long remaining = size;
+      while (remaining > 0L) {
+        random.nextBytes(buffer);
+        final int n = (int) Math.min((long) buffer.length, remaining);
+        out.write(buffer, 0, n);
+        remaining -= (long) n;
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void copy(
+    final String name,
+    final File source,
+    final File target,
+    final long size,
+    final int iterations,
+    final CopyType c)
+    throws IOException
+  {
+    c.copy(source, target);
+    if (target.length() != size) {
+      throw new IOException(
+        String.format(
+          "%s: copied %d bytes, expected %d",
+          name,
+          Long.valueOf(target.length()),
+          Long.valueOf(size)));
+    }
+
+    final long start = System.nanoTime();
+    for (int i = 0; i < iterations; ++i) {
+      c.copy(source, target);
+    }
+    final long elapsed = System.nanoTime() - start;
+
+    final double seconds = (double) elapsed / 1.0e9;
+    final double megabytes =
+      (double) (size * (long) iterations) / (1024.0 * 1024.0);
+    System.out.printf(
+      "%8dKB %-12s: %5d copies: %10.1fus/copy %10.1fMB/s\n",
+      Long.valueOf(size / 1024L),
+      name,
+      Integer.valueOf(iterations),
+      Double.valueOf((double) elapsed / 1000.0 / (double) iterations),
+      Double.valueOf(megabytes / seconds));
+  }
+
+  /**
+   * The original implementation of {@link FileUtilities#fileCopy(File,
+   * File)}, kept as the baseline.
+   */
+
+  private static void copyStream(
+    final File from,
+    final File to)
+    throws IOException
+  {
+    final byte[] buffer = new byte[8192];
+    final FileInputStream in = new FileInputStream(from);
+    try {
+      final FileOutputStream out = new FileOutputStream(to);
+      try {
+        while (true) {
+          final int r = in.read(buffer);
+          if (r == -1) {
+            break;
+          }
+          out.write(buffer, 0, r);
+          out.flush();
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private interface CopyType
+  {
+    void copy(
+      File from,
+      File to)
+      throws IOException;
+  }
+}
@@ -0,0 +1,129 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.jnull.NullCheck;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single recorded HTTP request and its response.
+ */
+
+public final class HTTPRecordedExchange
+{
+  private final String                    method;
+  private final URI                       uri;
+  private final int                       status;
+  private final String                    message;
+  private final Map<String, List<String>> headers;
+  private final long                      last_modified;
+  private final byte[]                    body;
+
+  /**
+   * Construct an exchange.
+   *
+   * @param in_method        The request method
+   * @param in_uri           The request URI
+   * @param in_status        The response status, or {@code -1} if the
+   *                         request failed without a response
+   * @param in_message       The response message
+   * @param in_headers       The response headers
+   * @param in_last_modified The last modified time
+   * @param in_body          The response body
+   */
+
+  public HTTPRecordedExchange(
+    final String in_method,
+    final URI in_uri,
+    final int in_status,
+    final String in_message,
+    final Map<String, List<String>> in_headers,
+    final long in_last_modified,
+    final byte[] in_body)
+  {
+    this.method = NullCheck.notNull(in_method);
+    this.uri = NullCheck.notNull(in_uri);
+    this.status = in_status;
+    this.message = NullCheck.notNull(in_message);
+    this.last_modified = in_last_modified;
+    this.body = NullCheck.notNull(in_body);
+
+    final Map<String, List<String>> h =
+      new HashMap<String, List<String>>(in_headers.size());
+    for (final String k : in_headers.keySet()) {
+      if (k != null) {
+        final List<String> values = in_headers.get(k);
+        h.put(
+          k, Collections.unmodifiableList(new ArrayList<String>(values)));
+      }
+    }
+    this.headers = NullCheck.notNull(Collections.unmodifiableMap(h));
+  }
+
+  /**
+   * @return The request method
+   */
+
+  public String getMethod()
+  {
+    return this.method;
+  }
+
+  /**
+   * @return The request URI
+   */
+
+  public URI getURI()
+  {
+    return this.uri;
+  }
+
+  /**
+   * @return The response status, or {@code -1} if the request failed
+   */
+
+  public int getStatus()
+  {
+    return this.status;
+  }
+
+  /**
+   * @return The response message
+   */
+
+  public String getMessage()
+  {
+    return this.message;
+  }
+
+  /**
+   * @return The response headers
+   */
+
+  public Map<String, List<String>> getHeaders()
+  {
+    return this.headers;
+  }
+
+  /**
+   * @return The last modified time
+   */
+
+  public long getLastModified()
+  {
+    return this.last_modified;
+  }
+
+  /**
+   * @return The response body. The returned array must not be modified.
+   */
+
+  public byte[] getBody()
+  {
+    return this.body;
+  }
+}
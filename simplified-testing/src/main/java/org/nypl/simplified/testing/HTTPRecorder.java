@@ -0,0 +1,260 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.nypl.simplified.http.core.HTTPAuthType;
+import org.nypl.simplified.http.core.HTTPResultError;
+import org.nypl.simplified.http.core.HTTPResultException;
+import org.nypl.simplified.http.core.HTTPResultMatcherType;
+import org.nypl.simplified.http.core.HTTPResultOK;
+import org.nypl.simplified.http.core.HTTPResultOKType;
+import org.nypl.simplified.http.core.HTTPResultType;
+import org.nypl.simplified.http.core.HTTPType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>An {@link HTTPType} decorator that records every exchange into an
+ * {@link HTTPRecording}.</p>
+ *
+ * <p>Successful response bodies are recorded as they are read, and the
+ * exchange is added to the recording when the body is closed or read to the
+ * end. Error bodies are read eagerly.</p>
+ */
+
+public final class HTTPRecorder implements HTTPType
+{
+  private final HTTPType      http;
+  private final HTTPRecording recording;
+
+  private HTTPRecorder(
+    final HTTPType in_http,
+    final HTTPRecording in_recording)
+  {
+    this.http = NullCheck.notNull(in_http);
+    this.recording = NullCheck.notNull(in_recording);
+  }
+
+  /**
+   * @param in_http      The HTTP interface that will actually perform
+   *                     requests
+   * @param in_recording The recording to which exchanges will be added
+   *
+   * @return A new recording HTTP interface
+   */
+
+  public static HTTPType newRecorder(
+    final HTTPType in_http,
+    final HTTPRecording in_recording)
+  {
+    return new HTTPRecorder(in_http, in_recording);
+  }
+
+  private static byte[] readAll(final InputStream s)
+    throws IOException
+  {
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[8192];
+      while (true) {
+        final int r = s.read(buffer);
+        if (r == -1) {
+          break;
+        }
+        out.write(buffer, 0, r);
+      }
+      return out.toByteArray();
+    } finally {
+      s.close();
+    }
+  }
+
+  private HTTPResultType<InputStream> record(
+    final String method,
+    final URI uri,
+    final HTTPResultType<InputStream> r)
+  {
+    return r.matchResult(
+      new HTTPResultMatcherType<InputStream, HTTPResultType<InputStream>,
+        UnreachableCodeException>()
+      {
+        @Override public HTTPResultType<InputStream> onHTTPError(
+          final HTTPResultError<InputStream> e)
+        {
+          byte[] data;
+          try {
+            data = HTTPRecorder.readAll(e.getData());
+          } catch (final IOException x) {
+            data = new byte[0];
+          }
+
+          HTTPRecorder.this.recording.recordingAdd(
+            new HTTPRecordedExchange(
+              method,
+              uri,
+              e.getStatus(),
+              e.getMessage(),
+              e.getResponseHeaders(),
+              e.getLastModifiedTime(),
+              data));
+
+          return new HTTPResultError<InputStream>(
+            e.getStatus(),
+            e.getMessage(),
+            e.getContentLength(),
+            e.getResponseHeaders(),
+            e.getLastModifiedTime(),
+            new ByteArrayInputStream(data),
+            e.getProblemReport());
+        }
+
+        @Override public HTTPResultType<InputStream> onHTTPException(
+          final HTTPResultException<InputStream> e)
+        {
+          final String message = e.getError().getMessage();
+          HTTPRecorder.this.recording.recordingAdd(
+            new HTTPRecordedExchange(
+              method,
+              uri,
+              -1,
+              message != null ? message : e.getError().getClass().getName(),
+              Collections.<String, List<String>>emptyMap(),
+              0L,
+              new byte[0]));
+          return e;
+        }
+
+        @Override public HTTPResultType<InputStream> onHTTPOK(
+          final HTTPResultOKType<InputStream> e)
+        {
+          return new HTTPResultOK<InputStream>(
+            e.getMessage(),
+            e.getStatus(),
+            new RecordingInputStream(method, uri, e),
+            e.getContentLength(),
+            e.getResponseHeaders(),
+            e.getLastModifiedTime());
+        }
+      });
+  }
+
+  @Override public HTTPResultType<InputStream> get(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri,
+    final long offset)
+  {
+    return this.record("GET", uri, this.http.get(auth, uri, offset));
+  }
+
+  @Override public HTTPResultType<InputStream> put(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri)
+  {
+    return this.record("PUT", uri, this.http.put(auth, uri));
+  }
+
+  @Override public HTTPResultType<InputStream> post(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri,
+    final byte[] data,
+    final String content_type)
+  {
+    return this.record(
+      "POST", uri, this.http.post(auth, uri, data, content_type));
+  }
+
+  @Override public HTTPResultType<InputStream> head(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri)
+  {
+    return this.record("HEAD", uri, this.http.head(auth, uri));
+  }
+
+  private final class RecordingInputStream extends FilterInputStream
+  {
+    private final String                        method;
+    private final URI                           uri;
+    private final HTTPResultOKType<InputStream> result;
+    private final ByteArrayOutputStream         data;
+    private       boolean                       done;
+
+    RecordingInputStream(
+      final String in_method,
+      final URI in_uri,
+      final HTTPResultOKType<InputStream> in_result)
+    {
+      super(in_result.getValue());
+      this.method = in_method;
+      this.uri = in_uri;
+      this.result = in_result;
+      this.data = new ByteArrayOutputStream();
+      this.done = false;
+    }
+
+    @Override public int read()
+      throws IOException
+    {
+      final int r = super.read();
+      if (r == -1) {
+        this.finish();
+      } else {
+        this.data.write(r);
+      }
+      return r;
+    }
+
+    @Override public int read(
+      final byte[] b,
+      final int off,
+      final int len)
+      throws IOException
+    {
+      final int r = super.read(b, off, len);
+      if (r == -1) {
+        this.finish();
+      } else {
+        this.data.write(b, off, r);
+      }
+      return r;
+    }
+
+    @Override public void close()
+      throws IOException
+    {
+      try {
+        super.close();
+      } finally {
+        this.finish();
+      }
+    }
+
+    private void finish()
+    {
+      if (this.done) {
+        return;
+      }
+      this.done = true;
+
+      final Map<String, List<String>> headers =
+        this.result.getResponseHeaders();
+      HTTPRecorder.this.recording.recordingAdd(
+        new HTTPRecordedExchange(
+          this.method,
+          this.uri,
+          this.result.getStatus(),
+          this.result.getMessage(),
+          headers,
+          this.result.getLastModifiedTime(),
+          this.data.toByteArray()));
+    }
+  }
+}
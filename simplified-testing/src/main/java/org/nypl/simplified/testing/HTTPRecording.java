@@ -0,0 +1,286 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.files.DirectoryUtilities;
+import org.nypl.simplified.files.FileUtilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * <p>A set of recorded HTTP exchanges.</p>
+ *
+ * <p>Exchanges are looked up by method and URI. If the same request was
+ * recorded more than once, successive lookups return the recorded responses
+ * in order, and the last response is repeated once the others have been
+ * used.</p>
+ */
+
+public final class HTTPRecording
+{
+  private final List<HTTPRecordedExchange> exchanges;
+  private final Map<String, Integer>       positions;
+
+  private HTTPRecording()
+  {
+    this.exchanges = new ArrayList<HTTPRecordedExchange>(64);
+    this.positions = new HashMap<String, Integer>(64);
+  }
+
+  /**
+   * @return A new empty recording
+   */
+
+  public static HTTPRecording newRecording()
+  {
+    return new HTTPRecording();
+  }
+
+  /**
+   * Load a recording previously saved with {@link #recordingSave(File)}.
+   *
+   * @param directory The directory
+   *
+   * @return A recording
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static HTTPRecording recordingLoad(final File directory)
+    throws IOException
+  {
+    NullCheck.notNull(directory);
+
+    final String[] names = directory.list();
+    if (names == null) {
+      throw new IOException(
+        String.format("Could not list directory: %s", directory));
+    }
+    Arrays.sort(names);
+
+    final HTTPRecording r = new HTTPRecording();
+    for (final String name : names) {
+      if (name.endsWith(".properties")) {
+        final String base = name.substring(0, name.length() - 11);
+        r.recordingAdd(
+          HTTPRecording.loadExchange(
+            new File(directory, name), new File(directory, base + ".body")));
+      }
+    }
+    return r;
+  }
+
+  private static HTTPRecordedExchange loadExchange(
+    final File meta,
+    final File body)
+    throws IOException
+  {
+    final Properties p = new Properties();
+    final InputStream is = new FileInputStream(meta);
+    try {
+      p.load(is);
+    } finally {
+      is.close();
+    }
+
+    try {
+      final int count = Integer.parseInt(p.getProperty("header.count", "0"));
+      final Map<String, List<String>> headers =
+        new LinkedHashMap<String, List<String>>(count);
+      for (int index = 0; index < count; ++index) {
+        final String name =
+          HTTPRecording.required(p, String.format("header.%d.name", index));
+        final String value =
+          HTTPRecording.required(p, String.format("header.%d.value", index));
+        List<String> values = headers.get(name);
+        if (values == null) {
+          values = new ArrayList<String>(1);
+          headers.put(name, values);
+        }
+        values.add(value);
+      }
+
+      final byte[] data;
+      if (body.isFile()) {
+        data = FileUtilities.fileReadBytes(body);
+      } else {
+        data = new byte[0];
+      }
+
+      return new HTTPRecordedExchange(
+        HTTPRecording.required(p, "method"),
+        new URI(HTTPRecording.required(p, "uri")),
+        Integer.parseInt(HTTPRecording.required(p, "status")),
+        p.getProperty("message", ""),
+        headers,
+        Long.parseLong(p.getProperty("last_modified", "0")),
+        data);
+    } catch (final NumberFormatException e) {
+      throw new IOException(e);
+    } catch (final URISyntaxException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static String required(
+    final Properties p,
+    final String name)
+    throws IOException
+  {
+    final String v = p.getProperty(name);
+    if (v == null) {
+      throw new IOException(String.format("Missing property: %s", name));
+    }
+    return v;
+  }
+
+  private static String key(
+    final String method,
+    final URI uri)
+  {
+    return method + " " + uri;
+  }
+
+  /**
+   * Add an exchange to the recording.
+   *
+   * @param e The exchange
+   */
+
+  public void recordingAdd(final HTTPRecordedExchange e)
+  {
+    NullCheck.notNull(e);
+    synchronized (this.exchanges) {
+      this.exchanges.add(e);
+    }
+  }
+
+  /**
+   * @return A copy of the list of recorded exchanges, in the order that they
+   * were recorded
+   */
+
+  public List<HTTPRecordedExchange> recordingGetExchanges()
+  {
+    synchronized (this.exchanges) {
+      return new ArrayList<HTTPRecordedExchange>(this.exchanges);
+    }
+  }
+
+  /**
+   * Find the next recorded response for the given request.
+   *
+   * @param method The request method
+   * @param uri    The request URI
+   *
+   * @return The recorded exchange, if any
+   */
+
+  public OptionType<HTTPRecordedExchange> recordingFind(
+    final String method,
+    final URI uri)
+  {
+    NullCheck.notNull(method);
+    NullCheck.notNull(uri);
+
+    final String k = HTTPRecording.key(method, uri);
+    synchronized (this.exchanges) {
+      final List<HTTPRecordedExchange> matches =
+        new ArrayList<HTTPRecordedExchange>(4);
+      for (final HTTPRecordedExchange e : this.exchanges) {
+        if (k.equals(HTTPRecording.key(e.getMethod(), e.getURI()))) {
+          matches.add(e);
+        }
+      }
+
+      if (matches.isEmpty()) {
+        return Option.none();
+      }
+
+      final Integer pos = this.positions.get(k);
+      final int index = pos == null ? 0 : pos.intValue();
+      this.positions.put(k, Integer.valueOf(index + 1));
+      return Option.some(matches.get(Math.min(index, matches.size() - 1)));
+    }
+  }
+
+  /**
+   * Reset the lookup positions, so that the recording can be replayed again
+   * from the start.
+   */
+
+  public void recordingRewind()
+  {
+    synchronized (this.exchanges) {
+      this.positions.clear();
+    }
+  }
+
+  /**
+   * Save the recording to the given directory. Each exchange is written as a
+   * properties file holding the request and response headers, and a file
+   * holding the response body.
+   *
+   * @param directory The directory
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public void recordingSave(final File directory)
+    throws IOException
+  {
+    NullCheck.notNull(directory);
+    DirectoryUtilities.directoryCreate(directory);
+
+    final List<HTTPRecordedExchange> es = this.recordingGetExchanges();
+    for (int index = 0; index < es.size(); ++index) {
+      final HTTPRecordedExchange e = NullCheck.notNull(es.get(index));
+      final String base = String.format("exchange-%06d", index);
+
+      final Properties p = new Properties();
+      p.setProperty("method", e.getMethod());
+      p.setProperty("uri", e.getURI().toString());
+      p.setProperty("status", Integer.toString(e.getStatus()));
+      p.setProperty("message", e.getMessage());
+      p.setProperty("last_modified", Long.toString(e.getLastModified()));
+
+      int count = 0;
+      final Map<String, List<String>> headers = e.getHeaders();
+      for (final String name : headers.keySet()) {
+        for (final String value : headers.get(name)) {
+          p.setProperty(String.format("header.%d.name", count), name);
+          p.setProperty(String.format("header.%d.value", count), value);
+          ++count;
+        }
+      }
+      p.setProperty("header.count", Integer.toString(count));
+
+      final OutputStream os =
+        new FileOutputStream(new File(directory, base + ".properties"));
+      try {
+        p.store(os, null);
+        os.flush();
+      } finally {
+        os.close();
+      }
+
+      FileUtilities.fileWriteBytes(
+        e.getBody(), new File(directory, base + ".body"));
+    }
+  }
+}
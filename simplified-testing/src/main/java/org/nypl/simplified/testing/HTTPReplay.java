@@ -0,0 +1,202 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.http.core.HTTPAuthType;
+import org.nypl.simplified.http.core.HTTPProblemReport;
+import org.nypl.simplified.http.core.HTTPResultError;
+import org.nypl.simplified.http.core.HTTPResultException;
+import org.nypl.simplified.http.core.HTTPResultOK;
+import org.nypl.simplified.http.core.HTTPResultType;
+import org.nypl.simplified.http.core.HTTPType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>An {@link HTTPType} implementation that serves responses from an
+ * {@link HTTPRecording}.</p>
+ *
+ * <p>Every response is delayed by the configured latency, and response bodies
+ * are delivered no faster than the configured bandwidth. Requests that were
+ * not recorded receive a {@code 404} response. {@code GET} requests with a
+ * nonzero offset are answered with the matching slice of the recorded body
+ * and a {@code 206} status.</p>
+ */
+
+public final class HTTPReplay implements HTTPType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(HTTPReplay.class));
+  }
+
+  private final HTTPRecording        recording;
+  private final ShapingConfiguration shaping;
+
+  private HTTPReplay(
+    final HTTPRecording in_recording,
+    final ShapingConfiguration in_shaping)
+  {
+    this.recording = NullCheck.notNull(in_recording);
+    this.shaping = NullCheck.notNull(in_shaping);
+  }
+
+  /**
+   * @param in_recording The recording
+   * @param in_shaping   The network shaping parameters
+   *
+   * @return A new replaying HTTP interface
+   */
+
+  public static HTTPType newReplay(
+    final HTTPRecording in_recording,
+    final ShapingConfiguration in_shaping)
+  {
+    return new HTTPReplay(in_recording, in_shaping);
+  }
+
+  private HTTPResultType<InputStream> replay(
+    final String method,
+    final URI uri,
+    final long offset)
+  {
+    try {
+      this.shaping.delay();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new HTTPResultException<InputStream>(
+        uri, new InterruptedIOException("Interrupted during replay"));
+    }
+
+    final String lookup = "HEAD".equals(method) ? "GET" : method;
+    OptionType<HTTPRecordedExchange> found =
+      this.recording.recordingFind(method, uri);
+    if (found.isNone()) {
+      found = this.recording.recordingFind(lookup, uri);
+    }
+
+    if (found.isNone()) {
+      HTTPReplay.LOG.debug("no recorded exchange for {} {}", method, uri);
+      return new HTTPResultError<InputStream>(
+        404,
+        "Not recorded",
+        0L,
+        Collections.<String, List<String>>emptyMap(),
+        0L,
+        new ByteArrayInputStream(new byte[0]),
+        Option.<HTTPProblemReport>none());
+    }
+
+    final HTTPRecordedExchange e = ((Some<HTTPRecordedExchange>) found).get();
+    final int status = e.getStatus();
+    if (status < 0) {
+      return new HTTPResultException<InputStream>(
+        uri, new IOException(e.getMessage()));
+    }
+
+    final byte[] body = e.getBody();
+    if (status >= 400) {
+      return new HTTPResultError<InputStream>(
+        status,
+        e.getMessage(),
+        (long) body.length,
+        e.getHeaders(),
+        e.getLastModified(),
+        this.shaped(body, 0),
+        Option.<HTTPProblemReport>none());
+    }
+
+    if ("HEAD".equals(method)) {
+      return new HTTPResultOK<InputStream>(
+        e.getMessage(),
+        status,
+        new ByteArrayInputStream(new byte[0]),
+        (long) body.length,
+        e.getHeaders(),
+        e.getLastModified());
+    }
+
+    if (offset > 0L && status == 200 && offset < (long) body.length) {
+      final Map<String, List<String>> headers =
+        new HashMap<String, List<String>>(e.getHeaders());
+      final List<String> range = new ArrayList<String>(1);
+      range.add(
+        String.format(
+          "bytes %d-%d/%d",
+          Long.valueOf(offset),
+          Integer.valueOf(body.length - 1),
+          Integer.valueOf(body.length)));
+      headers.put("Content-Range", range);
+
+      return new HTTPResultOK<InputStream>(
+        "Partial Content",
+        206,
+        this.shaped(body, (int) offset),
+        (long) body.length - offset,
+        headers,
+        e.getLastModified());
+    }
+
+    return new HTTPResultOK<InputStream>(
+      e.getMessage(),
+      status,
+      this.shaped(body, 0),
+      (long) body.length,
+      e.getHeaders(),
+      e.getLastModified());
+  }
+
+  private InputStream shaped(
+    final byte[] body,
+    final int offset)
+  {
+    return new ShapedInputStream(
+      new ByteArrayInputStream(body, offset, body.length - offset),
+      this.shaping);
+  }
+
+  @Override public HTTPResultType<InputStream> get(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri,
+    final long offset)
+  {
+    return this.replay("GET", uri, offset);
+  }
+
+  @Override public HTTPResultType<InputStream> put(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri)
+  {
+    return this.replay("PUT", uri, 0L);
+  }
+
+  @Override public HTTPResultType<InputStream> post(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri,
+    final byte[] data,
+    final String content_type)
+  {
+    return this.replay("POST", uri, 0L);
+  }
+
+  @Override public HTTPResultType<InputStream> head(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri)
+  {
+    return this.replay("HEAD", uri, 0L);
+  }
+}
@@ -0,0 +1,97 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.http.core.HTTPAuthType;
+import org.nypl.simplified.http.core.HTTPResultError;
+import org.nypl.simplified.http.core.HTTPResultException;
+import org.nypl.simplified.http.core.HTTPResultMatcherType;
+import org.nypl.simplified.http.core.HTTPResultOKType;
+import org.nypl.simplified.http.core.HTTPResultType;
+import org.nypl.simplified.http.core.HTTPType;
+import org.nypl.simplified.opds.core.OPDSFeedTransportException;
+import org.nypl.simplified.opds.core.OPDSFeedTransportIOException;
+import org.nypl.simplified.opds.core.OPDSFeedTransportType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * An implementation of the {@link OPDSFeedTransportType} interface that
+ * serves feeds from an {@link HTTPRecording}, with the same shaping as {@link
+ * HTTPReplay}.
+ */
+
+public final class OPDSFeedTransportReplay
+  implements OPDSFeedTransportType<OptionType<HTTPAuthType>>
+{
+  private final HTTPType http;
+
+  private OPDSFeedTransportReplay(
+    final HTTPRecording in_recording,
+    final ShapingConfiguration in_shaping)
+  {
+    this.http = HTTPReplay.newReplay(in_recording, in_shaping);
+  }
+
+  /**
+   * @param in_recording The recording
+   * @param in_shaping   The network shaping parameters
+   *
+   * @return A new transport
+   */
+
+  public static OPDSFeedTransportType<OptionType<HTTPAuthType>> newTransport(
+    final HTTPRecording in_recording,
+    final ShapingConfiguration in_shaping)
+  {
+    return new OPDSFeedTransportReplay(in_recording, in_shaping);
+  }
+
+  @Override public InputStream getStream(
+    final OptionType<HTTPAuthType> auth,
+    final URI uri,
+    final String method)
+    throws OPDSFeedTransportException
+  {
+    NullCheck.notNull(auth);
+    NullCheck.notNull(uri);
+    NullCheck.notNull(method);
+
+    final HTTPResultType<InputStream> r;
+    if ("PUT".equals(method)) {
+      r = this.http.put(auth, uri);
+    } else {
+      r = this.http.get(auth, uri, 0L);
+    }
+
+    return r.matchResult(
+      new HTTPResultMatcherType<InputStream, InputStream,
+        OPDSFeedTransportException>()
+      {
+        @Override
+        public InputStream onHTTPError(final HTTPResultError<InputStream> e)
+          throws OPDSFeedTransportException
+        {
+          final String m = String.format("%d: %s", e.getStatus(), e.getMessage());
+          throw new OPDSFeedTransportIOException(m, new IOException(m));
+        }
+
+        @Override public InputStream onHTTPException(
+          final HTTPResultException<InputStream> e)
+          throws OPDSFeedTransportException
+        {
+          final Exception er = e.getError();
+          throw new OPDSFeedTransportIOException(
+            er.getMessage(), new IOException(er));
+        }
+
+        @Override
+        public InputStream onHTTPOK(final HTTPResultOKType<InputStream> e)
+        {
+          return e.getValue();
+        }
+      });
+  }
+}
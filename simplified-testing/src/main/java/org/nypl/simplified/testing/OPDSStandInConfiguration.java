@@ -0,0 +1,145 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.jnull.NullCheck;
+import org.nypl.simplified.assertions.Assertions;
+
+/**
+ * The configuration for an {@link OPDSStandInServer}.
+ */
+
+public final class OPDSStandInConfiguration
+{
+  private final int                  lanes;
+  private final int                  lane_entries;
+  private final int                  pages;
+  private final int                  page_size;
+  private final int                  loans;
+  private final int                  epub_size;
+  private final ShapingConfiguration shaping;
+
+  /**
+   * Construct a configuration.
+   *
+   * @param in_lanes        The number of lanes in the groups feed
+   * @param in_lane_entries The number of entries shown per lane in the groups
+   *                        feed
+   * @param in_pages        The number of pages in each lane feed
+   * @param in_page_size    The number of entries on each page
+   * @param in_loans        The number of entries in the loans feed
+   * @param in_epub_size    The approximate size in bytes of generated EPUBs
+   * @param in_shaping      The network shaping applied to every response
+   */
+
+  public OPDSStandInConfiguration(
+    final int in_lanes,
+    final int in_lane_entries,
+    final int in_pages,
+    final int in_page_size,
+    final int in_loans,
+    final int in_epub_size,
+    final ShapingConfiguration in_shaping)
+  {
+    Assertions.checkPrecondition(
+      in_lanes >= 0, "Lanes %d must be >= 0", Integer.valueOf(in_lanes));
+    Assertions.checkPrecondition(
+      in_lane_entries >= 1,
+      "Lane entries %d must be >= 1",
+      Integer.valueOf(in_lane_entries));
+    Assertions.checkPrecondition(
+      in_pages >= 1, "Pages %d must be >= 1", Integer.valueOf(in_pages));
+    Assertions.checkPrecondition(
+      in_page_size >= 1,
+      "Page size %d must be >= 1",
+      Integer.valueOf(in_page_size));
+    Assertions.checkPrecondition(
+      in_loans >= 0, "Loans %d must be >= 0", Integer.valueOf(in_loans));
+    Assertions.checkPrecondition(
+      in_epub_size >= 0,
+      "EPUB size %d must be >= 0",
+      Integer.valueOf(in_epub_size));
+
+    this.lanes = in_lanes;
+    this.lane_entries = in_lane_entries;
+    this.pages = in_pages;
+    this.page_size = in_page_size;
+    this.loans = in_loans;
+    this.epub_size = in_epub_size;
+    this.shaping = NullCheck.notNull(in_shaping);
+  }
+
+  /**
+   * The default configuration: ten lanes of ten entries, twenty pages of fifty
+   * entries per lane, twenty loans, 1MiB EPUBs, and no shaping.
+   *
+   * @return The default configuration
+   */
+
+  public static OPDSStandInConfiguration getDefault()
+  {
+    return new OPDSStandInConfiguration(
+      10, 10, 20, 50, 20, 1024 * 1024, ShapingConfiguration.unshaped());
+  }
+
+  /**
+   * @return The number of lanes in the groups feed
+   */
+
+  public int getLanes()
+  {
+    return this.lanes;
+  }
+
+  /**
+   * @return The number of entries shown per lane in the groups feed
+   */
+
+  public int getLaneEntries()
+  {
+    return this.lane_entries;
+  }
+
+  /**
+   * @return The number of pages in each lane feed
+   */
+
+  public int getPages()
+  {
+    return this.pages;
+  }
+
+  /**
+   * @return The number of entries on each page
+   */
+
+  public int getPageSize()
+  {
+    return this.page_size;
+  }
+
+  /**
+   * @return The number of entries in the loans feed
+   */
+
+  public int getLoans()
+  {
+    return this.loans;
+  }
+
+  /**
+   * @return The approximate size in bytes of generated EPUBs
+   */
+
+  public int getEPUBSize()
+  {
+    return this.epub_size;
+  }
+
+  /**
+   * @return The network shaping applied to every response
+   */
+
+  public ShapingConfiguration getShaping()
+  {
+    return this.shaping;
+  }
+}
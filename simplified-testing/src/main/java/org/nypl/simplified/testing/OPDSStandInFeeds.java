@@ -0,0 +1,218 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.net.URI;
+
+/**
+ * Functions to generate the OPDS documents served by {@link
+ * OPDSStandInServer}.
+ */
+
+final class OPDSStandInFeeds
+{
+  private static final String UPDATED = "2016-01-01T00:00:00Z";
+  private static final String SINCE   = "2016-01-01T00:00:00Z";
+  private static final String UNTIL   = "2036-01-01T00:00:00Z";
+
+  private OPDSStandInFeeds()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  private static void feedOpen(
+    final StringBuilder sb,
+    final String id,
+    final String title)
+  {
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    sb.append("<feed xmlns=\"http://www.w3.org/2005/Atom\"");
+    sb.append(" xmlns:opds=\"http://opds-spec.org/2010/catalog\">\n");
+    sb.append("<id>").append(id).append("</id>\n");
+    sb.append("<title>").append(title).append("</title>\n");
+    sb.append("<updated>").append(OPDSStandInFeeds.UPDATED);
+    sb.append("</updated>\n");
+  }
+
+  private static void feedClose(final StringBuilder sb)
+  {
+    sb.append("</feed>\n");
+  }
+
+  private static void entryOpen(
+    final StringBuilder sb,
+    final long id,
+    final boolean root)
+  {
+    sb.append("<entry");
+    if (root) {
+      sb.append(" xmlns=\"http://www.w3.org/2005/Atom\"");
+      sb.append(" xmlns:opds=\"http://opds-spec.org/2010/catalog\"");
+    }
+    sb.append(">\n");
+    sb.append("<id>urn:simplified-testing:book:").append(id).append("</id>\n");
+    sb.append("<title>Book ").append(id).append("</title>\n");
+    sb.append("<updated>").append(OPDSStandInFeeds.UPDATED);
+    sb.append("</updated>\n");
+    sb.append("<author><name>Author ").append(id % 97L);
+    sb.append("</name></author>\n");
+    sb.append("<summary type=\"html\">A generated book for testing.");
+    sb.append("</summary>\n");
+  }
+
+  private static void entryBorrowable(
+    final StringBuilder sb,
+    final URI base,
+    final long id)
+  {
+    sb.append("<link rel=\"http://opds-spec.org/acquisition/borrow\"");
+    sb.append(" type=\"application/epub+zip\" href=\"");
+    sb.append(base.resolve("borrow/" + id)).append("\">");
+    sb.append("<opds:availability status=\"available\"/>");
+    sb.append("<opds:copies available=\"1\" total=\"1\"/>");
+    sb.append("</link>\n");
+  }
+
+  private static void entryLoaned(
+    final StringBuilder sb,
+    final URI base,
+    final long id)
+  {
+    sb.append("<link rel=\"http://librarysimplified.org/terms/rel/revoke\"");
+    sb.append(" href=\"").append(base.resolve("revoke/" + id));
+    sb.append("\"/>\n");
+    sb.append("<link rel=\"http://opds-spec.org/acquisition\"");
+    sb.append(" type=\"application/epub+zip\" href=\"");
+    sb.append(base.resolve("books/" + id + ".epub")).append("\">");
+    sb.append("<opds:availability status=\"available\" since=\"");
+    sb.append(OPDSStandInFeeds.SINCE).append("\" until=\"");
+    sb.append(OPDSStandInFeeds.UNTIL).append("\"/>");
+    sb.append("</link>\n");
+  }
+
+  /**
+   * @return A groups feed with the configured number of lanes
+   */
+
+  static String groups(
+    final URI base,
+    final OPDSStandInConfiguration c)
+  {
+    final StringBuilder sb = new StringBuilder(4096);
+    OPDSStandInFeeds.feedOpen(sb, "urn:simplified-testing:groups", "Groups");
+    for (int lane = 0; lane < c.getLanes(); ++lane) {
+      for (int index = 0; index < c.getLaneEntries(); ++index) {
+        final long id = OPDSStandInFeeds.bookID(c, lane, 0, index);
+        OPDSStandInFeeds.entryOpen(sb, id, false);
+        sb.append("<link rel=\"collection\" title=\"Lane ").append(lane);
+        sb.append("\" href=\"").append(base.resolve("lanes/" + lane + "/0"));
+        sb.append("\"/>\n");
+        OPDSStandInFeeds.entryBorrowable(sb, base, id);
+        sb.append("</entry>\n");
+      }
+    }
+    OPDSStandInFeeds.feedClose(sb);
+    return NullCheck.notNull(sb.toString());
+  }
+
+  /**
+   * @return One page of a lane feed, with a {@code next} link if there are
+   * further pages
+   */
+
+  static String lanePage(
+    final URI base,
+    final OPDSStandInConfiguration c,
+    final int lane,
+    final int page)
+  {
+    final StringBuilder sb = new StringBuilder(16384);
+    OPDSStandInFeeds.feedOpen(
+      sb,
+      String.format(
+        "urn:simplified-testing:lane:%d:%d",
+        Integer.valueOf(lane),
+        Integer.valueOf(page)),
+      String.format("Lane %d", Integer.valueOf(lane)));
+
+    if (page + 1 < c.getPages()) {
+      sb.append("<link rel=\"next\" href=\"");
+      sb.append(base.resolve("lanes/" + lane + "/" + (page + 1)));
+      sb.append("\"/>\n");
+    }
+
+    for (int index = 0; index < c.getPageSize(); ++index) {
+      final long id = OPDSStandInFeeds.bookID(c, lane, page, index);
+      OPDSStandInFeeds.entryOpen(sb, id, false);
+      OPDSStandInFeeds.entryBorrowable(sb, base, id);
+      sb.append("</entry>\n");
+    }
+    OPDSStandInFeeds.feedClose(sb);
+    return NullCheck.notNull(sb.toString());
+  }
+
+  /**
+   * @return A loans feed containing the configured number of loaned books
+   */
+
+  static String loans(
+    final URI base,
+    final OPDSStandInConfiguration c)
+  {
+    final StringBuilder sb = new StringBuilder(8192);
+    OPDSStandInFeeds.feedOpen(sb, "urn:simplified-testing:loans", "Loans");
+    for (int index = 0; index < c.getLoans(); ++index) {
+      final long id = OPDSStandInFeeds.bookID(c, 0, 0, index);
+      OPDSStandInFeeds.entryOpen(sb, id, false);
+      OPDSStandInFeeds.entryLoaned(sb, base, id);
+      sb.append("</entry>\n");
+    }
+    OPDSStandInFeeds.feedClose(sb);
+    return NullCheck.notNull(sb.toString());
+  }
+
+  /**
+   * @return A single entry describing a book that has just been borrowed
+   */
+
+  static String borrow(
+    final URI base,
+    final long id)
+  {
+    final StringBuilder sb = new StringBuilder(1024);
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    OPDSStandInFeeds.entryOpen(sb, id, true);
+    OPDSStandInFeeds.entryLoaned(sb, base, id);
+    sb.append("</entry>\n");
+    return NullCheck.notNull(sb.toString());
+  }
+
+  /**
+   * @return A single entry describing a book that has just been returned
+   */
+
+  static String revoke(
+    final URI base,
+    final long id)
+  {
+    final StringBuilder sb = new StringBuilder(1024);
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    OPDSStandInFeeds.entryOpen(sb, id, true);
+    OPDSStandInFeeds.entryBorrowable(sb, base, id);
+    sb.append("</entry>\n");
+    return NullCheck.notNull(sb.toString());
+  }
+
+  private static long bookID(
+    final OPDSStandInConfiguration c,
+    final int lane,
+    final int page,
+    final int index)
+  {
+    final long per_lane = (long) c.getPages() * (long) c.getPageSize();
+    return ((long) lane * per_lane)
+      + ((long) page * (long) c.getPageSize())
+      + (long) index;
+  }
+}
@@ -0,0 +1,434 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>A small embedded HTTP server that stands in for a circulation
+ * server.</p>
+ *
+ * <p>The server listens on the loopback interface and serves:</p>
+ *
+ * <ul>
+ * <li>{@code /groups}: a groups feed with one group per lane</li>
+ * <li>{@code /lanes/L/P}: page {@code P} of lane {@code L}</li>
+ * <li>{@code /loans}: a loans feed</li>
+ * <li>{@code /borrow/ID}: the entry for a newly borrowed book</li>
+ * <li>{@code /revoke/ID}: the entry for a newly returned book</li>
+ * <li>{@code /books/ID.epub}: a generated EPUB, with byte range support</li>
+ * </ul>
+ *
+ * <p>Each connection serves a single request. Authentication headers are
+ * accepted and ignored.</p>
+ */
+
+public final class OPDSStandInServer
+{
+  private static final Logger  LOG;
+  private static final Charset UTF8;
+  private static final Pattern LANE;
+  private static final Pattern BORROW;
+  private static final Pattern REVOKE;
+  private static final Pattern BOOK;
+  private static final Pattern RANGE;
+  private static final String  ATOM = "application/atom+xml;charset=utf-8";
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(OPDSStandInServer.class));
+    UTF8 = NullCheck.notNull(Charset.forName("UTF-8"));
+    LANE = NullCheck.notNull(Pattern.compile("^/lanes/(\\d+)/(\\d+)$"));
+    BORROW = NullCheck.notNull(Pattern.compile("^/borrow/(\\d+)$"));
+    REVOKE = NullCheck.notNull(Pattern.compile("^/revoke/(\\d+)$"));
+    BOOK = NullCheck.notNull(Pattern.compile("^/books/(\\d+)\\.epub$"));
+    RANGE = NullCheck.notNull(Pattern.compile("^bytes=(\\d+)-(\\d*)$"));
+  }
+
+  private final OPDSStandInConfiguration config;
+  private final ServerSocket             socket;
+  private final ExecutorService          exec;
+  private final URI                      base;
+  private final byte[]                   epub;
+  private final AtomicLong               requests;
+
+  private OPDSStandInServer(
+    final OPDSStandInConfiguration in_config,
+    final ServerSocket in_socket)
+  {
+    this.config = NullCheck.notNull(in_config);
+    this.socket = NullCheck.notNull(in_socket);
+    this.exec = NullCheck.notNull(Executors.newCachedThreadPool());
+    this.base = NullCheck.notNull(
+      URI.create(
+        String.format(
+          "http://127.0.0.1:%d/", Integer.valueOf(in_socket.getLocalPort()))));
+    this.epub = EPUBGenerator.generate(in_config.getEPUBSize(), 0L);
+    this.requests = new AtomicLong(0L);
+  }
+
+  /**
+   * Start a new server.
+   *
+   * @param config The server configuration
+   * @param port   The port on which to listen, or {@code 0} to pick any free
+   *               port
+   *
+   * @return A running server
+   *
+   * @throws IOException If the server socket cannot be opened
+   */
+
+  public static OPDSStandInServer newServer(
+    final OPDSStandInConfiguration config,
+    final int port)
+    throws IOException
+  {
+    final ServerSocket s =
+      new ServerSocket(port, 64, InetAddress.getByName("127.0.0.1"));
+    final OPDSStandInServer server = new OPDSStandInServer(config, s);
+    server.exec.execute(
+      new Runnable()
+      {
+        @Override public void run()
+        {
+          server.acceptLoop();
+        }
+      });
+    OPDSStandInServer.LOG.debug("listening on {}", server.base);
+    return server;
+  }
+
+  /**
+   * @return The base URI of the server
+   */
+
+  public URI serverGetBaseURI()
+  {
+    return this.base;
+  }
+
+  /**
+   * @return The URI of the groups feed
+   */
+
+  public URI serverGetGroupsURI()
+  {
+    return NullCheck.notNull(this.base.resolve("groups"));
+  }
+
+  /**
+   * @return The URI of the loans feed
+   */
+
+  public URI serverGetLoansURI()
+  {
+    return NullCheck.notNull(this.base.resolve("loans"));
+  }
+
+  /**
+   * @return The number of requests served so far
+   */
+
+  public long serverGetRequestCount()
+  {
+    return this.requests.get();
+  }
+
+  /**
+   * Stop the server.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public void serverStop()
+    throws IOException
+  {
+    try {
+      this.socket.close();
+    } finally {
+      this.exec.shutdownNow();
+    }
+  }
+
+  private void acceptLoop()
+  {
+    while (this.socket.isClosed() == false) {
+      try {
+        final Socket client = this.socket.accept();
+        this.exec.execute(
+          new Runnable()
+          {
+            @Override public void run()
+            {
+              OPDSStandInServer.this.handle(client);
+            }
+          });
+      } catch (final SocketException e) {
+        OPDSStandInServer.LOG.trace("server socket closed: ", e);
+      } catch (final IOException e) {
+        OPDSStandInServer.LOG.error("accept failed: ", e);
+      }
+    }
+  }
+
+  private static String readLine(final InputStream in)
+    throws IOException
+  {
+    final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    while (true) {
+      final int c = in.read();
+      if (c == -1) {
+        if (line.size() == 0) {
+          return null;
+        }
+        break;
+      }
+      if (c == '\n') {
+        break;
+      }
+      if (c != '\r') {
+        line.write(c);
+      }
+    }
+    return new String(line.toByteArray(), OPDSStandInServer.UTF8);
+  }
+
+  private void handle(final Socket client)
+  {
+    try {
+      try {
+        client.setSoTimeout(30000);
+        final InputStream in = new BufferedInputStream(client.getInputStream());
+        final String request = OPDSStandInServer.readLine(in);
+        if (request == null) {
+          return;
+        }
+
+        final String[] parts = request.split(" ");
+        if (parts.length < 2) {
+          return;
+        }
+
+        final Map<String, String> headers = new HashMap<String, String>(16);
+        while (true) {
+          final String line = OPDSStandInServer.readLine(in);
+          if (line == null || line.isEmpty()) {
+            break;
+          }
+          final int colon = line.indexOf(':');
+          if (colon > 0) {
+            headers.put(
+              line.substring(0, colon).trim().toLowerCase(Locale.US),
+              line.substring(colon + 1).trim());
+          }
+        }
+
+        final String method = parts[0];
+        final String path = URI.create(parts[1]).getPath();
+        this.requests.incrementAndGet();
+        OPDSStandInServer.LOG.debug("{} {}", method, path);
+
+        final Response r = this.route(path, headers);
+        this.config.getShaping().delay();
+        this.respond(client.getOutputStream(), method, r);
+      } finally {
+        client.close();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (final IOException e) {
+      OPDSStandInServer.LOG.debug("request failed: {}", e.getMessage());
+    }
+  }
+
+  private Response route(
+    final String path,
+    final Map<String, String> headers)
+  {
+    if ("/groups".equals(path)) {
+      return Response.ok(
+        OPDSStandInServer.ATOM,
+        OPDSStandInFeeds.groups(this.base, this.config));
+    }
+
+    if ("/loans".equals(path)) {
+      return Response.ok(
+        OPDSStandInServer.ATOM,
+        OPDSStandInFeeds.loans(this.base, this.config));
+    }
+
+    final Matcher lane = OPDSStandInServer.LANE.matcher(path);
+    if (lane.matches()) {
+      final int l = Integer.parseInt(lane.group(1));
+      final int p = Integer.parseInt(lane.group(2));
+      if (l < this.config.getLanes() && p < this.config.getPages()) {
+        return Response.ok(
+          OPDSStandInServer.ATOM,
+          OPDSStandInFeeds.lanePage(this.base, this.config, l, p));
+      }
+      return Response.notFound();
+    }
+
+    final Matcher borrow = OPDSStandInServer.BORROW.matcher(path);
+    if (borrow.matches()) {
+      return Response.ok(
+        OPDSStandInServer.ATOM,
+        OPDSStandInFeeds.borrow(this.base, Long.parseLong(borrow.group(1))));
+    }
+
+    final Matcher revoke = OPDSStandInServer.REVOKE.matcher(path);
+    if (revoke.matches()) {
+      return Response.ok(
+        OPDSStandInServer.ATOM,
+        OPDSStandInFeeds.revoke(this.base, Long.parseLong(revoke.group(1))));
+    }
+
+    final Matcher book = OPDSStandInServer.BOOK.matcher(path);
+    if (book.matches()) {
+      return this.book(headers);
+    }
+
+    return Response.notFound();
+  }
+
+  private Response book(final Map<String, String> headers)
+  {
+    final int length = this.epub.length;
+    final String range = headers.get("range");
+    if (range != null) {
+      final Matcher m = OPDSStandInServer.RANGE.matcher(range.trim());
+      if (m.matches()) {
+        final long start = Long.parseLong(m.group(1));
+        long end = (long) length - 1L;
+        if (m.group(2).isEmpty() == false) {
+          end = Math.min(end, Long.parseLong(m.group(2)));
+        }
+        if (start < (long) length && start <= end) {
+          final Response r = new Response(
+            206,
+            "Partial Content",
+            "application/epub+zip",
+            this.epub,
+            (int) start,
+            (int) (end - start + 1L));
+          r.headers.put(
+            "Content-Range",
+            String.format(
+              "bytes %d-%d/%d",
+              Long.valueOf(start),
+              Long.valueOf(end),
+              Integer.valueOf(length)));
+          return r;
+        }
+        final Response r = new Response(
+          416, "Range Not Satisfiable", "text/plain", new byte[0], 0, 0);
+        r.headers.put("Content-Range", String.format("bytes */%d", Integer.valueOf(length)));
+        return r;
+      }
+    }
+
+    return new Response(
+      200, "OK", "application/epub+zip", this.epub, 0, length);
+  }
+
+  private void respond(
+    final OutputStream raw,
+    final String method,
+    final Response r)
+    throws IOException
+  {
+    final OutputStream out = new BufferedOutputStream(raw, 65536);
+    final StringBuilder sb = new StringBuilder(256);
+    sb.append("HTTP/1.1 ").append(r.status).append(' ').append(r.message);
+    sb.append("\r\n");
+    sb.append("Content-Type: ").append(r.type).append("\r\n");
+    sb.append("Content-Length: ").append(r.length).append("\r\n");
+    sb.append("Accept-Ranges: bytes\r\n");
+    sb.append("ETag: \"standin\"\r\n");
+    sb.append("Connection: close\r\n");
+    for (final String k : r.headers.keySet()) {
+      sb.append(k).append(": ").append(r.headers.get(k)).append("\r\n");
+    }
+    sb.append("\r\n");
+    out.write(sb.toString().getBytes(OPDSStandInServer.UTF8));
+
+    if ("HEAD".equals(method) == false) {
+      final InputStream body = new ShapedInputStream(
+        new ByteArrayInputStream(r.body, r.offset, r.length),
+        this.config.getShaping());
+      final byte[] buffer = new byte[16384];
+      while (true) {
+        final int n = body.read(buffer);
+        if (n == -1) {
+          break;
+        }
+        out.write(buffer, 0, n);
+      }
+    }
+    out.flush();
+  }
+
+  private static final class Response
+  {
+    private final int                 status;
+    private final String              message;
+    private final String              type;
+    private final byte[]              body;
+    private final int                 offset;
+    private final int                 length;
+    private final Map<String, String> headers;
+
+    Response(
+      final int in_status,
+      final String in_message,
+      final String in_type,
+      final byte[] in_body,
+      final int in_offset,
+      final int in_length)
+    {
+      this.status = in_status;
+      this.message = in_message;
+      this.type = in_type;
+      this.body = in_body;
+      this.offset = in_offset;
+      this.length = in_length;
+      this.headers = new HashMap<String, String>(4);
+    }
+
+    static Response ok(
+      final String type,
+      final String text)
+    {
+      final byte[] data = text.getBytes(OPDSStandInServer.UTF8);
+      return new Response(200, "OK", type, data, 0, data.length);
+    }
+
+    static Response notFound()
+    {
+      final byte[] data = "Not found".getBytes(OPDSStandInServer.UTF8);
+      return new Response(404, "Not Found", "text/plain", data, 0, data.length);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.IOException;
+
+/**
+ * A command-line entry point that runs an {@link OPDSStandInServer} with the
+ * default configuration until the process is killed.
+ */
+
+public final class OPDSStandInServerMain
+{
+  private OPDSStandInServerMain()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Command-line entry point.
+   *
+   * @param args An optional port number
+   *
+   * @throws IOException          If the server cannot be started
+   * @throws InterruptedException If the main thread is interrupted
+   */
+
+  public static void main(final String[] args)
+    throws IOException, InterruptedException
+  {
+    final int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+    final OPDSStandInServer server = OPDSStandInServer.newServer(
+      OPDSStandInConfiguration.getDefault(), port);
+
+    System.out.printf("groups: %s\n", server.serverGetGroupsURI());
+    System.out.printf("loans:  %s\n", server.serverGetLoansURI());
+
+    while (true) {
+      Thread.sleep(60000L);
+    }
+  }
+}
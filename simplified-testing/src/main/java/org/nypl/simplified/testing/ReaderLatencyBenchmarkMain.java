@@ -0,0 +1,367 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.nypl.simplified.downloader.core.DownloadListenerType;
+import org.nypl.simplified.downloader.core.DownloadPacing;
+import org.nypl.simplified.downloader.core.DownloadPacingProfile;
+import org.nypl.simplified.downloader.core.DownloadPacingType;
+import org.nypl.simplified.downloader.core.DownloadPriority;
+import org.nypl.simplified.downloader.core.DownloadScheduler;
+import org.nypl.simplified.downloader.core.DownloadSchedulerConfiguration;
+import org.nypl.simplified.downloader.core.DownloadType;
+import org.nypl.simplified.downloader.core.DownloaderConfiguration;
+import org.nypl.simplified.downloader.core.DownloaderHTTP;
+import org.nypl.simplified.downloader.core.DownloaderType;
+import org.nypl.simplified.files.DirectoryUtilities;
+import org.nypl.simplified.files.FileUtilities;
+import org.nypl.simplified.http.core.HTTP;
+import org.nypl.simplified.http.core.HTTPAuthType;
+import org.nypl.simplified.http.core.HTTPRequestListenerType;
+import org.nypl.simplified.http.core.HTTPRequestMetrics;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A command-line benchmark of the latency of reading book resources from
+ * storage whilst books are downloaded.</p>
+ *
+ * <p>The benchmark writes a set of small resource files, comparable to the
+ * chapters and images that the reader's HTTP server reads from an unpacked
+ * EPUB, and then reads them one at a time at a fixed interval, recording how
+ * long each read takes. The reads are measured with no download running,
+ * with downloads from an {@link OPDSStandInServer} running unpaced, and with
+ * downloads running under the given pacing profile. The figures are only
+ * meaningful when run on the storage of the device of interest.</p>
+ */
+
+public final class ReaderLatencyBenchmarkMain
+{
+  private static final int  RESOURCE_COUNT     = 256;
+  private static final int  RESOURCE_SIZE      = 64 * 1024;
+  private static final int  SAMPLES            = 400;
+  private static final long SAMPLE_INTERVAL_MS = 10L;
+
+  private ReaderLatencyBenchmarkMain()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Command-line entry point.
+   *
+   * @param args A working directory, and optionally the paced network and
+   *             disk rates in bytes per second
+   *
+   * @throws Exception On errors
+   */
+
+  public static void main(final String[] args)
+    throws Exception
+  {
+    if (args.length < 1) {
+      System.err.println(
+        "usage: directory [network-bytes-per-second disk-bytes-per-second]");
+      System.exit(1);
+    }
+
+    final File directory = new File(args[0]);
+    final DownloadPacingProfile paced;
+    if (args.length >= 3) {
+      paced = new DownloadPacingProfile(
+        Long.parseLong(args[1]), Long.parseLong(args[2]));
+    } else {
+      paced = new DownloadPacingProfile(256L * 1024L, 128L * 1024L);
+    }
+
+    final File resources = new File(directory, "resources");
+    final File downloads = new File(directory, "downloads");
+    DirectoryUtilities.directoryCreate(resources);
+    DirectoryUtilities.directoryCreate(downloads);
+    ReaderLatencyBenchmarkMain.writeResources(resources);
+
+    final OPDSStandInServer server = OPDSStandInServer.newServer(
+      new OPDSStandInConfiguration(
+        1, 1, 1, 1, 1, 32 * 1024 * 1024, ShapingConfiguration.unshaped()),
+      0);
+
+    try {
+      ReaderLatencyBenchmarkMain.report(
+        "idle", ReaderLatencyBenchmarkMain.sample(resources), 0L);
+
+      ReaderLatencyBenchmarkMain.runWithDownloads(
+        "unpaced",
+        server,
+        downloads,
+        resources,
+        DownloadPacingProfile.getUnlimited());
+
+      ReaderLatencyBenchmarkMain.runWithDownloads(
+        paced.toString(), server, downloads, resources, paced);
+    } finally {
+      server.serverStop();
+    }
+
+    System.exit(0);
+  }
+
+  private static void writeResources(final File resources)
+    throws IOException
+  {
+    final Random random = new Random(0L);
+    final byte[] data = new byte[ReaderLatencyBenchmarkMain.RESOURCE_SIZE];
+    for (int index = 0; index < ReaderLatencyBenchmarkMain.RESOURCE_COUNT;
+         ++index) {
+      random.nextBytes(data);
+      final Integer i = Integer.valueOf(index);
+      final File f = new File(resources, String.format("%04d.xhtml", i));
+      final File f_tmp = new File(resources, String.format("%04d.tmp", i));
+      FileUtilities.fileWriteBytesAtomically(f, f_tmp, data);
+    }
+  }
+
+  /**
+   * Read each resource in turn at a fixed interval, returning the time taken
+   * by each read in nanoseconds.
+   */
+
+  private static long[] sample(final File resources)
+    throws IOException, InterruptedException
+  {
+    final long[] times = new long[ReaderLatencyBenchmarkMain.SAMPLES];
+    final byte[] buffer = new byte[16 * 1024];
+    for (int index = 0; index < times.length; ++index) {
+      final File f = new File(
+        resources,
+        String.format(
+          "%04d.xhtml",
+          Integer.valueOf(index % ReaderLatencyBenchmarkMain.RESOURCE_COUNT)));
+
+      final long start = System.nanoTime();
+      final InputStream is = new FileInputStream(f);
+      try {
+        while (is.read(buffer) != -1) {
+          // Discard
+        }
+      } finally {
+        is.close();
+      }
+      times[index] = System.nanoTime() - start;
+      Thread.sleep(ReaderLatencyBenchmarkMain.SAMPLE_INTERVAL_MS);
+    }
+    return times;
+  }
+
+  private static void runWithDownloads(
+    final String name,
+    final OPDSStandInServer server,
+    final File downloads,
+    final File resources,
+    final DownloadPacingProfile profile)
+    throws Exception
+  {
+    final ExecutorService exec = Executors.newCachedThreadPool();
+    try {
+      final DownloadPacingType pacing =
+        DownloadPacing.newPacing(DownloadPacingProfile.getUnlimited(), profile);
+      pacing.pacingForegroundStart();
+
+      final DownloaderType downloader =
+        DownloaderHTTP.newDownloaderWithConfiguration(
+          DownloadScheduler.newScheduler(
+            exec, DownloadSchedulerConfiguration.getDefault()),
+          exec,
+          downloads,
+          HTTP.newHTTP(),
+          new IgnoringRequestListener(),
+          DownloaderConfiguration.getDefault(),
+          pacing);
+
+      final AtomicBoolean stop = new AtomicBoolean(false);
+      final AtomicLong received = new AtomicLong(0L);
+      final Downloading downloading =
+        new Downloading(server, downloader, stop, received);
+      final Thread t = new Thread(downloading);
+      t.start();
+
+      final long start = System.nanoTime();
+      final long[] times = ReaderLatencyBenchmarkMain.sample(resources);
+      final long elapsed = System.nanoTime() - start;
+
+      stop.set(true);
+      downloading.cancel();
+      t.join();
+
+      final long rate = (received.get() * 1000000000L) / Math.max(1L, elapsed);
+      ReaderLatencyBenchmarkMain.report(name, times, rate);
+    } finally {
+      exec.shutdownNow();
+      exec.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+  }
+
+  private static void report(
+    final String name,
+    final long[] times,
+    final long rate)
+  {
+    final long[] sorted = Arrays.copyOf(times, times.length);
+    Arrays.sort(sorted);
+    System.out.printf(
+      "%-48s p50 %6dus  p95 %6dus  p99 %6dus  max %6dus  download %8dKiB/s\n",
+      name,
+      Long.valueOf(ReaderLatencyBenchmarkMain.percentile(sorted, 50) / 1000L),
+      Long.valueOf(ReaderLatencyBenchmarkMain.percentile(sorted, 95) / 1000L),
+      Long.valueOf(ReaderLatencyBenchmarkMain.percentile(sorted, 99) / 1000L),
+      Long.valueOf(sorted[sorted.length - 1] / 1000L),
+      Long.valueOf(rate / 1024L));
+  }
+
+  private static long percentile(
+    final long[] sorted,
+    final int p)
+  {
+    final int index = Math.min(sorted.length - 1, (sorted.length * p) / 100);
+    return sorted[index];
+  }
+
+  private static final class IgnoringRequestListener
+    implements HTTPRequestListenerType
+  {
+    IgnoringRequestListener()
+    {
+
+    }
+
+    @Override public void onHTTPRequestCompleted(final HTTPRequestMetrics m)
+    {
+      // Nothing
+    }
+
+    @Override public void onHTTPRedirectsFollowed(
+      final String method,
+      final URI uri,
+      final int redirects,
+      final int auth_retries)
+    {
+      // Nothing
+    }
+  }
+
+  /**
+   * Download books one after another until stopped, deleting each book once
+   * it has been downloaded.
+   */
+
+  private static final class Downloading
+    implements Runnable, DownloadListenerType
+  {
+    private final    OPDSStandInServer        server;
+    private final    DownloaderType           downloader;
+    private final    AtomicBoolean            stop;
+    private final    AtomicLong               received;
+    private volatile CountDownLatch           done;
+    private volatile OptionType<DownloadType> current;
+    private          long                     last_total;
+
+    Downloading(
+      final OPDSStandInServer in_server,
+      final DownloaderType in_downloader,
+      final AtomicBoolean in_stop,
+      final AtomicLong in_received)
+    {
+      this.server = NullCheck.notNull(in_server);
+      this.downloader = NullCheck.notNull(in_downloader);
+      this.stop = NullCheck.notNull(in_stop);
+      this.received = NullCheck.notNull(in_received);
+      this.current = Option.none();
+    }
+
+    void cancel()
+    {
+      final OptionType<DownloadType> c = this.current;
+      if (c.isSome()) {
+        ((Some<DownloadType>) c).get().cancel();
+      }
+    }
+
+    @Override public void run()
+    {
+      final OptionType<HTTPAuthType> no_auth = Option.none();
+      int book = 0;
+      while (this.stop.get() == false) {
+        final URI uri = this.server.serverGetBaseURI().resolve(
+          String.format("books/%d.epub", Integer.valueOf(book)));
+        ++book;
+
+        this.last_total = 0L;
+        this.done = new CountDownLatch(1);
+        this.current = Option.some(
+          this.downloader.downloadWithPriority(
+            uri, no_auth, DownloadPriority.DOWNLOAD_PRIORITY_AUTOMATIC, this));
+
+        try {
+          this.done.await();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+
+    @Override public void onDownloadStarted(
+      final DownloadType d,
+      final long expected_total)
+    {
+      this.last_total = 0L;
+    }
+
+    @Override public void onDownloadDataReceived(
+      final DownloadType d,
+      final long running_total,
+      final long expected_total)
+    {
+      this.received.addAndGet(running_total - this.last_total);
+      this.last_total = running_total;
+    }
+
+    @Override public void onDownloadCancelled(final DownloadType d)
+    {
+      this.done.countDown();
+    }
+
+    @Override public void onDownloadFailed(
+      final DownloadType d,
+      final int status,
+      final long running_total,
+      final OptionType<Throwable> exception)
+    {
+      System.err.printf("download failed: %d\n", Integer.valueOf(status));
+      this.done.countDown();
+    }
+
+    @Override public void onDownloadCompleted(
+      final DownloadType d,
+      final File file)
+      throws IOException
+    {
+      FileUtilities.fileDelete(file);
+      this.done.countDown();
+    }
+  }
+}
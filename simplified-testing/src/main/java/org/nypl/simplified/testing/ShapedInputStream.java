@@ -0,0 +1,78 @@
+package org.nypl.simplified.testing;
+
+import com.io7m.jnull.NullCheck;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * A stream that limits the rate at which bytes can be read from an
+ * underlying stream.
+ */
+
+final class ShapedInputStream extends FilterInputStream
+{
+  private final long rate;
+  private final long start;
+  private       long count;
+
+  ShapedInputStream(
+    final InputStream in_stream,
+    final ShapingConfiguration in_shaping)
+  {
+    super(NullCheck.notNull(in_stream));
+    this.rate = in_shaping.getBandwidthBytesPerSecond();
+    this.start = System.nanoTime();
+    this.count = 0L;
+  }
+
+  @Override public int read()
+    throws IOException
+  {
+    final int r = super.read();
+    if (r != -1) {
+      this.pace(1);
+    }
+    return r;
+  }
+
+  @Override public int read(
+    final byte[] b,
+    final int off,
+    final int len)
+    throws IOException
+  {
+    int want = len;
+    if (this.rate > 0L) {
+      want = (int) Math.max(1L, Math.min((long) len, this.rate / 10L));
+    }
+
+    final int r = super.read(b, off, want);
+    if (r > 0) {
+      this.pace(r);
+    }
+    return r;
+  }
+
+  private void pace(final int n)
+    throws InterruptedIOException
+  {
+    if (this.rate <= 0L) {
+      return;
+    }
+
+    this.count += (long) n;
+    final long due_ms = (this.count * 1000L) / this.rate;
+    final long elapsed_ms = (System.nanoTime() - this.start) / 1000000L;
+    if (due_ms > elapsed_ms) {
+      try {
+        Thread.sleep(due_ms - elapsed_ms);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted whilst shaped");
+      }
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package org.nypl.simplified.testing;
+
+import org.nypl.simplified.assertions.Assertions;
+
+/**
+ * Network shaping parameters used to simulate slow links.
+ */
+
+public final class ShapingConfiguration
+{
+  private final long latency_ms;
+  private final long bandwidth;
+
+  /**
+   * Construct a configuration.
+   *
+   * @param in_latency_ms The delay in milliseconds added before each response
+   * @param in_bandwidth  The maximum body transfer rate in bytes per second,
+   *                      or {@code 0} for no limit
+   */
+
+  public ShapingConfiguration(
+    final long in_latency_ms,
+    final long in_bandwidth)
+  {
+    Assertions.checkPrecondition(
+      in_latency_ms >= 0L,
+      "Latency %d must be >= 0",
+      Long.valueOf(in_latency_ms));
+    Assertions.checkPrecondition(
+      in_bandwidth >= 0L,
+      "Bandwidth %d must be >= 0",
+      Long.valueOf(in_bandwidth));
+
+    this.latency_ms = in_latency_ms;
+    this.bandwidth = in_bandwidth;
+  }
+
+  /**
+   * @return A configuration that adds no latency and no bandwidth limit
+   */
+
+  public static ShapingConfiguration unshaped()
+  {
+    return new ShapingConfiguration(0L, 0L);
+  }
+
+  /**
+   * @return The delay in milliseconds added before each response
+   */
+
+  public long getLatencyMilliseconds()
+  {
+    return this.latency_ms;
+  }
+
+  /**
+   * @return The maximum body transfer rate in bytes per second, or {@code 0}
+   * for no limit
+   */
+
+  public long getBandwidthBytesPerSecond()
+  {
+    return this.bandwidth;
+  }
+
+  /**
+   * Sleep for the configured latency.
+   *
+   * @throws InterruptedException If the calling thread is interrupted
+   */
+
+  void delay()
+    throws InterruptedException
+  {
+    if (this.latency_ms > 0L) {
+      Thread.sleep(this.latency_ms);
+    }
+  }
+}
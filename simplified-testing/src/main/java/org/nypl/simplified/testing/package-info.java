@@ -0,0 +1,6 @@
+/**
+ * Record/replay HTTP transports and a stand-in OPDS server for performance
+ * testing.
+ */
+
+@com.io7m.jnull.NonNullByDefault package org.nypl.simplified.testing;